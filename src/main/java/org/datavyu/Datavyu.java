@@ -19,6 +19,10 @@ import com.brsanthu.googleanalytics.GoogleAnalytics;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.datavyu.controllers.BatchController;
+import org.datavyu.controllers.RubyEnginePool;
+import org.datavyu.controllers.RunScriptController;
+import org.datavyu.controllers.SaveController;
 import org.datavyu.controllers.project.ProjectController;
 import org.datavyu.models.db.TitleNotifier;
 import org.datavyu.models.db.UserWarningException;
@@ -35,6 +39,7 @@ import java.awt.*;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.io.File;
+import java.util.Arrays;
 import java.util.EventObject;
 
 /**
@@ -169,6 +174,12 @@ public final class Datavyu extends SingleFrameApplication implements KeyEventDis
      * @param args The command line arguments passed to Datavyu.
      */
     public static void main(final String[] args) {
+        // Batch runs process projects without the user interface
+        if (args.length > 0 && BatchController.BATCH_OPTION.equals(args[0])) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchController.runFromCommandLine(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         // If we are running on a MAC set system properties
         if (Datavyu.getPlatform() == Platform.MAC) {
             System.setProperty("Quaqua.jniIsPreloaded", "true");
@@ -915,6 +926,8 @@ public final class Datavyu extends SingleFrameApplication implements KeyEventDis
     @Override
     protected void ready() {
         readyToOpenFile = true;
+        // Start the Ruby runtime for scripts in the background, so the first script does not wait for it
+        RubyEnginePool.getInstance().prestart();
         if (commandLineFile != null) {
             getView().openExternalFile(new File(commandLineFile));
             commandLineFile = null;
@@ -952,6 +965,11 @@ public final class Datavyu extends SingleFrameApplication implements KeyEventDis
         }
         
         
+        // Let a save that is still being written finish before the application goes away
+        SaveController.awaitPendingSaves();
+        RunScriptController.stopRSession();
+        RubyEnginePool.getInstance().shutdown();
+
         logger.info("Saving configuration properties.");
         ConfigProperties.save();
         super.shutdown();
@@ -14,31 +14,46 @@
  */
 package org.datavyu.controllers;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datavyu.Datavyu;
 import org.datavyu.controllers.project.ProjectController;
-import org.datavyu.models.db.UserWarningException;
-import org.datavyu.util.FileFilters.OpfFilter;
-import org.datavyu.util.FileFilters.ShapaFilter;
+import org.datavyu.models.db.DataStore;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Periodically saves the open project to a journal in the temporary directory, see {@link ChangeJournal}. The first
+ * save writes the whole project; later saves only append what changed. The changes are copied on the event dispatch
+ * thread and written to the journal on a background thread. The journal is deleted when Datavyu exits normally, so a
+ * journal found on start up is left from a crash and can be recovered.
+ */
 public class AutoSaveController implements ActionListener {
 
     /** Logger for this class */
-    private static Logger logger = LogManager.getLogger(DeleteColumnController.class);
+    private static Logger logger = LogManager.getLogger(AutoSaveController.class);
 
     /** Timer for this class */
     private static Timer timer;
 
-    /** File to auto save */
-    private static File file;
+    /** Journal of the project being auto saved */
+    private static ChangeJournal journal;
+
+    /** Writes and deletes journals one at a time in the order they were queued; the thread goes away when idle */
+    private static final ExecutorService JOURNAL_EXECUTOR = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, "Datavyu auto save"));
+
+    /** The last write queued, null if none */
+    private static Future<?> pendingWrite;
 
     private AutoSaveController() {}
 
@@ -48,6 +63,10 @@ public class AutoSaveController implements ActionListener {
                 timer.stop();
                 timer = null;
             }
+            if (journal != null) {
+                deleteInBackground(journal);
+                journal = null;
+            }
             return;
         }
         interval *= 60000;
@@ -67,44 +86,49 @@ public class AutoSaveController implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent evt) {
-        String baseName;
-        String ext;
+        // Changes keep being tracked, so while a write is still running they are picked up by the next save
+        if (pendingWrite != null && !pendingWrite.isDone()) {
+            return;
+        }
         try {
-            if (file != null) {
-                file.delete();
-            }
             ProjectController projController = Datavyu.getProjectController();
-            SaveController saveController = new SaveController();
-            if (projController.isNewProject() || (projController.getProjectName() == null)) {
-                baseName = "~noname_";
-                ext = ".opf";
-                file = File.createTempFile(baseName, ext);
-                saveController.saveProject(file, projController.getProject(),
-                        projController.getDataStore(), false);
-            } else {
-                if ((projController.getLastSaveOption() instanceof ShapaFilter)
-                        || (projController.getLastSaveOption()
-                        instanceof OpfFilter)) {
-                    baseName = "~" + projController.getProjectName() + "_";
-                    ext = ".opf";
-                    file = File.createTempFile(baseName, ext);
-                    saveController.saveProject(file, projController.getProject(),
-                            projController.getDataStore(), false);
-                    // Save content just as a database.
+            DataStore dataStore = projController.getDataStore();
+
+            // A different data store means another project was opened, which starts a new journal
+            if (journal == null || journal.getDataStore() != dataStore) {
+                if (journal != null) {
+                    deleteInBackground(journal);
+                }
+                String baseName;
+                if (projController.isNewProject() || (projController.getProjectName() == null)) {
+                    baseName = "~noname_";
                 } else {
-                    String filename = "~" + projController.getDatabaseFileName();
-                    baseName = FilenameUtils.getBaseName(filename) + "_";
-                    ext = "." + FilenameUtils.getExtension(filename);
-                    file = File.createTempFile(baseName, ext);
-                    saveController.saveDataStore(file, projController.getDataStore(), false);
+                    baseName = "~" + projController.getProjectName() + "_";
                 }
+                File file = File.createTempFile(baseName, ChangeJournal.EXTENSION);
+                file.deleteOnExit();
+                journal = new ChangeJournal(file, dataStore);
             }
-        } catch (UserWarningException lee) {
-            logger.error("UserWarningException: Unable to autosave.", lee);
+
+            final ChangeJournal target = journal;
+            final ChangeJournal.PendingFlush changes = target.capture(projController.getProject());
+            pendingWrite = JOURNAL_EXECUTOR.submit(() -> {
+                try {
+                    target.write(changes);
+                } catch (IOException ioe) {
+                    logger.error("IOException: Unable to autosave.", ioe);
+                }
+            });
         } catch (IOException ioe) {
             logger.error("IOException: Unable to autosave.", ioe);
-        } finally {
-            file.deleteOnExit();
         }
     }
+
+    /**
+     * Stops tracking changes for a journal and deletes its file once the writes queued before have finished.
+     */
+    private static void deleteInBackground(final ChangeJournal journal) {
+        journal.getDataStore().setChangeTracking(false);
+        JOURNAL_EXECUTOR.submit(journal::deleteFile);
+    }
 }
@@ -0,0 +1,467 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.project.Project;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.PathType;
+import org.jruby.embed.ScriptingContainer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a Ruby script and/or a built-in export over every project (.opf) in a directory tree, without the user
+ * interface.
+ *
+ * The projects are processed on a fixed pool of worker threads, one project per task. Each worker that runs scripts
+ * owns a JRuby runtime, which loads Datavyu_API.rb and parses the script once and then runs the script for every
+ * project the worker picks up, with $db, $pj and $input_file set to the project at hand. Methods and globals a
+ * script defines therefore persist from one project to the next on the same worker; local variables do not.
+ *
+ * Projects are opened without dialogs: a project that cannot be opened fails with the exception that stopped it,
+ * and the cells that could not be read and the column names that are no longer valid are listed in the report.
+ *
+ * Started from the command line through {@code Datavyu --batch}, see {@link #runFromCommandLine(String[])}.
+ */
+public final class BatchController {
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(BatchController.class);
+
+    /** The command line option that runs Datavyu as a batch runner */
+    public static final String BATCH_OPTION = "--batch";
+
+    private static final String USAGE = "Usage: datavyu --batch [--threads n] [--script file.rb] [--save]"
+            + " [--export csv|frames|cells|json|parquet] [--frame-rate fps] [--output directory] directory";
+
+    /** The built-in exports, with the suffix that replaces the .opf extension of the exported file */
+    public enum Export {
+        /** The spreadsheet as CSV, see {@link ExportDatabaseFileController#exportAsCSV} */
+        CSV(".csv"),
+        /** One row per frame, see {@link ExportDatabaseFileController#exportByFrame} */
+        FRAMES("-frames.csv"),
+        /** One row per cell ordinal, see {@link ExportDatabaseFileController#exportAsCells} */
+        CELLS("-cells.csv"),
+        /** The spreadsheet as JSON, see {@link ExportDatabaseFileController#exportAsJSON} */
+        JSON(".json"),
+        /** A directory of Parquet tables, frames included, see {@link ExportDatabaseFileController#exportAsParquet} */
+        PARQUET("-parquet");
+
+        private final String suffix;
+
+        Export(final String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    /** The outcome of processing one project */
+    public static final class Result {
+        private final File file;
+        private final long millis;
+        private final Exception exception;
+        private final int errorCount;
+        private final List<String> exemptionVariables;
+
+        Result(final File file, final long millis, final Exception exception, final int errorCount,
+               final List<String> exemptionVariables) {
+            this.file = file;
+            this.millis = millis;
+            this.exception = exception;
+            this.errorCount = errorCount;
+            this.exemptionVariables = exemptionVariables;
+        }
+
+        /**
+         * @return The project file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return The time taken to process the project in milliseconds.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return True if the project was processed without errors, false otherwise.
+         */
+        public boolean isSuccess() {
+            return exception == null;
+        }
+
+        /**
+         * @return The reason processing the project failed; null if it succeeded.
+         */
+        public String getError() {
+            if (exception == null) {
+                return null;
+            }
+            return exception.getMessage() != null ? exception.getMessage() : exception.toString();
+        }
+
+        /**
+         * @return The exception processing the project failed with; null if it succeeded.
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        /**
+         * @return The number of cells of the project that could not be read and were recovered at time 99:00:00:000
+         * or dropped.
+         */
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * @return The names of the variables of the project that are no longer valid variable names.
+         */
+        public List<String> getExemptionVariables() {
+            return exemptionVariables;
+        }
+    }
+
+    /** Number of worker threads */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Script to run on each project; null for none */
+    private File script = null;
+
+    /** Export to write for each project; null for none */
+    private Export export = null;
+
+    /** Frame rate of the frame by frame export */
+    private double frameRate = 30.0;
+
+    /** Directory to write the exports to; null to write them next to the projects */
+    private File outputDirectory = null;
+
+    /** True to save each project after running the script */
+    private boolean save = false;
+
+    /**
+     * @param threads The number of projects to process at the same time.
+     */
+    public void setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param script The Ruby script to run on each project; null to run none.
+     */
+    public void setScript(final File script) {
+        this.script = script;
+    }
+
+    /**
+     * @param export The export to write for each project, after the script has run; null to write none.
+     */
+    public void setExport(final Export export) {
+        this.export = export;
+    }
+
+    /**
+     * @param frameRate The number of frames per second of the {@link Export#FRAMES} export and of the frames table
+     *                  of the {@link Export#PARQUET} export.
+     */
+    public void setFrameRate(final double frameRate) {
+        if (!(frameRate > 0)) {
+            throw new IllegalArgumentException("Invalid frame rate");
+        }
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * @param outputDirectory The directory to write the exports to, mirroring the directory tree of the projects;
+     * null to write each export next to its project.
+     */
+    public void setOutputDirectory(final File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * @param save True to save each project in place after the script has run.
+     */
+    public void setSave(final boolean save) {
+        this.save = save;
+    }
+
+    /**
+     * Processes all projects in a directory tree.
+     *
+     * @param root The directory to search for projects.
+     * @param report Receives a line for each project as it finishes; may be null.
+     * @return The results in the order of the project paths.
+     * @throws IOException If unable to list the directory tree.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public List<Result> run(final File root, final PrintStream report) throws IOException, InterruptedException {
+        final Path rootPath = root.toPath();
+        List<File> projects;
+        try (Stream<Path> paths = Files.walk(rootPath)) {
+            projects = paths.filter(p -> Files.isRegularFile(p)
+                    && p.getFileName().toString().endsWith(".opf")
+                    && !p.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+        logger.info("Batch processing " + projects.size() + " projects in " + root + " on " + threads + " threads");
+
+        final Queue<ScriptRunner> runners = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<ScriptRunner> runner = ThreadLocal.withInitial(() -> {
+            ScriptRunner r = new ScriptRunner(script);
+            runners.add(r);
+            return r;
+        });
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, "Datavyu batch " + threadCount.incrementAndGet()));
+        List<Future<Result>> pending = new ArrayList<>();
+        try {
+            for (final File project : projects) {
+                pending.add(workers.submit(() -> {
+                    Result result = process(rootPath, project, runner);
+                    if (report != null) {
+                        synchronized (report) {
+                            report.println(format(result));
+                        }
+                    }
+                    return result;
+                }));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : pending) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // process() reports its failures as results
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            workers.shutdownNow();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+            for (ScriptRunner r : runners) {
+                r.terminate();
+            }
+        }
+    }
+
+    /**
+     * Opens a project, runs the script, writes the export and saves the project.
+     */
+    private Result process(final Path root, final File projectFile, final ThreadLocal<ScriptRunner> runner) {
+        long start = System.nanoTime();
+        Exception error = null;
+        OpenController openController = new OpenController();
+        try {
+            openController.openProjectArchiveWithoutDialogs(projectFile);
+            DataStore dataStore = openController.getDataStore();
+            Project project = openController.getProject();
+
+            if (script != null) {
+                runner.get().run(projectFile, dataStore, project);
+            }
+            if (export != null) {
+                export(root, projectFile, dataStore);
+            }
+            if (save) {
+                new SaveController().saveProject(projectFile, project, dataStore, false);
+            }
+        } catch (Exception e) {
+            logger.error("Batch processing failed for " + projectFile + ". Error: ", e);
+            error = e;
+        }
+        return new Result(projectFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error,
+                openController.getErrorCount(), openController.getExemptionVariables());
+    }
+
+    private void export(final Path root, final File projectFile, final DataStore dataStore) throws Exception {
+        File directory = projectFile.getParentFile();
+        if (outputDirectory != null) {
+            directory = outputDirectory.toPath().resolve(root.relativize(directory.toPath())).toFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+        }
+        String name = projectFile.getName();
+        String outFile = new File(directory, name.substring(0, name.length() - ".opf".length())
+                + export.suffix).getAbsolutePath();
+
+        ExportDatabaseFileController controller = new ExportDatabaseFileController();
+        switch (export) {
+            case CSV:
+                try (OutputStream out = new FileOutputStream(outFile)) {
+                    controller.exportAsCSV(out, dataStore);
+                }
+                break;
+            case FRAMES:
+                controller.exportByFrame(outFile, dataStore, frameRate);
+                break;
+            case CELLS:
+                controller.exportAsCells(outFile, dataStore);
+                break;
+            case JSON:
+                controller.exportAsJSON(outFile, dataStore);
+                break;
+            case PARQUET:
+                controller.exportAsParquet(outFile, dataStore, frameRate);
+                break;
+        }
+    }
+
+    private static String format(final Result result) {
+        String line = String.format("%-4s %8d ms  %s%s", result.isSuccess() ? "OK" : "FAIL", result.getMillis(),
+                result.getFile().getPath(), result.isSuccess() ? "" : ": " + result.getError());
+        if (result.getErrorCount() > 0) {
+            line += "; " + result.getErrorCount() + " cells could not be read";
+        }
+        if (!result.getExemptionVariables().isEmpty()) {
+            line += "; invalid column names: " + String.join(", ", result.getExemptionVariables());
+        }
+        return line;
+    }
+
+    /**
+     * The JRuby runtime of a worker thread, with the Ruby API loaded and the script parsed.
+     */
+    private static final class ScriptRunner {
+        private final ScriptingContainer container;
+        private final EmbedEvalUnit unit;
+
+        ScriptRunner(final File script) {
+            container = RubyEnginePool.newEngine();
+            unit = container.parse(PathType.ABSOLUTE, script.getAbsolutePath());
+        }
+
+        /**
+         * Runs the script on a project; the output of the script is logged once it has finished.
+         */
+        void run(final File projectFile, final DataStore dataStore, final Project project) {
+            StringWriter output = new StringWriter();
+            container.setWriter(output);
+            container.setErrorWriter(output);
+            container.put("$db", dataStore);
+            container.put("$pj", project);
+            container.put("$input_file", projectFile.getAbsolutePath());
+            try {
+                unit.run();
+            } finally {
+                if (output.getBuffer().length() > 0) {
+                    logger.info("Output of the script for " + projectFile + ":\n" + output);
+                }
+            }
+        }
+
+        void terminate() {
+            container.terminate();
+        }
+    }
+
+    /**
+     * Runs the batch runner from the command line, see {@link #USAGE}.
+     *
+     * @param args The command line arguments, without {@link #BATCH_OPTION}.
+     * @return The exit status: 0 if all projects succeeded, 1 if any failed and 2 for invalid arguments.
+     */
+    public static int runFromCommandLine(final String[] args) {
+        BatchController controller = new BatchController();
+        File root = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        controller.setThreads(Integer.parseInt(args[++i]));
+                        break;
+                    case "--script":
+                        controller.setScript(new File(args[++i]));
+                        break;
+                    case "--save":
+                        controller.setSave(true);
+                        break;
+                    case "--export":
+                        controller.setExport(Export.valueOf(args[++i].toUpperCase()));
+                        break;
+                    case "--frame-rate":
+                        controller.setFrameRate(Double.parseDouble(args[++i]));
+                        break;
+                    case "--output":
+                        controller.setOutputDirectory(new File(args[++i]));
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || root != null) {
+                            throw new IllegalArgumentException("Unknown argument " + args[i]);
+                        }
+                        root = new File(args[i]);
+                }
+            }
+            if (root == null || !root.isDirectory()) {
+                throw new IllegalArgumentException("No directory to process");
+            }
+            if (controller.script == null && controller.export == null && !controller.save) {
+                throw new IllegalArgumentException("Nothing to do; give a script, an export or --save");
+            }
+            if (controller.script != null && !controller.script.isFile()) {
+                throw new IllegalArgumentException("Script not found: " + controller.script);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException
+                    ? "Missing value of an argument" : e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        try {
+            long start = System.nanoTime();
+            List<Result> results = controller.run(root, System.out);
+            long failed = results.stream().filter(r -> !r.isSuccess()).count();
+            System.out.println(String.format("%d projects, %d failed, %d ms", results.size(), failed,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return failed == 0 ? 0 : 1;
+        } catch (IOException | InterruptedException e) {
+            logger.error("Batch processing failed. Error: ", e);
+            System.err.println("Batch processing failed: " + e.getMessage());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads the binary data store format written by {@link BinaryDataStoreWriter}.
+ *
+ * The file is memory mapped rather than read through a stream. The directory at the end of the file gives the
+ * position of each variable block, so the variables are created in file order and then their blocks are decoded
+ * independently on the fork-join pool, each from its own view of the mapped buffer. Onsets, offsets and codes are
+ * copied out in bulk, each distinct value is decoded once per column, and the cells are built through
+ * {@link Variable#loadCells} without firing listeners.
+ */
+final class BinaryDataStoreReader {
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(BinaryDataStoreReader.class);
+
+    /**
+     * Reads a data store.
+     *
+     * @param file The file to read.
+     * @param dataStore The empty data store to populate.
+     * @throws IOException If unable to read the file or the file is not in the binary data store format.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    void read(final File file, final DataStore dataStore) throws IOException, UserWarningException {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large for the binary data store format: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        read(buffer, dataStore);
+    }
+
+    /**
+     * Reads a data store from a buffer holding the content of a file.
+     *
+     * @param buffer The buffer to read; its position and limit are not changed.
+     * @param dataStore The empty data store to populate.
+     * @throws IOException If the buffer is not in the binary data store format.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    void read(final ByteBuffer buffer, final DataStore dataStore) throws IOException, UserWarningException {
+        final ByteBuffer in = buffer.duplicate();
+        int size = in.remaining();
+        if (size < BinaryDataStoreWriter.HEADER_SIZE + BinaryDataStoreWriter.TRAILER_SIZE
+                || in.getInt(0) != BinaryDataStoreWriter.MAGIC) {
+            throw new IOException("Not a binary data store");
+        }
+        int version = in.getInt(4);
+        if (version > BinaryDataStoreWriter.VERSION) {
+            throw new IOException("Unsupported binary data store version: " + version);
+        }
+
+        final List<Variable> variables = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        try {
+            in.position((int) in.getLong(size - BinaryDataStoreWriter.TRAILER_SIZE));
+            int count = in.getInt();
+            int orderIndex = 0;
+            for (int i = 0; i < count; i++) {
+                int position = (int) in.getLong();
+                ByteBuffer block = in.duplicate();
+                block.position(position);
+                Variable variable = createVariable(block, dataStore);
+                variable.setOrderIndex(orderIndex++);
+                variables.add(variable);
+                positions.add(block.position());
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            throw new IOException("Corrupt binary data store", e);
+        }
+
+        List<RecursiveAction> tasks = new ArrayList<>(variables.size());
+        for (int i = 0; i < variables.size(); i++) {
+            final Variable variable = variables.get(i);
+            final ByteBuffer block = in.duplicate();
+            block.position(positions.get(i));
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    load(block, variable);
+                }
+            });
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            throw new IOException("Corrupt binary data store", e);
+        }
+
+        if (!variables.isEmpty()) {
+            dataStore.markAsChanged();
+        }
+        logger.info("Read " + variables.size() + " variables from binary data store");
+    }
+
+    /**
+     * Creates the variable described by the start of a block and leaves the block positioned at its cells.
+     */
+    private static Variable createVariable(final ByteBuffer block, final DataStore dataStore)
+            throws UserWarningException {
+        String name = readString(block);
+        Argument.Type type = Argument.Type.valueOf(readString(block));
+        boolean hidden = block.get() != 0;
+
+        Variable variable = dataStore.createVariable(name, type, true);
+        variable.setHidden(hidden);
+
+        int arguments = block.getInt();
+        if (type == Argument.Type.MATRIX) {
+            Argument root = variable.getRootNode();
+            root.clearChildArguments();
+            for (int i = 0; i < arguments; i++) {
+                String argumentName = readString(block);
+                root.childArguments.add(new Argument(argumentName, Argument.Type.valueOf(readString(block))));
+            }
+            variable.setRootNode(root);
+        }
+        return variable;
+    }
+
+    /**
+     * Decodes the cells of a block, which is positioned at its cell count, and loads them into the variable.
+     */
+    private static void load(final ByteBuffer block, final Variable variable) {
+        int count = block.getInt();
+        if (count == 0) {
+            return;
+        }
+        long[] onsets = new long[count];
+        long[] offsets = new long[count];
+        block.asLongBuffer().get(onsets);
+        block.position(block.position() + count * 8);
+        block.asLongBuffer().get(offsets);
+        block.position(block.position() + count * 8);
+
+        Argument root = variable.getRootNode();
+        int columns = root.type == Argument.Type.MATRIX ? root.childArguments.size() : 1;
+        String[][] values = new String[count][columns];
+        int[] codes = new int[count];
+        for (int column = 0; column < columns; column++) {
+            String[] dictionary = readDictionary(block);
+            block.asIntBuffer().get(codes);
+            block.position(block.position() + count * 4);
+            for (int row = 0; row < count; row++) {
+                values[row][column] = dictionary[codes[row]];
+            }
+        }
+        variable.loadCells(count, onsets, offsets, values);
+    }
+
+    /**
+     * @return The values of a column by code, with the empty value at code 0.
+     */
+    private static String[] readDictionary(final ByteBuffer block) {
+        int entries = block.getInt();
+        int[] offsets = new int[entries + 1];
+        block.asIntBuffer().get(offsets);
+        block.position(block.position() + offsets.length * 4);
+        byte[] bytes = new byte[offsets[entries]];
+        block.get(bytes);
+
+        String[] result = new String[entries + 1];
+        result[0] = "";
+        for (int i = 0; i < entries; i++) {
+            result[i + 1] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static String readString(final ByteBuffer block) {
+        byte[] bytes = new byte[block.getInt()];
+        block.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
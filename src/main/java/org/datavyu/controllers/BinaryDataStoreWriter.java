@@ -0,0 +1,163 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes a data store in the binary data store format (*.dvdb).
+ *
+ * All numbers are big endian. A file is laid out as
+ * <pre>
+ *   header     magic "DVDB", int version
+ *   blocks     one block per variable, see below
+ *   directory  int variable count, long file offset of each block
+ *   trailer    long file offset of the directory
+ * </pre>
+ * and each variable block as
+ * <pre>
+ *   string name, string type, boolean hidden
+ *   int argument count, then string name and string type of each matrix argument
+ *   int cell count n, long[n] onsets, long[n] offsets
+ *   one column per matrix argument (one column for text and nominal variables):
+ *     int entry count m, int[m + 1] offsets into the UTF-8 bytes of the entries, the bytes, int[n] codes
+ * </pre>
+ * Strings are an int byte count followed by UTF-8 bytes. Code 0 of a column is the empty value and code i > 0 is
+ * entry i - 1. Values are stored unescaped, so no parsing is needed when reading them back.
+ */
+final class BinaryDataStoreWriter {
+
+    /** File name extension of the format */
+    static final String EXTENSION = ".dvdb";
+
+    /** Magic number at the start of every file, "DVDB" */
+    static final int MAGIC = 0x44564442;
+
+    /** The version of the format written */
+    static final int VERSION = 1;
+
+    /** Size of the header in bytes */
+    static final int HEADER_SIZE = 8;
+
+    /** Size of the trailer in bytes */
+    static final int TRAILER_SIZE = 8;
+
+    /** The stream being written */
+    private DataOutputStream out;
+
+    /**
+     * Writes a data store.
+     *
+     * @param outputStream The stream to write to; the caller closes it.
+     * @param dataStore The data store to write.
+     * @throws IOException If unable to write to the stream.
+     */
+    void write(final OutputStream outputStream, final DataStore dataStore) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(outputStream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        List<Variable> variables = dataStore.getAllVariables();
+        long[] positions = new long[variables.size()];
+        for (int i = 0; i < variables.size(); i++) {
+            positions[i] = position();
+            writeVariable(variables.get(i));
+        }
+
+        long directory = position();
+        out.writeInt(positions.length);
+        for (long position : positions) {
+            out.writeLong(position);
+        }
+        out.writeLong(directory);
+        out.flush();
+        out = null;
+    }
+
+    private void writeVariable(final Variable variable) throws IOException {
+        Argument root = variable.getRootNode();
+        boolean matrix = root.type == Argument.Type.MATRIX;
+        List<Argument> arguments = matrix ? root.childArguments : null;
+
+        writeString(variable.getName());
+        writeString(root.type.name());
+        out.writeBoolean(variable.isHidden());
+        out.writeInt(matrix ? arguments.size() : 0);
+        if (matrix) {
+            for (Argument argument : arguments) {
+                writeString(argument.name);
+                writeString(argument.type.name());
+            }
+        }
+
+        List<Cell> cells = variable.getCells();
+        out.writeInt(cells.size());
+        for (Cell cell : cells) {
+            out.writeLong(cell.getOnset());
+        }
+        for (Cell cell : cells) {
+            out.writeLong(cell.getOffset());
+        }
+
+        int columns = matrix ? arguments.size() : 1;
+        int[] codes = new int[cells.size()];
+        for (int column = 0; column < columns; column++) {
+            ValueDictionary dictionary = new ValueDictionary();
+            for (int row = 0; row < codes.length; row++) {
+                Cell cell = cells.get(row);
+                CellValue value = matrix ? cell.getMatrixValue(column) : cell.getCellValue();
+                codes[row] = dictionary.encode(value.toString());
+            }
+            writeDictionary(dictionary);
+            for (int code : codes) {
+                out.writeInt(code);
+            }
+        }
+    }
+
+    private void writeDictionary(final ValueDictionary dictionary) throws IOException {
+        int entries = dictionary.size() - 1;
+        byte[][] bytes = new byte[entries][];
+        int offset = 0;
+        out.writeInt(entries);
+        out.writeInt(offset);
+        for (int i = 0; i < entries; i++) {
+            bytes[i] = dictionary.decode(i + 1).getBytes(StandardCharsets.UTF_8);
+            offset += bytes[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] entry : bytes) {
+            out.write(entry);
+        }
+    }
+
+    private void writeString(final String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private long position() throws IOException {
+        // DataOutputStream counts in an int which saturates, and a file larger than that can not be mapped either
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Data store is too large for the binary format");
+        }
+        return out.size();
+    }
+}
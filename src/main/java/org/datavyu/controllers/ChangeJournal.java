@@ -0,0 +1,693 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.*;
+import org.datavyu.models.project.Project;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An append-only journal of the changes to a project, used for auto saving.
+ *
+ * The journal starts with a full snapshot of the project and the data store. Every flush then appends only what
+ * changed since the previous flush: the project settings if they differ, the variables that were added, removed or
+ * changed, and the cells that the data store reports through {@link DataStore#drainChanges()}. Records are
+ * idempotent upserts and removals keyed by variable and cell id, and each flush ends with a commit record, so a
+ * flush that was cut short by a crash is ignored on recovery. Once the appended changes outgrow the snapshot, the
+ * next flush writes a new snapshot to a temporary file and renames it over the journal.
+ *
+ * A flush has two steps so that the file is not written on the thread that edits the data store: {@link #capture}
+ * copies the changes on that thread, encoding just the changed records or taking a {@link DataStoreSnapshot}, and
+ * {@link #write} writes them to the file from any thread. {@link #flush} does both.
+ *
+ * {@link #recover} replays a journal into a project file.
+ */
+public final class ChangeJournal {
+
+    /** File name extension of journals */
+    public static final String EXTENSION = ".dvj";
+
+    /** Magic number at the start of every journal, "DVJL" */
+    private static final int MAGIC = 0x44564A4C;
+
+    /** The version of the format written */
+    private static final int VERSION = 1;
+
+    /** Journals are not compacted before they reach this size, in bytes */
+    private static final long MIN_COMPACT_SIZE = 1 << 20;
+
+    /** Record holding the project settings */
+    private static final byte PROJECT = 1;
+
+    /** Record holding a variable and its arguments */
+    private static final byte VARIABLE = 2;
+
+    /** Record holding the key of a removed variable */
+    private static final byte VARIABLE_REMOVED = 3;
+
+    /** Record holding a cell */
+    private static final byte CELL = 4;
+
+    /** Record holding the id of a removed cell */
+    private static final byte CELL_REMOVED = 5;
+
+    /** Record ending a flush */
+    private static final byte COMMIT = 6;
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(ChangeJournal.class);
+
+    /**
+     * The changes of one flush, captured by {@link #capture} and written by {@link #write}: either the records to
+     * append or a new snapshot.
+     */
+    public static final class PendingFlush {
+
+        /** The records to append, ending with a commit record if there are any; null for a snapshot */
+        private final byte[] records;
+
+        /** The project settings of a snapshot; null if there is no project */
+        private final String projectSettings;
+
+        /** The keys of the variables of a snapshot, in the order of the snapshot */
+        private final int[] keys;
+
+        /** The data store of a snapshot */
+        private final DataStoreSnapshot snapshot;
+
+        private PendingFlush(final byte[] records,
+                             final String projectSettings,
+                             final int[] keys,
+                             final DataStoreSnapshot snapshot) {
+            this.records = records;
+            this.projectSettings = projectSettings;
+            this.keys = keys;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * @return True if the flush writes a new snapshot, false if it appends changes.
+         */
+        public boolean isSnapshot() {
+            return records == null;
+        }
+    }
+
+    /** The journal file */
+    private final File file;
+
+    /** The data store whose changes are journaled */
+    private final DataStore dataStore;
+
+    // Captured state, guarded by this journal
+
+    /** Keys of the journaled variables */
+    private final Map<Variable, Integer> keys = new IdentityHashMap<>();
+
+    /** Last journaled name, type, visibility and position of each variable */
+    private final Map<Variable, String> headers = new IdentityHashMap<>();
+
+    /** Last journaled arguments of each variable */
+    private final Map<Variable, String> arguments = new IdentityHashMap<>();
+
+    /** Next variable key to hand out */
+    private int nextKey = 0;
+
+    /** Last journaled project settings */
+    private String projectSettings = null;
+
+    /** Number of bytes of records captured since the last snapshot */
+    private long appended = 0;
+
+    // Written state, guarded by writeLock
+
+    /** Guards the journal file, which is written without holding the lock of this journal */
+    private final Object writeLock = new Object();
+
+    /** Stream appending to the journal file; null until the first snapshot is written */
+    private DataOutputStream out = null;
+
+    /** The file stream under out, used to sync the file */
+    private FileOutputStream fileOut = null;
+
+    /** Size of the last snapshot in bytes */
+    private volatile long snapshotSize = 0;
+
+    /** True if the next flush must write a snapshot, e.g. because writing the previous one failed */
+    private volatile boolean needsSnapshot = true;
+
+    /**
+     * Constructor. Starts tracking the changes of the data store; nothing is written until the first flush.
+     *
+     * @param file The journal file to write.
+     * @param dataStore The data store to journal.
+     */
+    public ChangeJournal(final File file, final DataStore dataStore) {
+        this.file = file;
+        this.dataStore = dataStore;
+        dataStore.setChangeTracking(true);
+    }
+
+    /**
+     * @return The journal file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The data store whose changes are journaled.
+     */
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * Writes the changes since the last flush to the journal on the calling thread, see {@link #capture} and
+     * {@link #write}.
+     *
+     * @param project The project of the data store.
+     * @throws IOException If unable to write the journal.
+     */
+    public void flush(final Project project) throws IOException {
+        write(capture(project));
+    }
+
+    /**
+     * Copies the changes since the last capture. The first capture, the first after a failed write and the first
+     * after the journal has grown to more than twice its last snapshot take a new snapshot instead. Call this on the
+     * thread that edits the data store; only the records of the changes are encoded here.
+     *
+     * @param project The project of the data store.
+     * @return The changes, to be written with {@link #write} in the order they were captured.
+     * @throws IOException If unable to encode the project settings.
+     */
+    public synchronized PendingFlush capture(final Project project) throws IOException {
+        if (needsSnapshot || (snapshotSize + appended > MIN_COMPACT_SIZE && appended > snapshotSize)) {
+            return captureSnapshot(project);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(bytes);
+        boolean written = false;
+        String settings = projectSettings(project);
+        if (settings != null && !settings.equals(projectSettings)) {
+            writeProject(records, settings);
+            projectSettings = settings;
+            written = true;
+        }
+
+        List<Variable> variables = dataStore.getAllVariables();
+        Set<Variable> current = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+        current.addAll(variables);
+        for (Iterator<Map.Entry<Variable, Integer>> it = keys.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Variable, Integer> entry = it.next();
+            if (!current.contains(entry.getKey())) {
+                records.writeByte(VARIABLE_REMOVED);
+                records.writeInt(entry.getValue());
+                headers.remove(entry.getKey());
+                arguments.remove(entry.getKey());
+                it.remove();
+                written = true;
+            }
+        }
+
+        // New variables and variables whose arguments changed are written with all their cells, since the values of
+        // the cells are stored by argument position
+        Set<Variable> rewritten = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+        for (int i = 0; i < variables.size(); i++) {
+            Variable variable = variables.get(i);
+            String oldArguments = arguments.get(variable);
+            if (track(variable, i)) {
+                written = true;
+                writeVariable(records, keys.get(variable), variable.getName(), variable.getRootNode().type,
+                        variable.isHidden(), i, variable.getRootNode().childArguments);
+                if (oldArguments == null || !oldArguments.equals(arguments.get(variable))) {
+                    rewritten.add(variable);
+                    for (Cell cell : variable.getCells()) {
+                        writeCell(records, cell);
+                    }
+                }
+            }
+        }
+
+        for (VariableChange change : dataStore.drainChanges()) {
+            Variable variable = change.getVariable();
+            Integer key = keys.get(variable);
+            if (key == null) {
+                continue;
+            }
+            for (Cell cell : change.getRemoved()) {
+                records.writeByte(CELL_REMOVED);
+                records.writeInt(key);
+                records.writeUTF(cell.getCellId());
+                written = true;
+            }
+            if (rewritten.contains(variable)) {
+                continue;
+            }
+            for (Cell cell : change.getInserted()) {
+                writeCell(records, cell);
+                written = true;
+            }
+            for (Cell cell : change.getChanged()) {
+                writeCell(records, cell);
+                written = true;
+            }
+        }
+
+        if (written) {
+            records.writeByte(COMMIT);
+        }
+        records.flush();
+        appended += bytes.size();
+        return new PendingFlush(bytes.toByteArray(), null, null, null);
+    }
+
+    /**
+     * Starts over with a snapshot of the project settings and the data store.
+     */
+    private PendingFlush captureSnapshot(final Project project) throws IOException {
+        dataStore.setChangeTracking(true);
+        // The snapshot holds the current state, which includes all the recorded changes
+        dataStore.drainChanges();
+        keys.clear();
+        headers.clear();
+        arguments.clear();
+        projectSettings = projectSettings(project);
+        appended = 0;
+        needsSnapshot = false;
+
+        List<Variable> variables = dataStore.getAllVariables();
+        int[] variableKeys = new int[variables.size()];
+        for (int i = 0; i < variables.size(); i++) {
+            track(variables.get(i), i);
+            variableKeys[i] = keys.get(variables.get(i));
+        }
+        return new PendingFlush(null, projectSettings, variableKeys, DataStoreSnapshot.of(dataStore));
+    }
+
+    /**
+     * Writes captured changes to the journal. Changes must be written in the order they were captured, one at a time;
+     * this may be done on any thread. Appended changes are dropped if writing an earlier capture failed, since the
+     * next capture takes a new snapshot.
+     *
+     * @param pending The changes to write.
+     * @throws IOException If unable to write the journal.
+     */
+    public void write(final PendingFlush pending) throws IOException {
+        synchronized (writeLock) {
+            if (pending.isSnapshot()) {
+                writeSnapshot(pending);
+                return;
+            }
+            if (out == null || pending.records.length == 0) {
+                return;
+            }
+            try {
+                out.write(pending.records);
+                out.flush();
+                fileOut.getFD().sync();
+            } catch (IOException e) {
+                // A partly written flush must not be followed by more records, start over with a snapshot next time
+                needsSnapshot = true;
+                closeFile();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops journaling and closes the journal file. Waits for a write in progress.
+     */
+    public void close() {
+        dataStore.setChangeTracking(false);
+        synchronized (writeLock) {
+            closeFile();
+        }
+    }
+
+    /**
+     * Stops journaling and deletes the journal file. Waits for a write in progress.
+     */
+    public void delete() {
+        dataStore.setChangeTracking(false);
+        deleteFile();
+    }
+
+    /**
+     * Closes and deletes the journal file, leaving the change tracking of the data store as it is, e.g. to a journal
+     * that replaces this one. Waits for a write in progress.
+     */
+    void deleteFile() {
+        synchronized (writeLock) {
+            closeFile();
+            if (file.exists() && !file.delete()) {
+                logger.error("Unable to delete journal: '" + file.getAbsolutePath() + "'.");
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Unable to close journal: '" + file.getAbsolutePath() + "'. Error: ", e);
+            }
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and replaces the journal with it.
+     */
+    private void writeSnapshot(final PendingFlush pending) throws IOException {
+        closeFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                DataOutputStream snapshotOut = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+                snapshotOut.writeInt(MAGIC);
+                snapshotOut.writeInt(VERSION);
+                if (pending.projectSettings != null) {
+                    writeProject(snapshotOut, pending.projectSettings);
+                }
+                List<ColumnSnapshot> columns = pending.snapshot.getColumns();
+                for (int i = 0; i < columns.size(); i++) {
+                    ColumnSnapshot column = columns.get(i);
+                    writeVariable(snapshotOut, pending.keys[i], column.getName(), column.getType(), column.isHidden(),
+                            i, column.getArguments());
+                }
+                for (int i = 0; i < columns.size(); i++) {
+                    writeCells(snapshotOut, pending.keys[i], columns.get(i));
+                }
+                snapshotOut.writeByte(COMMIT);
+                snapshotOut.flush();
+                fos.getFD().sync();
+            }
+
+            SaveController.replace(temp, file);
+            snapshotSize = file.length();
+            fileOut = new FileOutputStream(file, true);
+        } catch (IOException e) {
+            needsSnapshot = true;
+            throw e;
+        }
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        logger.info("Wrote snapshot of " + snapshotSize + " bytes to journal: '" + file.getAbsolutePath() + "'.");
+    }
+
+    private static void writeCells(final DataOutputStream out, final int key, final ColumnSnapshot column)
+            throws IOException {
+        String[][] values = new String[column.getColumnCount()][];
+        for (int c = 0; c < values.length; c++) {
+            values[c] = column.getValues(c);
+        }
+        for (int row = 0; row < column.size(); row++) {
+            out.writeByte(CELL);
+            out.writeInt(key);
+            out.writeUTF(column.getCellId(row));
+            out.writeLong(column.getOnset(row));
+            out.writeLong(column.getOffset(row));
+            out.writeInt(values.length);
+            for (String[] value : values) {
+                writeString(out, value[row]);
+            }
+        }
+    }
+
+    /**
+     * @return The project settings as saved in a project file; null if there is no project.
+     */
+    private static String projectSettings(final Project project) throws IOException {
+        if (project == null) {
+            return null;
+        }
+        ByteArrayOutputStream settings = new ByteArrayOutputStream();
+        new SaveProjectFileController().save(settings, project);
+        return settings.toString("UTF-8");
+    }
+
+    private static void writeProject(final DataOutputStream out, final String settings) throws IOException {
+        out.writeByte(PROJECT);
+        writeString(out, settings);
+    }
+
+    /**
+     * Notes the name, type, visibility, position and arguments of a variable, giving it a key if it is new.
+     *
+     * @return True if the variable is new or any of these changed, false otherwise.
+     */
+    private boolean track(final Variable variable, final int position) {
+        Argument root = variable.getRootNode();
+        String header = variable.getName() + '\0' + root.type + '\0' + variable.isHidden() + '\0' + position;
+        StringBuilder argumentList = new StringBuilder();
+        if (root.type == Argument.Type.MATRIX) {
+            for (Argument argument : root.childArguments) {
+                argumentList.append(argument.name).append('\0').append(argument.type).append('\0');
+            }
+        }
+        if (header.equals(headers.get(variable)) && argumentList.toString().equals(arguments.get(variable))) {
+            return false;
+        }
+
+        if (!keys.containsKey(variable)) {
+            keys.put(variable, nextKey++);
+        }
+        headers.put(variable, header);
+        arguments.put(variable, argumentList.toString());
+        return true;
+    }
+
+    private static void writeVariable(final DataOutputStream out,
+                                      final int key,
+                                      final String name,
+                                      final Argument.Type type,
+                                      final boolean hidden,
+                                      final int position,
+                                      final List<Argument> matrixArguments) throws IOException {
+        out.writeByte(VARIABLE);
+        out.writeInt(key);
+        writeString(out, name);
+        out.writeUTF(type.name());
+        out.writeBoolean(hidden);
+        out.writeInt(position);
+        if (type == Argument.Type.MATRIX) {
+            out.writeInt(matrixArguments.size());
+            for (Argument argument : matrixArguments) {
+                writeString(out, argument.name);
+                out.writeUTF(argument.type.name());
+            }
+        } else {
+            out.writeInt(0);
+        }
+    }
+
+    private void writeCell(final DataOutputStream out, final Cell cell) throws IOException {
+        Variable variable = cell.getVariable();
+        boolean matrix = variable.getRootNode().type == Argument.Type.MATRIX;
+        int count = matrix ? variable.getRootNode().childArguments.size() : 1;
+
+        out.writeByte(CELL);
+        out.writeInt(keys.get(variable));
+        out.writeUTF(cell.getCellId());
+        out.writeLong(cell.getOnset());
+        out.writeLong(cell.getOffset());
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            writeString(out, (matrix ? cell.getMatrixValue(i) : cell.getCellValue()).toString());
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in, final long limit) throws IOException {
+        byte[] bytes = new byte[readCount(in, limit)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a count, which can not be larger than the journal, so that a count read from garbage does not allocate
+     * an array of gigabytes.
+     */
+    private static int readCount(final DataInputStream in, final long limit) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("Invalid count in journal: " + count);
+        }
+        return count;
+    }
+
+    /** A journaled variable */
+    private static final class JournaledVariable {
+        String name;
+        Argument.Type type;
+        boolean hidden;
+        int position;
+        List<Argument> arguments = new ArrayList<>();
+        Map<String, JournaledCell> cells = new LinkedHashMap<>();
+    }
+
+    /** A journaled cell */
+    private static final class JournaledCell {
+        long onset;
+        long offset;
+        String[] values;
+    }
+
+    /**
+     * Replays a journal and saves the recovered project and data store as a project file. Changes of a flush that
+     * was not committed, e.g. because of a crash while writing it, are dropped.
+     *
+     * @param journalFile The journal to replay.
+     * @param projectFile The project file to write.
+     * @throws IOException If the journal can not be read.
+     * @throws UserWarningException If unable to create the variables or save the project.
+     */
+    public static void recover(final File journalFile, final File projectFile)
+            throws IOException, UserWarningException {
+        final String[] settings = new String[1];
+        final Map<Integer, JournaledVariable> variables = new HashMap<>();
+
+        final long limit = journalFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal: " + journalFile);
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("Unsupported journal version: " + version);
+            }
+
+            // The records of a flush are applied when its commit record is read. Whatever can not be read after the
+            // last commit record is the flush a crash cut short, be it truncated or garbage, and is dropped.
+            List<Runnable> pending = new ArrayList<>();
+            try {
+                while (true) {
+                    int tag = in.read();
+                    if (tag == -1) {
+                        break;
+                    }
+                    if (tag == PROJECT) {
+                        final String value = readString(in, limit);
+                        pending.add(() -> settings[0] = value);
+                    } else if (tag == VARIABLE) {
+                        final int key = in.readInt();
+                        final JournaledVariable read = new JournaledVariable();
+                        read.name = readString(in, limit);
+                        read.type = Argument.Type.valueOf(in.readUTF());
+                        read.hidden = in.readBoolean();
+                        read.position = in.readInt();
+                        int count = readCount(in, limit);
+                        for (int i = 0; i < count; i++) {
+                            String name = readString(in, limit);
+                            read.arguments.add(new Argument(name, Argument.Type.valueOf(in.readUTF())));
+                        }
+                        pending.add(() -> {
+                            JournaledVariable variable = variables.get(key);
+                            if (variable != null) {
+                                read.cells = variable.cells;
+                            }
+                            variables.put(key, read);
+                        });
+                    } else if (tag == VARIABLE_REMOVED) {
+                        final int key = in.readInt();
+                        pending.add(() -> variables.remove(key));
+                    } else if (tag == CELL) {
+                        final int key = in.readInt();
+                        final String id = in.readUTF();
+                        final JournaledCell cell = new JournaledCell();
+                        cell.onset = in.readLong();
+                        cell.offset = in.readLong();
+                        cell.values = new String[readCount(in, limit)];
+                        for (int i = 0; i < cell.values.length; i++) {
+                            cell.values[i] = readString(in, limit);
+                        }
+                        pending.add(() -> {
+                            JournaledVariable variable = variables.get(key);
+                            if (variable != null) {
+                                variable.cells.put(id, cell);
+                            }
+                        });
+                    } else if (tag == CELL_REMOVED) {
+                        final int key = in.readInt();
+                        final String id = in.readUTF();
+                        pending.add(() -> {
+                            JournaledVariable variable = variables.get(key);
+                            if (variable != null) {
+                                variable.cells.remove(id);
+                            }
+                        });
+                    } else if (tag == COMMIT) {
+                        for (Runnable record : pending) {
+                            record.run();
+                        }
+                        pending.clear();
+                    } else {
+                        throw new IOException("Unknown journal record: " + tag);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Dropping uncommitted changes at the end of journal: '" + journalFile + "'.", e);
+            }
+        }
+
+        List<JournaledVariable> ordered = new ArrayList<>(variables.values());
+        ordered.sort(Comparator.comparingInt(v -> v.position));
+
+        DataStore recovered = DataStoreFactory.newDataStore();
+        for (int i = 0; i < ordered.size(); i++) {
+            JournaledVariable journaled = ordered.get(i);
+            Variable variable = recovered.createVariable(journaled.name, journaled.type, true);
+            variable.setHidden(journaled.hidden);
+            variable.setOrderIndex(i);
+            if (journaled.type == Argument.Type.MATRIX) {
+                Argument root = variable.getRootNode();
+                root.clearChildArguments();
+                root.childArguments.addAll(journaled.arguments);
+                variable.setRootNode(root);
+            }
+
+            int count = journaled.cells.size();
+            long[] onsets = new long[count];
+            long[] offsets = new long[count];
+            String[][] values = new String[count][];
+            int row = 0;
+            for (JournaledCell cell : journaled.cells.values()) {
+                onsets[row] = cell.onset;
+                offsets[row] = cell.offset;
+                values[row++] = cell.values;
+            }
+            variable.loadCells(count, onsets, offsets, values);
+        }
+
+        Project project = settings[0] == null ? new Project()
+                : new OpenProjectFileController().open(new ByteArrayInputStream(
+                        settings[0].getBytes(StandardCharsets.UTF_8)));
+        new SaveController().saveProject(projectFile, project, recovered, false);
+    }
+}
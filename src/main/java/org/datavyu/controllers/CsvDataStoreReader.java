@@ -0,0 +1,563 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the CSV data store format (the "db" entry of an OPF file) in a single pass over a character buffer.
+ *
+ * The whole input is read into a char[] first. A sequential scan then finds the variable headers and the range of
+ * lines holding the cells of each variable, and creates the variables in file order. The cells of the variables are
+ * independent of each other, so they are then tokenized and loaded on the fork-join pool, one task per variable,
+ * through {@link Variable#loadCells} which builds them in bulk without firing listeners.
+ *
+ * Tokenizing follows the escaping of {@link org.datavyu.util.StringUtils#escapeCSVArgument}: a backslash escapes the
+ * next character and a backslash at the end of a line continues the value on the next line.
+ */
+final class CsvDataStoreReader {
+
+    /** Onset and offset used for lines that could not be read, i.e. 99:00:00:000 */
+    private static final long CORRUPT_TIME = 99L * 60 * 60 * 1000;
+
+    /** Name of MacSHAPA query variables, which are skipped */
+    private static final String QUERY_VARIABLE = "###QueryVar###";
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(CsvDataStoreReader.class);
+
+    /** A variable header and the range of the buffer that holds its cells */
+    private static final class Section {
+        final String header;
+        Variable variable;
+        int start;
+        int end;
+        int rows;
+
+        Section(String header) {
+            this.header = header;
+        }
+    }
+
+    /** The content of the file */
+    private char[] buffer;
+
+    /** The number of characters in the buffer */
+    private int length;
+
+    /** The file format version, e.g. "#4" */
+    private String version;
+
+    /** The number of cells that could not be read */
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    /**
+     * Reads a data store.
+     *
+     * @param reader The reader to read the data store from; the caller closes it.
+     * @param dataStore The empty data store to populate.
+     * @throws IOException If unable to read from the reader.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    void read(final Reader reader, final DataStore dataStore) throws IOException, UserWarningException {
+        fill(reader);
+
+        int pos = 0;
+        int end = lineEnd(0);
+        String first = new String(buffer, 0, end);
+        if ("#4".equalsIgnoreCase(first) || "#3".equalsIgnoreCase(first) || "#2".equalsIgnoreCase(first)) {
+            version = first;
+            pos = nextLine(end);
+        } else {
+            // Use the original schema to load the file - just variables
+            version = "#2";
+        }
+
+        final List<Section> sections = scan(pos);
+
+        int orderIndex = 0;
+        for (Section section : sections) {
+            section.variable = createVariable(section.header, dataStore);
+            if (section.variable != null) {
+                section.variable.setOrderIndex(orderIndex++);
+            }
+        }
+
+        List<RecursiveAction> tasks = new ArrayList<>(sections.size());
+        for (final Section section : sections) {
+            if (section.variable != null && section.rows > 0) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        load(section);
+                    }
+                });
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        if (!tasks.isEmpty()) {
+            dataStore.markAsChanged();
+        }
+        buffer = null;
+    }
+
+    /**
+     * @return The file format version that was read, e.g. "#4".
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of cells that could not be read and were recovered at time 99:00:00:000 or dropped.
+     */
+    int getErrorCount() {
+        return errorCount.get();
+    }
+
+    private void fill(final Reader reader) throws IOException {
+        buffer = new char[1 << 16];
+        length = 0;
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+    }
+
+    /**
+     * @return The position of the line terminator (or end of buffer) of the line starting at pos.
+     */
+    private int lineEnd(int pos) {
+        while (pos < length && buffer[pos] != '\n' && buffer[pos] != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return The start of the line after the terminator at pos; handles \n, \r and \r\n like BufferedReader.
+     */
+    private int nextLine(int pos) {
+        if (pos < length && buffer[pos] == '\r') {
+            pos++;
+        }
+        if (pos < length && buffer[pos] == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return True if the line ending at end finishes with an unescaped backslash.
+     */
+    private boolean continues(final int start, final int end) {
+        int backslashes = 0;
+        for (int i = end - 1; i >= start && buffer[i] == '\\'; i--) {
+            backslashes++;
+        }
+        return (backslashes & 1) == 1;
+    }
+
+    /**
+     * Splits the buffer into variable sections.
+     *
+     * @param pos The position of the first variable header.
+     * @return The sections in file order.
+     */
+    private List<Section> scan(int pos) {
+        List<Section> sections = new ArrayList<>();
+        while (pos < length) {
+            int end = lineEnd(pos);
+            if (end == pos) {
+                // Skip blank lines between variables
+                pos = nextLine(end);
+                continue;
+            }
+            Section section = new Section(new String(buffer, pos, end - pos));
+            boolean matrix = isMatrixHeader(section.header);
+            boolean query = section.header.startsWith(QUERY_VARIABLE);
+            pos = nextLine(end);
+            section.start = pos;
+
+            while (pos < length) {
+                int start = pos;
+                end = lineEnd(start);
+                if (end == start) {
+                    break;
+                }
+                boolean cell = matrix ? isMatrixCell(start, end) : Character.isDigit(buffer[start]);
+                if (!cell && (matrix || query || section.rows == 0 || !isCorrupt(start, end))) {
+                    break;
+                }
+                section.rows++;
+                // BugzID: 1075 - Lines ending with an escaped new line continue on the next line
+                while (!query && continues(start, end) && nextLine(end) < length) {
+                    start = nextLine(end);
+                    end = lineEnd(start);
+                }
+                pos = nextLine(end);
+            }
+            section.end = pos;
+            sections.add(section);
+        }
+        return sections;
+    }
+
+    private boolean isMatrixHeader(final String header) {
+        int paren = header.indexOf('(');
+        return paren >= 0 && header.regionMatches(true, paren + 1, "matrix", 0, "matrix".length());
+    }
+
+    /**
+     * Does the line represent a matrix cell?
+     */
+    private boolean isMatrixCell(final int start, final int end) {
+        return end - start > 2
+                && Character.isDigit(buffer[start])
+                && Character.isDigit(buffer[start + 1])
+                && buffer[start + 2] == ':';
+    }
+
+    /**
+     * A line in a text or nominal variable that does not start with a digit is either the header of the next
+     * variable or a cell that lost its timestamps.
+     */
+    private boolean isCorrupt(final int start, final int end) {
+        return new String(buffer, start, end - start).split("\\(").length != 2;
+    }
+
+    /**
+     * Creates the variable for a header line, e.g. "name (MATRIX,true,)-code01|NOMINAL,code02|TEXT".
+     *
+     * @return The new variable, or null if the variable is skipped.
+     */
+    private Variable createVariable(final String header, final DataStore dataStore) throws UserWarningException {
+        String[] tokens = header.split("\\(");
+        String varName = stripEscapeCharacters(tokens[0].trim());
+        String varType;
+        boolean varVisible = true;
+
+        logger.info("Parsing variable from line: " + header);
+        if (version.equals("#4")) {
+            String[] varArgs = tokens[1].split(",");
+            varType = varArgs[0];
+            varVisible = Boolean.parseBoolean(varArgs[1]);
+        } else if (version.equals("#3")) {
+            varType = tokens[1].substring(0, tokens[1].indexOf(","));
+            varVisible = Boolean.parseBoolean(tokens[1].substring(
+                    tokens[1].indexOf(",") + 1, tokens[1].indexOf(")")));
+        } else {
+            varType = tokens[1].substring(0, tokens[1].indexOf(")"));
+        }
+
+        // BugzID:1703 - Ignore old macshapa query variables, we don't have a
+        // reliable mechanisim for loading their predicates.
+        if (varName.equals(QUERY_VARIABLE)) {
+            return null;
+        }
+
+        Argument.Type variableType = getVarType(varType);
+        if (variableType == null) {
+            throw new IllegalStateException("Unknown variable type.");
+        }
+        Variable newVar = dataStore.createVariable(varName, variableType, true);
+        newVar.setHidden(!varVisible);
+
+        if (variableType == Argument.Type.MATRIX) {
+            // Build vocab for matrix.
+            String[] vocabString = tokens[1].split("(?<!\\\\)-");
+            Argument newArg = newVar.getRootNode();
+            newArg.clearChildArguments();
+
+            if (vocabString.length > 1) {
+                for (String arg : vocabString[1].split(",")) {
+                    newArg.childArguments.add(parseFormalArgument(arg));
+                }
+            } else {
+                logger.error("Can not parse codes from: " + tokens[1]);
+            }
+            newVar.setRootNode(newArg);
+        }
+        return newVar;
+    }
+
+    /**
+     * Tokenizes the cells of a section and loads them into its variable.
+     */
+    private void load(final Section section) {
+        Argument root = section.variable.getRootNode();
+        boolean matrix = root.type == Argument.Type.MATRIX;
+        boolean text = root.type == Argument.Type.TEXT;
+        List<Argument> arguments = matrix ? root.childArguments : null;
+
+        long[] onsets = new long[section.rows];
+        long[] offsets = new long[section.rows];
+        String[][] values = new String[section.rows][];
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+
+        int pos = section.start;
+        while (pos < section.end) {
+            int start = pos;
+            pos = skipRow(start, section.end);
+            try {
+                int valueStart;
+                if (Character.isDigit(buffer[start])) {
+                    int comma = indexOf(',', start, pos);
+                    onsets[count] = parseTime(start, comma);
+                    int next = indexOf(',', comma + 1, pos);
+                    offsets[count] = parseTime(comma + 1, next);
+                    valueStart = Math.min(next + 1, pos);
+                } else {
+                    // Corrupt line - keep the content and flag the time
+                    errorCount.incrementAndGet();
+                    logger.error("Error in line " + new String(buffer, start, lineEnd(start) - start));
+                    onsets[count] = CORRUPT_TIME;
+                    offsets[count] = CORRUPT_TIME;
+                    valueStart = start;
+                }
+
+                if (matrix) {
+                    values[count] = parseMatrixValue(valueStart, pos, arguments, tokens, sb);
+                } else if (text) {
+                    values[count] = new String[]{unescape(valueStart, pos, sb)};
+                } else {
+                    tokens.clear();
+                    split(valueStart, pos, tokens, sb);
+                    values[count] = new String[]{tokens.get(0)};
+                }
+                count++;
+            } catch (RuntimeException e) {
+                errorCount.incrementAndGet();
+                logger.error("Error in line: " + new String(buffer, start, lineEnd(start) - start) + ". Error: ", e);
+            }
+        }
+        section.variable.loadCells(count, onsets, offsets, values);
+    }
+
+    /**
+     * @return The start of the row after the one starting at pos, following escaped line breaks.
+     */
+    private int skipRow(final int pos, final int limit) {
+        int start = pos;
+        int end = lineEnd(start);
+        while (continues(start, end) && nextLine(end) < limit) {
+            start = nextLine(end);
+            end = lineEnd(start);
+        }
+        return Math.min(nextLine(end), limit);
+    }
+
+    /**
+     * @return The position of the first c in [from, to), or the end of the line if there is none.
+     */
+    private int indexOf(final char c, final int from, final int to) {
+        int i = from;
+        while (i < to && buffer[i] != c && buffer[i] != '\n' && buffer[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses a timestamp "HH:MM:SS:mmm" or a plain number of milliseconds.
+     */
+    private long parseTime(final int from, final int to) {
+        long[] fields = new long[4];
+        int field = 0;
+        boolean digits = false;
+        for (int i = from; i < to; i++) {
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                fields[field] = fields[field] * 10 + (c - '0');
+                digits = true;
+            } else if (c == ':' && field < 3 && digits) {
+                field++;
+                digits = false;
+            } else if (c != ' ') {
+                throw new NumberFormatException("Invalid timestamp: " + new String(buffer, from, to - from));
+            }
+        }
+        if (!digits || (field != 0 && field != 3)) {
+            throw new NumberFormatException("Invalid timestamp: " + new String(buffer, from, to - from));
+        }
+        if (field == 0) {
+            return fields[0];
+        }
+        return ((fields[0] * 60 + fields[1]) * 60 + fields[2]) * 1000 + fields[3];
+    }
+
+    /**
+     * Unescapes [from, to) into a single value. An escaped line break becomes a new line, trailing line breaks are
+     * dropped.
+     */
+    private String unescape(final int from, final int to, final StringBuilder sb) {
+        sb.setLength(0);
+        for (int i = from; i < to; i++) {
+            char c = buffer[i];
+            if (c == '\\') {
+                i++;
+                if (i >= to || buffer[i] == '\n' || buffer[i] == '\r') {
+                    sb.append('\n');
+                    if (i < to - 1 && buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                        i++;
+                    }
+                } else {
+                    sb.append(buffer[i]);
+                }
+            } else if (c == '\n' || c == '\r') {
+                break;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits [from, to) on unescaped commas into unescaped tokens.
+     */
+    private void split(final int from, final int to, final List<String> tokens, final StringBuilder sb) {
+        sb.setLength(0);
+        for (int i = from; i < to; i++) {
+            char c = buffer[i];
+            if (c == '\\') {
+                i++;
+                if (i >= to || buffer[i] == '\n' || buffer[i] == '\r') {
+                    sb.append('\n');
+                    if (i < to - 1 && buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                        i++;
+                    }
+                } else {
+                    sb.append(buffer[i]);
+                }
+            } else if (c == ',') {
+                tokens.add(sb.toString());
+                sb.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                break;
+            } else {
+                sb.append(c);
+            }
+        }
+        tokens.add(sb.toString());
+    }
+
+    /**
+     * Parses a matrix value "(a,b,c)" into one value per argument.
+     */
+    private String[] parseMatrixValue(int from, final int to, final List<Argument> arguments, final List<String> tokens,
+                                      final StringBuilder sb) {
+        // Strip the line terminator and the surrounding parens
+        int end = to;
+        while (end > from && (buffer[end - 1] == '\n' || buffer[end - 1] == '\r')) {
+            end--;
+        }
+        if (from < end && buffer[from] == '(') {
+            from++;
+        }
+        if (end > from && buffer[end - 1] == ')' && !continues(from, end - 1)) {
+            end--;
+        }
+
+        tokens.clear();
+        split(from, end, tokens, sb);
+
+        String[] result = new String[arguments.size()];
+        for (int i = 0; i < tokens.size() && i < result.length; i++) {
+            String token = tokens.get(i);
+            // Empty arguments or arguments that match the placeholder are empty
+            if (token.isEmpty() || token.equals("<" + arguments.get(i).name + ">")) {
+                token = "";
+            }
+            result[i] = token.trim();
+        }
+        return result;
+    }
+
+    /**
+     * Method to build a formal argument.
+     *
+     * @param content The string holding the formal argument content to be parsed.
+     * @return The formal argument.
+     */
+    private Argument parseFormalArgument(final String content) {
+        String[] formalArgument = content.split("\\|");
+        String name = stripEscapeCharacters(formalArgument[0]);
+
+        if (formalArgument.length > 1 && formalArgument[1].equalsIgnoreCase("quote_string")) {
+            return new Argument(name, Argument.Type.TEXT);
+        }
+        // Integer, float and nominal formal arguments are all nominal.
+        return new Argument(name, Argument.Type.NOMINAL);
+    }
+
+    /**
+     * Strip escape characters from a string.
+     *
+     * @param line The string to strip escape characters from.
+     * @return The string free of escape characters, i.e. '\'
+     */
+    private static String stripEscapeCharacters(final String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i < line.length() - 1) {
+                char n = line.charAt(i + 1);
+                if (n == '\\' || n == ',' || n == '-') {
+                    c = n;
+                    i++;
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param type The string containing the variable type.
+     * @return The type of the variable, or null for types that are not supported.
+     */
+    static Argument.Type getVarType(final String type) {
+        if (type.equalsIgnoreCase("text")) {
+            return Argument.Type.TEXT;
+        } else if (type.equalsIgnoreCase("nominal")) {
+            return Argument.Type.NOMINAL;
+        } else if (type.equalsIgnoreCase("matrix")) {
+            return Argument.Type.MATRIX;
+        }
+        // TODO - support predicate, integer and float types.
+        return null;
+    }
+}
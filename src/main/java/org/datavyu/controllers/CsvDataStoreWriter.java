@@ -0,0 +1,285 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnSnapshot;
+import org.datavyu.models.db.DataStoreSnapshot;
+import org.datavyu.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Writes the CSV data store format (the "db" entry of an OPF file), see {@link CsvDataStoreReader}.
+ *
+ * Rows are appended to a reusable char buffer, which is encoded into a reusable byte buffer and handed to the channel
+ * whenever it fills up. Timestamps are formatted by hand rather than through String.format, and values come from the
+ * value dictionaries of the snapshot, which escape each distinct value once. The output is byte for byte what the
+ * PrintStream based writer produced: the platform charset and line separator are used, as the reader expects.
+ *
+ * Variables are independent, so each is encoded into a buffer of its own on the fork-join pool and the buffers are
+ * written in the order of the variables, see {@link OrderedBlockWriter}.
+ */
+final class CsvDataStoreWriter {
+
+    /** Size of the char buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final long MS_PER_HOUR = 60L * 60 * 1000;
+
+    private static final long MS_PER_MINUTE = 60L * 1000;
+
+    /** The channel written to */
+    private final WritableByteChannel channel;
+
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final char[] chars = new char[BUFFER_SIZE];
+
+    /** The number of chars in the char buffer */
+    private int count = 0;
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 2);
+
+    /**
+     * @param channel The channel to write to; the caller closes it.
+     */
+    CsvDataStoreWriter(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a data store.
+     *
+     * @param snapshot The snapshot of the data store to write.
+     * @param serialized True to write values escaped as in {@link org.datavyu.models.db.CellValue#serialize()}, which
+     * is what the reader expects; false to write them as in {@link org.datavyu.models.db.Cell#getValueAsString()}.
+     * @param listener Notified of the progress after each variable; may be null.
+     * @throws IOException If unable to write to the channel.
+     */
+    void write(final DataStoreSnapshot snapshot,
+               final boolean serialized,
+               final SaveController.ProgressListener listener) throws IOException {
+        append("#4");  // Write an identifier for the version of file
+        newLine();
+        flush();
+
+        final List<ColumnSnapshot> columns = snapshot.getColumns();
+        OrderedBlockWriter blocks = new OrderedBlockWriter(channel);
+        if (listener != null) {
+            final int[] cellsWritten = new int[columns.size()];
+            int cells = 0;
+            for (int i = 0; i < columns.size(); i++) {
+                cells += columns.get(i).size();
+                cellsWritten[i] = cells;
+            }
+            blocks.setBlockListener(index -> listener.progressChanged(cellsWritten[index], snapshot.getCellCount()));
+        }
+        for (final ColumnSnapshot column : columns) {
+            blocks.submit(() -> encode(column, serialized));
+        }
+        blocks.finish();
+    }
+
+    /**
+     * Encodes the header and the cells of a variable on their own, so that variables can be encoded in parallel.
+     */
+    private static byte[] encode(final ColumnSnapshot column, final boolean serialized) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + column.size() * 32);
+        CsvDataStoreWriter writer = new CsvDataStoreWriter(Channels.newChannel(out));
+        writer.writeColumn(column, serialized);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private void writeColumn(final ColumnSnapshot column, final boolean serialized) throws IOException {
+        writeHeader(column);
+        boolean matrix = column.getType() == Argument.Type.MATRIX;
+        int columns = column.getColumnCount();
+        for (int row = 0; row < column.size(); row++) {
+            appendTimestamp(column.getOnset(row));
+            append(',');
+            appendTimestamp(column.getOffset(row));
+            append(',');
+            if (matrix) {
+                append('(');
+            }
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    append(',');
+                }
+                append(serialized ? column.getSerializedValue(c, row) : column.getValue(c, row));
+            }
+            if (matrix) {
+                append(')');
+            }
+            newLine();
+        }
+    }
+
+    private void writeHeader(final ColumnSnapshot column) throws IOException {
+        append(StringUtils.escapeCSV(column.getName()));
+        append(" (");
+        append(column.getType().name());
+        append(',');
+        append(column.isHidden() ? "false" : "true");
+        append(",)");
+
+        if (column.getType() == Argument.Type.MATRIX) {
+            append('-');
+            boolean first = true;
+            for (Argument arg : column.getArguments()) {
+                if (!first) {
+                    append(',');
+                }
+                append(StringUtils.escapeCSV(arg.name));
+                append('|');
+                append(arg.type.name());
+                first = false;
+            }
+        }
+        newLine();
+    }
+
+    /**
+     * Appends a time as HH:MM:SS:mmm, formatted like {@code String.format("%02d:%02d:%02d:%03d", ...)} on the
+     * floored fields, which is what Cell#getOnsetString() gives, negative times included.
+     */
+    private void appendTimestamp(final long time) throws IOException {
+        long hours = Math.floorDiv(time, MS_PER_HOUR);
+        long minutes = Math.floorDiv(time, MS_PER_MINUTE) - hours * 60;
+        long seconds = Math.floorDiv(time, 1000L) - hours * 60 * 60 - minutes * 60;
+        long milliseconds = time - hours * MS_PER_HOUR - minutes * MS_PER_MINUTE - seconds * 1000;
+
+        appendPadded(hours, 2);
+        append(':');
+        appendPadded(minutes, 2);
+        append(':');
+        appendPadded(seconds, 2);
+        append(':');
+        appendPadded(milliseconds, 3);
+    }
+
+    /**
+     * Appends a number zero padded to a width that includes the sign, like %0Nd.
+     */
+    private void appendPadded(long value, int width) throws IOException {
+        if (count + 21 > chars.length) {
+            flushChars();
+        }
+        if (value < 0) {
+            chars[count++] = '-';
+            value = -value;
+            width--;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            chars[count++] = '0';
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        count = end;
+    }
+
+    private void append(final char c) throws IOException {
+        if (count == chars.length) {
+            flushChars();
+        }
+        chars[count++] = c;
+    }
+
+    /**
+     * Appends a string; null appends nothing.
+     */
+    private void append(final String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        int from = 0;
+        while (from < length) {
+            if (count == chars.length) {
+                flushChars();
+            }
+            int to = Math.min(length, from + chars.length - count);
+            value.getChars(from, to, chars, count);
+            count += to - from;
+            from = to;
+        }
+    }
+
+    private void newLine() throws IOException {
+        append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Encodes the char buffer. A trailing high surrogate is kept for the next round, so surrogate pairs split by the
+     * end of the buffer are encoded whole.
+     */
+    private void flushChars() throws IOException {
+        CharBuffer in = CharBuffer.wrap(chars, 0, count);
+        while (encoder.encode(in, bytes, false).isOverflow()) {
+            writeBytes();
+        }
+        int remaining = in.remaining();
+        System.arraycopy(chars, in.position(), chars, 0, remaining);
+        count = remaining;
+    }
+
+    private void flush() throws IOException {
+        CharBuffer in = CharBuffer.wrap(chars, 0, count);
+        CoderResult result;
+        while ((result = encoder.encode(in, bytes, true)).isOverflow()) {
+            writeBytes();
+        }
+        while ((result = encoder.flush(bytes)).isOverflow()) {
+            writeBytes();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        writeBytes();
+        encoder.reset();
+        count = 0;
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnSnapshot;
+import org.datavyu.models.db.DataStoreSnapshot;
+import org.datavyu.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Exports a data store with one row per video frame, see {@link ExportDatabaseFileController#exportByFrame}.
+ *
+ * Choosing the cell of each variable for a frame is a sweep line over the cells in temporal order: per variable a
+ * cursor only ever moves forward, cells enter the sweep when their onset is passed and leave it when their offset
+ * is. The cell shown for a variable is the cell at the cursor, which stays on a cell until the cell has ended and
+ * then jumps to the latest cell that has started; a cell shorter than a frame is shown on the first frame after its
+ * onset.
+ * When cells overlap and the cell at the cursor does not cover the frame, the latest started cell that still does
+ * is shown instead of leaving the frame empty.
+ *
+ * The frames are cut into blocks. The cells are chosen block by block on the calling thread, which is cheap, while
+ * formatting and encoding the rows of the blocks runs on the fork-join pool through an {@link OrderedBlockWriter},
+ * which writes them in order with a bounded number in flight, so the output streams to disk in constant memory.
+ */
+final class FrameExporter {
+
+    /** Number of frames per block */
+    static final int BLOCK_SIZE = 4096;
+
+    /** The sweep over the cells of one variable */
+    private static final class Sweep {
+        final ColumnSnapshot column;
+
+        /** Index of the cell at the cursor */
+        int cursor = 0;
+
+        /** Number of cells whose onset has been passed */
+        int started = 0;
+
+        /** Started cells that have not ended, by index */
+        final TreeSet<Integer> active = new TreeSet<>();
+
+        /** The same cells by offset, to remove them when they end */
+        final PriorityQueue<Integer> byOffset;
+
+        Sweep(final ColumnSnapshot column) {
+            this.column = column;
+            this.byOffset = new PriorityQueue<>(11, (a, b) -> Long.compare(column.getOffset(a), column.getOffset(b)));
+        }
+
+        /**
+         * @return The index of the cell to show at a time, or -1 if there is none.
+         */
+        int select(final long time, final double frameDuration) {
+            while (started < column.size() && column.getOnset(started) <= time) {
+                active.add(started);
+                byOffset.add(started);
+                started++;
+            }
+            while (!byOffset.isEmpty() && column.getOffset(byOffset.peek()) < time) {
+                active.remove(byOffset.poll());
+            }
+
+            if (time > column.getOffset(cursor) && started - 1 > cursor) {
+                cursor = started - 1;
+            }
+            long onset = column.getOnset(cursor);
+            long offset = column.getOffset(cursor);
+            if ((onset <= time && offset >= time)
+                    || (Math.abs(offset - onset) < frameDuration
+                    && onset > time - frameDuration + 1
+                    && time >= onset
+                    && onset < time + frameDuration - 1)) {
+                return cursor;
+            }
+            return active.isEmpty() ? -1 : active.last();
+        }
+    }
+
+    private final int blockSize;
+
+    FrameExporter() {
+        this(BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize The number of frames per block.
+     */
+    FrameExporter(final int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Receives the frames chosen by {@link #sweep}, block by block. The arrays are not reused between blocks.
+     */
+    interface BlockHandler {
+
+        /**
+         * @param firstFrame The number of the first frame of the block, counting from 1.
+         * @param times The times of the frames in milliseconds.
+         * @param selected By variable, the index of the cell shown in each frame or -1 if there is none; not set for
+         *                 variables without cells.
+         * @param count The number of frames in the block.
+         * @throws IOException If unable to handle the block.
+         */
+        void block(int firstFrame, long[] times, int[][] selected, int count) throws IOException;
+    }
+
+    /**
+     * Writes the frames of a data store.
+     *
+     * @param outputStream The stream to write to; the caller closes it.
+     * @param snapshot The snapshot of the data store to export.
+     * @param frameRate The number of frames per second.
+     * @throws IOException If unable to write to the stream.
+     */
+    void export(final OutputStream outputStream, final DataStoreSnapshot snapshot, final double frameRate)
+            throws IOException {
+        final List<ColumnSnapshot> columns = snapshot.getColumns();
+        final Charset charset = Charset.defaultCharset();
+        outputStream.write(header(columns).getBytes(charset));
+
+        OrderedBlockWriter blocks = new OrderedBlockWriter(Channels.newChannel(outputStream));
+        sweep(columns, frameRate, (firstFrame, times, selected, count) ->
+                blocks.submit(() -> formatBlock(columns, firstFrame, times, selected, count).getBytes(charset)));
+        blocks.finish();
+        outputStream.flush();
+    }
+
+    /**
+     * Chooses the cell of each variable to show in each frame, from the first to the last time of any cell.
+     *
+     * @param columns The variables.
+     * @param frameRate The number of frames per second.
+     * @param handler Receives the frames, a block at a time.
+     * @throws IOException If the handler is unable to handle a block.
+     */
+    void sweep(final List<ColumnSnapshot> columns, final double frameRate, final BlockHandler handler)
+            throws IOException {
+        final double frameDuration = 1000.0 / frameRate;
+
+        // The first and last time come from the first and last cell of each variable
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = 0;
+        Sweep[] sweeps = new Sweep[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnSnapshot column = columns.get(i);
+            if (column.size() == 0) {
+                continue;
+            }
+            sweeps[i] = new Sweep(column);
+            int last = column.size() - 1;
+            firstTime = Math.min(firstTime, Math.min(column.getOnset(0), column.getOffset(0)));
+            lastTime = Math.max(lastTime, Math.max(column.getOnset(last), column.getOffset(last)));
+        }
+
+        long time = firstTime;
+        int frame = 1;
+        while (time <= lastTime + frameDuration) {
+            int firstFrame = frame;
+            long[] times = new long[blockSize];
+            int[][] selected = new int[sweeps.length][blockSize];
+            int frames = 0;
+            while (frames < blockSize && time <= lastTime + frameDuration) {
+                times[frames] = time;
+                for (int i = 0; i < sweeps.length; i++) {
+                    if (sweeps[i] != null) {
+                        selected[i][frames] = sweeps[i].select(time, frameDuration);
+                    }
+                }
+                frames++;
+                frame++;
+                // Frame times are truncated to whole milliseconds at every step
+                time += frameDuration;
+            }
+            handler.block(firstFrame, times, selected, frames);
+        }
+    }
+
+    private static String header(final List<ColumnSnapshot> columns) {
+        StringBuilder header = new StringBuilder("nFrame,time,");
+        for (ColumnSnapshot column : columns) {
+            String name = column.getName();
+            header.append(name).append(".ordinal,");
+            header.append(name).append(".onset,");
+            header.append(name).append(".offset");
+
+            // A matrix variable has a column per argument
+            if (column.getType() == Argument.Type.MATRIX) {
+                for (Argument argument : column.getArguments()) {
+                    header.append(',').append(name).append('.').append(argument.name);
+                }
+            } else {
+                header.append(',').append(name).append(".value");
+            }
+            header.append(',');
+        }
+        return header.toString().trim() + System.lineSeparator();
+    }
+
+    /**
+     * Formats the rows of a block of frames.
+     */
+    private static String formatBlock(final List<ColumnSnapshot> columns,
+                                      final int firstFrame,
+                                      final long[] times,
+                                      final int[][] selected,
+                                      final int count) {
+        StringBuilder rows = new StringBuilder(count * 64);
+        for (int f = 0; f < count; f++) {
+            rows.append(firstFrame + f).append(',').append(times[f]).append(',');
+            for (int i = 0; i < columns.size(); i++) {
+                ColumnSnapshot column = columns.get(i);
+                // Variables without cells have no columns in the rows
+                if (column.size() == 0) {
+                    continue;
+                }
+                int cell = selected[i][f];
+                if (cell >= 0) {
+                    rows.append(cell + 1).append(',')
+                            .append(column.getOnset(cell)).append(',')
+                            .append(column.getOffset(cell));
+                    for (int c = 0; c < column.getColumnCount(); c++) {
+                        String value = column.getValue(c, cell);
+                        rows.append(',').append(StringUtils.escapeCSVQuotes(value == null ? "" : value));
+                    }
+                    rows.append(',');
+                } else {
+                    rows.append(",,");
+                    for (int c = 0; c < column.getColumnCount(); c++) {
+                        rows.append(',');
+                    }
+                    rows.append(',');
+                }
+            }
+            rows.append(System.lineSeparator());
+        }
+        return rows.toString();
+    }
+}
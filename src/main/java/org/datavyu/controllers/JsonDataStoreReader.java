@@ -0,0 +1,343 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnWriter;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the columns ("passes") of the JSON format written by
+ * {@link ExportDatabaseFileController#exportAsJSON(String, org.datavyu.models.db.DataStore)}.
+ *
+ * Reading is split in two steps so that the slow part can run off the event dispatch thread. {@link #read} streams
+ * the file token by token into a model detached from any data store: per column the onsets and offsets are kept in
+ * long arrays and the values in one array per code, each distinct value held once. No tree of the document is built,
+ * so memory grows with the number of cells rather than with the size of the file. {@link #attach} then creates the
+ * variables and writes the cells of each in one batch through a {@link ColumnWriter}, so listeners of the data store
+ * are notified once per variable rather than once per cell.
+ *
+ * Fields of passes and cells may appear in any order; unknown fields, such as the id of a cell, are skipped.
+ */
+public final class JsonDataStoreReader {
+
+    /** Number of bytes read between two progress reports */
+    private static final long PROGRESS_STEP = 1 << 20;
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(JsonDataStoreReader.class);
+
+    /**
+     * Receives the progress of a read.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param bytesRead The number of bytes read so far.
+         * @param byteCount The size of the file.
+         */
+        void progressChanged(long bytesRead, long byteCount);
+    }
+
+    /** A column read from the file */
+    private static final class Pass {
+        String name;
+        Argument.Type type;
+        final List<Argument> arguments = new ArrayList<>();
+        int count;
+        long[] onsets = new long[16];
+        long[] offsets = new long[16];
+        /** Values by code, then by cell; null for empty values */
+        String[][] values = new String[1][16];
+        /** The distinct values of each code */
+        final List<Map<String, String>> distinct = new ArrayList<>();
+
+        void setValue(final int code, final int cell, final String value) {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            if (code >= values.length) {
+                int from = values.length;
+                values = Arrays.copyOf(values, code + 1);
+                for (int c = from; c < values.length; c++) {
+                    values[c] = new String[onsets.length];
+                }
+            }
+            while (code >= distinct.size()) {
+                distinct.add(new HashMap<>());
+            }
+            String shared = distinct.get(code).putIfAbsent(value, value);
+            values[code][cell] = shared == null ? value : shared;
+        }
+
+        int addCell() {
+            if (count == onsets.length) {
+                onsets = Arrays.copyOf(onsets, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], count * 2);
+                }
+            }
+            return count++;
+        }
+    }
+
+    /** The columns read, in file order */
+    private final List<Pass> passes = new ArrayList<>();
+
+    /** The number of cells read */
+    private int cellCount;
+
+    /**
+     * Reads the columns of a file, adding them to those read before.
+     *
+     * @param file The file to read.
+     * @param listener Receives the progress of the read, may be null.
+     * @throws JsonParseException If the file is not in the expected format.
+     * @throws IOException If unable to read the file.
+     */
+    public void read(final File file, final ProgressListener listener) throws IOException {
+        final long byteCount = file.length();
+        try (JsonParser parser = new JsonFactory().createParser(file)) {
+            read(parser, byteCount, listener);
+        }
+        if (listener != null) {
+            listener.progressChanged(byteCount, byteCount);
+        }
+    }
+
+    /**
+     * Reads the columns of a stream, adding them to those read before.
+     *
+     * @param in The stream to read; the caller closes it.
+     * @throws JsonParseException If the stream is not in the expected format.
+     * @throws IOException If unable to read from the stream.
+     */
+    public void read(final InputStream in) throws IOException {
+        try (JsonParser parser = new JsonFactory().createParser(in)) {
+            read(parser, -1, null);
+        }
+    }
+
+    /**
+     * @return The number of columns read.
+     */
+    public int getColumnCount() {
+        return passes.size();
+    }
+
+    /**
+     * @return The number of cells read.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Adds the columns read to a data store. Columns named like a variable of the data store are left out.
+     *
+     * @param dataStore The data store to add the columns to.
+     * @return The names of the columns left out.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    public List<String> attach(final DataStore dataStore) throws UserWarningException {
+        List<String> skipped = new ArrayList<>();
+        dataStore.beginBatch();
+        try {
+            for (Pass pass : passes) {
+                if (dataStore.getVariable(pass.name) != null) {
+                    logger.warn("The column " + pass.name + " already exists in the current spreadsheet");
+                    skipped.add(pass.name);
+                    continue;
+                }
+
+                Variable variable = dataStore.createVariable(pass.name, pass.type, true);
+                if (pass.type == Argument.Type.MATRIX && !pass.arguments.isEmpty()) {
+                    Argument root = variable.getRootNode();
+                    root.clearChildArguments();
+                    root.childArguments.addAll(pass.arguments);
+                    variable.setRootNode(root);
+                }
+
+                int codes = pass.type == Argument.Type.MATRIX ? variable.getRootNode().childArguments.size() : 1;
+                String[][] values = new String[codes][];
+                for (int c = 0; c < codes; c++) {
+                    values[c] = c < pass.values.length ? Arrays.copyOf(pass.values[c], pass.count) : null;
+                }
+                int[] rows = new int[pass.count];
+                Arrays.fill(rows, -1);
+                new ColumnWriter(variable).write(rows, Arrays.copyOf(pass.onsets, pass.count),
+                        Arrays.copyOf(pass.offsets, pass.count), values);
+            }
+        } finally {
+            dataStore.commitBatch();
+        }
+        return skipped;
+    }
+
+    private void read(final JsonParser parser,
+                      final long byteCount,
+                      final ProgressListener listener) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT, "'{'");
+        long nextReport = PROGRESS_STEP;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (!"passes".equals(parser.getCurrentName())) {
+                parser.nextToken();
+                parser.skipChildren();
+                continue;
+            }
+            expect(parser, parser.nextToken(), JsonToken.START_ARRAY, "passes array");
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                expect(parser, token, JsonToken.START_OBJECT, "'{' of a pass");
+                Pass pass = new Pass();
+                while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    token = parser.nextToken();
+                    if ("name".equals(field)) {
+                        pass.name = parser.getValueAsString();
+                    } else if ("type".equals(field)) {
+                        pass.type = getVarType(parser, parser.getValueAsString());
+                    } else if ("arguments".equals(field)) {
+                        expect(parser, token, JsonToken.START_OBJECT, "arguments object");
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = parser.getCurrentName();
+                            parser.nextToken();
+                            pass.arguments.add(new Argument(name, getVarType(parser, parser.getValueAsString())));
+                        }
+                    } else if ("cells".equals(field)) {
+                        expect(parser, token, JsonToken.START_ARRAY, "cells array");
+                        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                            expect(parser, token, JsonToken.START_OBJECT, "'{' of a cell");
+                            readCell(parser, pass);
+                            if (listener != null && parser.getCurrentLocation().getByteOffset() >= nextReport) {
+                                long bytesRead = parser.getCurrentLocation().getByteOffset();
+                                listener.progressChanged(bytesRead, byteCount);
+                                nextReport = bytesRead + PROGRESS_STEP;
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (pass.name == null) {
+                    throw new JsonParseException(parser, "Pass without a name");
+                }
+                if (pass.type == null) {
+                    throw new JsonParseException(parser, "Pass " + pass.name + " without a type");
+                }
+                passes.add(pass);
+                cellCount += pass.count;
+            }
+        }
+    }
+
+    private static void readCell(final JsonParser parser, final Pass pass) throws IOException {
+        int cell = pass.addCell();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("onset".equals(field)) {
+                pass.onsets[cell] = parseTime(parser);
+            } else if ("offset".equals(field)) {
+                pass.offsets[cell] = parseTime(parser);
+            } else if ("values".equals(field)) {
+                expect(parser, token, JsonToken.START_ARRAY, "values array");
+                int code = 0;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token == null) {
+                        throw new JsonParseException(parser, "Unexpected end of input in values array");
+                    }
+                    if (token.isStructStart()) {
+                        throw new JsonParseException(parser, "Unexpected character: was expecting a value");
+                    }
+                    pass.setValue(code++, cell, parser.getValueAsString());
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Parses a timestamp "HH:MM:SS:mmm" or a number of milliseconds.
+     */
+    private static long parseTime(final JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        String time = parser.getValueAsString();
+        if (time != null) {
+            long[] fields = new long[4];
+            int field = 0;
+            boolean digits = false;
+            boolean valid = true;
+            for (int i = 0; i < time.length() && valid; i++) {
+                char c = time.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    fields[field] = fields[field] * 10 + (c - '0');
+                    digits = true;
+                } else if (c == ':' && field < 3 && digits) {
+                    field++;
+                    digits = false;
+                } else {
+                    valid = false;
+                }
+            }
+            if (valid && digits && field == 0) {
+                return fields[0];
+            }
+            if (valid && digits && field == 3) {
+                return ((fields[0] * 60 + fields[1]) * 60 + fields[2]) * 1000 + fields[3];
+            }
+        }
+        throw new JsonParseException(parser, "Invalid timestamp: " + time);
+    }
+
+    private static Argument.Type getVarType(final JsonParser parser, final String type) throws IOException {
+        Argument.Type varType = type == null ? null : CsvDataStoreReader.getVarType(type);
+        if (varType == null) {
+            throw new JsonParseException(parser, "Unknown argument ('" + type + "'): was expecting NOMINAL, TEXT or "
+                    + "MATRIX");
+        }
+        return varType;
+    }
+
+    private static void expect(final JsonParser parser,
+                               final JsonToken actual,
+                               final JsonToken expected,
+                               final String what) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Unexpected character: was expecting " + what);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnSnapshot;
+import org.datavyu.models.db.DataStoreSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the JSON format read by {@link JsonDataStoreReader}: an object holding an array of "passes", one per
+ * variable, each with its name, type, arguments and cells.
+ *
+ * Each pass is encoded into a buffer of its own on the fork-join pool, with a Jackson generator whose pretty printer
+ * starts at the depth of the pass in the document, and the buffers are written in the order of the variables, see
+ * {@link OrderedBlockWriter}. The surrounding object is written as the pretty printer lays it out, so the output is
+ * the same as that of a single generator over the whole document.
+ */
+final class JsonDataStoreWriter {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** A pretty printer for a value nested in the passes array */
+    private static final class PassPrettyPrinter extends DefaultPrettyPrinter {
+        private static final long serialVersionUID = 1L;
+
+        PassPrettyPrinter() {
+            // Inside the root object; the array of passes is laid out inline and adds no depth
+            _nesting = 1;
+        }
+    }
+
+    /** The channel written to */
+    private final WritableByteChannel channel;
+
+    /**
+     * @param channel The channel to write to; the caller closes it.
+     */
+    JsonDataStoreWriter(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a data store.
+     *
+     * @param snapshot The snapshot of the data store to write.
+     * @throws IOException If unable to write to the channel.
+     */
+    void write(final DataStoreSnapshot snapshot) throws IOException {
+        List<ColumnSnapshot> columns = snapshot.getColumns();
+        writeString("{" + LINE_SEPARATOR + "  \"passes\" : [ ");
+        OrderedBlockWriter blocks = new OrderedBlockWriter(channel);
+        for (int i = 0; i < columns.size(); i++) {
+            final ColumnSnapshot column = columns.get(i);
+            final boolean first = i == 0;
+            blocks.submit(() -> encode(column, first));
+        }
+        blocks.finish();
+        writeString((columns.isEmpty() ? "]" : " ]") + LINE_SEPARATOR + "}");
+    }
+
+    /**
+     * Encodes the pass of a variable, preceded by the separator from the pass before unless it is the first.
+     */
+    private static byte[] encode(final ColumnSnapshot column, final boolean first) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + column.size() * 96);
+        if (!first) {
+            out.write(',');
+            out.write(' ');
+        }
+        try (JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            g.setPrettyPrinter(new PassPrettyPrinter());
+            g.writeStartObject();
+            g.writeStringField("name", column.getName());
+            g.writeStringField("type", column.getType().toString());
+
+            g.writeObjectFieldStart("arguments");
+            for (Argument argument : column.getArguments()) {
+                g.writeStringField(argument.name, argument.type.name());
+            }
+            g.writeEndObject();
+
+            g.writeArrayFieldStart("cells");
+            int columns = column.getColumnCount();
+            for (int row = 0; row < column.size(); row++) {
+                g.writeStartObject();
+                g.writeNumberField("id", row + 1);
+                g.writeStringField("onset", column.getOnsetString(row));
+                g.writeStringField("offset", column.getOffsetString(row));
+                g.writeArrayFieldStart("values");
+                for (int c = 0; c < columns; c++) {
+                    String value = column.getValue(c, row);
+                    g.writeString(value == null ? "" : value);
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private void writeString(final String value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -17,10 +17,14 @@ package org.datavyu.controllers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.UserWarningException;
 import org.datavyu.models.project.Project;
 import org.datavyu.models.project.ViewerSetting;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -39,6 +43,12 @@ public final class OpenController {
     /** Reference to the project that this controller opened */
     private Project project = null;
 
+    /** Number of cells of the opened data store that could not be read */
+    private int errorCount = 0;
+
+    /** Names of the variables of the opened data store that are no longer valid */
+    private List<String> exemptionVariables = Collections.emptyList();
+
     /**
      * Opens a file as a Datavyu dataStore.
      *
@@ -101,7 +111,40 @@ public final class OpenController {
     private void openProjectArchive(final File archiveFile) {
 
         try {
-            ZipFile zipFile = new ZipFile(archiveFile);
+            readProjectArchive(archiveFile, true);
+        } catch (Exception e) {
+            logger.error("Unable to open project archive", e);
+        }
+
+        dataStore.deselectAll();
+    }
+
+    /**
+     * Opens a Datavyu archive without showing any dialogs, e.g. when processing projects in batch. The cells that
+     * could not be read and the variables whose names are no longer valid are available from
+     * {@link #getErrorCount()} and {@link #getExemptionVariables()} instead.
+     *
+     * @param archiveFile The archive to open as a project.
+     * @throws IOException If unable to read the archive.
+     * @throws UserWarningException If unable to create a variable of the data store.
+     */
+    public void openProjectArchiveWithoutDialogs(final File archiveFile) throws IOException, UserWarningException {
+        readProjectArchive(archiveFile, false);
+        dataStore.setName(archiveFile.getName());
+        dataStore.deselectAll();
+        dataStore.markAsUnchanged();
+    }
+
+    /**
+     * Reads the project and the data store of a Datavyu archive.
+     *
+     * @param archiveFile The archive to read.
+     * @param interactive True to report cells that could not be read and invalid variable names in dialogs.
+     */
+    private void readProjectArchive(final File archiveFile, final boolean interactive) throws IOException,
+            UserWarningException {
+
+        try (ZipFile zipFile = new ZipFile(archiveFile)) {
 
             String arch = archiveFile.getName().substring(0, archiveFile.getName().lastIndexOf('.'));
             ZipEntry zippedProjectFile = zipFile.getEntry("project");
@@ -111,6 +154,9 @@ public final class OpenController {
             if (zippedProjectFile == null) {
                 zippedProjectFile = zipFile.getEntry(arch + File.separator + "project");
             }
+            if (zippedProjectFile == null) {
+                throw new IOException("No project in archive " + archiveFile.getName());
+            }
 
             OpenProjectFileController opc = new OpenProjectFileController();
             project = opc.open(zipFile.getInputStream(zippedProjectFile));
@@ -122,9 +168,18 @@ public final class OpenController {
             if (zippedDataStore == null) {
                 zippedDataStore = zipFile.getEntry(arch + File.separator + "db");
             }
+            if (zippedDataStore == null) {
+                throw new IOException("No spreadsheet in archive " + archiveFile.getName());
+            }
 
             OpenDataStoreFileController odc = new OpenDataStoreFileController();
-            dataStore = odc.openAsCsv(zipFile.getInputStream(zippedDataStore));
+            if (interactive) {
+                dataStore = odc.openAsCsv(zipFile.getInputStream(zippedDataStore));
+            } else {
+                dataStore = odc.readCsv(zipFile.getInputStream(zippedDataStore));
+            }
+            errorCount = odc.getErrorCount();
+            exemptionVariables = odc.getExemptionVariables();
 
             // BugzID:1806
             for (ViewerSetting vs : project.getViewerSettings()) {
@@ -133,13 +188,7 @@ public final class OpenController {
                     vs.copySettings(zipFile.getInputStream(entry));
                 }
             }
-
-            zipFile.close();
-        } catch (Exception e) {
-            logger.error("Unable to open project archive", e);
         }
-
-        dataStore.deselectAll();
     }
 
     /**
@@ -165,4 +214,19 @@ public final class OpenController {
     public Project getProject() {
         return project;
     }
+
+    /**
+     * @return The number of cells of the opened archive that could not be read and were recovered at time
+     * 99:00:00:000 or dropped.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return The names of the variables of the opened archive that are no longer valid variable names.
+     */
+    public List<String> getExemptionVariables() {
+        return exemptionVariables;
+    }
 }
@@ -0,0 +1,153 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Writes blocks of an export that are encoded independently, e.g. one per variable. Each block is encoded on the
+ * fork-join pool as soon as it is submitted, and the encoded blocks are written to the channel in the order they were
+ * submitted. Once the given number of blocks is in flight, submitting waits for the oldest block and writes it, so
+ * the memory held at any time is bounded by the size of that many blocks.
+ */
+final class OrderedBlockWriter {
+
+    /**
+     * Notified after a block has been written.
+     */
+    interface BlockListener {
+
+        /**
+         * @param index The index of the block, in the order of submission.
+         */
+        void blockWritten(int index);
+    }
+
+    /** The channel written to */
+    private final WritableByteChannel channel;
+
+    /** The maximum number of blocks in flight */
+    private final int window;
+
+    /** The blocks in flight, oldest first */
+    private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+
+    private BlockListener listener;
+
+    /** The number of blocks written */
+    private int written = 0;
+
+    /**
+     * Writes with twice as many blocks in flight as the fork-join pool has threads.
+     *
+     * @param channel The channel to write to; the caller closes it.
+     */
+    OrderedBlockWriter(final WritableByteChannel channel) {
+        this(channel, Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    /**
+     * @param channel The channel to write to; the caller closes it.
+     * @param window The maximum number of blocks in flight, at least one.
+     */
+    OrderedBlockWriter(final WritableByteChannel channel, final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Invalid number of blocks in flight: " + window);
+        }
+        this.channel = channel;
+        this.window = window;
+    }
+
+    /**
+     * @param listener Notified after each block has been written; may be null.
+     */
+    void setBlockListener(final BlockListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts encoding a block.
+     *
+     * @param block Encodes the block.
+     * @throws IOException If unable to encode or write an earlier block.
+     */
+    void submit(final Callable<byte[]> block) throws IOException {
+        pending.add(ForkJoinTask.adapt(block).fork());
+        if (pending.size() >= window) {
+            writeOldest();
+        }
+    }
+
+    /**
+     * Waits for the blocks in flight and writes them. After a failure there are no blocks in flight.
+     *
+     * @throws IOException If unable to encode or write a block.
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        byte[] bytes;
+        try {
+            bytes = pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IOException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            cancel();
+            // Adapted callables wrap checked exceptions, and the pool may wrap them again when rethrowing
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw new IOException("Unable to export", e.getCause());
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nothing will be written anymore, so the blocks in flight are not needed
+            cancel();
+            throw e;
+        }
+        if (listener != null) {
+            listener.blockWritten(written);
+        }
+        written++;
+    }
+
+    private void cancel() {
+        for (ForkJoinTask<byte[]> block : pending) {
+            block.cancel(false);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnSnapshot;
+import org.datavyu.models.db.DataStoreSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exports a data store as Parquet tables into a directory, for analysis in pandas, R or Spark without parsing CSV.
+ *
+ * Each variable becomes a table of its own, one row per cell in temporal order: the ordinal of the cell, its onset and
+ * offset in milliseconds and a column per argument ("value" for variables that are not matrices), empty values
+ * being null. Arguments that are nominal are dictionary encoded, as they take few distinct values. The tables are
+ * written in parallel on the fork-join pool.
+ *
+ * Optionally the frames of the data store are exported as well, in a table laid out like the frames CSV export.
+ */
+final class ParquetExporter {
+
+    /** The name of the frames table */
+    static final String FRAMES_FILE = "frames.parquet";
+
+    /** Number of rows per row group of a variable */
+    static final int ROW_GROUP_SIZE = 1 << 20;
+
+    /** Number of frames per row group of the frames table, a multiple of {@link FrameExporter#BLOCK_SIZE} */
+    static final int FRAMES_ROW_GROUP_SIZE = 1 << 16;
+
+    private static final String EXTENSION = ".parquet";
+
+    /**
+     * Exports the variables of a data store, one table per variable.
+     *
+     * @param directory The directory to write to; created if it does not exist.
+     * @param snapshot The snapshot of the data store.
+     * @return The files written, in the order of the variables.
+     * @throws IOException If unable to write a table.
+     */
+    List<File> export(final File directory, final DataStoreSnapshot snapshot) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory);
+        }
+
+        List<ColumnSnapshot> columns = snapshot.getColumns();
+        List<File> files = fileNames(directory, columns);
+        List<RecursiveAction> tasks = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            final ColumnSnapshot column = columns.get(i);
+            final File file = files.get(i);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        writeVariable(file, column);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return files;
+    }
+
+    /**
+     * Exports the frames of a data store into {@link #FRAMES_FILE}: per frame its number and time, and for each
+     * variable with cells the ordinal, onset, offset and values of the cell shown, null if there is none.
+     *
+     * @param directory The directory to write to; created if it does not exist.
+     * @param snapshot The snapshot of the data store.
+     * @param frameRate The number of frames per second.
+     * @return The file written.
+     * @throws IOException If unable to write the table.
+     */
+    File exportFrames(final File directory, final DataStoreSnapshot snapshot, final double frameRate)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory " + directory);
+        }
+
+        final List<ColumnSnapshot> columns = snapshot.getColumns();
+        List<ParquetWriter.Column> schema = new ArrayList<>();
+        schema.add(ParquetWriter.Column.required("nFrame", ParquetWriter.Type.INT32));
+        schema.add(ParquetWriter.Column.required("time", ParquetWriter.Type.INT64));
+        for (ColumnSnapshot column : columns) {
+            // Variables without cells have no columns, as in the frames CSV export
+            if (column.size() == 0) {
+                continue;
+            }
+            String name = column.getName();
+            schema.add(ParquetWriter.Column.optional(name + ".ordinal", ParquetWriter.Type.INT32));
+            schema.add(ParquetWriter.Column.optional(name + ".onset", ParquetWriter.Type.INT64));
+            schema.add(ParquetWriter.Column.optional(name + ".offset", ParquetWriter.Type.INT64));
+            // A cell is repeated over all frames it spans, so values are dictionary encoded whatever their type
+            for (String argument : argumentNames(column)) {
+                schema.add(ParquetWriter.Column.string(name + "." + argument, true));
+            }
+        }
+
+        File file = new File(directory, FRAMES_FILE);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            final ParquetWriter writer = new ParquetWriter(out, schema,
+                    Collections.singletonMap("datavyu.frameRate", Double.toString(frameRate)));
+            final FrameTable table = new FrameTable(columns);
+            new FrameExporter().sweep(columns, frameRate, (firstFrame, times, selected, count) -> {
+                if (table.count + count > FRAMES_ROW_GROUP_SIZE) {
+                    table.write(writer);
+                }
+                table.add(firstFrame, times, selected, count);
+            });
+            table.write(writer);
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * The frames of a row group, kept as the cell shown of each variable until the row group is written.
+     */
+    private static final class FrameTable {
+        final List<ColumnSnapshot> columns;
+        final int[] frames = new int[FRAMES_ROW_GROUP_SIZE];
+        final long[] times = new long[FRAMES_ROW_GROUP_SIZE];
+        final int[][] selected;
+        int count = 0;
+
+        FrameTable(final List<ColumnSnapshot> columns) {
+            this.columns = columns;
+            this.selected = new int[columns.size()][];
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).size() > 0) {
+                    selected[i] = new int[FRAMES_ROW_GROUP_SIZE];
+                }
+            }
+        }
+
+        void add(final int firstFrame, final long[] blockTimes, final int[][] blockSelected, final int blockCount) {
+            for (int f = 0; f < blockCount; f++) {
+                frames[count + f] = firstFrame + f;
+            }
+            System.arraycopy(blockTimes, 0, times, count, blockCount);
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i] != null) {
+                    System.arraycopy(blockSelected[i], 0, selected[i], count, blockCount);
+                }
+            }
+            count += blockCount;
+        }
+
+        void write(final ParquetWriter writer) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            writer.startRowGroup(count);
+            writer.writeColumn(Arrays.copyOf(frames, count), null);
+            writer.writeColumn(Arrays.copyOf(times, count), null);
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i] == null) {
+                    continue;
+                }
+                ColumnSnapshot column = columns.get(i);
+                int[] cells = selected[i];
+                boolean[] defined = new boolean[count];
+                int[] ordinals = new int[count];
+                for (int f = 0; f < count; f++) {
+                    defined[f] = cells[f] >= 0;
+                    ordinals[f] = cells[f] + 1;
+                }
+                writer.writeColumn(ordinals, defined);
+
+                long[] onsets = new long[count];
+                for (int f = 0; f < count; f++) {
+                    onsets[f] = cells[f] >= 0 ? column.getOnset(cells[f]) : 0;
+                }
+                writer.writeColumn(onsets, defined);
+
+                long[] offsets = new long[count];
+                for (int f = 0; f < count; f++) {
+                    offsets[f] = cells[f] >= 0 ? column.getOffset(cells[f]) : 0;
+                }
+                writer.writeColumn(offsets, defined);
+
+                for (int c = 0; c < column.getColumnCount(); c++) {
+                    String[] values = new String[count];
+                    for (int f = 0; f < count; f++) {
+                        values[f] = cells[f] >= 0 ? value(column, c, cells[f]) : null;
+                    }
+                    writer.writeColumn(values, null);
+                }
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes the table of a variable.
+     */
+    private static void writeVariable(final File file, final ColumnSnapshot column) throws IOException {
+        List<ParquetWriter.Column> schema = new ArrayList<>();
+        schema.add(ParquetWriter.Column.required("ordinal", ParquetWriter.Type.INT32));
+        schema.add(ParquetWriter.Column.required("onset", ParquetWriter.Type.INT64));
+        schema.add(ParquetWriter.Column.required("offset", ParquetWriter.Type.INT64));
+        List<String> arguments = argumentNames(column);
+        for (int c = 0; c < arguments.size(); c++) {
+            Argument.Type type = column.getType() == Argument.Type.MATRIX
+                    ? column.getArguments().get(c).type : column.getType();
+            schema.add(ParquetWriter.Column.string(arguments.get(c), type == Argument.Type.NOMINAL));
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            Map<String, String> metadata = new LinkedHashMap<>();
+            metadata.put("datavyu.variable", column.getName());
+            metadata.put("datavyu.type", column.getType().toString());
+            ParquetWriter writer = new ParquetWriter(out, schema, metadata);
+            for (int from = 0; from < column.size(); from += ROW_GROUP_SIZE) {
+                int count = Math.min(column.size() - from, ROW_GROUP_SIZE);
+                writer.startRowGroup(count);
+
+                int[] ordinals = new int[count];
+                long[] onsets = new long[count];
+                long[] offsets = new long[count];
+                for (int row = 0; row < count; row++) {
+                    ordinals[row] = from + row + 1;
+                    onsets[row] = column.getOnset(from + row);
+                    offsets[row] = column.getOffset(from + row);
+                }
+                writer.writeColumn(ordinals, null);
+                writer.writeColumn(onsets, null);
+                writer.writeColumn(offsets, null);
+
+                for (int c = 0; c < column.getColumnCount(); c++) {
+                    String[] values = new String[count];
+                    for (int row = 0; row < count; row++) {
+                        values[row] = value(column, c, from + row);
+                    }
+                    writer.writeColumn(values, null);
+                }
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * @return The value of a cell, null if empty.
+     */
+    private static String value(final ColumnSnapshot column, final int c, final int row) {
+        String value = column.getValue(c, row);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * @return The names of the value columns of a variable: the arguments of a matrix, otherwise "value".
+     */
+    private static List<String> argumentNames(final ColumnSnapshot column) {
+        List<String> names = new ArrayList<>();
+        if (column.getType() == Argument.Type.MATRIX) {
+            for (Argument argument : column.getArguments()) {
+                names.add(argument.name);
+            }
+        } else {
+            names.add("value");
+        }
+        return names;
+    }
+
+    /**
+     * Names the table of each variable after it. Names that would clash, ignoring case as some file systems do, are
+     * numbered.
+     */
+    static List<File> fileNames(final File directory, final List<ColumnSnapshot> columns) {
+        Set<String> used = new HashSet<>();
+        used.add(FRAMES_FILE);
+        List<File> files = new ArrayList<>(columns.size());
+        for (ColumnSnapshot column : columns) {
+            String name = column.getName() + EXTENSION;
+            for (int n = 2; !used.add(name.toLowerCase(Locale.ROOT)); n++) {
+                name = column.getName() + "_" + n + EXTENSION;
+            }
+            files.add(new File(directory, name));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,783 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a flat table in the Apache Parquet file format, which pandas, R (arrow) and Spark read directly.
+ *
+ * Only what the exports need is supported: required or optional 32 and 64 bit integers and optional UTF-8 strings,
+ * the latter either plain or dictionary encoded. Rows are written in row groups handed over by the caller a column
+ * at a time; each column of a row group is cut into data pages of {@link #PAGE_SIZE} rows, compressed with GZIP.
+ * Integer columns carry their minimum and maximum in the metadata so readers can skip row groups. The metadata is encoded with the
+ * Thrift compact protocol as the format requires, by a small encoder of its own rather than a Thrift library.
+ *
+ * See https://github.com/apache/parquet-format for the format.
+ */
+final class ParquetWriter implements Closeable {
+
+    /** Number of rows per data page */
+    static final int PAGE_SIZE = 1 << 16;
+
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+    /** Physical types */
+    private static final int INT32 = 1;
+    private static final int INT64 = 2;
+    private static final int BYTE_ARRAY = 6;
+
+    /** Encodings */
+    private static final int PLAIN = 0;
+    private static final int PLAIN_DICTIONARY = 2;
+    private static final int RLE = 3;
+    private static final int RLE_DICTIONARY = 8;
+
+    /** Page types */
+    private static final int DATA_PAGE = 0;
+    private static final int DICTIONARY_PAGE = 2;
+
+    private static final int GZIP = 2;
+
+    /** The types of columns */
+    enum Type {
+        /** int[] values */
+        INT32,
+        /** long[] values */
+        INT64,
+        /** String[] values, null for missing values */
+        STRING
+    }
+
+    /** A column of the table */
+    static final class Column {
+        final String name;
+        final Type type;
+        final boolean optional;
+        final boolean dictionary;
+
+        private Column(final String name, final Type type, final boolean optional, final boolean dictionary) {
+            this.name = name;
+            this.type = type;
+            this.optional = optional;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * @return An integer column that has a value in each row.
+         */
+        static Column required(final String name, final Type type) {
+            return new Column(name, type, false, false);
+        }
+
+        /**
+         * @return An integer column that may miss values.
+         */
+        static Column optional(final String name, final Type type) {
+            return new Column(name, type, true, false);
+        }
+
+        /**
+         * @param dictionary True to store each distinct value once and a small code per row, which suits columns
+         *                   with few distinct values.
+         * @return A string column; strings may be missing.
+         */
+        static Column string(final String name, final boolean dictionary) {
+            return new Column(name, Type.STRING, true, dictionary);
+        }
+    }
+
+    /** The metadata of a column chunk, written with the footer */
+    private static final class Chunk {
+        final List<Integer> encodings = new ArrayList<>();
+        long firstPage;
+        long dictionaryPage = -1;
+        long dataPage;
+        long uncompressedSize;
+        long compressedSize;
+        long nullCount;
+        /** The number of bits per dictionary code */
+        int bitWidth;
+        /** The size in bytes of the integers whose range is kept, 0 if none */
+        int valueSize;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        void updateRange(final long value, final int size) {
+            valueSize = size;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * @return A value of the range, plain encoded.
+         */
+        byte[] encode(final long value) {
+            byte[] bytes = new byte[valueSize];
+            for (int b = 0; b < valueSize; b++) {
+                bytes[b] = (byte) (value >>> (8 * b));
+            }
+            return bytes;
+        }
+    }
+
+    /** The metadata of a row group */
+    private static final class RowGroup {
+        final Chunk[] chunks;
+        final int rows;
+        /** The number of columns written */
+        int written = 0;
+
+        RowGroup(final int columns, final int rows) {
+            this.chunks = new Chunk[columns];
+            this.rows = rows;
+        }
+    }
+
+    private final OutputStream out;
+
+    private final List<Column> columns;
+
+    private final Map<String, String> metadata;
+
+    private final List<RowGroup> rowGroups = new ArrayList<>();
+
+    /** The row group being written, null if none */
+    private RowGroup rowGroup;
+
+    /** The number of bytes written */
+    private long position = 0;
+
+    /**
+     * Starts a file.
+     *
+     * @param out The stream to write to; the caller closes it.
+     * @param columns The columns of the table.
+     * @param metadata Key value pairs stored with the table.
+     * @throws IOException If unable to write to the stream.
+     */
+    ParquetWriter(final OutputStream out,
+                  final List<Column> columns,
+                  final Map<String, String> metadata) throws IOException {
+        this.out = out;
+        this.columns = new ArrayList<>(columns);
+        this.metadata = new LinkedHashMap<>(metadata);
+        write(MAGIC);
+    }
+
+    /**
+     * Starts a row group. Its columns follow with {@link #writeColumn}, in the order of the table, so that only one
+     * column of the row group needs to be held in memory at a time.
+     *
+     * @param rows The number of rows, at least one.
+     */
+    void startRowGroup(final int rows) {
+        if (rowGroup != null) {
+            throw new IllegalStateException("The row group has not ended");
+        }
+        if (rows < 1) {
+            throw new IllegalArgumentException("Invalid number of rows: " + rows);
+        }
+        rowGroup = new RowGroup(columns.size(), rows);
+    }
+
+    /**
+     * Writes the next column of the row group; the row group ends with its last column.
+     *
+     * @param values The values of the rows: int[], long[] or String[] by the type of the column.
+     * @param defined For integer columns that are optional, whether each row has a value; null if all rows do.
+     * @throws IOException If unable to write to the stream.
+     */
+    void writeColumn(final Object values, final boolean[] defined) throws IOException {
+        if (rowGroup == null) {
+            throw new IllegalStateException("No row group has been started");
+        }
+        int c = rowGroup.written;
+        Column column = columns.get(c);
+        int rows = rowGroup.rows;
+        boolean[] present = defined;
+        if (column.type == Type.STRING) {
+            String[] strings = (String[]) values;
+            present = new boolean[rows];
+            for (int row = 0; row < rows; row++) {
+                present[row] = strings[row] != null;
+            }
+        }
+        rowGroup.chunks[c] = writeChunk(column, rows, values, present);
+        if (++rowGroup.written == columns.size()) {
+            rowGroups.add(rowGroup);
+            rowGroup = null;
+        }
+    }
+
+    /**
+     * Writes the footer. The stream is not closed.
+     *
+     * @throws IOException If unable to write to the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (rowGroup != null) {
+            throw new IllegalStateException("The row group has not ended");
+        }
+        long rowCount = 0;
+        for (RowGroup rowGroup : rowGroups) {
+            rowCount += rowGroup.rows;
+        }
+
+        CompactWriter footer = new CompactWriter();
+        footer.beginStruct();
+        footer.i32Field(1, 1);
+
+        footer.listField(2, CompactWriter.STRUCT, columns.size() + 1);
+        footer.beginStruct();
+        footer.stringField(4, "schema");
+        footer.i32Field(5, columns.size());
+        footer.endStruct();
+        for (Column column : columns) {
+            footer.beginStruct();
+            footer.i32Field(1, physicalType(column));
+            footer.i32Field(3, column.optional ? 1 : 0);
+            footer.stringField(4, column.name);
+            if (column.type == Type.STRING) {
+                // UTF8 converted type and STRING logical type
+                footer.i32Field(6, 0);
+                footer.structField(10);
+                footer.structField(1);
+                footer.endStruct();
+                footer.endStruct();
+            }
+            footer.endStruct();
+        }
+
+        footer.i64Field(3, rowCount);
+
+        footer.listField(4, CompactWriter.STRUCT, rowGroups.size());
+        for (int g = 0; g < rowGroups.size(); g++) {
+            RowGroup rowGroup = rowGroups.get(g);
+            long uncompressed = 0;
+            long compressed = 0;
+            for (Chunk chunk : rowGroup.chunks) {
+                uncompressed += chunk.uncompressedSize;
+                compressed += chunk.compressedSize;
+            }
+            footer.beginStruct();
+            footer.listField(1, CompactWriter.STRUCT, columns.size());
+            for (int c = 0; c < columns.size(); c++) {
+                writeChunkMetadata(footer, columns.get(c), rowGroup.chunks[c], rowGroup.rows);
+            }
+            footer.i64Field(2, uncompressed);
+            footer.i64Field(3, rowGroup.rows);
+            footer.i64Field(5, rowGroup.chunks.length == 0 ? position : rowGroup.chunks[0].firstPage);
+            footer.i64Field(6, compressed);
+            footer.i16Field(7, g);
+            footer.endStruct();
+        }
+
+        footer.listField(5, CompactWriter.STRUCT, metadata.size());
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            footer.beginStruct();
+            footer.stringField(1, entry.getKey());
+            footer.stringField(2, entry.getValue());
+            footer.endStruct();
+        }
+        footer.stringField(6, "Datavyu");
+
+        // The minimum and maximum follow the order of the type, i.e. signed for integers
+        footer.listField(7, CompactWriter.STRUCT, columns.size());
+        for (int c = 0; c < columns.size(); c++) {
+            footer.beginStruct();
+            footer.structField(1);
+            footer.endStruct();
+            footer.endStruct();
+        }
+        footer.endStruct();
+
+        write(footer.toByteArray());
+        byte[] length = new byte[4];
+        putInt(length, 0, footer.size());
+        write(length);
+        write(MAGIC);
+        out.flush();
+    }
+
+    private Chunk writeChunk(final Column column,
+                             final int rows,
+                             final Object values,
+                             final boolean[] present) throws IOException {
+        Chunk chunk = new Chunk();
+        chunk.firstPage = position;
+
+        int[] codes = null;
+        if (column.dictionary) {
+            String[] strings = (String[]) values;
+            Map<String, Integer> dictionary = new HashMap<>();
+            List<String> entries = new ArrayList<>();
+            codes = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                if (strings[row] != null) {
+                    Integer code = dictionary.get(strings[row]);
+                    if (code == null) {
+                        code = entries.size();
+                        dictionary.put(strings[row], code);
+                        entries.add(strings[row]);
+                    }
+                    codes[row] = code;
+                }
+            }
+
+            if (!entries.isEmpty()) {
+                Buffer page = new Buffer();
+                for (String entry : entries) {
+                    page.putBytes(entry.getBytes(StandardCharsets.UTF_8));
+                }
+                CompactWriter header = new CompactWriter();
+                header.beginStruct();
+                header.i32Field(1, DICTIONARY_PAGE);
+                writePage(chunk, header, 7, page, entries.size(), PLAIN_DICTIONARY);
+                chunk.dictionaryPage = chunk.firstPage;
+                addEncoding(chunk, PLAIN_DICTIONARY);
+                chunk.bitWidth = Math.max(1, 32 - Integer.numberOfLeadingZeros(entries.size() - 1));
+            } else {
+                codes = null;
+            }
+        }
+
+        chunk.dataPage = position;
+        for (int from = 0; from < rows; from += PAGE_SIZE) {
+            int to = Math.min(rows, from + PAGE_SIZE);
+            Buffer page = new Buffer();
+            if (column.optional) {
+                int[] levels = new int[to - from];
+                for (int row = from; row < to; row++) {
+                    levels[row - from] = present == null || present[row] ? 1 : 0;
+                }
+                byte[] encoded = encodeHybrid(levels, levels.length, 1);
+                page.putInt(encoded.length);
+                page.put(encoded, encoded.length);
+                addEncoding(chunk, RLE);
+            }
+
+            int encoding = PLAIN;
+            if (codes != null) {
+                int count = 0;
+                int[] pageCodes = new int[to - from];
+                for (int row = from; row < to; row++) {
+                    if (present[row]) {
+                        pageCodes[count++] = codes[row];
+                    }
+                }
+                page.putByte(chunk.bitWidth);
+                byte[] encoded = encodeHybrid(pageCodes, count, chunk.bitWidth);
+                page.put(encoded, encoded.length);
+                encoding = RLE_DICTIONARY;
+            } else {
+                writePlain(chunk, column, values, present, from, to, page);
+            }
+            addEncoding(chunk, encoding);
+
+            CompactWriter header = new CompactWriter();
+            header.beginStruct();
+            header.i32Field(1, DATA_PAGE);
+            writePage(chunk, header, 5, page, to - from, encoding);
+        }
+
+        if (present != null) {
+            for (int row = 0; row < rows; row++) {
+                if (!present[row]) {
+                    chunk.nullCount++;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Appends the values of the rows that have one, and notes the minimum and maximum of integers.
+     */
+    private static void writePlain(final Chunk chunk,
+                                   final Column column,
+                                   final Object values,
+                                   final boolean[] present,
+                                   final int from,
+                                   final int to,
+                                   final Buffer page) {
+        switch (column.type) {
+            case INT32: {
+                int[] ints = (int[]) values;
+                for (int row = from; row < to; row++) {
+                    if (present == null || present[row]) {
+                        page.putInt(ints[row]);
+                        chunk.updateRange(ints[row], 4);
+                    }
+                }
+                break;
+            }
+            case INT64: {
+                long[] longs = (long[]) values;
+                for (int row = from; row < to; row++) {
+                    if (present == null || present[row]) {
+                        page.putLong(longs[row]);
+                        chunk.updateRange(longs[row], 8);
+                    }
+                }
+                break;
+            }
+            case STRING: {
+                String[] strings = (String[]) values;
+                for (int row = from; row < to; row++) {
+                    if (strings[row] != null) {
+                        page.putBytes(strings[row].getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Compresses a page and writes it with its header.
+     *
+     * @param header The page header, with the page type written.
+     * @param field The field of the page header that holds the header specific to the page type.
+     */
+    private void writePage(final Chunk chunk,
+                           final CompactWriter header,
+                           final int field,
+                           final Buffer page,
+                           final int values,
+                           final int encoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(page.size / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(page.bytes, 0, page.size);
+        }
+
+        header.i32Field(2, page.size);
+        header.i32Field(3, compressed.size());
+        header.structField(field);
+        header.i32Field(1, values);
+        header.i32Field(2, encoding);
+        if (field == 5) {
+            // Definition and repetition levels
+            header.i32Field(3, RLE);
+            header.i32Field(4, RLE);
+        }
+        header.endStruct();
+        header.endStruct();
+
+        byte[] headerBytes = header.toByteArray();
+        write(headerBytes);
+        compressed.writeTo(out);
+        position += compressed.size();
+        chunk.uncompressedSize += headerBytes.length + page.size;
+        chunk.compressedSize += headerBytes.length + compressed.size();
+    }
+
+    private void writeChunkMetadata(final CompactWriter footer,
+                                    final Column column,
+                                    final Chunk chunk,
+                                    final int rows) {
+        footer.beginStruct();
+        footer.i64Field(2, chunk.firstPage);
+        footer.structField(3);
+        footer.i32Field(1, physicalType(column));
+        footer.listField(2, CompactWriter.I32, chunk.encodings.size());
+        for (int encoding : chunk.encodings) {
+            footer.i32(encoding);
+        }
+        footer.listField(3, CompactWriter.BINARY, 1);
+        footer.string(column.name);
+        footer.i32Field(4, GZIP);
+        footer.i64Field(5, rows);
+        footer.i64Field(6, chunk.uncompressedSize);
+        footer.i64Field(7, chunk.compressedSize);
+        footer.i64Field(9, chunk.dataPage);
+        if (chunk.dictionaryPage >= 0) {
+            footer.i64Field(11, chunk.dictionaryPage);
+        }
+        footer.structField(12);
+        footer.i64Field(3, chunk.nullCount);
+        if (chunk.valueSize > 0) {
+            footer.binaryField(5, chunk.encode(chunk.max));
+            footer.binaryField(6, chunk.encode(chunk.min));
+        }
+        footer.endStruct();
+        footer.endStruct();
+        footer.endStruct();
+    }
+
+    private static int physicalType(final Column column) {
+        switch (column.type) {
+            case INT32:
+                return INT32;
+            case INT64:
+                return INT64;
+            default:
+                return BYTE_ARRAY;
+        }
+    }
+
+    private static void addEncoding(final Chunk chunk, final int encoding) {
+        if (!chunk.encodings.contains(encoding)) {
+            chunk.encodings.add(encoding);
+        }
+    }
+
+    /**
+     * Encodes values with the RLE / bit-packing hybrid encoding: runs of at least eight equal values become RLE
+     * runs, other values are bit-packed in groups of eight. Only the last group may be padded.
+     *
+     * @param values The values, each fitting in the bit width.
+     * @param count The number of values.
+     * @param bitWidth The number of bits per value, 1 to 32.
+     * @return The encoded values, without a length prefix.
+     */
+    static byte[] encodeHybrid(final int[] values, final int count, final int bitWidth) {
+        Buffer out = new Buffer();
+        int packedFrom = 0;
+        int i = 0;
+        while (i < count) {
+            int run = 1;
+            while (i + run < count && values[i + run] == values[i]) {
+                run++;
+            }
+            if (run >= 8) {
+                writePacked(out, values, packedFrom, i, bitWidth);
+                out.putVarint((long) run << 1);
+                int value = values[i];
+                for (int b = 0; b < (bitWidth + 7) / 8; b++) {
+                    out.putByte(value >>> (8 * b));
+                }
+                i += run;
+                packedFrom = i;
+            } else {
+                // A whole group, so that only the last group of the values can be padded
+                i = Math.min(count, i + 8);
+            }
+        }
+        writePacked(out, values, packedFrom, count, bitWidth);
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    /**
+     * Bit-packs values in groups of eight, least significant bits first, padding the last group with zeros.
+     */
+    private static void writePacked(final Buffer out,
+                                    final int[] values,
+                                    final int from,
+                                    final int to,
+                                    final int bitWidth) {
+        if (from == to) {
+            return;
+        }
+        int groups = (to - from + 7) / 8;
+        out.putVarint(((long) groups << 1) | 1);
+        long bits = 0;
+        int bitCount = 0;
+        for (int i = from; i < from + groups * 8; i++) {
+            long value = i < to ? values[i] & 0xFFFFFFFFL : 0;
+            bits |= value << bitCount;
+            bitCount += bitWidth;
+            while (bitCount >= 8) {
+                out.putByte((int) bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+    }
+
+    private void write(final byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        for (int b = 0; b < 4; b++) {
+            bytes[offset + b] = (byte) (value >>> (8 * b));
+        }
+    }
+
+    /** A growing little endian byte buffer */
+    private static class Buffer {
+        byte[] bytes = new byte[256];
+        int size = 0;
+
+        private void ensure(final int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        void putByte(final int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void put(final byte[] value, final int length) {
+            ensure(length);
+            System.arraycopy(value, 0, bytes, size, length);
+            size += length;
+        }
+
+        void putInt(final int value) {
+            ensure(4);
+            ParquetWriter.putInt(bytes, size, value);
+            size += 4;
+        }
+
+        void putLong(final long value) {
+            ensure(8);
+            for (int b = 0; b < 8; b++) {
+                bytes[size++] = (byte) (value >>> (8 * b));
+            }
+        }
+
+        /** Puts a byte array as PLAIN encodes it: its length, then its bytes */
+        void putBytes(final byte[] value) {
+            putInt(value.length);
+            put(value, value.length);
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                putByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            putByte((int) value);
+        }
+    }
+
+    /**
+     * Writes structs in the Thrift compact protocol. Fields must be written in increasing order of their ids within
+     * each struct.
+     */
+    private static final class CompactWriter extends Buffer {
+        static final int TRUE = 1;
+        static final int FALSE = 2;
+        static final int I16 = 4;
+        static final int I32 = 5;
+        static final int I64 = 6;
+        static final int BINARY = 8;
+        static final int LIST = 9;
+        static final int STRUCT = 12;
+
+        /** The id of the last field written, per open struct */
+        private int[] lastField = new int[8];
+        private int depth = -1;
+
+        void beginStruct() {
+            if (++depth == lastField.length) {
+                lastField = Arrays.copyOf(lastField, depth * 2);
+            }
+            lastField[depth] = 0;
+        }
+
+        void endStruct() {
+            putByte(0);
+            depth--;
+        }
+
+        private void fieldHeader(final int id, final int type) {
+            int delta = id - lastField[depth];
+            if (delta > 0 && delta <= 15) {
+                putByte(delta << 4 | type);
+            } else {
+                putByte(type);
+                putVarint(zigzag(id));
+            }
+            lastField[depth] = id;
+        }
+
+        void i16Field(final int id, final int value) {
+            fieldHeader(id, I16);
+            putVarint(zigzag(value));
+        }
+
+        void i32Field(final int id, final int value) {
+            fieldHeader(id, I32);
+            i32(value);
+        }
+
+        void i64Field(final int id, final long value) {
+            fieldHeader(id, I64);
+            putVarint((value << 1) ^ (value >> 63));
+        }
+
+        void binaryField(final int id, final byte[] value) {
+            fieldHeader(id, BINARY);
+            putVarint(value.length);
+            put(value, value.length);
+        }
+
+        void stringField(final int id, final String value) {
+            fieldHeader(id, BINARY);
+            string(value);
+        }
+
+        /**
+         * Starts a struct field; end it with {@link #endStruct()}.
+         */
+        void structField(final int id) {
+            fieldHeader(id, STRUCT);
+            beginStruct();
+        }
+
+        /**
+         * Starts a list field; write its elements next.
+         */
+        void listField(final int id, final int elementType, final int size) {
+            fieldHeader(id, LIST);
+            if (size < 15) {
+                putByte(size << 4 | elementType);
+            } else {
+                putByte(0xF0 | elementType);
+                putVarint(size);
+            }
+        }
+
+        void i32(final int value) {
+            putVarint(zigzag(value));
+        }
+
+        void string(final String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            put(bytes, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static long zigzag(final int value) {
+            return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+        }
+    }
+}
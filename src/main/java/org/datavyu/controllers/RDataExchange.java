@@ -0,0 +1,385 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.ColumnSnapshot;
+import org.datavyu.models.db.ColumnWriter;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.DataStoreSnapshot;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exchanges the data store with R scripts, see Datavyu_API.R for the R side.
+ *
+ * The exchange file holds all variables column by column, so R reads each column with a single readBin call:
+ * <pre>
+ * int32 version (1), int32 number of variables, then per variable:
+ *   string name, string type, int32 number of value columns, a string per value column name,
+ *   int32 number of rows n, int32[n] ordinals, float64[n] onsets, float64[n] offsets,
+ *   per value column: int32 number of levels, a string per level, int32[n] codes (1-based level, 0 for empty)
+ * </pre>
+ * Numbers are little endian and strings are NUL terminated UTF-8. Text and nominal variables have a single value
+ * column named "arg".
+ */
+final class RDataExchange {
+
+    /** Version of the exchange format */
+    private static final int VERSION = 1;
+
+    /** Name of the value column of text and nominal variables */
+    static final String VALUE_COLUMN = "arg";
+
+    /** A variable as read back from R */
+    static final class Table {
+        final String name;
+        final Argument.Type type;
+        final String[] columns;
+
+        /** Ordinal of the cell each row came from; 0 for a new row */
+        final int[] ordinals;
+        final long[] onsets;
+        final long[] offsets;
+
+        /** Values by column and row; null for empty */
+        final String[][] values;
+
+        Table(final String name, final Argument.Type type, final String[] columns, final int rows) {
+            this.name = name;
+            this.type = type;
+            this.columns = columns;
+            this.ordinals = new int[rows];
+            this.onsets = new long[rows];
+            this.offsets = new long[rows];
+            this.values = new String[columns.length][rows];
+        }
+
+        int size() {
+            return ordinals.length;
+        }
+    }
+
+    private RDataExchange() {
+    }
+
+    /**
+     * Writes a data store to an exchange file.
+     *
+     * @param snapshot The snapshot of the data store.
+     * @param file The file to write.
+     * @throws IOException If unable to write the file.
+     */
+    static void write(final DataStoreSnapshot snapshot, final File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(snapshot, out);
+        }
+    }
+
+    /**
+     * Writes a data store to a stream in the exchange format.
+     *
+     * @param snapshot The snapshot of the data store.
+     * @param out The stream to write to; the caller closes it.
+     * @throws IOException If unable to write to the stream.
+     */
+    static void write(final DataStoreSnapshot snapshot, final OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeInt(VERSION);
+        writer.writeInt(snapshot.getColumns().size());
+        for (ColumnSnapshot column : snapshot.getColumns()) {
+            int rows = column.size();
+            writer.writeString(column.getName());
+            writer.writeString(column.getType().name());
+            writer.writeInt(column.getColumnCount());
+            if (column.getType() == Argument.Type.MATRIX) {
+                for (Argument argument : column.getArguments()) {
+                    writer.writeString(argument.name);
+                }
+            } else {
+                writer.writeString(VALUE_COLUMN);
+            }
+            writer.writeInt(rows);
+            for (int row = 0; row < rows; row++) {
+                writer.writeInt(row + 1);
+            }
+            for (int row = 0; row < rows; row++) {
+                writer.writeDouble(column.getOnset(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                writer.writeDouble(column.getOffset(row));
+            }
+
+            for (int c = 0; c < column.getColumnCount(); c++) {
+                // Levels are numbered in order of first use, so values the variable no longer holds are left out
+                Map<String, Integer> levels = new HashMap<>();
+                List<String> levelValues = new ArrayList<>();
+                int[] codes = new int[rows];
+                for (int row = 0; row < rows; row++) {
+                    String value = column.getValue(c, row);
+                    if (value != null && !value.isEmpty()) {
+                        Integer code = levels.get(value);
+                        if (code == null) {
+                            levelValues.add(value);
+                            code = levelValues.size();
+                            levels.put(value, code);
+                        }
+                        codes[row] = code;
+                    }
+                }
+                writer.writeInt(levelValues.size());
+                for (String value : levelValues) {
+                    writer.writeString(value);
+                }
+                for (int code : codes) {
+                    writer.writeInt(code);
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads an exchange file.
+     *
+     * @param file The file to read.
+     * @return The variables in the file.
+     * @throws IOException If unable to read the file or it is not an exchange file.
+     */
+    static List<Table> read(final File file) throws IOException {
+        return read(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Reads the contents of an exchange file.
+     *
+     * @param bytes The contents.
+     * @return The variables.
+     * @throws IOException If the contents are not in the exchange format.
+     */
+    static List<Table> read(final byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getInt() != VERSION) {
+                throw new IOException("Unsupported data exchange version");
+            }
+            int count = in.getInt();
+            List<Table> tables = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                Argument.Type type = Argument.Type.valueOf(readString(in));
+                String[] columns = new String[in.getInt()];
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = readString(in);
+                }
+                Table table = new Table(name, type, columns, in.getInt());
+                for (int row = 0; row < table.size(); row++) {
+                    table.ordinals[row] = in.getInt();
+                }
+                for (int row = 0; row < table.size(); row++) {
+                    table.onsets[row] = Math.round(in.getDouble());
+                }
+                for (int row = 0; row < table.size(); row++) {
+                    table.offsets[row] = Math.round(in.getDouble());
+                }
+                for (int c = 0; c < columns.length; c++) {
+                    String[] levels = new String[in.getInt()];
+                    for (int l = 0; l < levels.length; l++) {
+                        levels[l] = readString(in);
+                    }
+                    for (int row = 0; row < table.size(); row++) {
+                        int code = in.getInt();
+                        table.values[c][row] = code == 0 ? null : levels[code - 1];
+                    }
+                }
+                tables.add(table);
+            }
+            return tables;
+        } catch (RuntimeException e) {
+            // Truncated file, unknown type or a code without a level
+            throw new IOException("Invalid data exchange file", e);
+        }
+    }
+
+    private static String readString(final ByteBuffer in) {
+        int start = in.position();
+        while (in.get() != 0) {
+            // find the terminator
+        }
+        return new String(in.array(), start, in.position() - start - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the variables read back from R to a data store as one batch of mutations.
+     *
+     * Rows are matched to the cells of the variable of the same name by ordinal, as numbered by {@link #write}: the
+     * cells of changed rows are updated, rows without a matching cell are added as cells and cells that no row
+     * refers to are removed. Unchanged cells are left alone, and variables that are not in the tables are kept.
+     * A variable that does not exist is created, and value columns that a matrix variable does not have yet are
+     * added as nominal arguments.
+     *
+     * @param tables The variables read back from R.
+     * @param dataStore The data store to update.
+     * @return The number of cells added, changed or removed.
+     * @throws UserWarningException If a variable cannot be created.
+     */
+    static int apply(final List<Table> tables, final DataStore dataStore) throws UserWarningException {
+        int changed = 0;
+        dataStore.beginBatch();
+        try {
+            for (Table table : tables) {
+                changed += apply(table, dataStore);
+            }
+        } finally {
+            dataStore.commitBatch();
+        }
+        return changed;
+    }
+
+    private static int apply(final Table table, final DataStore dataStore) throws UserWarningException {
+        Variable variable = dataStore.getVariable(table.name);
+        boolean created = variable == null;
+        if (created) {
+            boolean matrix = table.type == Argument.Type.MATRIX
+                    || !Arrays.asList(table.columns).equals(Arrays.asList(VALUE_COLUMN));
+            variable = dataStore.createVariable(table.name, matrix ? Argument.Type.MATRIX : table.type);
+        }
+        boolean matrix = variable.getRootNode().type == Argument.Type.MATRIX;
+
+        // Where each value column goes: the index of the argument, or -1 if the variable has no such argument
+        int[] targets = new int[table.columns.length];
+        for (int c = 0; c < table.columns.length; c++) {
+            targets[c] = matrix ? argumentIndex(variable, table.columns[c]) : (c == 0 ? 0 : -1);
+        }
+        if (matrix) {
+            // A new matrix variable starts with a single argument, which becomes the first value column
+            if (created && table.columns.length > 0) {
+                renameArgument(variable, 0, table.columns[0]);
+                targets[0] = 0;
+            }
+            for (int c = 0; c < table.columns.length; c++) {
+                if (targets[c] < 0) {
+                    variable.addArgument(Argument.Type.NOMINAL);
+                    targets[c] = variable.getRootNode().childArguments.size() - 1;
+                    renameArgument(variable, targets[c], table.columns[c]);
+                }
+            }
+        }
+
+        // Rows are matched to the cells by ordinal, i.e. by temporal order; rows without a cell become new cells
+        ColumnWriter writer = new ColumnWriter(variable);
+        boolean[] kept = new boolean[writer.size()];
+        int[] rows = new int[table.size()];
+        for (int row = 0; row < rows.length; row++) {
+            int index = table.ordinals[row] - 1;
+            if (index >= 0 && index < kept.length && !kept[index]) {
+                kept[index] = true;
+                rows[row] = index;
+            } else {
+                rows[row] = -1;
+            }
+        }
+
+        // R has no empty values but missing ones, which clear the value of the cell
+        String[][] values = new String[matrix ? variable.getRootNode().childArguments.size() : 1][];
+        for (int c = 0; c < table.columns.length; c++) {
+            if (targets[c] >= 0) {
+                values[targets[c]] = new String[rows.length];
+                for (int row = 0; row < rows.length; row++) {
+                    String value = table.values[c][row];
+                    values[targets[c]][row] = value == null ? "" : value;
+                }
+            }
+        }
+        return writer.write(rows, table.onsets, table.offsets, values, true);
+    }
+
+    private static int argumentIndex(final Variable variable, final String name) {
+        List<Argument> arguments = variable.getRootNode().childArguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void renameArgument(final Variable variable, final int index, final String name) {
+        Argument root = variable.getRootNode();
+        root.childArguments.get(index).name = name;
+        variable.setRootNode(root);
+    }
+
+    /**
+     * Little endian writer with a reusable buffer.
+     */
+    private static final class Writer {
+        private final OutputStream out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(final OutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(final int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeDouble(final double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void writeString(final String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length + 1 > buffer.remaining()) {
+                flush();
+            }
+            if (bytes.length + 1 > buffer.capacity()) {
+                out.write(bytes);
+                out.write(0);
+            } else {
+                buffer.put(bytes).put((byte) 0);
+            }
+        }
+
+        private void ensure(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of JRuby runtimes with Datavyu_API.rb loaded, so that running a Ruby script does not have to start a
+ * runtime and parse the API first.
+ *
+ * Runtimes are started on a background thread, ahead of the first script when {@link #prestart()} is called at
+ * startup. A runtime taken with {@link #acquire()} is handed back with {@link #release} once the script has finished;
+ * its variables are cleared and the runtime, together with the code JRuby has compiled for it, serves the next
+ * script. Methods, classes and globals that a script defines stay in the runtime; local variables do not.
+ */
+public final class RubyEnginePool {
+
+    /** The logger instance for this class */
+    private static Logger logger = LogManager.getLogger(RubyEnginePool.class);
+
+    /** The pool of the application */
+    private static final RubyEnginePool INSTANCE = new RubyEnginePool(1);
+
+    /** Number of idle runtimes to keep */
+    private final int size;
+
+    /** Idle runtimes, the most recently used first */
+    private final Deque<ScriptingContainer> idle = new ArrayDeque<>();
+
+    /** Runtimes being started */
+    private final Deque<Future<ScriptingContainer>> starting = new ArrayDeque<>();
+
+    /** Starts runtimes one at a time; the thread goes away when idle */
+    private final ExecutorService starter = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "Datavyu Ruby start");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param size The number of idle runtimes to keep.
+     */
+    RubyEnginePool(final int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return The pool of the application.
+     */
+    public static RubyEnginePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a JRuby runtime of its own with Datavyu_API.rb loaded; scripts run in it see a new local scope on each
+     * evaluation.
+     *
+     * @return The runtime.
+     */
+    static ScriptingContainer newEngine() {
+        long start = System.nanoTime();
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD,
+                LocalVariableBehavior.TRANSIENT);
+        container.runScriptlet("require 'Datavyu_API.rb'");
+        logger.info("Started a Ruby runtime in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return container;
+    }
+
+    /**
+     * Starts runtimes in the background until the pool holds its size in idle and starting runtimes.
+     */
+    public synchronized void prestart() {
+        while (idle.size() + starting.size() < size) {
+            starting.add(starter.submit(RubyEnginePool::newEngine));
+        }
+    }
+
+    /**
+     * Takes a runtime from the pool, waiting for one that is being started or starting one if there is none.
+     *
+     * @return The runtime, which must be handed back with {@link #release} or {@link #discard}.
+     */
+    public ScriptingContainer acquire() {
+        Future<ScriptingContainer> pending;
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                return idle.poll();
+            }
+            pending = starting.poll();
+        }
+        if (pending != null) {
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.error("Unable to start a Ruby runtime in the background. Error: ", e.getCause());
+            }
+        }
+        return newEngine();
+    }
+
+    /**
+     * Hands a runtime back to the pool once a script has finished in it.
+     *
+     * @param container The runtime taken with {@link #acquire()}.
+     */
+    public void release(final ScriptingContainer container) {
+        // Clear what the script was given and left behind in the variable map
+        container.clear();
+        container.setWriter(new OutputStreamWriter(System.out));
+        container.setErrorWriter(new OutputStreamWriter(System.err));
+        synchronized (this) {
+            if (idle.size() < size) {
+                idle.push(container);
+                return;
+            }
+        }
+        container.terminate();
+    }
+
+    /**
+     * Terminates a runtime that should not be reused, e.g. after a script was interrupted, and starts a new one in
+     * its place.
+     *
+     * @param container The runtime taken with {@link #acquire()}.
+     */
+    public void discard(final ScriptingContainer container) {
+        container.terminate();
+        prestart();
+    }
+
+    /**
+     * Terminates the idle runtimes.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (ScriptingContainer container : idle) {
+                container.terminate();
+            }
+            idle.clear();
+            for (Future<ScriptingContainer> pending : starting) {
+                pending.cancel(true);
+            }
+            starting.clear();
+        }
+        starter.shutdownNow();
+    }
+}
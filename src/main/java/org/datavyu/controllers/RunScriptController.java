@@ -14,6 +14,7 @@
  */
 package org.datavyu.controllers;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datavyu.Datavyu;
@@ -22,10 +23,11 @@ import org.datavyu.models.db.*;
 import org.datavyu.util.FileFilters.RbFilter;
 import org.datavyu.views.ConsoleV;
 import org.datavyu.views.DatavyuFileChooser;
-import org.jruby.embed.AttributeName;
 import com.github.rcaller.rstuff.RCaller;
 import com.github.rcaller.rstuff.RCode;
 import org.jruby.embed.EvalFailedException;
+import org.jruby.embed.ParseFailedException;
+import org.jruby.embed.ScriptingContainer;
 import org.jruby.exceptions.RaiseException;
 
 import javax.script.*;
@@ -62,6 +64,18 @@ public final class RunScriptController extends SwingWorker<Object, String> {
 
     private OutputStream sIn;
 
+    /** Guards the R process, which runs one script at a time */
+    private static final Object R_LOCK = new Object();
+
+    /** The R process that is kept running between R scripts; null until the first R script runs */
+    private static RCaller rCaller = null;
+
+    /** The code buffer of the R process */
+    private static RCode rCode = null;
+
+    /** Forwards the output of the R process to the console of the script that is running */
+    private static final ForwardingOutputStream R_OUTPUT = new ForwardingOutputStream();
+
     /**
      * Constructs and invokes the run script controller.
      *
@@ -154,13 +168,9 @@ public final class RunScriptController extends SwingWorker<Object, String> {
             return;
         }
         rubyScriptIsRunning = true;
-        // init script engine
-        System.setProperty("org.jruby.embed.localvariable.behavior", "transient");
-        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-        ScriptEngineFactory scriptEngineFactory = scriptEngineManager.getEngineByName("jruby").getFactory();
-        ScriptEngine rubyEngine = scriptEngineFactory.getScriptEngine();
-        ScriptContext rubyContext = new SimpleScriptContext();
-//        rubyContext.setAttribute("db", Datavyu.getProjectController().getDataStore(), ScriptContext.ENGINE_SCOPE);
+        // Take a runtime with the API loaded from the pool
+        ScriptingContainer rubyEngine = RubyEnginePool.getInstance().acquire();
+        boolean reusable = true;
 
         try {
             try {
@@ -174,24 +184,20 @@ public final class RunScriptController extends SwingWorker<Object, String> {
 
                 logger.info("Project controller uses data store: " + Datavyu.getProjectController().getDataStore());
                 String path = System.getProperty("user.dir") + File.separator;
-                
+
                 rubyEngine.put("path", path);
+                rubyEngine.put("$db", Datavyu.getProjectController().getDataStore());
+                rubyEngine.put("$pj", Datavyu.getProjectController().getProject());
+                rubyEngine.put("$sp", Datavyu.getView());
 
                 FileReader scriptReader = new FileReader(scriptFile);
                 LineNumberReader lineReader = new LineNumberReader(
                         fileReaderIntoStringReader(scriptReader));
 
-                rubyEngine.setContext(rubyContext);
-                rubyEngine.getContext().setWriter(consoleWriter);
-                rubyEngine.getContext().setErrorWriter(consoleWriter);
+                rubyEngine.setWriter(consoleWriter);
+                rubyEngine.setErrorWriter(consoleWriter);
                 try{
-                    rubyEngine.eval("load 'Datavyu_API.rb'\n");
-                    rubyEngine.getContext().setAttribute(ScriptEngine.FILENAME, scriptFile.getAbsolutePath(), ScriptContext.ENGINE_SCOPE);
-                    rubyEngine.getContext().setAttribute(AttributeName.TERMINATION.toString(), true,
-                            ScriptContext.ENGINE_SCOPE);
-                    rubyEngine.getContext().setAttribute(AttributeName.CLEAR_VARAIBLES.toString(), true,
-                            ScriptContext.ENGINE_SCOPE);
-                    rubyEngine.eval(lineReader);
+                    rubyEngine.runScriptlet(lineReader, scriptFile.getAbsolutePath());
                     consoleWriter.close();
 
                     consoleWriterAfter.write("\nScript has finished running.");
@@ -199,7 +205,7 @@ public final class RunScriptController extends SwingWorker<Object, String> {
                     consoleWriterAfter.close();
                     lineReader.close();
                 }
-                catch (ScriptException e) {
+                catch (EvalFailedException | ParseFailedException e) {
                     //unfortunately the above seems to always be final line not line of error. still, no noticeable
                     // performance difference, so im leaving the LineNumberReader wrap
                     consoleWriter.flush();
@@ -223,7 +229,16 @@ public final class RunScriptController extends SwingWorker<Object, String> {
             }
         } catch (IOException ioe) {
             logger.error("IO Exception occurred when executing the ruby script", ioe);
+        } catch (RuntimeException | Error e) {
+            // The runtime may be left in any state
+            reusable = false;
+            throw e;
         } finally{
+            if (reusable) {
+                RubyEnginePool.getInstance().release(rubyEngine);
+            } else {
+                RubyEnginePool.getInstance().discard(rubyEngine);
+            }
             rubyScriptIsRunning = false;
         }
         Datavyu.getView().getSpreadsheetPanel().redrawCells();
@@ -254,7 +269,8 @@ public final class RunScriptController extends SwingWorker<Object, String> {
         }
 
         // These are just wrappers used by the interpreter
-        if (scriptException instanceof ScriptException || scriptException instanceof EvalFailedException) {
+        if (scriptException instanceof ScriptException || scriptException instanceof EvalFailedException
+                || scriptException instanceof ParseFailedException) {
             return s;
         }
 
@@ -290,116 +306,108 @@ public final class RunScriptController extends SwingWorker<Object, String> {
     }
 
     private void runRScript(File scriptFile) {
-        // Initialize RCaller, auto detects installed R in standard locations
-        // On windows these are C:/Program Files/R or C:/Program Files (x86)/R
-        RCaller caller = RCaller.create();
-        logger.info("Using installed R: " + caller.getRCallerOptions().getrScriptExecutable());
-
-        caller.redirectROutputToStream(sIn);
-
-        // Initialize our code buffer and database string representation
-        RCode code = RCode.create();
-        HashMap db = convertDbToColStrings();
-        HashMap<String, File> tempFiles = new HashMap<>();
-
-        // Write the database out to temporary files
-        Iterator it = db.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pairs = (Map.Entry) it.next();
-
-            // Now write this out to a temporary file
-            File outfile = new File(System.getProperty("java.io.tmpdir"), (String) pairs.getKey());
-            try {
-                BufferedWriter output = new BufferedWriter(new FileWriter(outfile));
-                output.write((String) pairs.getValue());
-                output.close();
-                tempFiles.put((String) pairs.getKey(), outfile);
-            } catch (IOException e) {
-                logger.error("Writing output to temporary files failed. Error: ", e);
-            }
-            it.remove(); // avoids a ConcurrentModificationException
-        }
-
-        // Create the R code to read in the temporary db files into a structure
-        // called db
-        code.addRCode("db <- list()");
+        File input = null;
+        File output = null;
         try {
-            // Load each of the temporary files created above into R
-            it = tempFiles.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry pairs = (Map.Entry) it.next();
-
-                String load = "db[[\"" + ((String) pairs.getKey()).toLowerCase() + "\"]] <- read.csv(\""
-                        + ((File) pairs.getValue()).getPath() + "\",header=TRUE, sep=',')";
-                code.addRCode(load);
+            DataStore db = Datavyu.getProjectController().getDataStore();
+            input = File.createTempFile("datavyu", ".dvr");
+            output = File.createTempFile("datavyu", ".dvr");
+            RDataExchange.write(DataStoreSnapshot.of(db), input);
+
+            String status;
+            RCode code;
+            File plt;
+            synchronized (R_LOCK) {
+                R_OUTPUT.setTarget(sIn);
+                try {
+                    if (rCaller == null) {
+                        // Initialize RCaller, auto detects installed R in standard locations
+                        // On windows these are C:/Program Files/R or C:/Program Files (x86)/R
+                        rCaller = RCaller.create();
+                        logger.info("Using installed R: " + rCaller.getRCallerOptions().getrScriptExecutable());
+                        rCaller.redirectROutputToStream(R_OUTPUT);
+                        rCode = RCode.create();
+                        rCode.addRCode(readResource("/Datavyu_API.R"));
+                    } else {
+                        rCode.clearOnline();
+                    }
 
-                it.remove(); // avoids a ConcurrentModificationException
+                    // Set up plotting. If something gets plotted, display it.
+                    plt = rCode.startPlot();
+                    rCode.addRCode("datavyu_status <- datavyu_run_script(" + rString(scriptFile) + ", "
+                            + rString(input) + ", " + rString(output) + ")");
+                    rCode.endPlot();
+                    rCaller.setRCode(rCode);
+                    rCaller.runAndReturnResultOnline("datavyu_status");
+                    status = rCaller.getParser().getAsStringArray("datavyu_status")[0];
+                    code = rCode;
+                } catch (Exception e) {
+                    // Start a fresh R process for the next script
+                    stopRSession();
+                    throw e;
+                } finally {
+                    R_OUTPUT.setTarget(null);
+                }
             }
-        } catch (Exception e) {
-            logger.error("Loading of temporary files failed. Error: ", e);
-        }
+            consoleWriter.close();
 
-        // Set up plotting. If something gets plotted, display it. Otherwise, just run the code.
-        try {
-            File plt = code.startPlot();
-            code.R_source(scriptFile.getPath());
-            caller.setRCode(code);
-            caller.runOnly();
-            code.endPlot();
+            if ("ok".equals(status)) {
+                int changed = RDataExchange.apply(RDataExchange.read(output), db);
+                consoleWriterAfter.write("\nScript has finished running. " + changed + " cells changed.");
+                Datavyu.getView().getSpreadsheetPanel().redrawCells();
+            } else {
+                consoleWriterAfter.write("\n\n***** SCRIPT ERROR *****\n" + status + "\n*************************\n");
+            }
+            consoleWriterAfter.flush();
             if (plt.length() > 0) {
                 code.showPlot(plt);
             }
         } catch (Exception e) {
-            logger.error("Failed when plotting. Error: ", e);
+            logger.error("Unable to execute R script: ", e);
+            try {
+                consoleWriter.close();
+                consoleWriterAfter.write("\nUnable to execute R script: " + e.getMessage());
+                consoleWriterAfter.flush();
+            } catch (IOException ioe) {
+                logger.error("Write Failed! Error: ", ioe);
+            }
+        } finally {
+            if (input != null) {
+                input.delete();
+            }
+            if (output != null) {
+                output.delete();
+            }
         }
     }
 
-    private void updateDbFromR() {
-        // TODO: Fill in the code here
+    /**
+     * Stops the R process that is kept running between R scripts, if any.
+     */
+    public static void stopRSession() {
+        synchronized (R_LOCK) {
+            if (rCaller != null) {
+                rCaller.StopRCallerOnline();
+                rCaller = null;
+                rCode = null;
+            }
+        }
     }
 
     /**
-     * Convert the Datavyu database to a csv file per column.
-     * This allows for easy reading into R.
+     * @return A file path as an R string literal.
      */
-    private HashMap<String, String> convertDbToColStrings() {
-        // TODO: Use StringBuilder here
-        DataStore db = Datavyu.getProjectController().getDataStore();
-        HashMap<String, String> str_db = new HashMap<>();
-
-        String str_var;
-        for (Variable v : db.getAllVariables()) {
-            str_var = "ordinal,onset,offset";
-            if (v.getRootNode().type == Argument.Type.MATRIX) {
-                for (Argument a : v.getRootNode().childArguments) {
-                    str_var += "," + a.name;
-                }
-            } else {
-                str_var += ",arg";
-            }
-            str_var += "\n";
-            for (int i = 0; i < v.getCellsTemporally().size(); i++) {
-                Cell c = v.getCellsTemporally().get(i);
-
-                String row = String.format("%d,%d,%d", i + 1, c.getOnset(), c.getOffset());
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (CellValue val : ((MatrixCellValue) c.getCellValue()).getArguments()) {
-                        row += ",";
-                        if (!val.isEmpty())
-                            row += val.toString();
-                    }
-                } else {
-                    row += ",";
-                    if (!c.getCellValue().isEmpty()) {
-                        row += c.getCellValue().toString();
-                    }
-                }
-                str_var += row + "\n";
+    private static String rString(final File file) {
+        return "\"" + file.getAbsolutePath().replace('\\', '/').replace("\"", "\\\"") + "\"";
+    }
+
+    private static String readResource(final String name) throws IOException {
+        try (InputStream in = RunScriptController.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new FileNotFoundException(name);
             }
-            str_db.put(v.getName(), str_var);
+            return IOUtils.toString(in, "UTF-8");
         }
-
-        return str_db;
     }
 
     @Override
@@ -414,6 +422,41 @@ public final class RunScriptController extends SwingWorker<Object, String> {
         }
     }
 
+    /**
+     * Output stream that writes to a stream that can be changed, and discards the output while there is none.
+     */
+    private static final class ForwardingOutputStream extends OutputStream {
+        private volatile OutputStream target = null;
+
+        void setTarget(final OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            OutputStream out = target;
+            if (out != null) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            OutputStream out = target;
+            if (out != null) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            OutputStream out = target;
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+
     /**
      * Separate thread for polling the incoming data from the scripting engine.
      * The data from the scripting engine gets placed directly into the
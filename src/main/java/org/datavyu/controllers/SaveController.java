@@ -19,15 +19,26 @@ import org.apache.logging.log4j.Logger;
 import org.datavyu.Datavyu;
 import org.datavyu.FileHistory;
 import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.DataStoreSnapshot;
 import org.datavyu.models.db.UserWarningException;
 import org.datavyu.models.project.Project;
 import org.datavyu.models.project.ViewerSetting;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
+import javax.swing.SwingUtilities;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -39,6 +50,10 @@ public final class SaveController {
     /** The logger instance for this class */
     private static Logger logger = LogManager.getLogger(SaveController.class);
 
+    /** Runs the background saves one at a time; the thread goes away when idle */
+    private static final ExecutorService SAVE_EXECUTOR = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, "Datavyu save"));
+
     /**
      * Saves only a data store to disk
      *
@@ -95,44 +110,160 @@ public final class SaveController {
      */
     protected void saveProject(final File projectFile, final Project project, final DataStore dataStore, boolean remember)
             throws UserWarningException {
+        new ProjectSave(projectFile, project, dataStore, null, remember).call();
+    }
 
+    /**
+     * Saves an entire project, including database to disk, without blocking the calling thread.
+     *
+     * The project and data store are copied before this method returns, so they can be edited again straight away;
+     * the copy is serialized and compressed on a background thread. Background saves run one at a time in the order
+     * they were started.
+     *
+     * @param projectFile The destination to save the project too
+     * @param project The project to save to disk
+     * @param dataStore The dataStore to save to disk
+     * @param listener Notified of the progress on the background thread; may be null.
+     * @return The pending save, which yields the project file or fails with a {@link UserWarningException}.
+     */
+    public Future<File> saveProjectInBackground(final File projectFile,
+                                                final Project project,
+                                                final DataStore dataStore,
+                                                final ProgressListener listener) {
+        return SAVE_EXECUTOR.submit(new ProjectSave(projectFile, project, dataStore, listener, true));
+    }
+
+    /**
+     * Waits for the background saves that have been started to finish.
+     */
+    public static void awaitPendingSaves() {
+        try {
+            SAVE_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Failed waiting for pending saves. Error: ", e);
+        }
+    }
+
+    /**
+     * Moves a file over another one, atomically where the file system supports it.
+     *
+     * @param source The file to move.
+     * @param target The file to replace.
+     * @throws IOException If unable to move the file.
+     */
+    static void replace(final File source, final File target) throws IOException {
         try {
-            logger.info("Save project.");
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-            FileOutputStream fos = new FileOutputStream(projectFile);
-            ZipOutputStream zos = new ZipOutputStream(fos);
+    /**
+     * A copy of a project and its data store that is written to a temporary file next to the destination, which
+     * then replaces the destination. A failed save leaves the previous project file untouched.
+     */
+    private static final class ProjectSave implements Callable<File> {
 
-            ZipEntry projectEntry = new ZipEntry("project");
-            zos.putNextEntry(projectEntry);
-            new SaveProjectFileController().save(zos, project);
-            zos.closeEntry();
+        private final File projectFile;
+        private final byte[] projectSettings;
+        private final Map<String, byte[]> viewerSettings = new LinkedHashMap<>();
+        private final DataStoreSnapshot snapshot;
+        private final ProgressListener listener;
+        private final boolean remember;
 
-            ZipEntry dbEntry = new ZipEntry("db");
-            zos.putNextEntry(dbEntry);
-            new SaveDataStoreFileController().saveAsCsv(zos, dataStore);
-            zos.closeEntry();
+        ProjectSave(final File projectFile,
+                    final Project project,
+                    final DataStore dataStore,
+                    final ProgressListener listener,
+                    final boolean remember) {
+            ByteArrayOutputStream settings = new ByteArrayOutputStream();
+            new SaveProjectFileController().save(settings, project);
+            this.projectSettings = settings.toByteArray();
 
             // BugzID:1806
             for (ViewerSetting vs : project.getViewerSettings()) {
-                ZipEntry vsEntry = new ZipEntry(vs.getSettingsId());
-                zos.putNextEntry(vsEntry);
-                vs.writeSettings(zos);
+                ByteArrayOutputStream vsSettings = new ByteArrayOutputStream();
+                try {
+                    vs.writeSettings(vsSettings);
+                } catch (IOException e) {
+                    logger.error("Failed to copy viewer settings. Error: ", e);
+                }
+                viewerSettings.put(vs.getSettingsId(), vsSettings.toByteArray());
             }
 
-            zos.finish();
-            zos.close();
+            this.projectFile = projectFile;
+            this.snapshot = DataStoreSnapshot.of(dataStore);
+            this.listener = listener;
+            this.remember = remember;
+        }
 
-            fos.flush();
-            fos.close();
+        @Override
+        public File call() throws UserWarningException {
+            File temp = null;
+            try {
+                logger.info("Save project.");
 
-            if (remember) {
-                FileHistory.rememberProject(projectFile);
-            }
+                File directory = projectFile.getAbsoluteFile().getParentFile();
+                temp = File.createTempFile(projectFile.getName() + ".", ".tmp", directory);
+                try (FileOutputStream fos = new FileOutputStream(temp)) {
+                    ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(fos, 1 << 16));
+
+                    ZipEntry projectEntry = new ZipEntry("project");
+                    zos.putNextEntry(projectEntry);
+                    zos.write(projectSettings);
+                    zos.closeEntry();
+
+                    ZipEntry dbEntry = new ZipEntry("db");
+                    zos.putNextEntry(dbEntry);
+                    new SaveDataStoreFileController().saveAsCsv(zos, snapshot, listener);
+                    zos.closeEntry();
 
-        } catch (IOException e) {
-            ResourceMap rMap = Application.getInstance(Datavyu.class).getContext().getResourceMap(Datavyu.class);
-            logger.error("Failed to save project. Error: ", e);
-            throw new UserWarningException(rMap.getString("UnableToSave.message", projectFile), e);
+                    for (Map.Entry<String, byte[]> vs : viewerSettings.entrySet()) {
+                        ZipEntry vsEntry = new ZipEntry(vs.getKey());
+                        zos.putNextEntry(vsEntry);
+                        zos.write(vs.getValue());
+                    }
+
+                    zos.finish();
+                    zos.flush();
+                    fos.getFD().sync();
+                }
+                replace(temp, projectFile);
+
+                // The file history backs the recent projects menu, which is read on the event dispatch thread
+                if (remember) {
+                    SwingUtilities.invokeLater(() -> FileHistory.rememberProject(projectFile));
+                }
+                return projectFile;
+
+            } catch (IOException e) {
+                ResourceMap rMap = Application.getInstance(Datavyu.class).getContext().getResourceMap(Datavyu.class);
+                logger.error("Failed to save project. Error: ", e);
+                throw new UserWarningException(rMap.getString("UnableToSave.message", projectFile), e);
+            } finally {
+                if (temp != null && temp.exists() && !temp.delete()) {
+                    logger.warn("Unable to delete temporary file: '" + temp.getAbsolutePath() + "'.");
+                }
+            }
         }
     }
+
+    /**
+     * Receives the progress of a save.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param cellsWritten The number of cells written so far.
+         * @param cellCount The number of cells to write in total.
+         */
+        void progressChanged(int cellsWritten, int cellCount);
+    }
 }
@@ -18,11 +18,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datavyu.Datavyu;
 import org.datavyu.models.db.*;
-import org.datavyu.util.StringUtils;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
 import java.io.*;
+import java.nio.channels.Channels;
 
 
 /**
@@ -34,7 +34,8 @@ public final class SaveDataStoreFileController {
     private static Logger logger = LogManager.getLogger(SaveDataStoreFileController.class);
 
     /**
-     * Saves the database to the specified destination, if the file ends with .csv, the data store is saved as CSV.
+     * Saves the database to the specified destination, if the file ends with .csv, the data store is saved as CSV and
+     * if it ends with .dvdb, the data store is saved in the binary format.
      *
      * @param destinationFile The destination to save the database too.
      * @param dataStore The data store to save to disk.
@@ -48,6 +49,8 @@ public final class SaveDataStoreFileController {
 
         if (extension.equals(".csv")) {
             saveAsCsv(destinationFile.toString(), dataStore);
+        } else if (extension.equals(BinaryDataStoreWriter.EXTENSION)) {
+            saveAsBinary(destinationFile, dataStore);
         }
     }
 
@@ -60,43 +63,30 @@ public final class SaveDataStoreFileController {
      *                              disk (usually because of permissions errors).
      */
     public void saveAsCsv(final OutputStream outStream, final DataStore dataStore) throws UserWarningException {
-        logger.info("Save data store as CSV to stream");
-
-        PrintStream ps = new PrintStream(outStream);
-        ps.println("#4");  // Write an identifier for the version of file
-
-        for (Variable variable : dataStore.getAllVariables()) {
-            ps.printf("%s (%s,%s,%s)",
-                    StringUtils.escapeCSV(variable.getName()),
-                    variable.getRootNode().type,
-                    !variable.isHidden(),
-                    "");
-
-            if (variable.getRootNode().type == Argument.Type.MATRIX) {
-                ps.print('-');
-
-                int numArgs = 0;
-                for (Argument arg : variable.getRootNode().childArguments) {
-                    ps.printf("%s|%s",
-                            StringUtils.escapeCSV(arg.name),
-                            arg.type);
-
-                    if (numArgs < (variable.getRootNode().childArguments.size() - 1)) {
-                        ps.print(',');
-                    }
-                    numArgs++;
-                }
-            }
+        saveAsCsv(outStream, DataStoreSnapshot.of(dataStore), null);
+    }
 
-            ps.println();
+    /**
+     * Serialize a snapshot of the database to the specified stream in a CSV format. The snapshot can be written from
+     * any thread while the data store itself is being edited.
+     *
+     * @param outStream The stream to use when serializing.
+     * @param snapshot The snapshot of the data store to save as a CSV file.
+     * @param listener Notified of the progress after each variable; may be null.
+     * @throws UserWarningException When unable to write to the stream.
+     */
+    public void saveAsCsv(final OutputStream outStream,
+                          final DataStoreSnapshot snapshot,
+                          final SaveController.ProgressListener listener) throws UserWarningException {
+        logger.info("Save data store as CSV to stream");
 
-            for (Cell cell : variable.getCells()) {
-                ps.printf("%s,%s,%s",
-                        cell.getOnsetString(),
-                        cell.getOffsetString(),
-                        cell.getCellValue().serialize());
-                ps.println();
-            }
+        try {
+            new CsvDataStoreWriter(Channels.newChannel(outStream)).write(snapshot, true, listener);
+        } catch (IOException ie) {
+            logger.error("Failed to write data store. Error: ", ie);
+            ResourceMap rMap = Application.getInstance(Datavyu.class)
+                    .getContext().getResourceMap(Datavyu.class);
+            throw new UserWarningException(rMap.getString("UnableToWrite.message"), ie);
         }
     }
 
@@ -110,10 +100,27 @@ public final class SaveDataStoreFileController {
      */
     public void saveAsCsv(final String outFile, final DataStore dataStore) throws UserWarningException {
 
-        try {
-            FileOutputStream fos = new FileOutputStream(outFile);
-            saveAsCsv(fos, dataStore);
-            fos.close();
+        logger.info("Save data store as CSV to: '" + outFile + "'.");
+        try (FileOutputStream fos = new FileOutputStream(outFile)) {
+            new CsvDataStoreWriter(fos.getChannel()).write(DataStoreSnapshot.of(dataStore), true, null);
+        } catch (IOException ie) {
+            ResourceMap rMap = Application.getInstance(Datavyu.class)
+                    .getContext().getResourceMap(Datavyu.class);
+            throw new UserWarningException(rMap.getString("UnableToSave.message", outFile), ie);
+        }
+    }
+
+    /**
+     * Saves the data store to the specified destination in the binary format, see {@link BinaryDataStoreWriter}.
+     *
+     * @param outFile The file to write.
+     * @param dataStore The data store to save.
+     * @throws UserWarningException When unable to write the file.
+     */
+    public void saveAsBinary(final File outFile, final DataStore dataStore) throws UserWarningException {
+        logger.info("Save data store in binary format to: '" + outFile.getAbsolutePath() + "'.");
+        try (FileOutputStream fos = new FileOutputStream(outFile)) {
+            new BinaryDataStoreWriter().write(fos, dataStore);
         } catch (IOException ie) {
             ResourceMap rMap = Application.getInstance(Datavyu.class)
                     .getContext().getResourceMap(Datavyu.class);
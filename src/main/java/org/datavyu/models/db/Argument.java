@@ -51,6 +51,9 @@ public final class Argument implements Serializable {
 
     private int lastCodeNumber = 0;
 
+    // The codes of the values held by cells for this argument; built lazily and not persisted
+    private transient ValueDictionary valueDictionary;
+
     /**
      * Constructor.
      *
@@ -82,6 +85,16 @@ public final class Argument implements Serializable {
         return child;
     }
 
+    /**
+     * @return The dictionary that encodes the values of this argument.
+     */
+    public synchronized ValueDictionary getValueDictionary() {
+        if (valueDictionary == null) {
+            valueDictionary = new ValueDictionary();
+        }
+        return valueDictionary;
+    }
+
     public void clearChildArguments() {
         childArguments.clear();
     }
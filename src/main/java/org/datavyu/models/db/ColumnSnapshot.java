@@ -0,0 +1,324 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * An immutable copy of a variable and its cells in temporal order.
+ *
+ * The values of each column are held as codes into a {@link ValueDictionary}. Dictionaries only ever grow and never
+ * reuse a code, so a snapshot of a columnar variable shares the dictionaries of its arguments and copies just the
+ * codes; a snapshot of any other variable encodes its values into dictionaries of its own. Either way a snapshot is
+ * cheap to take and stays unchanged while the variable is edited, so it can be read from any thread.
+ */
+public final class ColumnSnapshot {
+
+    private final String name;
+    private final Argument.Type type;
+    private final boolean hidden;
+
+    /** Copies of the matrix arguments; empty for text and nominal variables */
+    private final List<Argument> arguments;
+
+    private final long[] onsets;
+    private final long[] offsets;
+
+    /** Dictionary of each column */
+    private final ValueDictionary[] dictionaries;
+
+    /** Codes of each column by row */
+    private final int[][] codes;
+
+    /** The id of the cell of each row */
+    private final IntFunction<String> cellIds;
+
+    ColumnSnapshot(final Variable variable,
+                   final long[] onsets,
+                   final long[] offsets,
+                   final ValueDictionary[] dictionaries,
+                   final int[][] codes,
+                   final IntFunction<String> cellIds) {
+        Argument root = variable.getRootNode();
+        List<Argument> copies = new ArrayList<>();
+        if (root.type == Argument.Type.MATRIX) {
+            for (Argument argument : root.childArguments) {
+                copies.add(new Argument(argument.name, argument.type));
+            }
+        }
+        this.name = variable.getName();
+        this.type = root.type;
+        this.hidden = variable.isHidden();
+        this.arguments = Collections.unmodifiableList(copies);
+        this.onsets = onsets;
+        this.offsets = offsets;
+        this.dictionaries = dictionaries;
+        this.codes = codes;
+        this.cellIds = cellIds;
+    }
+
+    /**
+     * Takes a snapshot of a variable. Call this on the thread that edits the variable.
+     *
+     * @param variable The variable to copy.
+     * @return The snapshot.
+     */
+    public static ColumnSnapshot of(final Variable variable) {
+        if (variable instanceof ColumnarVariable) {
+            return ((ColumnarVariable) variable).snapshot();
+        }
+
+        Argument root = variable.getRootNode();
+        boolean matrix = root.type == Argument.Type.MATRIX;
+        List<Argument> arguments = matrix ? root.childArguments : Collections.singletonList(root);
+        int columns = arguments.size();
+        List<Cell> cells = variable.getCells();
+        int count = cells.size();
+
+        long[] onsets = new long[count];
+        long[] offsets = new long[count];
+        ValueDictionary[] dictionaries = new ValueDictionary[columns];
+        int[][] codes = new int[columns][count];
+        for (int column = 0; column < columns; column++) {
+            // Nominal values are coded into the dictionary of their argument already; text values are not
+            dictionaries[column] = arguments.get(column).type == Argument.Type.NOMINAL
+                    ? arguments.get(column).getValueDictionary() : new ValueDictionary();
+        }
+        for (int row = 0; row < count; row++) {
+            Cell cell = cells.get(row);
+            onsets[row] = cell.getOnset();
+            offsets[row] = cell.getOffset();
+            if (matrix) {
+                List<CellValue> values = ((MatrixCellValue) cell.getCellValue()).getArguments();
+                for (int column = 0; column < columns && column < values.size(); column++) {
+                    codes[column][row] = encode(values.get(column), arguments.get(column), dictionaries[column]);
+                }
+            } else {
+                codes[0][row] = encode(cell.getCellValue(), root, dictionaries[0]);
+            }
+        }
+        // Cells of the object store keep their id for good
+        Cell[] cellArray = cells.toArray(new Cell[count]);
+        return new ColumnSnapshot(variable, onsets, offsets, dictionaries, codes, row -> cellArray[row].getCellId());
+    }
+
+    /**
+     * @return The code of a value in a dictionary, taken from the value itself if it is coded into that dictionary.
+     */
+    private static int encode(final CellValue value, final Argument argument, final ValueDictionary dictionary) {
+        if (value instanceof NominalCellValue && value.getArgument() == argument
+                && dictionary == argument.getValueDictionary()) {
+            return ((NominalCellValue) value).getCode();
+        }
+        return dictionary.encode(value.toString());
+    }
+
+    /**
+     * @return The name of the variable.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The type of the variable.
+     */
+    public Argument.Type getType() {
+        return type;
+    }
+
+    /**
+     * @return True if the variable is hidden, false otherwise.
+     */
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    /**
+     * @return The matrix arguments of the variable; empty if it is not a matrix variable.
+     */
+    public List<Argument> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return The number of value columns, one per matrix argument and one for text and nominal variables.
+     */
+    public int getColumnCount() {
+        return codes.length;
+    }
+
+    /**
+     * @return The number of cells.
+     */
+    public int size() {
+        return onsets.length;
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The onset of the cell in milliseconds.
+     */
+    public long getOnset(final int row) {
+        return onsets[row];
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The offset of the cell in milliseconds.
+     */
+    public long getOffset(final int row) {
+        return offsets[row];
+    }
+
+    /**
+     * @return The onsets of the cells in milliseconds, in temporal order.
+     */
+    public long[] getOnsets() {
+        return onsets.clone();
+    }
+
+    /**
+     * @return The offsets of the cells in milliseconds, in temporal order.
+     */
+    public long[] getOffsets() {
+        return offsets.clone();
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The id of the cell as {@link Cell#getCellId()} returned it when the snapshot was taken.
+     */
+    public String getCellId(final int row) {
+        return cellIds.apply(row);
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The onset of the cell formatted as in {@link Cell#getOnsetString()}.
+     */
+    public String getOnsetString(final int row) {
+        return DatavyuCell.convertMStoTimestamp(onsets[row]);
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The offset of the cell formatted as in {@link Cell#getOffsetString()}.
+     */
+    public String getOffsetString(final int row) {
+        return DatavyuCell.convertMStoTimestamp(offsets[row]);
+    }
+
+    /**
+     * @param column The value column.
+     * @param row The index of the cell in temporal order.
+     * @return The value; null if the value is empty.
+     */
+    public String getValue(final int column, final int row) {
+        return dictionaries[column].decode(codes[column][row]);
+    }
+
+    /**
+     * @param column The value column.
+     * @return The values of the column in temporal order, formatted as in {@link CellValue#toString()}; the empty
+     * string where a value is empty.
+     */
+    public String[] getValues(final int column) {
+        String[] values = new String[onsets.length];
+        for (int row = 0; row < values.length; row++) {
+            String value = dictionaries[column].decode(codes[column][row]);
+            values[row] = value == null ? "" : value;
+        }
+        return values;
+    }
+
+    /**
+     * @param column The value column.
+     * @param row The index of the cell in temporal order.
+     * @return The code of the value in the dictionary of the column.
+     */
+    int getValueCode(final int column, final int row) {
+        return codes[column][row];
+    }
+
+    /**
+     * @param column The value column.
+     * @return The dictionary of the column.
+     */
+    ValueDictionary getDictionary(final int column) {
+        return dictionaries[column];
+    }
+
+    /**
+     * @param code The name of a code: a matrix argument, or "var" for the value of a text or nominal variable.
+     * Names are also compared the way the scripting API names codes, without non-word characters and in lower case.
+     * @return The value column of the code; -1 if there is no such code.
+     */
+    public int getColumn(final String code) {
+        if (arguments.isEmpty()) {
+            return "var".equals(code) ? 0 : -1;
+        }
+        for (int column = 0; column < arguments.size(); column++) {
+            if (arguments.get(column).name.equals(code)) {
+                return column;
+            }
+        }
+        for (int column = 0; column < arguments.size(); column++) {
+            if (codeName(arguments.get(column).name).equals(codeName(code))) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param name The name of an argument or variable.
+     * @return The name as the scripting API names codes: word characters only, in lower case and not starting with a
+     * digit.
+     */
+    static String codeName(final String name) {
+        return name.replaceAll("\\W+", "").toLowerCase().replaceFirst("^(\\d)", "_$1");
+    }
+
+    /**
+     * @param column The value column.
+     * @param row The index of the cell in temporal order.
+     * @return The value formatted as in {@link CellValue#serialize()}; the empty string if the value is empty.
+     */
+    public String getSerializedValue(final int column, final int row) {
+        return dictionaries[column].decodeSerialized(codes[column][row]);
+    }
+
+    /**
+     * @param row The index of the cell in temporal order.
+     * @return The value of the cell formatted as in {@link CellValue#serialize()}.
+     */
+    public String getSerializedValue(final int row) {
+        if (type != Argument.Type.MATRIX) {
+            return getSerializedValue(0, row);
+        }
+        StringBuilder result = new StringBuilder("(");
+        for (int column = 0; column < codes.length; column++) {
+            if (column > 0) {
+                result.append(',');
+            }
+            result.append(getSerializedValue(column, row));
+        }
+        return result.append(')').toString();
+    }
+}
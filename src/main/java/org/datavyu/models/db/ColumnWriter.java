@@ -0,0 +1,205 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes whole columns of onsets, offsets and values back to the cells of a variable.
+ *
+ * The writer numbers the cells of the variable by their temporal order when it is made, the same rows as a
+ * {@link ColumnSnapshot} taken at that time, and keeps these numbers while cells are moved or added. A caller that
+ * read a variable through a snapshot thus hands back the rows with their new values and the writer changes only the
+ * cells and values that differ, all in one batch. This keeps scripts from crossing into the data store once per cell
+ * and value.
+ */
+public final class ColumnWriter {
+
+    private final Variable variable;
+
+    /** The cells by row; rows of cells removed by the writer hold null */
+    private final List<Cell> cells;
+
+    /** The rows by cell, made on the first lookup */
+    private Map<Cell, Integer> rows;
+
+    /**
+     * @param variable The variable to write to.
+     */
+    public ColumnWriter(final Variable variable) {
+        this.variable = variable;
+        this.cells = new ArrayList<>(variable.getCellsTemporally());
+    }
+
+    /**
+     * @return The variable written to.
+     */
+    public Variable getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return The number of rows, including those of the cells added by the writer.
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * @param row The row of the cell.
+     * @return The cell; null if the writer removed it.
+     */
+    public Cell getCell(final int row) {
+        return cells.get(row);
+    }
+
+    /**
+     * @param cell The cell to look for.
+     * @return The row of the cell; -1 if the cell is not one of the rows of the writer.
+     */
+    public int indexOf(final Cell cell) {
+        if (rows == null) {
+            rows = new HashMap<>();
+            for (int row = 0; row < cells.size(); row++) {
+                if (cells.get(row) != null) {
+                    rows.put(cells.get(row), row);
+                }
+            }
+        }
+        Integer row = rows.get(cell);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Writes cells to the variable; cells not written to are kept.
+     *
+     * @see #write(int[], long[], long[], String[][], boolean)
+     */
+    public int write(final int[] rows,
+                     final long[] onsets,
+                     final long[] offsets,
+                     final String[][] values) {
+        return write(rows, onsets, offsets, values, false);
+    }
+
+    /**
+     * Writes cells to the variable.
+     *
+     * @param rows The row of each cell to write, -1 for a new cell. The rows of new cells are filled in.
+     * @param onsets The onset of each cell in milliseconds.
+     * @param offsets The offset of each cell in milliseconds.
+     * @param values The values by column and cell: one column per matrix argument, a single column for text and
+     * nominal variables. A column that is null or missing is left as is, as is a value that is null; the empty string
+     * clears a value.
+     * @param removeOthers True to remove the cells of the writer that are not written to, false to keep them.
+     * @return The number of cells changed, added or removed.
+     */
+    public int write(final int[] rows,
+                     final long[] onsets,
+                     final long[] offsets,
+                     final String[][] values,
+                     final boolean removeOthers) {
+        boolean matrix = variable.getRootNode().type == Argument.Type.MATRIX;
+        boolean[] written = new boolean[cells.size()];
+        int changed = 0;
+
+        DataStore dataStore = variable.getOwningDatastore();
+        dataStore.beginBatch();
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                Cell cell;
+                boolean cellChanged = false;
+                if (rows[i] < 0) {
+                    cell = variable.createCell();
+                    rows[i] = cells.size();
+                    cells.add(cell);
+                    if (this.rows != null) {
+                        this.rows.put(cell, rows[i]);
+                    }
+                    cellChanged = true;
+                } else {
+                    cell = cells.get(rows[i]);
+                    if (rows[i] < written.length) {
+                        written[rows[i]] = true;
+                    }
+                }
+
+                if (cell.getOnset() != onsets[i]) {
+                    cell.setOnset(onsets[i]);
+                    cellChanged = true;
+                }
+                if (cell.getOffset() != offsets[i]) {
+                    cell.setOffset(offsets[i]);
+                    cellChanged = true;
+                }
+                for (int column = 0; column < values.length; column++) {
+                    if (values[column] != null && values[column][i] != null) {
+                        cellChanged |= setValue(cell, matrix, column, values[column][i]);
+                    }
+                }
+                if (cellChanged) {
+                    changed++;
+                }
+            }
+
+            if (removeOthers) {
+                for (int row = 0; row < written.length; row++) {
+                    Cell cell = cells.get(row);
+                    if (!written[row] && cell != null) {
+                        variable.removeCell(cell);
+                        cells.set(row, null);
+                        if (this.rows != null) {
+                            this.rows.remove(cell);
+                        }
+                        changed++;
+                    }
+                }
+            }
+        } finally {
+            dataStore.commitBatch();
+        }
+        return changed;
+    }
+
+    /**
+     * @return True if the value was changed, false if it already had the given value.
+     */
+    private static boolean setValue(final Cell cell, final boolean matrix, final int column, final String value) {
+        CellValue current = matrix ? cell.getMatrixValue(column) : cell.getCellValue();
+        if (value.isEmpty()) {
+            if (current.isEmpty()) {
+                return false;
+            }
+            if (matrix) {
+                cell.clearMatrixValue(column);
+            } else {
+                current.clear();
+            }
+        } else {
+            if (value.equals(current.toString())) {
+                return false;
+            }
+            if (matrix) {
+                cell.setMatrixValue(column, value);
+            } else {
+                current.set(value);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.List;
+
+/**
+ * Flyweight view of one row of a {@link ColumnarVariable}.
+ *
+ * Views hold no state of their own; two views of the same row are equal. The matrix layout of a columnar variable is
+ * managed by the variable as a whole, so the per cell schema methods (addMatrixValue, moveMatrixValue and
+ * removeMatrixValue) have nothing to do here.
+ */
+public final class ColumnarCell implements Cell {
+
+    private final ColumnarVariable variable;
+    private final int row;
+
+    ColumnarCell(final ColumnarVariable variable, final int row) {
+        this.variable = variable;
+        this.row = row;
+    }
+
+    /**
+     * @return The row of this cell in its variable.
+     */
+    int getRow() {
+        return row;
+    }
+
+    @Override
+    public ColumnarVariable getVariable() {
+        return variable;
+    }
+
+    @Override
+    public String getOffsetString() {
+        return DatavyuCell.convertMStoTimestamp(getOffset());
+    }
+
+    @Override
+    public long getOffset() {
+        return variable.getOffset(row);
+    }
+
+    @Override
+    public void setOffset(final long newOffset) {
+        variable.setOffset(row, newOffset);
+    }
+
+    @Override
+    public void setOffset(final String newOffset) {
+        setOffset(DatavyuCell.convertTimestampToMS(newOffset));
+    }
+
+    @Override
+    public Cell getFreshCell() {
+        return this;
+    }
+
+    @Override
+    public long getOnset() {
+        return variable.getOnset(row);
+    }
+
+    @Override
+    public void setOnset(final String newOnset) {
+        setOnset(DatavyuCell.convertTimestampToMS(newOnset));
+    }
+
+    @Override
+    public void setOnset(final long newOnset) {
+        variable.setOnset(row, newOnset);
+    }
+
+    @Override
+    public String getOnsetString() {
+        return DatavyuCell.convertMStoTimestamp(getOnset());
+    }
+
+    @Override
+    public String getValueAsString() {
+        return getCellValue().toString();
+    }
+
+    @Override
+    public CellValue getCellValue() {
+        Argument root = variable.getRootNode();
+        if (root.type == Argument.Type.MATRIX) {
+            return new ColumnarMatrixCellValue(this);
+        }
+        return ColumnarCellValue.of(this, root);
+    }
+
+    @Override
+    public String getCellId() {
+        return variable.getID().toString() + ":" + row;
+    }
+
+    @Override
+    public boolean isSelected() {
+        return variable.isSelected(row);
+    }
+
+    @Override
+    public void setSelected(final boolean selected) {
+        variable.setSelected(row, selected);
+    }
+
+    @Override
+    public boolean isHighlighted() {
+        return variable.isHighlighted(row);
+    }
+
+    @Override
+    public void setHighlighted(final boolean highlighted) {
+        variable.setHighlighted(row, highlighted);
+    }
+
+    @Override
+    public void setMatrixValue(final int index, final String value) {
+        getMatrixValue(index).set(value);
+    }
+
+    @Override
+    public CellValue getMatrixValue(final int index) {
+        return ColumnarCellValue.of(this, variable.getRootNode().childArguments.get(index));
+    }
+
+    @Override
+    public void clearMatrixValue(final int index) {
+        getMatrixValue(index).clear();
+    }
+
+    @Override
+    public void addMatrixValue(final Argument type) {
+    }
+
+    @Override
+    public void moveMatrixValue(final int oldIndex, final int newIndex) {
+    }
+
+    @Override
+    public void removeMatrixValue(final int index) {
+    }
+
+    @Override
+    public void addListener(final CellListener cellListener) {
+        variable.addCellListener(row, cellListener);
+    }
+
+    @Override
+    public void removeListener(final CellListener cellListener) {
+        variable.removeCellListener(row, cellListener);
+    }
+
+    @Override
+    public boolean isInTimeWindow(long time) {
+        return time >= getOnset() && time <= getOffset();
+    }
+
+    @Override
+    public boolean isPastTimeWindow(long time) {
+        return time > Math.max(getOnset(), getOffset());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * variable.hashCode() + row;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ColumnarCell)) {
+            return false;
+        }
+        ColumnarCell otherC = (ColumnarCell) other;
+        return otherC.variable == variable && otherC.row == row;
+    }
+
+    @Override
+    /* Print string representation of this cell. */
+    public String toString() {
+        return "[" + getOnset() + "," + getOffset() + "," + getValueAsString() + "]";
+    }
+}
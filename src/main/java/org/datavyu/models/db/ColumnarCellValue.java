@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+/**
+ * Flyweight view of the value of one argument in one row of a {@link ColumnarVariable}.
+ *
+ * Behaves like {@link DatavyuCellValue}: empty values print as the empty string, and setting a value that is equal to
+ * the current one does not mark the data store as changed.
+ */
+public abstract class ColumnarCellValue implements CellValue {
+
+    /** Nominal argument value */
+    static final class Nominal extends ColumnarCellValue implements NominalCellValue {
+        Nominal(ColumnarCell cell, Argument argument) {
+            super(cell, argument);
+        }
+
+        @Override
+        public int getCode() {
+            return cell.getVariable().getCode(cell.getRow(), argument);
+        }
+    }
+
+    /** Text argument value */
+    static final class Text extends ColumnarCellValue implements TextCellValue {
+        Text(ColumnarCell cell, Argument argument) {
+            super(cell, argument);
+        }
+    }
+
+    final ColumnarCell cell;
+    final Argument argument;
+
+    ColumnarCellValue(final ColumnarCell cell, final Argument argument) {
+        this.cell = cell;
+        this.argument = argument;
+    }
+
+    /**
+     * Creates the view matching the type of an argument.
+     *
+     * @param cell The cell holding the value.
+     * @param argument The nominal or text argument.
+     * @return The value view.
+     */
+    static ColumnarCellValue of(final ColumnarCell cell, final Argument argument) {
+        if (argument.type == Argument.Type.TEXT) {
+            return new Text(cell, argument);
+        }
+        return new Nominal(cell, argument);
+    }
+
+    private String value() {
+        return cell.getVariable().getValue(cell.getRow(), argument);
+    }
+
+    @Override
+    public boolean isValid(final String value) {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        cell.getVariable().setValue(cell.getRow(), argument, null);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        String value = value();
+        return value == null || value.isEmpty();
+    }
+
+    @Override
+    public void set(final String newValue) {
+        if (!newValue.equals(toString())) {
+            cell.getVariable().setValue(cell.getRow(), argument, newValue);
+            cell.getVariable().getOwningDatastore().markAsChanged();
+            cell.getVariable().deferChange(cell.getRow());
+        }
+    }
+
+    @Override
+    public Argument getArgument() {
+        return argument;
+    }
+
+    @Override
+    public String toString() {
+        String value = value();
+        return value == null ? "" : value;
+    }
+
+    @Override
+    public String serialize() {
+        int code = cell.getVariable().getCode(cell.getRow(), argument);
+        return argument.getValueDictionary().decodeSerialized(code);
+    }
+
+    @Override
+    public String getPlaceholderString() {
+        return "<" + argument.name + ">";
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * cell.hashCode() + System.identityHashCode(argument);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ColumnarCellValue)) {
+            return false;
+        }
+        ColumnarCellValue otherV = (ColumnarCellValue) other;
+        return otherV.cell.equals(cell) && otherV.argument == argument;
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+/**
+ * A data store whose variables keep their cells in primitive columns instead of one object graph per cell.
+ *
+ * See {@link ColumnarVariable} for the storage layout. Everything else, such as the variable registry, selection and
+ * change tracking, is shared with {@link DatavyuDataStore}.
+ */
+public class ColumnarDataStore extends DatavyuDataStore {
+
+    @Override
+    protected Variable newVariable(final String name, final Argument rootNode, boolean grandfathered)
+            throws UserWarningException {
+        return new ColumnarVariable(name, rootNode, grandfathered, this);
+    }
+}
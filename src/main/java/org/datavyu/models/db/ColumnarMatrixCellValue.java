@@ -0,0 +1,128 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flyweight view of the matrix value of one row of a {@link ColumnarVariable}.
+ *
+ * The argument values are listed in the order of the child arguments of the variable's root node.
+ */
+public final class ColumnarMatrixCellValue implements MatrixCellValue {
+
+    private final ColumnarCell cell;
+
+    ColumnarMatrixCellValue(final ColumnarCell cell) {
+        this.cell = cell;
+    }
+
+    @Override
+    public List<CellValue> getArguments() {
+        List<Argument> arguments = cell.getVariable().getRootNode().childArguments;
+        List<CellValue> values = new ArrayList<>(arguments.size());
+        for (Argument argument : arguments) {
+            values.add(ColumnarCellValue.of(cell, argument));
+        }
+        return values;
+    }
+
+    @Override
+    public CellValue createArgument(Argument arg) {
+        // Columns are shared by all rows and created by the variable on first write
+        return ColumnarCellValue.of(cell, arg);
+    }
+
+    @Override
+    public void removeArgument(final int index) {
+    }
+
+    @Override
+    public boolean isValid(final String value) {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (CellValue v : getArguments()) {
+            v.clear();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public void set(String value) {
+        if (value.startsWith("(") && value.endsWith(")")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        String[] args = value.split(",", -1);
+        List<CellValue> cellValues = getArguments();
+
+        // Handle legacy variable types
+        if (cellValues.size() == 1 && cellValues.get(0).getArgument().type != Argument.Type.MATRIX) {
+            cellValues.get(0).set(value);
+        } else {
+            if (args.length != cellValues.size()) {
+                System.err.println("Error: Arg list and value list are different sizes, cannot undo.");
+            }
+            for (int i = 0; i < args.length; i++) {
+                cellValues.get(i).set(args[i]);
+            }
+        }
+    }
+
+    @Override
+    public Argument getArgument() {
+        return cell.getVariable().getRootNode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("(");
+        List<CellValue> cellValues = getArguments();
+        for (int i = 0; i < cellValues.size(); i++) {
+            result.append(cellValues.get(i).toString());
+            if (i < cellValues.size() - 1) {
+                result.append(',');
+            }
+        }
+        result.append(')');
+        return result.toString();
+    }
+
+    @Override
+    public String serialize() {
+        StringBuilder result = new StringBuilder("(");
+        List<CellValue> cellValues = getArguments();
+        for (int i = 0; i < cellValues.size(); i++) {
+            result.append(cellValues.get(i).serialize());
+            if (i < cellValues.size() - 1) {
+                result.append(',');
+            }
+        }
+        result.append(')');
+        return result.toString();
+    }
+
+    @Override
+    public String getPlaceholderString() {
+        return "<" + getArgument().name + ">";
+    }
+}
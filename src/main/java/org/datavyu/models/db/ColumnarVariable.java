@@ -0,0 +1,962 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A variable that stores its cells column-wise in primitive arrays.
+ *
+ * Every cell is a row with a dense integer id. Onsets and offsets live in long arrays, the selection state in bit
+ * sets, and the value of each argument in an int array of codes into the {@link ValueDictionary} of the argument.
+ * Removed rows are only marked as not live so that undo can bring them back under the same id.
+ *
+ * The {@link Cell} and {@link CellValue} objects handed out by this variable are flyweight views of a row that are
+ * created on demand; two views of the same row are equal.
+ *
+ * The temporal order is kept as a sorted array of row ids plus a set of pending rows that were added, removed or
+ * moved since the last read. The pending rows are merged into the sorted array when the order is next needed, so a
+ * burst of mutations costs a single sort of the changed rows.
+ */
+public final class ColumnarVariable implements Variable {
+
+    /** Number of rows allocated for a new variable */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Code of a row whose value is not in the dictionary yet, see {@link Column#uncommitted} */
+    private static final int UNCOMMITTED = -1;
+
+    /** The values of one argument for all rows */
+    private static final class Column {
+        final ValueDictionary dictionary;
+        int[] codes;
+
+        /**
+         * Values set since the last snapshot that are not in the dictionary yet, by row; null if none. They are
+         * added when the column is snapshot or their code is asked for, so that values that are replaced straight
+         * away, e.g. while typing, never enter the dictionary.
+         */
+        Map<Integer, String> uncommitted;
+
+        Column(Argument argument, int capacity) {
+            dictionary = argument.getValueDictionary();
+            codes = new int[capacity];
+        }
+
+        int commit(final int row) {
+            if (codes[row] == UNCOMMITTED) {
+                codes[row] = dictionary.encode(uncommitted.remove(row));
+            }
+            return codes[row];
+        }
+
+        void commit() {
+            if (uncommitted != null) {
+                for (Map.Entry<Integer, String> value : uncommitted.entrySet()) {
+                    codes[value.getKey()] = dictionary.encode(value.getValue());
+                }
+                uncommitted = null;
+            }
+        }
+    }
+
+    /** The cells of this variable in temporal order, as views created on access */
+    private final class RowList extends AbstractList<Cell> implements RandomAccess {
+        private final int[] rows;
+
+        RowList(int[] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Cell get(int index) {
+            return new ColumnarCell(ColumnarVariable.this, rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+
+    final private UUID variableId = UUID.randomUUID();
+    private final DatavyuDataStore owningDatastore;
+    private final List<VariableListener> listeners = new CopyOnWriteArrayList<>();
+    private Map<Integer, List<CellListener>> cellListeners = null;
+    private Argument rootNodeArgument = null;
+    private final Map<Argument, Column> columns = new IdentityHashMap<>();
+    private Boolean selected;
+    private Boolean hidden;
+    private String name;
+    private int orderIndex = -1;
+
+    /** Number of rows ever allocated, live or not */
+    private int rowCount = 0;
+    private long[] onsets = new long[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private final BitSet live = new BitSet();
+    private final BitSet selectedRows = new BitSet();
+    private final BitSet highlightedRows = new BitSet();
+
+    /** Live rows sorted temporally, excluding pending rows */
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int orderSize = 0;
+
+    /** Rows whose position in the order must be recomputed */
+    private final BitSet pending = new BitSet();
+
+    /**
+     * Largest offset of each node of a complete binary tree over the positions in the order, the leaves at the
+     * positions from index {@link #leaves} on; null when stale
+     */
+    private long[] maxOffsets = null;
+
+    /** Number of leaves of the tree of largest offsets, a power of two */
+    private int leaves;
+
+    /** Cached result of getCells; null when stale */
+    private List<Cell> snapshot = null;
+
+    /**
+     * Constructor.
+     *
+     * @param name          The name to use for the variable being constructed.
+     * @param type          The type to use for the variable being constructed.
+     * @param grandfathered Flag to exempt variable from naming rules.
+     * @param dds           The datastore to which this variable belongs
+     */
+    public ColumnarVariable(String name,
+                            Argument type,
+                            boolean grandfathered,
+                            DatavyuDataStore dds) throws UserWarningException {
+        owningDatastore = dds;
+        this.setName(name, grandfathered);
+        this.setRootNode(type);
+        this.setHidden(false);
+        this.setSelected(true);
+        owningDatastore.markAsChanged();
+    }
+
+    /**
+     * @return The internal Identifier for this variable.
+     */
+    public UUID getID() {
+        return variableId;
+    }
+
+    @Override
+    public DataStore getOwningDatastore() {
+        return owningDatastore;
+    }
+
+    @Override
+    public void addCell(final Cell cell) {
+        int row = -1;
+        if (cell instanceof ColumnarCell && ((ColumnarCell) cell).getVariable() == this) {
+            row = ((ColumnarCell) cell).getRow();
+            synchronized (this) {
+                if (live.get(row)) {
+                    return;
+                }
+                live.set(row);
+                touch(row);
+            }
+        } else if (cell.getCellValue().getArgument() == this.getRootNode()) {
+            synchronized (this) {
+                row = newRow();
+                onsets[row] = cell.getOnset();
+                offsets[row] = cell.getOffset();
+            }
+            copyValues(cell, row);
+        }
+        if (row >= 0) {
+            Cell added = new ColumnarCell(this, row);
+            if (!owningDatastore.deferInserted(this, added)) {
+                for (VariableListener vl : listeners) {
+                    vl.cellInserted(added);
+                }
+            }
+            owningDatastore.markAsChanged();
+        }
+    }
+
+    @Override
+    public Cell createCell() {
+        int row;
+        synchronized (this) {
+            row = newRow();
+        }
+        Cell c = new ColumnarCell(this, row);
+
+        if (!owningDatastore.deferInserted(this, c)) {
+            for (VariableListener vl : listeners) {
+                vl.cellInserted(c);
+            }
+        }
+
+        owningDatastore.markAsChanged();
+        return c;
+    }
+
+    @Override
+    public void loadCells(final int count, final long[] onsets, final long[] offsets, final String[][] values) {
+        Argument root = getRootNode();
+        List<Argument> arguments = root.type == Argument.Type.MATRIX
+                ? root.childArguments : Collections.singletonList(root);
+        synchronized (this) {
+            if (rowCount + count > this.onsets.length) {
+                int capacity = Math.max(rowCount + count, this.onsets.length * 2);
+                this.onsets = Arrays.copyOf(this.onsets, capacity);
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+            }
+            for (int i = 0; i < count; i++) {
+                int row = newRow();
+                this.onsets[row] = onsets[i];
+                this.offsets[row] = offsets[i];
+                String[] rowValues = values[i];
+                for (int a = 0; rowValues != null && a < rowValues.length && a < arguments.size(); a++) {
+                    if (rowValues[a] != null && !rowValues[a].isEmpty()) {
+                        loadValue(row, arguments.get(a), rowValues[a]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeCell(final Cell cell) {
+        int row = rowOf(cell);
+        if (row >= 0) {
+            synchronized (this) {
+                live.clear(row);
+                touch(row);
+            }
+        }
+
+        owningDatastore.markAsChanged();
+
+        if (owningDatastore.deferRemoved(this, cell)) {
+            return;
+        }
+        for (VariableListener vl : listeners) {
+            vl.cellRemoved(cell);
+        }
+    }
+
+    @Override
+    public synchronized List<Cell> getCells() {
+        resolveOrder();
+        if (snapshot == null) {
+            snapshot = Collections.unmodifiableList(new RowList(Arrays.copyOf(order, orderSize)));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public List<Cell> getCellsTemporally() {
+        return getCells();
+    }
+
+    @Override
+    public synchronized Cell getCellTemporally(final int index) {
+        resolveOrder();
+        if (index < 0 || index >= orderSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + orderSize);
+        }
+        return new ColumnarCell(this, order[index]);
+    }
+
+    @Override
+    public synchronized int getTemporalIndex(final Cell cell) {
+        int row = rowOf(cell);
+        if (row < 0 || !live.get(row)) {
+            return -1;
+        }
+        resolveOrder();
+        int low = 0;
+        int high = orderSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareRows(order[mid], row);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Cell> getCellsAt(final long time) {
+        return getCellsOverlapping(time, time);
+    }
+
+    @Override
+    public synchronized List<Cell> getCellsOverlapping(final long start, final long end) {
+        resolveOrder();
+        if (maxOffsets == null) {
+            buildMaxOffsets();
+        }
+
+        // First position whose onset lies after the end of the interval
+        int low = 0;
+        int high = orderSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (onsets[order[mid]] <= end) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<Cell> result = new ArrayList<>();
+        collectOverlapping(1, 0, leaves, low, start, result);
+        return result;
+    }
+
+    @Override
+    public synchronized List<Cell> getCellsStarting(final long start, final long end) {
+        resolveOrder();
+
+        // First position whose onset lies at or after the start of the interval
+        int low = 0;
+        int high = orderSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (onsets[order[mid]] < start) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<Cell> result = new ArrayList<>();
+        for (int i = low; i < orderSize && onsets[order[i]] <= end; i++) {
+            result.add(new ColumnarCell(this, order[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Builds the tree of largest offsets over the order. Must be called while holding the lock.
+     */
+    private void buildMaxOffsets() {
+        leaves = Integer.highestOneBit(Math.max(1, orderSize - 1)) << 1;
+        maxOffsets = new long[2 * leaves];
+        Arrays.fill(maxOffsets, leaves + orderSize, 2 * leaves, Long.MIN_VALUE);
+        for (int i = 0; i < orderSize; i++) {
+            maxOffsets[leaves + i] = offsets[order[i]];
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            maxOffsets[node] = Math.max(maxOffsets[2 * node], maxOffsets[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Adds the cells below a node of the tree of largest offsets, in order, that lie before a position and end at or
+     * after a time. Subtrees that end before the time are skipped, so the cost is logarithmic per cell found.
+     *
+     * @param node The node.
+     * @param from The first position below the node.
+     * @param to The position after the last one below the node.
+     * @param limit The position before which cells are added.
+     * @param start The time in milliseconds.
+     * @param result The list to add the cells to.
+     */
+    private void collectOverlapping(final int node, final int from, final int to, final int limit, final long start,
+                                    final List<Cell> result) {
+        if (from >= limit || maxOffsets[node] < start) {
+            return;
+        }
+        if (node >= leaves) {
+            result.add(new ColumnarCell(this, order[from]));
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        collectOverlapping(2 * node, from, mid, limit, start, result);
+        collectOverlapping(2 * node + 1, mid, to, limit, start, result);
+    }
+
+    @Override
+    public boolean contains(final Cell c) {
+        int row = rowOf(c);
+        synchronized (this) {
+            return row >= 0 && live.get(row);
+        }
+    }
+
+    @Override
+    public Argument getRootNode() {
+        return rootNodeArgument;
+    }
+
+    @Override
+    public void setRootNode(final Argument a) {
+        owningDatastore.markAsChanged();
+        rootNodeArgument = a;
+
+        // Drop the columns of arguments that are no longer part of the variable
+        Set<Argument> current = Collections.newSetFromMap(new IdentityHashMap<Argument, Boolean>());
+        current.add(a);
+        current.addAll(a.childArguments);
+        synchronized (this) {
+            columns.keySet().retainAll(current);
+        }
+    }
+
+    @Override
+    @Deprecated
+    public Argument getVariableType() {
+        return getRootNode();
+    }
+
+    @Override
+    @Deprecated
+    public void setVariableType(final Argument a) {
+        setRootNode(a);
+    }
+
+    @Override
+    public boolean isSelected() {
+        return selected;
+    }
+
+    @Override
+    public void setSelected(final boolean selected) {
+        this.selected = selected;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    @Override
+    public void setHidden(final boolean hiddenParm) {
+        if (hidden == null || hiddenParm != hidden) {
+            owningDatastore.markAsChanged();
+            hidden = hiddenParm;
+
+            for (VariableListener vl : listeners) {
+                vl.visibilityChanged(hidden);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(final String newName) throws UserWarningException {
+        this.setName(newName, false);
+    }
+
+    @Override
+    public void setName(final String newName, boolean grandfathered) throws UserWarningException {
+        if (newName.length() < 1) {
+            throw new UserWarningException("Unable to add column, a name must be supplied.");
+        }
+
+        if (!grandfathered && !DatavyuVariable.isNameValid(newName)) {
+            throw new UserWarningException("Unable to add column:\n\tOnly alphanumeric characters and underscore are permitted.\n\tName must begin with a letter\n\tMust contain fewer than 255 characters");
+        }
+
+        if (grandfathered && !DatavyuVariable.isNameValid(newName)) {
+            owningDatastore.addExemptionVariable(newName);
+        }
+
+        if (name != null) {
+            owningDatastore.updateVariableName(name, newName, this);
+        }
+        this.name = newName;
+        for (VariableListener vl : listeners) {
+            vl.nameChanged(newName);
+        }
+    }
+
+    @Override
+    public Argument addArgument(final Argument.Type type) {
+        // The column for the new argument is allocated on first write; until then all rows read as empty
+        Argument arg = getRootNode();
+        arg.addChildArgument(type);
+
+        this.setRootNode(arg);
+        owningDatastore.markAsChanged();
+        return arg.childArguments.get(arg.childArguments.size() - 1);
+    }
+
+    @Override
+    public void moveArgument(final int old_index, final int new_index) {
+        Argument arg = getRootNode();
+
+        if (new_index > arg.childArguments.size() - 1 || new_index < 0) {
+            return;
+        }
+
+        // Columns are keyed by argument, so only the schema needs to change
+        Argument moved_arg = arg.childArguments.get(old_index);
+        arg.childArguments.remove(moved_arg);
+        arg.childArguments.add(new_index, moved_arg);
+
+        owningDatastore.markAsChanged();
+        this.setRootNode(arg);
+    }
+
+    @Override
+    public void moveArgument(final String name, final int new_index) {
+        moveArgument(getArgumentIndex(name), new_index);
+    }
+
+    @Override
+    public void removeArgument(final String name) {
+        Argument arg = getRootNode();
+        int arg_index = getArgumentIndex(name);
+        arg.childArguments.remove(arg_index);
+
+        owningDatastore.markAsChanged();
+        this.setRootNode(arg);
+    }
+
+    @Override
+    public int getArgumentIndex(final String name) {
+        Argument arg = getRootNode();
+        for (int i = 0; i < arg.childArguments.size(); i++) {
+            if (arg.childArguments.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void addListener(final VariableListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(final VariableListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public int getOrderIndex() {
+        return orderIndex;
+    }
+
+    @Override
+    public void setOrderIndex(final int newIndex) {
+        orderIndex = newIndex;
+        owningDatastore.markAsChanged();
+    }
+
+    /**
+     * @return A copy of the cells in temporal order that shares the value dictionaries of the arguments.
+     */
+    synchronized ColumnSnapshot snapshot() {
+        resolveOrder();
+        Argument root = getRootNode();
+        List<Argument> arguments = root.type == Argument.Type.MATRIX
+                ? root.childArguments : Collections.singletonList(root);
+
+        long[] snapshotOnsets = new long[orderSize];
+        long[] snapshotOffsets = new long[orderSize];
+        for (int i = 0; i < orderSize; i++) {
+            snapshotOnsets[i] = onsets[order[i]];
+            snapshotOffsets[i] = offsets[order[i]];
+        }
+        ValueDictionary[] dictionaries = new ValueDictionary[arguments.size()];
+        int[][] codes = new int[arguments.size()][orderSize];
+        for (int a = 0; a < arguments.size(); a++) {
+            dictionaries[a] = arguments.get(a).getValueDictionary();
+            Column column = columns.get(arguments.get(a));
+            if (column != null) {
+                column.commit();
+            }
+            for (int i = 0; column != null && i < orderSize; i++) {
+                int row = order[i];
+                codes[a][i] = row < column.codes.length ? column.codes[row] : ValueDictionary.EMPTY;
+            }
+        }
+        // The id of a cell is its row, see ColumnarCell.getCellId
+        int[] rows = Arrays.copyOf(order, orderSize);
+        String prefix = getID().toString() + ":";
+        return new ColumnSnapshot(this, snapshotOnsets, snapshotOffsets, dictionaries, codes,
+                i -> prefix + rows[i]);
+    }
+
+    // Row level access used by the cell and value views.
+
+    synchronized long getOnset(final int row) {
+        return onsets[row];
+    }
+
+    synchronized long getOffset(final int row) {
+        return offsets[row];
+    }
+
+    void setOnset(final int row, final long newOnset) {
+        boolean changed;
+        synchronized (this) {
+            changed = onsets[row] != newOnset;
+            if (changed) {
+                onsets[row] = newOnset;
+                touch(row);
+            }
+        }
+        if (changed) {
+            owningDatastore.markAsChanged();
+        }
+        if (deferChange(row)) {
+            return;
+        }
+        for (CellListener cl : getCellListeners(row)) {
+            cl.onsetChanged(newOnset);
+        }
+    }
+
+    void setOffset(final int row, final long newOffset) {
+        boolean changed;
+        synchronized (this) {
+            changed = offsets[row] != newOffset;
+            if (changed) {
+                offsets[row] = newOffset;
+                touch(row);
+            }
+        }
+        if (changed) {
+            owningDatastore.markAsChanged();
+        }
+        if (deferChange(row)) {
+            return;
+        }
+        for (CellListener cl : getCellListeners(row)) {
+            cl.offsetChanged(newOffset);
+        }
+    }
+
+    /**
+     * Records a change of a row with the open batch of the data store, if any, and with its tracked changes.
+     *
+     * @param row The row that changed.
+     * @return True if the change was recorded with a batch and the listeners must not be notified now, false
+     * otherwise.
+     */
+    boolean deferChange(final int row) {
+        return owningDatastore.isRecording() && owningDatastore.deferChanged(this, new ColumnarCell(this, row));
+    }
+
+    /**
+     * Notifies the listeners of this variable about the changes of a committed batch.
+     *
+     * @param change The changes to the cells of this variable.
+     */
+    void fireCellsChanged(final VariableChange change) {
+        for (VariableListener vl : listeners) {
+            vl.cellsChanged(change);
+        }
+    }
+
+    synchronized boolean isSelected(final int row) {
+        return selectedRows.get(row);
+    }
+
+    void setSelected(final int row, final boolean selected) {
+        synchronized (this) {
+            selectedRows.set(row, selected);
+        }
+        if (!selected) {
+            setHighlighted(row, false);
+        }
+
+        if (deferChange(row)) {
+            return;
+        }
+        for (CellListener cl : getCellListeners(row)) {
+            cl.selectionChange(selected);
+            if (!selected) {
+                cl.highlightingChange(false);
+            }
+        }
+    }
+
+    synchronized boolean isHighlighted(final int row) {
+        return highlightedRows.get(row);
+    }
+
+    void setHighlighted(final int row, final boolean highlighted) {
+        synchronized (this) {
+            highlightedRows.set(row, highlighted);
+        }
+
+        if (highlighted) {
+            setSelected(row, highlighted);
+        }
+
+        if (deferChange(row)) {
+            return;
+        }
+        for (CellListener cl : getCellListeners(row)) {
+            cl.highlightingChange(highlighted);
+        }
+    }
+
+    /**
+     * @param row The row to read.
+     * @param argument The argument whose value to read.
+     * @return The value of the argument in the row; null if the value is empty.
+     */
+    synchronized String getValue(final int row, final Argument argument) {
+        Column column = columns.get(argument);
+        if (column == null || row >= column.codes.length) {
+            return null;
+        }
+        int code = column.codes[row];
+        return code == UNCOMMITTED ? column.uncommitted.get(row) : column.dictionary.decode(code);
+    }
+
+    /**
+     * @param row The row to read.
+     * @param argument The argument whose value to read.
+     * @return The code of the value in the dictionary of the argument, to which the value is added if needed.
+     */
+    synchronized int getCode(final int row, final Argument argument) {
+        Column column = columns.get(argument);
+        if (column == null || row >= column.codes.length) {
+            return ValueDictionary.EMPTY;
+        }
+        return column.commit(row);
+    }
+
+    /**
+     * @param row The row to write.
+     * @param argument The argument whose value to write.
+     * @param value The new value; null or empty clears the value.
+     */
+    synchronized void setValue(final int row, final Argument argument, final String value) {
+        Column column = getColumn(row, argument);
+        int code = column.dictionary.lookup(value);
+        if (code < 0) {
+            if (column.uncommitted == null) {
+                column.uncommitted = new HashMap<>();
+            }
+            column.uncommitted.put(row, value);
+            column.codes[row] = UNCOMMITTED;
+        } else {
+            if (column.codes[row] == UNCOMMITTED) {
+                column.uncommitted.remove(row);
+            }
+            column.codes[row] = code;
+        }
+    }
+
+    /**
+     * Sets a value that is committed already, e.g. one read from a file.
+     *
+     * @param row The row to write, which has no uncommitted value.
+     * @param argument The argument whose value to write.
+     * @param value The new value; null or empty clears the value.
+     */
+    private void loadValue(final int row, final Argument argument, final String value) {
+        Column column = getColumn(row, argument);
+        column.codes[row] = column.dictionary.encode(value);
+    }
+
+    private Column getColumn(final int row, final Argument argument) {
+        Column column = columns.get(argument);
+        if (column == null) {
+            column = new Column(argument, onsets.length);
+            columns.put(argument, column);
+        } else if (row >= column.codes.length) {
+            column.codes = Arrays.copyOf(column.codes, onsets.length);
+        }
+        return column;
+    }
+
+    synchronized void addCellListener(final int row, final CellListener listener) {
+        if (cellListeners == null) {
+            cellListeners = new HashMap<>();
+        }
+        List<CellListener> rowListeners = cellListeners.get(row);
+        if (rowListeners == null) {
+            rowListeners = new CopyOnWriteArrayList<>();
+            cellListeners.put(row, rowListeners);
+        }
+        rowListeners.add(listener);
+    }
+
+    synchronized void removeCellListener(final int row, final CellListener listener) {
+        if (cellListeners == null) {
+            return;
+        }
+        List<CellListener> rowListeners = cellListeners.get(row);
+        if (rowListeners != null) {
+            rowListeners.remove(listener);
+            if (rowListeners.isEmpty()) {
+                cellListeners.remove(row);
+            }
+        }
+    }
+
+    private synchronized List<CellListener> getCellListeners(final int row) {
+        List<CellListener> rowListeners = cellListeners == null ? null : cellListeners.get(row);
+        return rowListeners == null ? Collections.<CellListener>emptyList() : rowListeners;
+    }
+
+    /**
+     * @param cell The cell to look up.
+     * @return The row of the cell if it is a view of this variable, -1 otherwise.
+     */
+    private int rowOf(final Cell cell) {
+        if (cell instanceof ColumnarCell && ((ColumnarCell) cell).getVariable() == this) {
+            return ((ColumnarCell) cell).getRow();
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the values of a cell from another variable into a row.
+     */
+    private void copyValues(final Cell cell, final int row) {
+        Argument root = getRootNode();
+        if (root.type == Argument.Type.MATRIX) {
+            List<CellValue> values = ((MatrixCellValue) cell.getCellValue()).getArguments();
+            for (int i = 0; i < values.size() && i < root.childArguments.size(); i++) {
+                CellValue value = values.get(i);
+                setValue(row, root.childArguments.get(i), value.isEmpty() ? null : value.toString());
+            }
+        } else {
+            CellValue value = cell.getCellValue();
+            setValue(row, root, value.isEmpty() ? null : value.toString());
+        }
+    }
+
+    /**
+     * Allocates a new live row with default values. Must be called while holding the lock.
+     */
+    private int newRow() {
+        if (rowCount == onsets.length) {
+            int capacity = onsets.length * 2;
+            onsets = Arrays.copyOf(onsets, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        int row = rowCount++;
+        onsets[row] = 0L;
+        offsets[row] = 0L;
+        live.set(row);
+        selectedRows.set(row);
+        highlightedRows.set(row);
+        touch(row);
+        return row;
+    }
+
+    /**
+     * Marks a row as needing a new position in the temporal order. Must be called while holding the lock.
+     */
+    private void touch(final int row) {
+        pending.set(row);
+        snapshot = null;
+        maxOffsets = null;
+    }
+
+    /**
+     * Merges the pending rows into the temporal order. Must be called while holding the lock.
+     */
+    private void resolveOrder() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Drop pending rows from the sorted run
+        int kept = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (!pending.get(order[i])) {
+                order[kept++] = order[i];
+            }
+        }
+
+        // Sort the live pending rows
+        int[] added = new int[pending.cardinality()];
+        int count = 0;
+        for (int row = pending.nextSetBit(0); row >= 0; row = pending.nextSetBit(row + 1)) {
+            if (live.get(row)) {
+                added[count++] = row;
+            }
+        }
+        pending.clear();
+        sortRows(added, count);
+
+        // Merge both runs from the back
+        if (order.length < kept + count) {
+            order = Arrays.copyOf(order, Math.max(kept + count, order.length * 2));
+        }
+        int i = kept - 1;
+        int j = count - 1;
+        for (int w = kept + count - 1; j >= 0; w--) {
+            if (i >= 0 && compareRows(order[i], added[j]) > 0) {
+                order[w] = order[i--];
+            } else {
+                order[w] = added[j--];
+            }
+        }
+        orderSize = kept + count;
+        maxOffsets = null;
+    }
+
+    private int compareRows(final int a, final int b) {
+        if (onsets[a] != onsets[b]) {
+            return onsets[a] < onsets[b] ? -1 : 1;
+        }
+        if (offsets[a] != offsets[b]) {
+            return offsets[a] < offsets[b] ? -1 : 1;
+        }
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * Bottom up merge sort of the first count rows in temporal order.
+     */
+    private void sortRows(final int[] rows, final int count) {
+        int[] source = rows;
+        int[] target = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int mid = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (i < mid && (j >= high || compareRows(source[i], source[j]) <= 0)) {
+                        target[k] = source[i++];
+                    } else {
+                        target[k] = source[j++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != rows) {
+            System.arraycopy(source, 0, rows, 0, count);
+        }
+    }
+}
@@ -148,6 +148,35 @@ public interface DataStore {
      */
     boolean isChanged();
 
+    /**
+     * Starts a batch of mutations. Until the matching {@link #commitBatch()} the cell listeners and the
+     * cellInserted/cellRemoved callbacks of variable listeners are not notified; instead each variable whose cells
+     * changed notifies its listeners once with {@link VariableListener#cellsChanged} when the batch is committed.
+     * Batches nest, only the outermost commit notifies.
+     */
+    void beginBatch();
+
+    /**
+     * Ends the batch started by the matching {@link #beginBatch()}. Callers should commit in a finally block.
+     */
+    void commitBatch();
+
+    /**
+     * Starts or stops recording which cells are inserted, removed or changed, independently of batches. The recorded
+     * changes are collected with {@link #drainChanges()}; cells loaded through {@link Variable#loadCells} are not
+     * recorded.
+     *
+     * @param track True to record changes, false to stop and discard the recorded changes.
+     */
+    void setChangeTracking(final boolean track);
+
+    /**
+     * Collects the changes recorded since change tracking was started or since the last call, and clears them.
+     *
+     * @return The coalesced cell changes by variable, in order of the first change; empty if changes are not tracked.
+     */
+    List<VariableChange> drainChanges();
+
     /**
      * Sets the name of the datastore.
      *
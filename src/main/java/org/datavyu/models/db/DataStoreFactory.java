@@ -16,15 +16,57 @@ package org.datavyu.models.db;
 
 /**
  * Factory constructs a new, empty DataStore.
+ *
+ * The storage engine can be chosen with the system property {@value #STORAGE_PROPERTY}, e.g.
+ * -Ddatavyu.datastore=columnar; the default is the object store.
  */
 public class DataStoreFactory {
 
+    /** System property that selects the storage engine */
+    public static final String STORAGE_PROPERTY = "datavyu.datastore";
+
+    /** The available storage engines */
+    public enum Storage {
+        /** One object graph per cell, see {@link DatavyuDataStore} */
+        OBJECT,
+        /** Primitive columns per variable, see {@link ColumnarDataStore} */
+        COLUMNAR
+    }
+
     /**
-     * Create a new empty DataStore.
+     * Create a new empty DataStore using the storage engine configured through {@value #STORAGE_PROPERTY}.
      *
      * @return A new empty DataStore.
      */
     public static DataStore newDataStore() {
+        return newDataStore(getConfiguredStorage());
+    }
+
+    /**
+     * Create a new empty DataStore.
+     *
+     * @param storage The storage engine to use.
+     * @return A new empty DataStore.
+     */
+    public static DataStore newDataStore(final Storage storage) {
+        if (storage == Storage.COLUMNAR) {
+            return new ColumnarDataStore();
+        }
         return new DatavyuDataStore();
     }
+
+    /**
+     * @return The storage engine selected by the system property, or OBJECT if the property is not set or unknown.
+     */
+    public static Storage getConfiguredStorage() {
+        String value = System.getProperty(STORAGE_PROPERTY);
+        if (value != null) {
+            try {
+                return Storage.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // fall through to the default
+            }
+        }
+        return Storage.OBJECT;
+    }
 }
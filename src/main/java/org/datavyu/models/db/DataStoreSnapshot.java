@@ -0,0 +1,66 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of all the variables of a data store, see {@link ColumnSnapshot}.
+ */
+public final class DataStoreSnapshot {
+
+    private final List<ColumnSnapshot> columns;
+
+    private final int cellCount;
+
+    private DataStoreSnapshot(final List<ColumnSnapshot> columns) {
+        int count = 0;
+        for (ColumnSnapshot column : columns) {
+            count += column.size();
+        }
+        this.columns = Collections.unmodifiableList(columns);
+        this.cellCount = count;
+    }
+
+    /**
+     * Takes a snapshot of a data store. Call this on the thread that edits the data store.
+     *
+     * @param dataStore The data store to copy.
+     * @return The snapshot.
+     */
+    public static DataStoreSnapshot of(final DataStore dataStore) {
+        List<ColumnSnapshot> columns = new ArrayList<>();
+        for (Variable variable : dataStore.getAllVariables()) {
+            columns.add(ColumnSnapshot.of(variable));
+        }
+        return new DataStoreSnapshot(columns);
+    }
+
+    /**
+     * @return The snapshots of the variables in the order of {@link DataStore#getAllVariables()}.
+     */
+    public List<ColumnSnapshot> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return The total number of cells.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+}
@@ -15,20 +15,28 @@
 package org.datavyu.models.db;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class DatavyuCell implements Cell {
 
-    static Map<UUID, List<CellListener>> allListeners = new HashMap<UUID, List<CellListener>>();
-    final private UUID id = UUID.randomUUID();
+    /** Random half of the ids handed out in this session */
+    private static final long ID_PREFIX = new Random().nextLong();
+
+    /** Counter half of the ids handed out in this session */
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    final private UUID id = nextId();
     private long onset = 0L;
     private long offset = 0L;
     private Argument type;
     private boolean selected;
     private boolean highlighted;
     private Variable parent;
-    private Map<String, CellValue> arguments = new HashMap<String, CellValue>();
     private CellValue cellValue;
+    /** Listeners for this cell; allocated when the first listener is added since most cells never get one */
+    private volatile List<CellListener> listeners = null;
 
     public DatavyuCell() {
     }
@@ -54,25 +62,62 @@ public class DatavyuCell implements Cell {
     }
 
     /**
-     * @param cellId The Identifier of the variable we want the listeners for.
-     * @return The list of listeners for the specified cellId.
+     * Cell and value ids only need to be unique within a session, and UUID.randomUUID() draws on the secure random
+     * generator, which dominates the cost of creating cells in bulk.
+     *
+     * @return A new id, unique within this session.
      */
-    private static List<CellListener> getListeners(UUID cellId) {
-        List<CellListener> result = allListeners.get(cellId);
+    static UUID nextId() {
+        return new UUID(ID_PREFIX, ID_COUNTER.incrementAndGet());
+    }
 
-        if (result == null) {
-            result = new ArrayList<CellListener>();
-            allListeners.put(cellId, result);
+    /**
+     * Sets the times and values of a new cell without notifying anyone, see {@link Variable#loadCells}.
+     *
+     * @param newOnset The onset in milliseconds.
+     * @param newOffset The offset in milliseconds.
+     * @param values The values, one per argument; may be null.
+     */
+    void load(final long newOnset, final long newOffset, final String[] values) {
+        this.onset = newOnset;
+        this.offset = newOffset;
+        if (values == null) {
+            return;
         }
+        if (cellValue instanceof DatavyuMatrixCellValue) {
+            List<CellValue> cellValues = ((DatavyuMatrixCellValue) cellValue).getArguments();
+            for (int i = 0; i < values.length && i < cellValues.size(); i++) {
+                ((DatavyuCellValue) cellValues.get(i)).setValue(values[i]);
+            }
+        } else if (values.length > 0) {
+            ((DatavyuCellValue) cellValue).setValue(values[0]);
+        }
+    }
 
-        return result;
+    /**
+     * @return The listeners for this cell, or an empty list if none were ever added.
+     */
+    private List<CellListener> getListeners() {
+        List<CellListener> result = listeners;
+        return result == null ? Collections.<CellListener>emptyList() : result;
     }
 
     public Variable getVariable() {
         return parent;
     }
 
-    private String convertMStoTimestamp(long time) {
+    /**
+     * Records a change of this cell with the open batch of the data store, if any, and with its tracked changes.
+     *
+     * @return True if the change was recorded with a batch and the listeners must not be notified now, false
+     * otherwise.
+     */
+    boolean deferChange() {
+        DataStore dataStore = parent.getOwningDatastore();
+        return dataStore instanceof DatavyuDataStore && ((DatavyuDataStore) dataStore).deferChanged(parent, this);
+    }
+
+    static String convertMStoTimestamp(long time) {
         long hours = Math.round(Math.floor((time / 1000.0 / 60.0 / 60.0)));
         long minutes = Math.round(Math.floor(time / 1000.0 / 60.0 - (hours * 60)));
         long seconds = Math.round(Math.floor(time / 1000.0 - (hours * 60 * 60) - (minutes * 60)));
@@ -81,7 +126,7 @@ public class DatavyuCell implements Cell {
         return String.format("%02d:%02d:%02d:%03d", hours, minutes, seconds, mseconds);
     }
 
-    private long convertTimestampToMS(String timestamp) {
+    static long convertTimestampToMS(String timestamp) {
 
         String[] s = timestamp.split(":");
         if(s.length == 1){
@@ -110,7 +155,13 @@ public class DatavyuCell implements Cell {
     public void setOffset(final long newOffset) {
         if (newOffset != offset) parent.getOwningDatastore().markAsChanged();
         offset = newOffset;
-        for (CellListener cl : getListeners(getID())) {
+        if (parent instanceof DatavyuVariable) {
+            ((DatavyuVariable) parent).cellTimeChanged(this);
+        }
+        if (deferChange()) {
+            return;
+        }
+        for (CellListener cl : getListeners()) {
             cl.offsetChanged(offset);
         }
     }
@@ -139,7 +190,13 @@ public class DatavyuCell implements Cell {
     public void setOnset(final long newOnset) {
         if (newOnset != onset) parent.getOwningDatastore().markAsChanged();
         onset = newOnset;
-        for (CellListener cl : getListeners(getID())) {
+        if (parent instanceof DatavyuVariable) {
+            ((DatavyuVariable) parent).cellTimeChanged(this);
+        }
+        if (deferChange()) {
+            return;
+        }
+        for (CellListener cl : getListeners()) {
             cl.onsetChanged(onset);
         }
     }
@@ -172,7 +229,10 @@ public class DatavyuCell implements Cell {
             setHighlighted(false);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        if (deferChange()) {
+            return;
+        }
+        for (CellListener cl : getListeners()) {
             cl.selectionChange(selected);
             if (!selected) {
                 cl.highlightingChange(false);
@@ -193,7 +253,10 @@ public class DatavyuCell implements Cell {
             setSelected(highlighted);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        if (deferChange()) {
+            return;
+        }
+        for (CellListener cl : getListeners()) {
             cl.highlightingChange(highlighted);
         }
     }
@@ -243,13 +306,18 @@ public class DatavyuCell implements Cell {
     }
 
     @Override
-    public void addListener(final CellListener cellListener) {
-        getListeners(getID()).add(cellListener);
+    public synchronized void addListener(final CellListener cellListener) {
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+        }
+        listeners.add(cellListener);
     }
 
     @Override
-    public void removeListener(final CellListener cellListener) {
-        getListeners(getID()).remove(cellListener);
+    public synchronized void removeListener(final CellListener cellListener) {
+        if (listeners != null) {
+            listeners.remove(cellListener);
+        }
     }
 
     public UUID getID() {
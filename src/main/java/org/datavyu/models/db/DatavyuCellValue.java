@@ -31,10 +31,9 @@ import java.util.UUID;
 
 public abstract class DatavyuCellValue implements CellValue, Serializable, Comparable<DatavyuCellValue> {
 
-    String value;
     int index;
     UUID parent_id;
-    UUID id = UUID.randomUUID();
+    UUID id = DatavyuCell.nextId();
     String name = "";
     Argument arg;
     Cell parent;
@@ -44,13 +43,34 @@ public abstract class DatavyuCellValue implements CellValue, Serializable, Compa
         return true;
     } 
 
+    /**
+     * @return The stored value; null if the value was never set or cleared.
+     */
+    abstract String getValue();
+
+    /**
+     * Stores a new value without any change tracking.
+     *
+     * @param newValue The value to store; null to clear.
+     */
+    abstract void setValue(final String newValue);
+
+    /**
+     * @param newValue A value to set.
+     * @return True if the stored value is the given value, so that setting it changes nothing.
+     */
+    boolean hasValue(final String newValue) {
+        return newValue.equals(toString()) || newValue.equals(getValue());
+    }
+
     @Override
     public void clear() {
-        this.value = null;
+        setValue(null);
     }
 
     @Override
     public boolean isEmpty() {
+        String value = getValue();
         if (value == null || value.isEmpty()) {
             return true;
         } else {
@@ -79,9 +99,12 @@ public abstract class DatavyuCellValue implements CellValue, Serializable, Compa
 
     @Override
     public void set(final String newValue) {
-        if (!newValue.equals(toString()) && !newValue.equals(this.value)) {
-            this.value = newValue;
+        if (!hasValue(newValue)) {
+            setValue(newValue);
             this.parent.getVariable().getOwningDatastore().markAsChanged();
+            if (this.parent instanceof DatavyuCell) {
+                ((DatavyuCell) this.parent).deferChange();
+            }
         }
     }
 
@@ -94,7 +117,7 @@ public abstract class DatavyuCellValue implements CellValue, Serializable, Compa
         if (this.isEmpty()) {
             return "";
         } else {
-            return value;
+            return getValue();
         }
     }
 
@@ -103,6 +126,7 @@ public abstract class DatavyuCellValue implements CellValue, Serializable, Compa
     }
     
     public String serialize() {
+        String value = getValue();
         if(value == null) return "";
         return StringUtils.escapeCSVArgument(value);
     }
@@ -57,6 +57,15 @@ public class DatavyuDataStore implements DataStore {
     
     private String exemptionVariables = "";
 
+    /** Nesting depth of the open batches */
+    private int batchDepth = 0;
+
+    /** The changes of the open batch by variable, in order of the first change */
+    private final Map<Variable, VariableChange> batchChanges = new LinkedHashMap<>();
+
+    /** The changes recorded for drainChanges by variable, in order of the first change; null when not tracking */
+    private Map<Variable, VariableChange> trackedChanges = null;
+
 
     public DatavyuDataStore() {
         variables = new HashMap<>();
@@ -73,6 +82,131 @@ public class DatavyuDataStore implements DataStore {
         }
     }
 
+    @Override
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    @Override
+    public void commitBatch() {
+        List<VariableChange> changes;
+        synchronized (this) {
+            if (batchDepth == 0) {
+                throw new IllegalStateException("No open batch to commit.");
+            }
+            if (--batchDepth > 0) {
+                return;
+            }
+            changes = new ArrayList<>(batchChanges.values());
+            batchChanges.clear();
+        }
+
+        for (VariableChange change : changes) {
+            Variable variable = change.getVariable();
+            // Variables removed during the batch have nobody left to tell
+            if (change.isEmpty() || variables.get(variable.getName()) != variable) {
+                continue;
+            }
+            if (variable instanceof DatavyuVariable) {
+                ((DatavyuVariable) variable).fireCellsChanged(change);
+            } else if (variable instanceof ColumnarVariable) {
+                ((ColumnarVariable) variable).fireCellsChanged(change);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setChangeTracking(final boolean track) {
+        if (!track) {
+            trackedChanges = null;
+        } else if (trackedChanges == null) {
+            trackedChanges = new LinkedHashMap<>();
+        }
+    }
+
+    @Override
+    public synchronized List<VariableChange> drainChanges() {
+        if (trackedChanges == null) {
+            return Collections.emptyList();
+        }
+        List<VariableChange> changes = new ArrayList<>(trackedChanges.values());
+        trackedChanges.clear();
+        return changes;
+    }
+
+    /**
+     * @return True if a batch is open, false otherwise.
+     */
+    synchronized boolean isInBatch() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * @return True if a batch is open or changes are tracked, i.e. if cell changes need to be reported to the defer
+     * methods, false otherwise.
+     */
+    synchronized boolean isRecording() {
+        return batchDepth > 0 || trackedChanges != null;
+    }
+
+    /**
+     * Records that a cell was inserted if a batch is open or changes are tracked.
+     *
+     * @return True if the change was recorded with a batch and listeners must not be notified now, false otherwise.
+     */
+    synchronized boolean deferInserted(final Variable variable, final Cell cell) {
+        if (trackedChanges != null) {
+            change(trackedChanges, variable).inserted(cell);
+        }
+        if (batchDepth == 0) {
+            return false;
+        }
+        change(batchChanges, variable).inserted(cell);
+        return true;
+    }
+
+    /**
+     * Records that a cell was removed if a batch is open or changes are tracked.
+     *
+     * @return True if the change was recorded with a batch and listeners must not be notified now, false otherwise.
+     */
+    synchronized boolean deferRemoved(final Variable variable, final Cell cell) {
+        if (trackedChanges != null) {
+            change(trackedChanges, variable).removed(cell);
+        }
+        if (batchDepth == 0) {
+            return false;
+        }
+        change(batchChanges, variable).removed(cell);
+        return true;
+    }
+
+    /**
+     * Records that the times, value, selection or highlighting of a cell changed if a batch is open or changes are
+     * tracked.
+     *
+     * @return True if the change was recorded with a batch and listeners must not be notified now, false otherwise.
+     */
+    synchronized boolean deferChanged(final Variable variable, final Cell cell) {
+        if (trackedChanges != null) {
+            change(trackedChanges, variable).changed(cell);
+        }
+        if (batchDepth == 0) {
+            return false;
+        }
+        change(batchChanges, variable).changed(cell);
+        return true;
+    }
+
+    private static VariableChange change(final Map<Variable, VariableChange> changes, final Variable variable) {
+        VariableChange change = changes.get(variable);
+        if (change == null) {
+            change = new VariableChange(variable);
+            changes.put(variable, change);
+        }
+        return change;
+    }
+
     @Override
     public List<Variable> getAllVariables() {
         List<Variable> allVariables = new ArrayList<Variable>();
@@ -153,7 +287,7 @@ public class DatavyuDataStore implements DataStore {
     @Override
     public Variable getVariable(Cell cell) {
         for (Variable v : variables.values()) {
-            if (v.getCells().contains(cell)) return v;
+            if (v.contains(cell)) return v;
         }
         return null;
     }
@@ -177,7 +311,7 @@ public class DatavyuDataStore implements DataStore {
         if (type == Argument.Type.MATRIX) rootNode = new Argument(name + name.hashCode(), type);
         else rootNode = new Argument("var", type);
 
-        Variable v = new DatavyuVariable(name, rootNode, grandfathered, this);
+        Variable v = newVariable(name, rootNode, grandfathered);
         variables.put(name, v);
 
         for (DataStoreListener dbl : this.dataStoreListeners) {
@@ -188,6 +322,21 @@ public class DatavyuDataStore implements DataStore {
         return v;
     }
 
+    /**
+     * Constructs the variable instance used by this data store; called by createVariable once the name is checked.
+     *
+     * @param name The name of the variable.
+     * @param rootNode The root argument of the variable.
+     * @param grandfathered Flag to exempt variable from naming rules.
+     *
+     * @return The new variable, not yet registered with this data store.
+     * @throws UserWarningException If the name is not valid.
+     */
+    protected Variable newVariable(final String name, final Argument rootNode, boolean grandfathered)
+            throws UserWarningException {
+        return new DatavyuVariable(name, rootNode, grandfathered, this);
+    }
+
     @Override
     public void removeVariable(final Variable var) {
         for (DataStoreListener listener : this.dataStoreListeners) {
@@ -66,26 +66,37 @@ public final class DatavyuMatrixCellValue extends DatavyuCellValue implements Ma
         });
     }
     
+    /**
+     * A matrix has no value of its own, only those of its arguments.
+     */
+    @Override
+    String getValue() {
+        return null;
+    }
+
+    @Override
+    void setValue(final String newValue) {
+    }
+
     @Override
     public String toString() {
-        String result = "";
         List<CellValue> cellValues = getArguments();
 
-        result += "(";
+        StringBuilder result = new StringBuilder("(");
         for (int i = 0; i < cellValues.size(); i++) {
-            CellValue v = cellValues.get(i);
-            if (v.toString() == null) {
-                result += "<code" + String.valueOf(i) + ">";
+            String value = cellValues.get(i).toString();
+            if (value == null) {
+                result.append("<code").append(i).append('>');
             } else {
-                result += v.toString();
+                result.append(value);
             }
             if (i < cellValues.size() - 1) {
-                result += ",";
+                result.append(',');
             }
         }
-        result += ")";
+        result.append(')');
 
-        return result;
+        return result.toString();
     }
 
     public String serialize() {
@@ -112,13 +123,15 @@ public final class DatavyuMatrixCellValue extends DatavyuCellValue implements Ma
     @Override
     public CellValue createArgument(Argument arg) {
         CellValue val = null;
-        String name = String.format("code%02d", getArguments().size() + 1);
+        // Appending keeps the values ordered, so there is no need to sort them here
+        int index = cellValues.size();
+        String name = (index < 9 ? "code0" : "code") + (index + 1);
         if (arg.type == Argument.Type.NOMINAL) {
-            val = new DatavyuNominalCellValue(this.id, name, getArguments().size(), arg, parent);
+            val = new DatavyuNominalCellValue(this.id, name, index, arg, parent);
         } else if (arg.type == Argument.Type.TEXT) {
-            val = new DatavyuTextCellValue(this.id, name, getArguments().size(), arg, parent);
+            val = new DatavyuTextCellValue(this.id, name, index, arg, parent);
         }
-        this.getArguments().add(val);
+        cellValues.add(val);
         return val;
     }
 
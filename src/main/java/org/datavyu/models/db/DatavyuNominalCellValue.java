@@ -25,8 +25,24 @@ package org.datavyu.models.db;
 
 import java.util.UUID;
 
+/**
+ * Nominal values repeat a small vocabulary across many cells, so they are stored as a code into the dictionary of
+ * their argument instead of as a string per cell.
+ *
+ * A value that is not in the dictionary yet, e.g. one being typed, is kept as a string until it is committed: its
+ * code is asked for, which snapshots of the column do. Values replaced before that, such as the prefixes of a typed
+ * value, never enter the dictionary, whose codes are never freed.
+ */
 public final class DatavyuNominalCellValue extends DatavyuCellValue implements NominalCellValue {
 
+    private int code = ValueDictionary.EMPTY;
+
+    /** The value if it has not been added to the dictionary yet; null otherwise */
+    private String uncommitted;
+
+    /** The dictionary of a value without argument */
+    private ValueDictionary dictionary;
+
     public DatavyuNominalCellValue() {
     }
 
@@ -48,4 +64,63 @@ public final class DatavyuNominalCellValue extends DatavyuCellValue implements N
         this.arg = type;
     }
 
+    /**
+     * @return The dictionary the code is into: that of the argument, or one of its own for a value without argument.
+     */
+    private ValueDictionary getDictionary() {
+        if (arg != null) {
+            return arg.getValueDictionary();
+        }
+        if (dictionary == null) {
+            dictionary = new ValueDictionary();
+        }
+        return dictionary;
+    }
+
+    @Override
+    String getValue() {
+        return uncommitted != null ? uncommitted : getDictionary().decode(code);
+    }
+
+    @Override
+    void setValue(final String newValue) {
+        int known = getDictionary().lookup(newValue);
+        if (known < 0) {
+            uncommitted = newValue;
+        } else {
+            code = known;
+            uncommitted = null;
+        }
+    }
+
+    @Override
+    boolean hasValue(final String newValue) {
+        if (uncommitted != null) {
+            return uncommitted.equals(newValue);
+        }
+        return getDictionary().lookup(newValue) == code;
+    }
+
+    /**
+     * Adds the value to the dictionary if it is not there yet.
+     */
+    private void commit() {
+        if (uncommitted != null) {
+            code = getDictionary().encode(uncommitted);
+            uncommitted = null;
+        }
+    }
+
+    @Override
+    public int getCode() {
+        commit();
+        // Codes into a dictionary of its own are not comparable with those of other values
+        return arg == null && code != ValueDictionary.EMPTY ? -1 : code;
+    }
+
+    @Override
+    public String serialize() {
+        commit();
+        return getDictionary().decodeSerialized(code);
+    }
 }
@@ -27,6 +27,8 @@ import java.util.UUID;
 
 public final class DatavyuTextCellValue extends DatavyuCellValue implements TextCellValue {
 
+    private String value;
+
     public DatavyuTextCellValue() {
     }
 
@@ -49,4 +51,14 @@ public final class DatavyuTextCellValue extends DatavyuCellValue implements Text
         this.arg = arg;
         this.parent = parent;
     }
-}
\ No newline at end of file
+
+    @Override
+    String getValue() {
+        return value;
+    }
+
+    @Override
+    void setValue(final String newValue) {
+        this.value = newValue;
+    }
+}
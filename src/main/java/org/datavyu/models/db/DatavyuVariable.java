@@ -34,12 +34,11 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public final class DatavyuVariable implements Variable {
 
-    // All the listeners for variables in the data store
     private static Logger logger = LogManager.getLogger(DatavyuVariable.class);
-    private static Map<UUID, List<VariableListener>> allListeners = new HashMap<UUID, List<VariableListener>>();
-    private static CellComparator CellComparator = new CellComparator();
+    // The listeners for this variable
+    private final List<VariableListener> listeners = new CopyOnWriteArrayList<>();
     final private UUID variableId = UUID.randomUUID();
-    private List<Cell> cells = new CopyOnWriteArrayList<>();
+    private final TemporalIndex cells = new TemporalIndex();
     private Argument rootNodeArgument = null;
     private Boolean selected;
     private Boolean hidden;
@@ -82,31 +81,13 @@ public final class DatavyuVariable implements Variable {
         owningDatastore.markAsChanged();
     }
 
-    /**
-     * @param variableId The Identifier of the variable we want the listeners for.
-     * @return The list of listeners for the specified variableId.
-     */
-    private static List<VariableListener> getListeners(UUID variableId) {
-        List<VariableListener> result = allListeners.get(variableId);
-        if (result == null) {
-            result = new ArrayList<>();
-            allListeners.put(variableId, result);
-        }
-        return result;
-    }
-
-    /**
-     * Removes all the listeners for all the variables.
-     */
-    public static void clearListeners() {
-        allListeners.clear();
-    }
-
     public void addCell(Cell cell) {
         if (cell.getCellValue().getArgument() == this.getRootNode()) {
             cells.add(cell);
-            for (VariableListener vl : getListeners(getID())) {
-                vl.cellInserted(cell);
+            if (!owningDatastore.deferInserted(this, cell)) {
+                for (VariableListener vl : listeners) {
+                    vl.cellInserted(cell);
+                }
             }
             owningDatastore.markAsChanged();
         }
@@ -130,37 +111,92 @@ public final class DatavyuVariable implements Variable {
 
         cells.add(c);
 
-        for (VariableListener vl : getListeners(getID())) {
-            vl.cellInserted(c);
+        if (!owningDatastore.deferInserted(this, c)) {
+            for (VariableListener vl : listeners) {
+                vl.cellInserted(c);
+            }
         }
 
         owningDatastore.markAsChanged();
         return c;
     }
 
+    @Override
+    public void loadCells(final int count, final long[] onsets, final long[] offsets, final String[][] values) {
+        List<Cell> loaded = new ArrayList<Cell>(count);
+        for (int i = 0; i < count; i++) {
+            DatavyuCell c = new DatavyuCell(this, this.getRootNode());
+            c.load(onsets[i], offsets[i], values[i]);
+            loaded.add(c);
+        }
+        cells.addAll(loaded);
+    }
+
     @Override
     public void removeCell(final Cell cell) {
         cells.remove(cell);
 
         owningDatastore.markAsChanged();
 
-        for (VariableListener vl : getListeners(getID())) {
+        if (owningDatastore.deferRemoved(this, cell)) {
+            return;
+        }
+        for (VariableListener vl : listeners) {
             vl.cellRemoved(cell);
         }
 
     }
 
+    /**
+     * Notifies the listeners of this variable about the changes of a committed batch.
+     *
+     * @param change The changes to the cells of this variable.
+     */
+    void fireCellsChanged(final VariableChange change) {
+        for (VariableListener vl : listeners) {
+            vl.cellsChanged(change);
+        }
+    }
+
+    /**
+     * Called by cells of this variable when their onset or offset changed so that the temporal index stays current.
+     *
+     * @param cell The cell whose times changed.
+     */
+    void cellTimeChanged(final Cell cell) {
+        cells.update(cell);
+    }
+
     @Override
     public List<Cell> getCells() {
-        return cells;
+        return cells.asList();
     }
 
     @Override
     public Cell getCellTemporally(final int index) {
-        Collections.sort(cells, CellComparator);
         return cells.get(index);
     }
 
+    @Override
+    public int getTemporalIndex(final Cell cell) {
+        return cells.indexOf(cell);
+    }
+
+    @Override
+    public List<Cell> getCellsAt(final long time) {
+        return cells.covering(time);
+    }
+
+    @Override
+    public List<Cell> getCellsOverlapping(final long start, final long end) {
+        return cells.overlapping(start, end);
+    }
+
+    @Override
+    public List<Cell> getCellsStarting(final long start, final long end) {
+        return cells.starting(start, end);
+    }
+
     @Override
     public Argument getRootNode() {
         return rootNodeArgument;
@@ -186,8 +222,7 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public List<Cell> getCellsTemporally() {
-        Collections.sort(cells, CellComparator);
-        return cells;
+        return cells.asList();
     }
 
     @Override
@@ -216,7 +251,7 @@ public final class DatavyuVariable implements Variable {
             owningDatastore.markAsChanged();
             hidden = hiddenParm;
 
-            for (VariableListener vl : getListeners(getID())) {
+            for (VariableListener vl : listeners) {
                 vl.visibilityChanged(hidden);
             }
         }
@@ -252,13 +287,13 @@ public final class DatavyuVariable implements Variable {
             owningDatastore.updateVariableName(name, newName, this);
         }
         this.name = newName;
-        for (VariableListener vl : getListeners(getID())) {
+        for (VariableListener vl : listeners) {
             vl.nameChanged(newName);
         }
     }
 
 
-    private boolean isNameValid(String nameCandidate) {
+    static boolean isNameValid(String nameCandidate) {
         return nameCandidate != null && nameCandidate.matches("[a-zA-Z][a-zA-Z0-9_]*") && nameCandidate.length() < 255;
     }
 
@@ -332,12 +367,12 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public void addListener(final VariableListener listener) {
-        getListeners(getID()).add(listener);
+        listeners.add(listener);
     }
 
     @Override
     public void removeListener(final VariableListener listener) {
-        getListeners(getID()).remove(listener);
+        listeners.remove(listener);
     }
 
     @Override
@@ -26,5 +26,14 @@ package org.datavyu.models.db;
  * The value held within a cell inside a nominal value.
  */
 public interface NominalCellValue extends CellValue {
-    
+
+    /**
+     * Values of the same argument are equal exactly when their codes are equal, so comparisons can use the code
+     * instead of the string. Values are added to the dictionary when their code is first asked for, not when they
+     * are set, so that values that are replaced straight away, e.g. while typing, do not fill the dictionary.
+     *
+     * @return The code of this value in the {@link ValueDictionary} of its argument; -1 if the value does not belong
+     * to an argument.
+     */
+    int getCode();
 }
@@ -0,0 +1,421 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compares the cells of a primary coder with those of a reliability coder: which cells the two coded alike, code by
+ * code, with percent agreement and Cohen's kappa.
+ *
+ * Each cell of the reliability column is matched to a cell of the primary column, by default to the first cell whose
+ * onset is within the tolerance of its own. Cells can instead be matched by the value of a code, e.g. a trial number,
+ * and be restricted to the cells that lie within the cells of a block column. The contingency table of each code is
+ * counted over the matched pairs; the codes are counted in parallel.
+ */
+public final class ReliabilityCheck {
+
+    /** The code that matches cells, null to match by onset */
+    private String matchCode;
+
+    /** The number of milliseconds by which the times of matched cells may differ */
+    private long tolerance;
+
+    /** The cells within which reliability cells are checked, null to check all cells */
+    private ColumnSnapshot blocks;
+
+    /**
+     * @param matchCode The code whose value matches a reliability cell to a primary cell; null to match cells by
+     * onset.
+     */
+    public void setMatchCode(final String matchCode) {
+        this.matchCode = matchCode;
+    }
+
+    /**
+     * @param tolerance The number of milliseconds by which the onsets and offsets of matched cells may differ.
+     */
+    public void setTolerance(final long tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param blocks The column whose cells a reliability cell must lie within to be checked; null to check all cells.
+     */
+    public void setBlocks(final ColumnSnapshot blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Compares a reliability column with its primary column.
+     *
+     * @param primary The column of the primary coder.
+     * @param reliability The column of the reliability coder.
+     * @param codes The codes to compare; all codes of the primary column if none are given.
+     * @return The result.
+     * @throws IllegalArgumentException If a code is missing from either column.
+     */
+    public Result check(final ColumnSnapshot primary, final ColumnSnapshot reliability, final String... codes) {
+        final String[] names = codes.length > 0 ? codes : new String[primary.getColumnCount()];
+        if (codes.length == 0) {
+            List<Argument> arguments = primary.getArguments();
+            for (int c = 0; c < names.length; c++) {
+                names[c] = arguments.isEmpty() ? "var" : arguments.get(c).name;
+            }
+        }
+        int[] primaryColumns = columns(primary, names);
+        int[] reliabilityColumns = columns(reliability, names);
+
+        int[] matches = match(primary, reliability);
+        int pairs = 0;
+        int onsetErrors = 0;
+        int offsetErrors = 0;
+        for (int row = 0; row < matches.length; row++) {
+            if (matches[row] >= 0) {
+                pairs++;
+                if (Math.abs(primary.getOnset(matches[row]) - reliability.getOnset(row)) > tolerance) {
+                    onsetErrors++;
+                }
+                if (Math.abs(primary.getOffset(matches[row]) - reliability.getOffset(row)) > tolerance) {
+                    offsetErrors++;
+                }
+            }
+        }
+
+        List<ForkJoinTask<CodeTable>> tasks = new ArrayList<>();
+        for (int c = 0; c < names.length; c++) {
+            final int code = c;
+            tasks.add(ForkJoinTask.adapt(() -> count(names[code], primary, primaryColumns[code],
+                    reliability, reliabilityColumns[code], matches)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        List<CodeTable> tables = new ArrayList<>();
+        for (ForkJoinTask<CodeTable> task : tasks) {
+            tables.add(task.join());
+        }
+        return new Result(pairs, reliability.size() - pairs, onsetErrors, offsetErrors, tables);
+    }
+
+    private static int[] columns(final ColumnSnapshot snapshot, final String[] codes) {
+        int[] columns = new int[codes.length];
+        for (int c = 0; c < codes.length; c++) {
+            columns[c] = snapshot.getColumn(codes[c]);
+            if (columns[c] < 0) {
+                throw new IllegalArgumentException("Column " + snapshot.getName() + " has no code " + codes[c]);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return The row of the matched primary cell for each reliability cell; -1 for cells without a match or outside
+     * the blocks.
+     */
+    private int[] match(final ColumnSnapshot primary, final ColumnSnapshot reliability) {
+        int[] matches = new int[reliability.size()];
+        Arrays.fill(matches, -1);
+        boolean[] checked = new boolean[reliability.size()];
+        if (blocks == null) {
+            Arrays.fill(checked, true);
+        } else {
+            new TemporalJoin(TemporalJoin.Relation.DURING).join(reliability, blocks,
+                    (row, block) -> checked[row] = true);
+        }
+
+        if (matchCode == null) {
+            // Onsets are in ascending order: find the first onset no earlier than the tolerance allows
+            long[] onsets = primary.getOnsets();
+            for (int row = 0; row < matches.length; row++) {
+                long onset = reliability.getOnset(row);
+                int low = 0;
+                int high = onsets.length;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (onsets[mid] < onset - tolerance) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                if (checked[row] && low < onsets.length && onsets[low] <= onset + tolerance) {
+                    matches[row] = low;
+                }
+            }
+        } else {
+            // The first primary cell with each value; cells with an empty value match nothing
+            int primaryColumn = columns(primary, new String[] {matchCode})[0];
+            int reliabilityColumn = columns(reliability, new String[] {matchCode})[0];
+            ValueDictionary dictionary = primary.getDictionary(primaryColumn);
+            int[] firstRows = new int[dictionary.size()];
+            Arrays.fill(firstRows, -1);
+            for (int row = primary.size() - 1; row >= 0; row--) {
+                firstRows[primary.getValueCode(primaryColumn, row)] = row;
+            }
+            for (int row = 0; row < matches.length; row++) {
+                String value = reliability.getValue(reliabilityColumn, row);
+                int code = value == null ? ValueDictionary.EMPTY : dictionary.lookup(value);
+                if (checked[row] && code > ValueDictionary.EMPTY && code < firstRows.length) {
+                    matches[row] = firstRows[code];
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static CodeTable count(final String name,
+                                   final ColumnSnapshot primary,
+                                   final int primaryColumn,
+                                   final ColumnSnapshot reliability,
+                                   final int reliabilityColumn,
+                                   final int[] matches) {
+        // Values are numbered in order of appearance; each dictionary code is looked up once
+        Map<String, Integer> categories = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        int[] primaryCategories = categories(primary.getDictionary(primaryColumn));
+        int[] reliabilityCategories = categories(reliability.getDictionary(reliabilityColumn));
+
+        int[] primaryValues = new int[matches.length];
+        int[] reliabilityValues = new int[matches.length];
+        int pairs = 0;
+        for (int row = 0; row < matches.length; row++) {
+            if (matches[row] >= 0) {
+                primaryValues[pairs] = category(primary, primaryColumn, matches[row], primaryCategories,
+                        categories, values);
+                reliabilityValues[pairs] = category(reliability, reliabilityColumn, row, reliabilityCategories,
+                        categories, values);
+                pairs++;
+            }
+        }
+
+        int[][] table = new int[values.size()][values.size()];
+        for (int p = 0; p < pairs; p++) {
+            table[primaryValues[p]][reliabilityValues[p]]++;
+        }
+        return new CodeTable(name, values.toArray(new String[values.size()]), table);
+    }
+
+    private static int[] categories(final ValueDictionary dictionary) {
+        int[] categories = new int[dictionary.size()];
+        Arrays.fill(categories, -1);
+        return categories;
+    }
+
+    private static int category(final ColumnSnapshot snapshot,
+                                final int column,
+                                final int row,
+                                final int[] byCode,
+                                final Map<String, Integer> categories,
+                                final List<String> values) {
+        int code = snapshot.getValueCode(column, row);
+        if (byCode[code] < 0) {
+            String value = snapshot.getValue(column, row);
+            value = value == null ? "" : value;
+            Integer category = categories.get(value);
+            if (category == null) {
+                category = values.size();
+                categories.put(value, category);
+                values.add(value);
+            }
+            byCode[code] = category;
+        }
+        return byCode[code];
+    }
+
+    /**
+     * The result of a reliability check.
+     */
+    public static final class Result {
+        private final int pairs;
+        private final int unmatched;
+        private final int onsetErrors;
+        private final int offsetErrors;
+        private final List<CodeTable> tables;
+
+        Result(final int pairs,
+               final int unmatched,
+               final int onsetErrors,
+               final int offsetErrors,
+               final List<CodeTable> tables) {
+            this.pairs = pairs;
+            this.unmatched = unmatched;
+            this.onsetErrors = onsetErrors;
+            this.offsetErrors = offsetErrors;
+            this.tables = Collections.unmodifiableList(tables);
+        }
+
+        /**
+         * @return The number of reliability cells matched to a primary cell.
+         */
+        public int getPairs() {
+            return pairs;
+        }
+
+        /**
+         * @return The number of reliability cells without a match, including those outside the blocks.
+         */
+        public int getUnmatched() {
+            return unmatched;
+        }
+
+        /**
+         * @return The number of matched cells whose onsets differ by more than the tolerance.
+         */
+        public int getOnsetErrors() {
+            return onsetErrors;
+        }
+
+        /**
+         * @return The number of matched cells whose offsets differ by more than the tolerance.
+         */
+        public int getOffsetErrors() {
+            return offsetErrors;
+        }
+
+        /**
+         * @return The tables of the codes, in the order the codes were given.
+         */
+        public List<CodeTable> getTables() {
+            return tables;
+        }
+
+        /**
+         * @param code The name of the code.
+         * @return The table of the code; null if the code was not checked.
+         */
+        public CodeTable getTable(final String code) {
+            for (CodeTable table : tables) {
+                if (table.getCode().equals(code)) {
+                    return table;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The contingency table of a code: how often the primary coder gave the value of a row while the reliability
+     * coder gave the value of a column.
+     */
+    public static final class CodeTable {
+        private final String code;
+        private final String[] values;
+        private final int[][] table;
+
+        CodeTable(final String code, final String[] values, final int[][] table) {
+            this.code = code;
+            this.values = values;
+            this.table = table;
+        }
+
+        /**
+         * @return The name of the code.
+         */
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * @return The values of the rows and columns, in order of appearance; the empty string for empty values.
+         */
+        public String[] getValues() {
+            return values.clone();
+        }
+
+        /**
+         * @param primaryValue The index of the value of the primary coder.
+         * @param reliabilityValue The index of the value of the reliability coder.
+         * @return The number of pairs with these values.
+         */
+        public int getCount(final int primaryValue, final int reliabilityValue) {
+            return table[primaryValue][reliabilityValue];
+        }
+
+        /**
+         * @return The number of pairs.
+         */
+        public int getTotal() {
+            int total = 0;
+            for (int[] row : table) {
+                for (int count : row) {
+                    total += count;
+                }
+            }
+            return total;
+        }
+
+        /**
+         * @return The number of pairs with the same value.
+         */
+        public int getAgreements() {
+            int agreements = 0;
+            for (int i = 0; i < table.length; i++) {
+                agreements += table[i][i];
+            }
+            return agreements;
+        }
+
+        /**
+         * @return The percentage of pairs with the same value; NaN without pairs.
+         */
+        public double getAgreement() {
+            return 100.0 * getAgreements() / getTotal();
+        }
+
+        /**
+         * @return Cohen's kappa, the agreement beyond the agreement expected by chance; NaN if chance alone accounts
+         * for all agreement, e.g. when both coders gave a single value.
+         */
+        public double getKappa() {
+            double total = getTotal();
+            double expected = 0;
+            for (int i = 0; i < table.length; i++) {
+                long rowTotal = 0;
+                long columnTotal = 0;
+                for (int j = 0; j < table.length; j++) {
+                    rowTotal += table[i][j];
+                    columnTotal += table[j][i];
+                }
+                expected += rowTotal * columnTotal / total;
+            }
+            if (total == expected) {
+                return Double.NaN;
+            }
+            return (getAgreements() - expected) / (total - expected);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (String value : values) {
+                result.append('\t').append(value);
+            }
+            result.append('\n');
+            for (int i = 0; i < values.length; i++) {
+                result.append(values[i]);
+                for (int j = 0; j < values.length; j++) {
+                    result.append('\t').append(table[i][j]);
+                }
+                result.append('\n');
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.*;
+
+/**
+ * Keeps the cells of a variable in temporal order (onset, then offset, then insertion order).
+ *
+ * The index is a treap whose nodes are augmented with the size of their subtree and the largest offset in their
+ * subtree. This gives logarithmic insert, remove, re-key and k-th lookup, and output sensitive queries for the cells
+ * that cover a time or overlap a time interval. The fully ordered list is built lazily and cached until the next
+ * mutation, so repeated calls to {@link #asList()} do not re-sort.
+ *
+ * All methods are synchronized on the index.
+ */
+final class TemporalIndex {
+
+    /** Node of the treap */
+    private static final class Node {
+        final Cell cell;
+        final long sequence;
+        final int priority;
+        long onset;
+        long offset;
+        long maxOffset;
+        int size;
+        Node left;
+        Node right;
+
+        Node(Cell cell, long sequence, int priority) {
+            this.cell = cell;
+            this.sequence = sequence;
+            this.priority = priority;
+            this.onset = cell.getOnset();
+            this.offset = cell.getOffset();
+            this.maxOffset = offset;
+            this.size = 1;
+        }
+    }
+
+    /** Nodes by cell; identity based since a cell's equals/hashCode is not needed here */
+    private final Map<Cell, Node> nodes = new IdentityHashMap<>();
+
+    /** Source of node priorities */
+    private final Random random = new Random();
+
+    /** Root of the treap */
+    private Node root = null;
+
+    /** Next insertion sequence number, used to break ties between cells with the same onset and offset */
+    private long nextSequence = 0L;
+
+    /** Cached temporally ordered cells; null when the index changed since it was last built */
+    private List<Cell> ordered = null;
+
+    /**
+     * Adds a cell to the index. Adding a cell that is already indexed has no effect.
+     *
+     * @param cell The cell to add.
+     */
+    synchronized void add(final Cell cell) {
+        if (nodes.containsKey(cell)) {
+            return;
+        }
+        Node node = new Node(cell, nextSequence++, random.nextInt());
+        nodes.put(cell, node);
+        root = insert(root, node);
+        ordered = null;
+    }
+
+    /**
+     * Adds several cells to the index. When the index is empty the treap is built bottom up from the sorted cells in
+     * linear time after the sort, instead of inserting the cells one at a time.
+     *
+     * @param added The cells to add.
+     */
+    synchronized void addAll(final Collection<? extends Cell> added) {
+        if (root != null) {
+            for (Cell cell : added) {
+                add(cell);
+            }
+            return;
+        }
+
+        Node[] sorted = new Node[added.size()];
+        int count = 0;
+        for (Cell cell : added) {
+            if (!nodes.containsKey(cell)) {
+                Node node = new Node(cell, nextSequence++, random.nextInt());
+                nodes.put(cell, node);
+                sorted[count++] = node;
+            }
+        }
+        Arrays.sort(sorted, 0, count, new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                return TemporalIndex.compare(a, b);
+            }
+        });
+        root = build(sorted, count);
+        ordered = null;
+    }
+
+    /**
+     * Removes a cell from the index.
+     *
+     * @param cell The cell to remove.
+     * @return True if the cell was indexed, false otherwise.
+     */
+    synchronized boolean remove(final Cell cell) {
+        Node node = nodes.remove(cell);
+        if (node == null) {
+            return false;
+        }
+        root = delete(root, node);
+        ordered = null;
+        return true;
+    }
+
+    /**
+     * Re-positions a cell after its onset or offset changed. Cells that are not indexed are ignored.
+     *
+     * @param cell The cell whose times changed.
+     */
+    synchronized void update(final Cell cell) {
+        Node node = nodes.get(cell);
+        if (node == null || (node.onset == cell.getOnset() && node.offset == cell.getOffset())) {
+            return;
+        }
+        root = delete(root, node);
+        node.onset = cell.getOnset();
+        node.offset = cell.getOffset();
+        node.left = null;
+        node.right = null;
+        node.maxOffset = node.offset;
+        node.size = 1;
+        root = insert(root, node);
+        ordered = null;
+    }
+
+    /**
+     * @param cell The cell to look for.
+     * @return True if the cell is indexed, false otherwise.
+     */
+    synchronized boolean contains(final Cell cell) {
+        return nodes.containsKey(cell);
+    }
+
+    /**
+     * @return The number of indexed cells.
+     */
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Gets the cell at the given position in temporal order.
+     *
+     * @param index The position, starting at zero.
+     * @return The cell at that position.
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    synchronized Cell get(int index) {
+        if (index < 0 || index >= size(root)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size(root));
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.cell;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Gets the position of a cell in temporal order.
+     *
+     * @param cell The cell to look for.
+     * @return The position of the cell, or -1 if it is not indexed.
+     */
+    synchronized int indexOf(final Cell cell) {
+        Node target = nodes.get(cell);
+        if (target == null) {
+            return -1;
+        }
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int c = compare(target, node);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return All indexed cells in temporal order. The returned list is an immutable snapshot.
+     */
+    synchronized List<Cell> asList() {
+        if (ordered == null) {
+            List<Cell> cells = new ArrayList<>(nodes.size());
+            collect(root, cells);
+            ordered = Collections.unmodifiableList(cells);
+        }
+        return ordered;
+    }
+
+    /**
+     * Finds the cells that cover the given time, i.e. onset <= time <= offset.
+     *
+     * @param time The time in milliseconds.
+     * @return The covering cells in temporal order.
+     */
+    synchronized List<Cell> covering(final long time) {
+        return overlapping(time, time);
+    }
+
+    /**
+     * Finds the cells that overlap the closed interval [start, end], i.e. onset <= end and offset >= start.
+     *
+     * @param start The start of the interval in milliseconds.
+     * @param end The end of the interval in milliseconds.
+     * @return The overlapping cells in temporal order.
+     */
+    synchronized List<Cell> overlapping(final long start, final long end) {
+        List<Cell> result = new ArrayList<>();
+        overlapping(root, start, end, result);
+        return result;
+    }
+
+    private static void overlapping(Node node, long start, long end, List<Cell> result) {
+        // Subtrees whose largest offset lies before the interval cannot contribute
+        if (node == null || node.maxOffset < start) {
+            return;
+        }
+        overlapping(node.left, start, end, result);
+        // Everything to the right starts no earlier than this node
+        if (node.onset > end) {
+            return;
+        }
+        if (node.offset >= start) {
+            result.add(node.cell);
+        }
+        overlapping(node.right, start, end, result);
+    }
+
+    /**
+     * Finds the cells whose onset lies in the closed interval [start, end].
+     *
+     * @param start The start of the interval in milliseconds.
+     * @param end The end of the interval in milliseconds.
+     * @return The cells in temporal order.
+     */
+    synchronized List<Cell> starting(final long start, final long end) {
+        List<Cell> result = new ArrayList<>();
+        starting(root, start, end, result);
+        return result;
+    }
+
+    private static void starting(Node node, long start, long end, List<Cell> result) {
+        // The tree is ordered by onset first, so only one side of a node can lie outside the interval
+        if (node == null) {
+            return;
+        }
+        if (node.onset >= start) {
+            starting(node.left, start, end, result);
+            if (node.onset <= end) {
+                result.add(node.cell);
+            }
+        }
+        if (node.onset <= end) {
+            starting(node.right, start, end, result);
+        }
+    }
+
+    private static void collect(Node node, List<Cell> cells) {
+        while (node != null) {
+            collect(node.left, cells);
+            cells.add(node.cell);
+            node = node.right;
+        }
+    }
+
+    private static int compare(Node a, Node b) {
+        if (a.onset != b.onset) {
+            return a.onset < b.onset ? -1 : 1;
+        }
+        if (a.offset != b.offset) {
+            return a.offset < b.offset ? -1 : 1;
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void pull(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        long max = node.offset;
+        if (node.left != null && node.left.maxOffset > max) {
+            max = node.left.maxOffset;
+        }
+        if (node.right != null && node.right.maxOffset > max) {
+            max = node.right.maxOffset;
+        }
+        node.maxOffset = max;
+    }
+
+    /**
+     * Builds a treap from nodes in key order, keeping the right spine of the tree on a stack.
+     */
+    private static Node build(Node[] sorted, int count) {
+        Node[] spine = new Node[count];
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            Node node = sorted[i];
+            Node last = null;
+            while (top > 0 && spine[top - 1].priority < node.priority) {
+                last = spine[--top];
+                pull(last);
+            }
+            node.left = last;
+            if (top > 0) {
+                spine[top - 1].right = node;
+            }
+            spine[top++] = node;
+        }
+        while (top > 1) {
+            pull(spine[--top]);
+        }
+        if (top == 0) {
+            return null;
+        }
+        pull(spine[0]);
+        return spine[0];
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (compare(inserted, node) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        pull(node);
+        return node;
+    }
+
+    private static Node delete(Node node, Node deleted) {
+        if (node == null) {
+            return null;
+        }
+        if (node == deleted) {
+            return merge(node.left, node.right);
+        }
+        if (compare(deleted, node) < 0) {
+            node.left = delete(node.left, deleted);
+        } else {
+            node.right = delete(node.right, deleted);
+        }
+        pull(node);
+        return node;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            pull(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        pull(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        pull(node);
+        pull(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        pull(node);
+        pull(right);
+        return right;
+    }
+}
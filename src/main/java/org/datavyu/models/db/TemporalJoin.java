@@ -0,0 +1,372 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the pairs of cells of two columns that stand in a temporal relation, e.g. the cells of one variable that
+ * overlap or fall within the cells of another.
+ *
+ * Cells are taken as closed intervals from their onset to their offset, as in the spreadsheet; a cell whose offset is
+ * before its onset ends at its onset. Both columns are swept once in order of onset while the cells of the second
+ * column that may still relate to a cell of the first are kept aside. Each cell of the first column scans the cells
+ * kept aside: those that started by its end or the end of an earlier cell and had not ended by the start of the cell
+ * before it. That is close to the number of pairs when the cells of the first column do not overlap much, as with
+ * trials or the intervals between time changes. It is not when a long cell of the first column lets in many cells of
+ * the second that the shorter cells after it scan again without relating to them, and the join can then take up to the
+ * product of the column sizes.
+ */
+public final class TemporalJoin {
+
+    /**
+     * Relations between a cell a of the first column and a cell b of the second column. The tolerance of the join
+     * is the number of milliseconds by which the times may miss.
+     */
+    public enum Relation {
+        /** a and b share at least one millisecond */
+        OVERLAPS {
+            @Override
+            boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance) {
+                return bStart <= aEnd + tolerance && aStart <= bEnd + tolerance;
+            }
+        },
+        /** a starts no later and ends no earlier than b */
+        CONTAINS {
+            @Override
+            boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance) {
+                return aStart <= bStart + tolerance && bEnd <= aEnd + tolerance;
+            }
+        },
+        /** a lies within b */
+        DURING {
+            @Override
+            boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance) {
+                return bStart <= aStart + tolerance && aEnd <= bEnd + tolerance;
+            }
+        },
+        /** b starts where a ends */
+        MEETS {
+            @Override
+            boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance) {
+                return Math.abs(bStart - aEnd) <= tolerance;
+            }
+        },
+        /** a and b have the same onset and the same offset */
+        MATCHES {
+            @Override
+            boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance) {
+                return Math.abs(aStart - bStart) <= tolerance && Math.abs(aEnd - bEnd) <= tolerance;
+            }
+        };
+
+        abstract boolean holds(long aStart, long aEnd, long bStart, long bEnd, long tolerance);
+    }
+
+    /**
+     * Receives the pairs of a join.
+     */
+    public interface PairHandler {
+
+        /**
+         * @param left The index of the cell in the first column.
+         * @param right The index of the cell in the second column.
+         */
+        void pair(int left, int right);
+    }
+
+    private final Relation relation;
+    private final long tolerance;
+
+    /**
+     * @param relation The relation of the cells to find.
+     */
+    public TemporalJoin(final Relation relation) {
+        this(relation, 0);
+    }
+
+    /**
+     * @param relation The relation of the cells to find.
+     * @param tolerance The number of milliseconds by which the times of related cells may miss.
+     */
+    public TemporalJoin(final Relation relation, final long tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Negative tolerance: " + tolerance);
+        }
+        this.relation = relation;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return The relation of the cells found.
+     */
+    public Relation getRelation() {
+        return relation;
+    }
+
+    /**
+     * @return The number of milliseconds by which the times of related cells may miss.
+     */
+    public long getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Joins two columns of cells given by their times, in any order. Pairs are handed over in order of the onset of
+     * the cell of the first column, then of the cell of the second column.
+     *
+     * @param leftOnsets The onsets of the cells of the first column.
+     * @param leftOffsets The offsets of the cells of the first column.
+     * @param rightOnsets The onsets of the cells of the second column.
+     * @param rightOffsets The offsets of the cells of the second column.
+     * @param handler Receives the indices of the related cells.
+     */
+    public void join(final long[] leftOnsets,
+                     final long[] leftOffsets,
+                     final long[] rightOnsets,
+                     final long[] rightOffsets,
+                     final PairHandler handler) {
+        int[] left = order(leftOnsets);
+        int[] right = order(rightOnsets);
+
+        // The cells of the second column that started in time for the current cell and have not ended before it
+        int[] active = new int[right.length];
+        int activeSize = 0;
+        int next = 0;
+        for (int l : left) {
+            long aStart = leftOnsets[l];
+            long aEnd = Math.max(aStart, leftOffsets[l]);
+            while (next < right.length && rightOnsets[right[next]] <= aEnd + tolerance) {
+                active[activeSize++] = right[next++];
+            }
+
+            int kept = 0;
+            for (int i = 0; i < activeSize; i++) {
+                int r = active[i];
+                long bStart = rightOnsets[r];
+                long bEnd = Math.max(bStart, rightOffsets[r]);
+                // Onsets only grow, so a cell that ended too early for this cell does so for all later cells
+                if (bEnd < aStart - tolerance) {
+                    continue;
+                }
+                active[kept++] = r;
+                if (relation.holds(aStart, aEnd, bStart, bEnd, tolerance)) {
+                    handler.pair(l, r);
+                }
+            }
+            activeSize = kept;
+        }
+    }
+
+    /**
+     * Joins two columns.
+     *
+     * @param left The first column.
+     * @param right The second column.
+     * @param handler Receives the rows of the related cells in the snapshots.
+     */
+    public void join(final ColumnSnapshot left, final ColumnSnapshot right, final PairHandler handler) {
+        join(left.getOnsets(), left.getOffsets(), right.getOnsets(), right.getOffsets(), handler);
+    }
+
+    /**
+     * Joins the first column with each of the other columns: the result holds a tuple of rows for each combination
+     * of a cell of the first column with a related cell of every other column. Cells of the first column without a
+     * related cell in one of the others are left out.
+     *
+     * @param columns The columns, at least two.
+     * @return The rows of the cells of each tuple in the snapshots, by column; tuples in order of the onset of the
+     * cell of the first column.
+     */
+    public int[][] join(final ColumnSnapshot... columns) {
+        if (columns.length < 2) {
+            throw new IllegalArgumentException("A join needs at least two columns.");
+        }
+
+        // The related rows of each other column, grouped by the row of the first column
+        int size = columns[0].size();
+        int[][] starts = new int[columns.length][];
+        int[][] related = new int[columns.length][];
+        for (int c = 1; c < columns.length; c++) {
+            PairCollector pairs = new PairCollector();
+            join(columns[0], columns[c], pairs);
+            starts[c] = new int[size + 1];
+            related[c] = new int[pairs.size];
+            int[] counts = new int[size + 1];
+            for (int p = 0; p < pairs.size; p++) {
+                counts[pairs.left[p] + 1]++;
+            }
+            for (int row = 0; row < size; row++) {
+                counts[row + 1] += counts[row];
+            }
+            System.arraycopy(counts, 0, starts[c], 0, size + 1);
+            // Counting sort by row of the first column, keeping the related rows of each in order of onset
+            for (int p = 0; p < pairs.size; p++) {
+                related[c][counts[pairs.left[p]]++] = pairs.right[p];
+            }
+        }
+
+        int total = 0;
+        for (int row = 0; row < size; row++) {
+            int product = 1;
+            for (int c = 1; c < columns.length; c++) {
+                product *= starts[c][row + 1] - starts[c][row];
+            }
+            total += product;
+        }
+
+        int[][] tuples = new int[columns.length][total];
+        int t = 0;
+        int[] choice = new int[columns.length];
+        for (int row = 0; row < size; row++) {
+            boolean complete = true;
+            for (int c = 1; c < columns.length; c++) {
+                choice[c] = starts[c][row];
+                complete &= choice[c] < starts[c][row + 1];
+            }
+            while (complete) {
+                tuples[0][t] = row;
+                for (int c = 1; c < columns.length; c++) {
+                    tuples[c][t] = related[c][choice[c]];
+                }
+                t++;
+
+                // Next combination, the last column counting fastest
+                int c = columns.length - 1;
+                while (c > 0 && ++choice[c] == starts[c][row + 1]) {
+                    choice[c] = starts[c][row];
+                    c--;
+                }
+                complete = c > 0;
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Joins columns as in {@link #join(ColumnSnapshot...)} and writes the tuples to a new matrix variable. Each tuple
+     * becomes a cell over the time the cells of the tuple have in common, or over the time they span together if
+     * they have none in common. The variable has a code for each code of the columns, named after the column and the
+     * code, e.g. "trial_result"; text and nominal columns give a single code named after the column and "var".
+     *
+     * @param dataStore The data store to create the variable in.
+     * @param name The name of the variable.
+     * @param columns The columns, at least two.
+     * @return The new variable.
+     * @throws UserWarningException If the variable can not be created.
+     */
+    public Variable derive(final DataStore dataStore,
+                           final String name,
+                           final ColumnSnapshot... columns) throws UserWarningException {
+        int[][] tuples = join(columns);
+        int count = tuples[0].length;
+
+        Variable variable = dataStore.createVariable(name, Argument.Type.MATRIX);
+        int codes = 0;
+        for (ColumnSnapshot column : columns) {
+            String prefix = ColumnSnapshot.codeName(column.getName()) + "_";
+            List<Argument> arguments = column.getArguments();
+            for (int a = 0; a < column.getColumnCount(); a++) {
+                if (codes > 0) {
+                    variable.addArgument(Argument.Type.NOMINAL);
+                }
+                Argument root = variable.getRootNode();
+                root.childArguments.get(codes).name = prefix
+                        + (arguments.isEmpty() ? "var" : ColumnSnapshot.codeName(arguments.get(a).name));
+                variable.setRootNode(root);
+                codes++;
+            }
+        }
+
+        long[] onsets = new long[count];
+        long[] offsets = new long[count];
+        String[][] values = new String[codes][count];
+        for (int t = 0; t < count; t++) {
+            long latestStart = Long.MIN_VALUE;
+            long earliestEnd = Long.MAX_VALUE;
+            long earliestStart = Long.MAX_VALUE;
+            long latestEnd = Long.MIN_VALUE;
+            int code = 0;
+            for (int c = 0; c < columns.length; c++) {
+                int row = tuples[c][t];
+                long start = columns[c].getOnset(row);
+                long end = Math.max(start, columns[c].getOffset(row));
+                latestStart = Math.max(latestStart, start);
+                earliestEnd = Math.min(earliestEnd, end);
+                earliestStart = Math.min(earliestStart, start);
+                latestEnd = Math.max(latestEnd, end);
+                for (int a = 0; a < columns[c].getColumnCount(); a++) {
+                    values[code++][t] = columns[c].getValue(a, row);
+                }
+            }
+            onsets[t] = latestStart <= earliestEnd ? latestStart : earliestStart;
+            offsets[t] = latestStart <= earliestEnd ? earliestEnd : latestEnd;
+        }
+
+        int[] rows = new int[count];
+        Arrays.fill(rows, -1);
+        new ColumnWriter(variable).write(rows, onsets, offsets, values);
+        return variable;
+    }
+
+    /**
+     * @return The indices of the times in ascending order.
+     */
+    private static int[] order(final long[] times) {
+        boolean sorted = true;
+        for (int i = 1; i < times.length && sorted; i++) {
+            sorted = times[i - 1] <= times[i];
+        }
+        if (sorted) {
+            int[] order = new int[times.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+
+        Integer[] boxed = new Integer[times.length];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(times[a], times[b]));
+        int[] order = new int[boxed.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Collects pairs in two growing arrays.
+     */
+    private static final class PairCollector implements PairHandler {
+        int[] left = new int[16];
+        int[] right = new int[16];
+        int size = 0;
+
+        @Override
+        public void pair(final int l, final int r) {
+            if (size == left.length) {
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+            }
+            left[size] = l;
+            right[size] = r;
+            size++;
+        }
+    }
+}
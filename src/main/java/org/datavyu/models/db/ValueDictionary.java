@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.datavyu.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the distinct values of an argument to dense integer codes and back.
+ *
+ * Code 0 is reserved for the empty value; null and the empty string both encode to it. Codes are never reused, so a
+ * code stays valid for as long as the dictionary exists, and two values of the same argument are equal exactly when
+ * their codes are equal.
+ *
+ * Each {@link Argument} owns one dictionary, see {@link Argument#getValueDictionary()}.
+ */
+public final class ValueDictionary {
+
+    /** Code used for empty values */
+    public static final int EMPTY = 0;
+
+    /** Codes by value */
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    /** Values by code */
+    private String[] values = new String[16];
+
+    /** Values by code, escaped for the data store file format; filled in on first use */
+    private String[] serialized = new String[16];
+
+    /** Number of codes handed out, including the empty code */
+    private int size = 1;
+
+    /**
+     * Gets the code for a value, adding the value to the dictionary if it is not there yet.
+     *
+     * @param value The value to encode.
+     * @return The code of the value.
+     */
+    public synchronized int encode(final String value) {
+        if (value == null || value.isEmpty()) {
+            return EMPTY;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                serialized = Arrays.copyOf(serialized, size * 2);
+            }
+            code = size++;
+            values[code] = value;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Gets the code for a value without adding it.
+     *
+     * @param value The value to look up.
+     * @return The code of the value, or -1 if the value is not in the dictionary.
+     */
+    public synchronized int lookup(final String value) {
+        if (value == null || value.isEmpty()) {
+            return EMPTY;
+        }
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param code The code to decode.
+     * @return The value for the code; null for the empty code.
+     */
+    public synchronized String decode(final int code) {
+        return values[code];
+    }
+
+    /**
+     * @param code The code to decode.
+     * @return The value for the code escaped with {@link StringUtils#escapeCSVArgument}; the empty string for the
+     * empty code.
+     */
+    public synchronized String decodeSerialized(final int code) {
+        if (code == EMPTY) {
+            return "";
+        }
+        String result = serialized[code];
+        if (result == null) {
+            result = StringUtils.escapeCSVArgument(values[code]);
+            serialized[code] = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of codes in the dictionary, including the empty code.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
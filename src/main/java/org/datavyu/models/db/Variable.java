@@ -43,6 +43,18 @@ public interface Variable {
      */
     Cell createCell();
 
+    /**
+     * Appends cells in bulk, e.g. when reading a file. Unlike {@link #createCell()} no listeners are notified and
+     * the owning data store is not marked as changed.
+     *
+     * @param count The number of cells to append.
+     * @param onsets The onsets of the cells in milliseconds.
+     * @param offsets The offsets of the cells in milliseconds.
+     * @param values The values of the cells, one array per cell holding a value per argument of the root node (a
+     *               single value for text and nominal variables). Null or missing values are left empty.
+     */
+    void loadCells(final int count, final long[] onsets, final long[] offsets, final String[][] values);
+
     /**
      * Removes a cell from the variable.
      *
@@ -51,7 +63,7 @@ public interface Variable {
     void removeCell(final Cell cell);
 
     /**
-     * @return All the cells stored in the variable.
+     * @return All the cells stored in the variable, in temporal order. The returned list is an immutable snapshot.
      */
     List<Cell> getCells();
 
@@ -63,6 +75,40 @@ public interface Variable {
      */
     Cell getCellTemporally(final int index);
 
+    /**
+     * Gets the position of a cell when the variable is sorted temporally.
+     *
+     * @param cell The cell to look for.
+     * @return The index of the cell, or -1 if the cell is not in this variable.
+     */
+    int getTemporalIndex(final Cell cell);
+
+    /**
+     * Gets the cells whose time window contains the supplied time (onset <= time <= offset).
+     *
+     * @param time The time in milliseconds.
+     * @return The matching cells in temporal order.
+     */
+    List<Cell> getCellsAt(final long time);
+
+    /**
+     * Gets the cells that overlap the supplied time interval (onset <= end and offset >= start).
+     *
+     * @param start The start of the interval in milliseconds.
+     * @param end The end of the interval in milliseconds.
+     * @return The matching cells in temporal order.
+     */
+    List<Cell> getCellsOverlapping(final long start, final long end);
+
+    /**
+     * Gets the cells whose onset lies in the supplied time interval (start <= onset <= end).
+     *
+     * @param start The start of the interval in milliseconds.
+     * @param end The end of the interval in milliseconds.
+     * @return The matching cells in temporal order.
+     */
+    List<Cell> getCellsStarting(final long start, final long end);
+
     /**
      * @return The type of the variable.
      */
@@ -82,7 +128,8 @@ public interface Variable {
     void setVariableType(final Argument newType);
 
     /**
-     * @return All the cells stored in the variable using a temporal alignment.
+     * @return All the cells stored in the variable using a temporal alignment. The returned list is an immutable
+     * snapshot.
      */
     List<Cell> getCellsTemporally();
 
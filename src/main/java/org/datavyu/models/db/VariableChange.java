@@ -0,0 +1,108 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cells of a variable that changed during a batch of mutations, see {@link DataStore#beginBatch()}, or since
+ * tracked changes were last drained, see {@link DataStore#drainChanges()}.
+ *
+ * Changes are coalesced per cell, so each cell appears in at most one list: a cell that was inserted and removed
+ * again within the batch is not reported at all, a cell that was removed and inserted again (e.g. by undo) is
+ * reported as changed, and a cell that was inserted and then edited is reported as inserted.
+ */
+public final class VariableChange {
+
+    /** What happened to a cell during the batch */
+    private enum Kind { INSERTED, REMOVED, CHANGED }
+
+    /** The variable the cells belong to */
+    private final Variable variable;
+
+    /** The changed cells in order of their first change */
+    private final Map<Cell, Kind> cells = new LinkedHashMap<>();
+
+    VariableChange(final Variable variable) {
+        this.variable = variable;
+    }
+
+    void inserted(final Cell cell) {
+        cells.put(cell, cells.get(cell) == Kind.REMOVED ? Kind.CHANGED : Kind.INSERTED);
+    }
+
+    void removed(final Cell cell) {
+        if (cells.get(cell) == Kind.INSERTED) {
+            cells.remove(cell);
+        } else {
+            cells.put(cell, Kind.REMOVED);
+        }
+    }
+
+    void changed(final Cell cell) {
+        if (!cells.containsKey(cell)) {
+            cells.put(cell, Kind.CHANGED);
+        }
+    }
+
+    private List<Cell> get(final Kind kind) {
+        List<Cell> result = new ArrayList<>();
+        for (Map.Entry<Cell, Kind> entry : cells.entrySet()) {
+            if (entry.getValue() == kind) {
+                result.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return The variable whose cells changed.
+     */
+    public Variable getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return The cells that were added to the variable.
+     */
+    public List<Cell> getInserted() {
+        return get(Kind.INSERTED);
+    }
+
+    /**
+     * @return The cells that were removed from the variable.
+     */
+    public List<Cell> getRemoved() {
+        return get(Kind.REMOVED);
+    }
+
+    /**
+     * @return The cells of the variable whose times, values, selection or highlighting changed.
+     */
+    public List<Cell> getChanged() {
+        return get(Kind.CHANGED);
+    }
+
+    /**
+     * @return True if no cell changed.
+     */
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+}
@@ -55,4 +55,12 @@ public interface VariableListener {
      * @param deletedCell The cell that has been removed from the variable.
      */
     void cellRemoved(final Cell deletedCell);
+
+    /**
+     * Cells of the variable have been inserted, removed or changed during a batch of mutations. This replaces the
+     * individual cell notifications for the batch, see {@link DataStore#beginBatch()}.
+     *
+     * @param change The coalesced changes of the batch.
+     */
+    void cellsChanged(final VariableChange change);
 }
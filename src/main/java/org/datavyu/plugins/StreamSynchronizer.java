@@ -0,0 +1,259 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.util.ClockTimer;
+
+/**
+ * Keeps a stream in sync with the master clock while it plays.
+ *
+ * On every periodic sync the drift of the stream, its time minus the time of its track on the clock, is measured.
+ * The times reported by streams are coarse, e.g. rounded to frames, so the measurements are smoothed into an
+ * estimate of the drift. Drift is corrected by playing the stream slightly faster or slower than the clock, which is
+ * not visible, rather than by seeking, which stutters: in proportion to the drift beyond a frame, plus an amount
+ * learned over time that compensates a stream that steadily runs fast or slow. Only jumps of at least
+ * {@link #SEEK_THRESHOLD} seek.
+ *
+ * Not thread safe; the stream viewer calls it while holding its lock.
+ */
+public final class StreamSynchronizer {
+
+    /** Drift in milliseconds from which the stream seeks */
+    public static final double SEEK_THRESHOLD = ClockTimer.SYNC_THRESHOLD;
+
+    /** Drift in milliseconds that is tolerated, about a frame */
+    static final double TOLERANCE = 40;
+
+    /** Largest change of the rate, as a fraction of the rate of the clock */
+    static final double MAX_ADJUSTMENT = 0.05;
+
+    /** Changes of the rate are multiples of this fraction, and smaller changes are not made */
+    static final double ADJUSTMENT_STEP = 0.005;
+
+    /** Time in milliseconds over which drift beyond the tolerance is corrected */
+    static final double CORRECTION_TIME = 2000;
+
+    /** Time in milliseconds over which the steady skew of the stream is learned */
+    static final double LEARNING_TIME = 16000;
+
+    /** Weight of a measurement in the estimate of the drift */
+    static final double SMOOTHING = 0.25;
+
+    /**
+     * What to do to keep the stream in sync.
+     */
+    public enum Correction {
+        /** The stream is in sync */
+        NONE,
+        /** The stream must play at {@link #getRate(float)} */
+        RATE,
+        /** The stream must seek to the time of its track */
+        SEEK
+    }
+
+    /**
+     * Statistics of the drift of a stream.
+     */
+    public static final class Statistics {
+        private final long samples;
+        private final double drift;
+        private final double rmsDrift;
+        private final double maxDrift;
+        private final double adjustment;
+        private final long rateChanges;
+        private final long seeks;
+
+        Statistics(final long samples, final double drift, final double rmsDrift, final double maxDrift,
+                   final double adjustment, final long rateChanges, final long seeks) {
+            this.samples = samples;
+            this.drift = drift;
+            this.rmsDrift = rmsDrift;
+            this.maxDrift = maxDrift;
+            this.adjustment = adjustment;
+            this.rateChanges = rateChanges;
+            this.seeks = seeks;
+        }
+
+        /**
+         * @return The number of measurements of the drift.
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return The current estimate of the drift in milliseconds, positive if the stream is ahead of the clock.
+         */
+        public double getDrift() {
+            return drift;
+        }
+
+        /**
+         * @return The root mean square of the measured drift in milliseconds.
+         */
+        public double getRmsDrift() {
+            return rmsDrift;
+        }
+
+        /**
+         * @return The largest measured drift in milliseconds, either way.
+         */
+        public double getMaxDrift() {
+            return maxDrift;
+        }
+
+        /**
+         * @return The current change of the rate, as a fraction of the rate of the clock.
+         */
+        public double getAdjustment() {
+            return adjustment;
+        }
+
+        /**
+         * @return The number of times the rate was changed to correct drift.
+         */
+        public long getRateChanges() {
+            return rateChanges;
+        }
+
+        /**
+         * @return The number of seeks to correct drift.
+         */
+        public long getSeeks() {
+            return seeks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("drift %.1f ms (rms %.1f ms, max %.1f ms over %d samples), adjustment %.3f, "
+                    + "%d rate changes, %d seeks", drift, rmsDrift, maxDrift, samples, adjustment, rateChanges, seeks);
+        }
+    }
+
+    /** The estimate of the drift in milliseconds, if there is one */
+    private double drift;
+    private boolean hasDrift = false;
+
+    /** The change of the rate applied to the stream, as a fraction of the rate of the clock */
+    private double adjustment = 0;
+
+    /** The learned speed of the stream relative to the clock, as a fraction of the rate of the clock */
+    private double skew = 0;
+
+    private long samples = 0;
+    private double sumOfSquares = 0;
+    private double maxDrift = 0;
+    private long rateChanges = 0;
+    private long seeks = 0;
+
+    /**
+     * Measures the drift of the stream and tells how to correct it.
+     *
+     * @param trackTime The time of the track on the clock in milliseconds.
+     * @param streamTime The time of the stream in milliseconds.
+     * @param clockRate The rate of the clock if the stream plays along with it, otherwise 0; the rate is only
+     *                  adjusted for positive rates. Called every {@link ClockTimer#SYNC_INTERVAL} milliseconds.
+     * @return The correction.
+     */
+    public Correction sync(final double trackTime, final double streamTime, final float clockRate) {
+        double measured = streamTime - trackTime;
+        samples++;
+        sumOfSquares += measured * measured;
+        maxDrift = Math.max(maxDrift, Math.abs(measured));
+
+        if (Math.abs(measured) >= SEEK_THRESHOLD) {
+            seeks++;
+            hasDrift = false;
+            return Correction.SEEK;
+        }
+        if (clockRate <= 0) {
+            // Time does not pass for the stream, so no drift builds up
+            hasDrift = false;
+            return Correction.NONE;
+        }
+
+        drift = hasDrift ? drift + SMOOTHING * (measured - drift) : measured;
+        hasDrift = true;
+        skew = clamp(skew + drift * ClockTimer.SYNC_INTERVAL / (CORRECTION_TIME * LEARNING_TIME));
+
+        double excess = Math.signum(drift) * Math.max(0, Math.abs(drift) - TOLERANCE);
+        double target = clamp(-(excess / CORRECTION_TIME + skew));
+        if (Math.abs(target - adjustment) >= ADJUSTMENT_STEP) {
+            adjustment = Math.round(target / ADJUSTMENT_STEP) * ADJUSTMENT_STEP;
+            rateChanges++;
+            return Correction.RATE;
+        }
+        return Correction.NONE;
+    }
+
+    /**
+     * Syncs a stream with the clock, seeking it or setting its rate as needed.
+     *
+     * @param streamViewer The stream.
+     * @param trackTime The time of the track on the clock in milliseconds.
+     * @param clockRate The rate of the clock if the stream plays along with it, otherwise 0.
+     * @return The correction made.
+     */
+    public Correction sync(final StreamViewer streamViewer, final double trackTime, final float clockRate) {
+        Correction correction = sync(trackTime, streamViewer.getCurrentTime(), clockRate);
+        switch (correction) {
+            case SEEK:
+                streamViewer.setCurrentTime((long) trackTime);
+                break;
+            case RATE:
+                streamViewer.adjustRate(getRate(clockRate));
+                break;
+            default:
+                break;
+        }
+        return correction;
+    }
+
+    private static double clamp(final double adjustment) {
+        return Math.max(-MAX_ADJUSTMENT, Math.min(MAX_ADJUSTMENT, adjustment));
+    }
+
+    /**
+     * @param clockRate The rate of the clock.
+     * @return The rate for the stream, that of the clock adjusted to correct drift.
+     */
+    public float getRate(final float clockRate) {
+        return (float) (clockRate * (1 + adjustment));
+    }
+
+    /**
+     * Restarts the estimate of the drift, e.g. after the stream seeked.
+     */
+    public void resetDrift() {
+        hasDrift = false;
+    }
+
+    /**
+     * Restarts the estimate of the drift after the rate of the stream was set to that of the clock. The learned skew
+     * is kept, and applied again on the next sync.
+     */
+    public void reset() {
+        hasDrift = false;
+        adjustment = 0;
+    }
+
+    /**
+     * @return The statistics of the drift so far.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(samples, hasDrift ? drift : 0, samples > 0 ? Math.sqrt(sumOfSquares / samples) : 0,
+                maxDrift, adjustment, rateChanges, seeks);
+    }
+}
@@ -135,6 +135,16 @@ public interface StreamViewer {
      */
     void setRate(float speed);
 
+    /**
+     * Adjust rate to keep in sync with the clock, by a small fraction of the rate of the clock. Unlike a change of
+     * rate by the user this happens during normal playback, so viewers should keep it quiet.
+     *
+     * @param speed The adjusted rate, positive.
+     */
+    default void adjustRate(float speed) {
+        setRate(speed);
+    }
+
     /**
      * Get the playback rate.
      *
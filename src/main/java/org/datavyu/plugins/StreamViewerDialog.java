@@ -131,6 +131,9 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
     // Offset gets updated when the user pushes the bar through 'handleCarriageOffsetChangeEvent' in the VideoController
     private long offset;
 
+    /** Keeps this stream in sync with the master clock while it plays */
+    private final StreamSynchronizer synchronizer = new StreamSynchronizer();
+
     /**
      * Constructs a base data video viewer.
      */
@@ -644,6 +647,7 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
             if (trackTime != getCurrentTime()) {
                 logger.info("Forced sync stream " + getIdentifier() + " track time: " + trackTime + " milliseconds");
                 setCurrentTime((long) trackTime);
+                synchronizer.resetDrift();
             }
         }
     }
@@ -654,14 +658,23 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
             MixerController mixerController = Datavyu.getVideoController().getMixerController();
             TracksEditorController tracksEditorController = mixerController.getTracksEditorController();
             TrackModel trackModel = tracksEditorController.getTrackModel(getIdentifier());
+            ClockTimer clockTimer = Datavyu.getVideoController().getClockTimer();
+            long streamTime = getCurrentTime();
             if (trackModel != null
                 && !isSeekPlaybackEnabled()
-                && getCurrentTime() != -1) {
+                && streamTime != -1) {
                 double trackTime = Math.min(Math.max(clockTime - trackModel.getOffset(), 0), trackModel.getDuration());
-                double difference = Math.abs(trackTime - getCurrentTime());
-                if (difference >= ClockTimer.SYNC_THRESHOLD) {
-                    logger.info("Sync stream " + getIdentifier() + " track time: " + trackTime + " milliseconds. stream time " + getCurrentTime() + " milliseconds");
-                    setCurrentTime((long) trackTime);
+                // Drift builds up only while the stream plays along with the clock
+                float clockRate = isPlaying() && !clockTimer.isPaused() ? clockTimer.getRate() : 0F;
+                switch (synchronizer.sync(this, trackTime, clockRate)) {
+                    case SEEK:
+                        logger.info("Sync stream " + getIdentifier() + " track time: " + trackTime + " milliseconds. stream time " + streamTime + " milliseconds");
+                        break;
+                    case RATE:
+                        logger.debug("Sync stream " + getIdentifier() + " " + synchronizer.getStatistics());
+                        break;
+                    default:
+                        break;
                 }
             }
         } catch (Exception e) {
@@ -669,6 +682,13 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
         }
     }
 
+    /**
+     * @return The statistics of the drift of this stream from the master clock.
+     */
+    public synchronized StreamSynchronizer.Statistics getSyncStatistics() {
+        return synchronizer.getStatistics();
+    }
+
     @Override
     public synchronized void clockStart(final double clockTime) {
         logger.info("Start");
@@ -694,6 +714,7 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
     @Override
     public synchronized void clockPause(double clockTime) {
         logger.debug("Clock pause Pauses track: " + getIdentifier() + " at time: " + clockTime);
+        logger.debug("Sync of track " + getIdentifier() + ": " + synchronizer.getStatistics());
         pause();
     }
 
@@ -701,5 +722,6 @@ public abstract class StreamViewerDialog extends DatavyuDialog implements Stream
     public synchronized void clockRate(final float rate) {
         logger.debug("Clock setting rate of track: " + getIdentifier() + " to " + rate + "X");
         setRate(rate);
+        synchronizer.reset();
     }
 }
@@ -10,7 +10,7 @@ import org.datavyu.plugins.ffmpeg.FfmpegSdlMediaPlayer;
 
 import java.io.File;
 
-public class FFmpegPlayer implements SdlKeyEventListener {
+public class FFmpegPlayer implements SdlKeyEventListener, FramePlayer {
 
   	/** The logger for this class */
   	private static Logger logger = LogManager.getFormatterLogger(FFmpegPlayer.class);
@@ -113,7 +113,7 @@ public class FFmpegPlayer implements SdlKeyEventListener {
 
 	public boolean isMute() { return mediaPlayer.getMute(); }
 
-	boolean isPlaying() { return mediaPlayer.getState() == PlayerStateEvent.PlayerState.PLAYING; }
+	public boolean isPlaying() { return mediaPlayer.getState() == PlayerStateEvent.PlayerState.PLAYING; }
 
   	public double getFPS() { return mediaPlayer.getFps();	}
 
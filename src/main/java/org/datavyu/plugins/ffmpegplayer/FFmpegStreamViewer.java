@@ -3,11 +3,14 @@ package org.datavyu.plugins.ffmpegplayer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datavyu.Datavyu;
+import org.datavyu.controllers.project.ProjectController;
 import org.datavyu.models.Identifier;
 import org.datavyu.plugins.StreamViewerDialog;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
 public class FFmpegStreamViewer extends StreamViewerDialog {
 
@@ -16,6 +19,11 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
    */
   private static Logger logger = LogManager.getFormatterLogger(FFmpegStreamViewer.class);
 
+  /**
+   * The name of the directory of frame indices in the directory of the project
+   */
+  private static final String FRAME_INDEX_DIRECTORY = "frames";
+
   /**
    * The player this viewer is displaying
    */
@@ -26,12 +34,24 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
    */
   private boolean isSeeking = false;
 
+  /**
+   * Seeks and steps the player
+   */
+  private final FrameStepper frameStepper;
+
+  /**
+   * The file the frame index was loaded from or last saved to, null if none
+   */
+  private File frameIndexFile = null;
+
   FFmpegStreamViewer(final Identifier identifier, final File sourceFile, final Frame parent,
       final boolean modal) {
     super(identifier, parent, modal);
     logger.info("Opening file: " + sourceFile.getAbsolutePath());
     player = new FFmpegPlayer(this, sourceFile);
+    frameStepper = new FrameStepper(player);
     setSourceFile(sourceFile);
+    loadFrameIndex();
     Datavyu.getVideoController()
             .getClockTimer().registerListener(this);
   }
@@ -66,7 +86,10 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
           time = getDuration() - 100;
         }
 
-        player.setCurrentTime(time / 1000.0);
+        // The frame on screen needs no seek, which would decode it again from the previous keyframe
+        if (!frameStepper.seek(time)) {
+          logger.debug("Frame at " + time + " milliseconds is shown already.");
+        }
         isSeeking = false;
       }
     } catch (Exception e) {
@@ -114,6 +137,13 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
     }
   }
 
+  @Override
+  public void adjustRate(float speed) {
+    logger.debug("Adjusting playback speed to: " + speed + "X");
+    playBackRate = speed;
+    player.setPlaybackSpeed(speed);
+  }
+
   @Override
   protected float getPlayerFramesPerSecond() {
     logger.debug("Getting the video Frame Per Second");
@@ -135,6 +165,63 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
     return (long) (playerTime * 1000);
   }
 
+  /**
+   * @param projectDirectory The directory of the project, null if the project has not been saved.
+   * @return The directory of the frame indices next to the project, or null if there is none.
+   */
+  private static File getFrameIndexDirectory(final String projectDirectory) {
+    if (projectDirectory == null || !new File(projectDirectory).isDirectory()) {
+      return null;
+    }
+    return new File(projectDirectory, FRAME_INDEX_DIRECTORY);
+  }
+
+  private void loadFrameIndex() {
+    ProjectController projectController = Datavyu.getProjectController();
+    File directory = projectController == null ? null
+        : getFrameIndexDirectory(projectController.getProjectDirectory());
+    if (directory != null) {
+      try {
+        File file = FrameIndex.getIndexFile(directory, sourceFile);
+        FrameIndex frameIndex = FrameIndex.load(file, sourceFile);
+        frameStepper.setFrameIndex(frameIndex);
+        frameIndexFile = file;
+        logger.info("Loaded the timing of " + frameIndex.size() + " frames.");
+      } catch (IOException e) {
+        logger.error("Unable to load the frame index, due to error: ", e);
+      }
+    }
+  }
+
+  /**
+   * Writes the frame index next to the project that is being saved. By the time the settings of the viewers are
+   * stored the original directory of the project is the one it is saved to (BugzID:1804).
+   */
+  private void saveFrameIndex() {
+    ProjectController projectController = Datavyu.getProjectController();
+    File directory = projectController == null ? null
+        : getFrameIndexDirectory(projectController.getProject().getOriginalProjectDirectory());
+    if (directory == null) {
+      return;
+    }
+    File file = FrameIndex.getIndexFile(directory, sourceFile);
+    FrameIndex frameIndex = frameStepper.getFrameIndex();
+    if (frameIndex.isModified() || (frameIndex.size() > 0 && !file.equals(frameIndexFile))) {
+      try {
+        frameIndex.save(file, sourceFile);
+        frameIndexFile = file;
+      } catch (IOException e) {
+        logger.error("Unable to save the frame index, due to error: ", e);
+      }
+    }
+  }
+
+  @Override
+  public void storeSettings(final OutputStream os) {
+    super.storeSettings(os);
+    saveFrameIndex();
+  }
+
   @Override
   protected void cleanUp() {
     logger.info("Destroying the Player");
@@ -145,13 +232,13 @@ public class FFmpegStreamViewer extends StreamViewerDialog {
   @Override
   public void stepForward() {
     logger.info("Step forward");
-    player.stepForward();
+    frameStepper.stepForward();
   }
 
   @Override
   public void stepBackward() {
     logger.info("Step backward");
-    player.stepBackward();
+    frameStepper.stepBackward();
   }
 
   @Override
@@ -0,0 +1,171 @@
+package org.datavyu.plugins.ffmpegplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The timing of the frames of a video, as learned from the player: each step from one frame to the next tells where
+ * a frame starts and ends. With it the viewer knows which frame is on screen, so that seeking to a time within that
+ * frame, e.g. when the clock is synced after a pause or a jog, does not have the player decode it again from the
+ * previous keyframe.
+ *
+ * The index is kept per video next to the project, written when the project is saved, and is ignored once the
+ * video changes. It only holds timing: stepping backward still has the player decode from the previous keyframe.
+ */
+final class FrameIndex {
+
+    /** Starts an index file, "DVFI" */
+    private static final int MAGIC = 0x44564649;
+
+    private static final int VERSION = 1;
+
+    /** Extension of index files */
+    static final String EXTENSION = ".frames";
+
+    /** Steps over more than this many nominal frames are not taken as a frame */
+    private static final int MAX_STEP_FRAMES = 4;
+
+    /** End of each known frame by its start, in microseconds */
+    private final TreeMap<Long, Long> frames = new TreeMap<>();
+
+    private boolean modified = false;
+
+    /**
+     * Records a step of the player from one frame to the next or the previous.
+     *
+     * @param before The time of the frame shown before the step in microseconds.
+     * @param after The time of the frame shown after the step in microseconds.
+     * @param framesPerSecond The nominal number of frames per second, or 0 if unknown.
+     */
+    synchronized void addStep(final long before, final long after, final double framesPerSecond) {
+        long start = Math.min(before, after);
+        long end = Math.max(before, after);
+        // The player may not have shown the next frame yet, or have skipped frames
+        if (start == end || start < 0
+                || (framesPerSecond > 0 && end - start > MAX_STEP_FRAMES * 1e6 / framesPerSecond)) {
+            return;
+        }
+        Long known = frames.put(start, end);
+        modified |= known == null || known != end;
+    }
+
+    /**
+     * @param start The start of a frame in microseconds.
+     * @return The end of the frame in microseconds, or -1 if unknown.
+     */
+    synchronized long getFrameEnd(final long start) {
+        Long end = frames.get(start);
+        return end == null ? -1 : end;
+    }
+
+    /**
+     * Tells whether a time is within the frame that starts at a given time.
+     *
+     * @param start The start of the frame in microseconds.
+     * @param time The time in microseconds.
+     * @return True if the frame is known and the time is within it.
+     */
+    synchronized boolean isInFrame(final long start, final long time) {
+        long end = getFrameEnd(start);
+        return end >= 0 && start <= time && time < end;
+    }
+
+    /**
+     * @return The number of known frames.
+     */
+    synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return True if frames were learned since the index was loaded or saved.
+     */
+    synchronized boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * @param directory The directory of the frame indices.
+     * @param source The video.
+     * @return The index file of the video, named after the video and a hash of its path so that videos of the same
+     * name in different directories have an index each.
+     */
+    static File getIndexFile(final File directory, final File source) {
+        String hash = UUID.nameUUIDFromBytes(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).toString();
+        return new File(directory, source.getName() + "-" + hash + EXTENSION);
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param file The index file; its directory is created if needed.
+     * @param source The video, which the index is valid for as long as it is unchanged.
+     * @throws IOException If unable to write the file.
+     */
+    synchronized void save(final File file, final File source) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(frames.size());
+            // Frames are short, so starts and lengths are written relative to the previous frame
+            long previous = 0;
+            for (Map.Entry<Long, Long> frame : frames.entrySet()) {
+                out.writeLong(frame.getKey() - previous);
+                out.writeInt((int) (frame.getValue() - frame.getKey()));
+                previous = frame.getKey();
+            }
+        }
+        modified = false;
+    }
+
+    /**
+     * Reads the index of a video.
+     *
+     * @param file The index file.
+     * @param source The video.
+     * @return The index, empty if there is no index file or the video changed since it was written.
+     * @throws IOException If unable to read the file.
+     */
+    static FrameIndex load(final File file, final File source) throws IOException {
+        FrameIndex index = new FrameIndex();
+        if (!file.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a frame index: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported frame index version " + version + ": " + file);
+            }
+            if (in.readLong() != source.length() || in.readLong() != source.lastModified()) {
+                return index;
+            }
+            int count = in.readInt();
+            long start = 0;
+            for (int i = 0; i < count; i++) {
+                start += in.readLong();
+                index.frames.put(start, start + in.readInt());
+            }
+        }
+        return index;
+    }
+}
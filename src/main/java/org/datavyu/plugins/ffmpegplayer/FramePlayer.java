@@ -0,0 +1,39 @@
+package org.datavyu.plugins.ffmpegplayer;
+
+/**
+ * The operations of a player that {@link FrameStepper} seeks and steps with.
+ */
+interface FramePlayer {
+
+    /**
+     * @return The time of the frame on screen in seconds, NaN if unknown.
+     */
+    double getCurrentTime();
+
+    /**
+     * Seeks, decoding from the keyframe before the position.
+     *
+     * @param position The position in seconds.
+     */
+    void setCurrentTime(double position);
+
+    /**
+     * Shows the next frame.
+     */
+    void stepForward();
+
+    /**
+     * Shows the previous frame.
+     */
+    void stepBackward();
+
+    /**
+     * @return The nominal number of frames per second, 0 if unknown.
+     */
+    double getFPS();
+
+    /**
+     * @return True if the player is playing.
+     */
+    boolean isPlaying();
+}
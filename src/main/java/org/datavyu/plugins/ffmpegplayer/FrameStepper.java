@@ -0,0 +1,106 @@
+package org.datavyu.plugins.ffmpegplayer;
+
+/**
+ * Seeks and steps the player of a viewer, skipping seeks to the frame that is on screen already.
+ *
+ * Jogging steps the player and then sets the clock, which syncs the viewer to the new time. That time is within the
+ * frame the step went to, so seeking to it would only decode the same frame again from the previous keyframe. The
+ * frame on screen is known from the {@link FrameIndex} once its end has been learned, and right after a step from
+ * the step itself: it starts where the player stopped and, if its end has not been learned yet, lasts one nominal
+ * frame.
+ */
+final class FrameStepper {
+
+    private final FramePlayer player;
+
+    /** The timing of the frames, learned while stepping */
+    private FrameIndex frameIndex = new FrameIndex();
+
+    /** The start of the frame the last step went to in microseconds, -1 if the player seeked since */
+    private long steppedTo = -1;
+
+    /**
+     * @param player The player to seek and step.
+     */
+    FrameStepper(final FramePlayer player) {
+        this.player = player;
+    }
+
+    /**
+     * @return The timing of the frames.
+     */
+    FrameIndex getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * @param frameIndex The timing of the frames, e.g. as loaded from an earlier session.
+     */
+    void setFrameIndex(final FrameIndex frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    /**
+     * Seeks unless the player is paused on the frame at the time.
+     *
+     * @param time The time in milliseconds.
+     * @return True if the player seeked, false if the frame was on screen already.
+     */
+    boolean seek(final long time) {
+        if (!player.isPlaying() && isShown(time * 1000)) {
+            return false;
+        }
+        player.setCurrentTime(time / 1000.0);
+        steppedTo = -1;
+        return true;
+    }
+
+    /**
+     * Steps to the next frame and learns the timing of the frame stepped from.
+     */
+    void stepForward() {
+        long before = getFrameTime();
+        player.stepForward();
+        stepped(before);
+    }
+
+    /**
+     * Steps to the previous frame and learns its timing.
+     */
+    void stepBackward() {
+        long before = getFrameTime();
+        player.stepBackward();
+        stepped(before);
+    }
+
+    private void stepped(final long before) {
+        long after = getFrameTime();
+        frameIndex.addStep(before, after, player.getFPS());
+        steppedTo = after;
+    }
+
+    /**
+     * @return The time of the frame on screen in microseconds, or -1 if unknown.
+     */
+    private long getFrameTime() {
+        double playerTime = player.getCurrentTime();
+        return Double.isNaN(playerTime) ? -1 : Math.round(playerTime * 1e6);
+    }
+
+    /**
+     * @param time The time in microseconds.
+     * @return True if the frame on screen is the one at the time.
+     */
+    private boolean isShown(final long time) {
+        long frameTime = getFrameTime();
+        if (frameTime < 0) {
+            return false;
+        }
+        if (frameIndex.isInFrame(frameTime, time)) {
+            return true;
+        }
+        double framesPerSecond = player.getFPS();
+        return frameTime == steppedTo && frameIndex.getFrameEnd(frameTime) < 0 && framesPerSecond > 0
+                && frameTime <= time && time < frameTime + Math.round(1e6 / framesPerSecond);
+    }
+}
@@ -76,6 +76,13 @@ public class AvFoundationViewer extends StreamViewerDialog  {
     }
   }
 
+  @Override
+  public void adjustRate(final float rate) {
+    logger.debug("Adjusting playback speed to: " + rate + "X");
+    playBackRate = rate;
+    player.setPlaybackSpeed(rate);
+  }
+
   @Override
   protected float getPlayerFramesPerSecond() {
     logger.debug("Getting the video Frame Per Second");
@@ -14,18 +14,29 @@
  */
 package org.datavyu.util;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
-import java.util.Set;
+import javax.swing.SwingUtilities;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 
 /**
  * Keeps multiple streams in periodic sync and does not play beyond the boundaries of a stream.
+ *
+ * The clock advances on a single tick loop running at a configurable rate. Each tick computes a {@link Snapshot} of
+ * the clock once and publishes it, so reading the clock takes no lock. Every {@link #SYNC_INTERVAL} milliseconds a
+ * tick also notifies the listeners of a periodic sync and of the boundary checks. Listeners are held in copy-on-write
+ * lists and are notified either on the clock thread, e.g. streams, or on the event dispatch thread, e.g. views. On the
+ * event dispatch thread periodic notifications and ticks are coalesced: if the previous one has not been handled yet,
+ * no other is queued, and the one handled carries the latest snapshot.
  */
 public final class ClockTimer {
 
@@ -35,43 +46,124 @@ public final class ClockTimer {
     /** Synchronization threshold in milliseconds */
     public static final long SYNC_THRESHOLD = 1500L; // 1.5 sec  (because some plugins are not very precise in seek)
 
-    /** Clock tick period in milliseconds */
-    private static final long CLOCK_INTERVAL = 100L;
+    /** Period of the periodic sync and boundary checks in milliseconds */
+    public static final long SYNC_INTERVAL = 100L;
 
-    /** Clock initial delay in milliseconds */
-    private static final long CLOCK_DELAY = 0L;
+    /** Default number of ticks per second */
+    public static final double DEFAULT_TICK_RATE = 60.0;
 
     /** Convert nanoseconds to milliseconds */
     private static final long NANO_IN_MILLI = 1000000L;
 
+    /**
+     * The state of the clock at one instant.
+     */
+    public static final class Snapshot {
+        private final double time;
+        private final float rate;
+        private final boolean paused;
+
+        Snapshot(final double time, final float rate, final boolean paused) {
+            this.time = time;
+            this.rate = rate;
+            this.paused = paused;
+        }
+
+        /**
+         * @return The clock time in milliseconds.
+         */
+        public double getTime() {
+            return time;
+        }
+
+        /**
+         * @return The clock rate.
+         */
+        public float getRate() {
+            return rate;
+        }
+
+        /**
+         * @return True if the clock is paused.
+         */
+        public boolean isPaused() {
+            return paused;
+        }
+
+        boolean isSameAs(final Snapshot other) {
+            return other != null && time == other.time && rate == other.rate && paused == other.paused;
+        }
+    }
+
     /** Minimum time for the clock in milliseconds */
-    private long minTime;
+    private volatile long minTime;
 
     /** Maximum time for the clock in milliseconds */
-    private long maxTime;
+    private volatile long maxTime;
 
-    /** Current time of the clock in milliseconds */
+    /** Current time of the clock in milliseconds; guarded by this */
     private double clockTime;
 
-    /** Last time in nanoseconds; it is used to calculate the elapsed */
+    /** Last time in nanoseconds; it is used to calculate the elapsed; guarded by this */
     private double lastTime;
 
-    /** Is the clock stopped */
+    /** Is the clock stopped; guarded by this */
     private boolean isStopped;
 
-    /** The rate factor for the clock updates */
+    /** The rate factor for the clock updates; guarded by this */
     private float rate = 1F;
 
-    private ScheduledExecutorService execService
-        =   Executors.newScheduledThreadPool(4);
+    /** The state of the clock as of the last tick or change */
+    private volatile Snapshot snapshot;
+
+    /** Runs the tick loop */
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Datavyu clock");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The scheduled tick loop; guarded by this */
+    private ScheduledFuture<?> tickTask;
+
+    /** Number of ticks per second; guarded by this */
+    private double tickRate;
+
+    /** Nanoseconds between ticks */
+    private volatile long tickPeriod;
 
-    /** Listeners of this clock */
-    private Set<ClockListener> clockListeners = new HashSet<>();
+    /** Time of the last periodic sync in nanoseconds; accessed on the clock thread */
+    private long lastSync = Long.MIN_VALUE;
+
+    /** The last snapshot sent to tick listeners; accessed on the clock thread */
+    private Snapshot lastTick;
+
+    /** Listeners notified on the clock thread */
+    private final List<ClockListener> clockListeners = new CopyOnWriteArrayList<>();
+
+    /** Listeners notified on the event dispatch thread */
+    private final List<ClockListener> swingListeners = new CopyOnWriteArrayList<>();
+
+    /** Listeners of every tick, notified on the event dispatch thread */
+    private final List<TickListener> tickListeners = new CopyOnWriteArrayList<>();
+
+    /** Whether a periodic sync is waiting on the event dispatch thread */
+    private final AtomicBoolean pendingSync = new AtomicBoolean();
+
+    /** Whether a tick is waiting on the event dispatch thread */
+    private final AtomicBoolean pendingTick = new AtomicBoolean();
 
     /**
-     * Default constructor.
+     * Default constructor, ticking {@link #DEFAULT_TICK_RATE} times per second.
      */
     public ClockTimer() {
+        this(DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * @param tickRate The number of ticks per second.
+     */
+    public ClockTimer(final double tickRate) {
 
         // Initialize values
         clockTime = 0;
@@ -79,15 +171,43 @@ public final class ClockTimer {
         minTime = 0;
         maxTime = 0;
         isStopped = true;
+        publish();
+
+        setTickRate(tickRate);
+    }
+
+    /**
+     * Sets the number of ticks per second, i.e. how often the clock advances and tick listeners are notified. The
+     * periodic sync is unaffected as long as the tick rate is at least that of the sync.
+     *
+     * @param tickRate The number of ticks per second.
+     */
+    public synchronized void setTickRate(final double tickRate) {
+        if (!(tickRate > 0) || Double.isInfinite(tickRate)) {
+            throw new IllegalArgumentException("Invalid tick rate: " + tickRate);
+        }
+        logger.debug("Setting Clock tick rate to " + tickRate + " per second");
+        this.tickRate = tickRate;
+        if (tickTask != null) {
+            tickTask.cancel(false);
+        }
+        tickPeriod = Math.max(1L, Math.round(1e9 / tickRate));
+        tickTask = ticker.scheduleAtFixedRate(this::tick, 0L, tickPeriod, TimeUnit.NANOSECONDS);
+    }
 
-        execService.scheduleAtFixedRate(() -> periodicSync()
-            , CLOCK_DELAY, CLOCK_INTERVAL, TimeUnit.MILLISECONDS);
-        execService.scheduleAtFixedRate(() -> checkClockBoundary()
-            , CLOCK_DELAY, CLOCK_INTERVAL, TimeUnit.MILLISECONDS);
-        execService.scheduleAtFixedRate(() -> checkStreamsBoundary()
-            , CLOCK_DELAY, CLOCK_INTERVAL, TimeUnit.MILLISECONDS);
-        execService.scheduleAtFixedRate(() -> notifySeekPlayback()
-            , CLOCK_DELAY, CLOCK_INTERVAL, TimeUnit.MILLISECONDS);
+    /**
+     * @return The number of ticks per second.
+     */
+    public synchronized double getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * Stops the tick loop for good, e.g. when the clock is no longer used; listeners are no longer notified of ticks.
+     */
+    public synchronized void shutdown() {
+        logger.debug("Shutting down Clock");
+        ticker.shutdownNow();
     }
 
     /**
@@ -117,7 +237,7 @@ public final class ClockTimer {
      *
      * @return Clock time in range for this clock timer
      */
-    public synchronized long toRange(long clockTime) {
+    public long toRange(long clockTime) {
         return Math.min(Math.max(clockTime, minTime), maxTime);
     }
 
@@ -127,24 +247,31 @@ public final class ClockTimer {
      *
      * @return Current stream time
      */
-    public synchronized double getStreamTime() {
-        return (long) clockTime + minTime;
+    public double getStreamTime() {
+        return (long) snapshot.getTime() + minTime;
     }
 
     /**
-     * Get the current Clock time, within the tolerance of the periodic sync.
+     * Get the current Clock time, as of the last tick.
      *
      * @return Current clock time
      */
-    public synchronized double getClockTime() {
-        return clockTime;
+    public double getClockTime() {
+        return snapshot.getTime();
     }
 
     /**
      * @return Current clock rate.
      */
-    public synchronized float getRate() {
-        return rate;
+    public float getRate() {
+        return snapshot.getRate();
+    }
+
+    /**
+     * @return The state of the clock as of the last tick or change.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -160,6 +287,7 @@ public final class ClockTimer {
         if (minTime <= time && time <= maxTime) {
             logger.debug("Setting Clock time to: " + time);
             clockTime = time;
+            publish();
             // Don't notify a sync or force a sync
             // The time will be updated by a periodic sync
         }
@@ -175,10 +303,12 @@ public final class ClockTimer {
     public synchronized void setForceTime(long time) {
         if (minTime <= time && time <= maxTime) {
             clockTime = time;
+            publish();
             // Notify a force sync
             notifyForceSync();
         }else if (time < minTime){
             clockTime = minTime;
+            publish();
             // Notify a force sync
             notifyForceSync();
         }
@@ -207,6 +337,7 @@ public final class ClockTimer {
         logger.debug("Setting Clock Rate to " + newRate + "X");
         updateElapsedTime();
         rate = newRate;
+        publish();
         // FIRST notify about the rate change
         notifyRate();
         // SECOND start or stop
@@ -226,6 +357,7 @@ public final class ClockTimer {
             logger.debug("Starting Clock");
             isStopped = false;
             lastTime = System.nanoTime();
+            publish();
             notifyStart();
         }
     }
@@ -235,6 +367,7 @@ public final class ClockTimer {
             logger.debug("Stopping Clock");
             updateElapsedTime();
             isStopped = true;
+            publish();
             notifyStop();
             // Force sync after a stop
             notifyForceSync();
@@ -253,6 +386,7 @@ public final class ClockTimer {
             logger.debug("Pausing Clock");
             updateElapsedTime();
             isStopped = true;
+            publish();
             notifyPause();
             // Force sync after a stop
             notifyForceSync();
@@ -263,7 +397,7 @@ public final class ClockTimer {
      * @return True if clock is Paused.
      */
     public boolean isPaused() {
-        return isStopped;
+        return snapshot.isPaused();
     }
 
     /**
@@ -273,13 +407,28 @@ public final class ClockTimer {
         return getRate() == 0f;
     }
 
+    /**
+     * Registers a clock listener, notified on the clock thread
+     *
+     * @param listener Listener requiring clockTick updates
+     */
+    public void registerListener(final ClockListener listener) {
+        registerListener(listener, false);
+    }
+
     /**
      * Registers a clock listener
      *
      * @param listener Listener requiring clockTick updates
+     * @param onEventDispatchThread True to notify the listener on the event dispatch thread, e.g. for listeners that
+     *                              update Swing components.
      */
-    public synchronized void registerListener(final ClockListener listener) {
-        clockListeners.add(listener);
+    public void registerListener(final ClockListener listener, final boolean onEventDispatchThread) {
+        if (onEventDispatchThread) {
+            ((CopyOnWriteArrayList<ClockListener>) swingListeners).addIfAbsent(listener);
+        } else {
+            ((CopyOnWriteArrayList<ClockListener>) clockListeners).addIfAbsent(listener);
+        }
     }
 
   /**
@@ -287,8 +436,26 @@ public final class ClockTimer {
    *
    * @param listener Listener requiring clockTick updates
    */
-    public synchronized void unRegisterListener(final ClockListener listener) {
+    public void unRegisterListener(final ClockListener listener) {
         clockListeners.remove(listener);
+        swingListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener of every tick, notified on the event dispatch thread when the clock changed since the
+     * previous tick.
+     *
+     * @param listener The listener.
+     */
+    public void registerTickListener(final TickListener listener) {
+        ((CopyOnWriteArrayList<TickListener>) tickListeners).addIfAbsent(listener);
+    }
+
+    /**
+     * @param listener The listener to remove.
+     */
+    public void unRegisterTickListener(final TickListener listener) {
+        tickListeners.remove(listener);
     }
 
     /**
@@ -302,96 +469,158 @@ public final class ClockTimer {
     }
 
     /**
-     * The "periodicSync" of the clock - updates listeners of changes in time.
+     * Publishes the state of the clock; called with the lock held after every change.
      */
-    private synchronized void periodicSync() {
-        updateElapsedTime();
-        notifyPeriodicSync();
+    private Snapshot publish() {
+        snapshot = new Snapshot(clockTime, rate, isStopped);
+        return snapshot;
     }
 
-    private synchronized void checkClockBoundary() {
-        updateElapsedTime();
-        notifyCheckClockBoundary();
-    }
+    /**
+     * A tick of the clock, on the clock thread: advances the clock once and notifies the listeners.
+     */
+    private void tick() {
+        Snapshot current;
+        synchronized (this) {
+            updateElapsedTime();
+            current = publish();
+        }
 
-    private synchronized void checkStreamsBoundary() {
-        updateElapsedTime();
-        notifyCheckStreamsBoundary();
-    }
+        if (!current.isSameAs(lastTick)) {
+            lastTick = current;
+            if (!tickListeners.isEmpty() && pendingTick.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::dispatchTick);
+            }
+        }
 
-    // Notify seek playback could be used if a different interval is need for the
-    // For the fake playback scheduler
-    private void notifySeekPlayback() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockSeekPlayback(clockTime);
+        long now = System.nanoTime();
+        // Within half a tick is on time, lest ticks that run a little early delay the sync by a tick
+        if (lastSync == Long.MIN_VALUE || now - lastSync >= SYNC_INTERVAL * NANO_IN_MILLI - tickPeriod / 2) {
+            lastSync = now;
+            periodicSync(clockListeners, current.getTime());
+            if (!swingListeners.isEmpty() && pendingSync.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    pendingSync.set(false);
+                    periodicSync(swingListeners, snapshot.getTime());
+                });
+            }
         }
     }
 
-    private void notifyCheckClockBoundary() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockBoundaryCheck(clockTime);
+    private void dispatchTick() {
+        pendingTick.set(false);
+        Snapshot current = snapshot;
+        for (TickListener listener : tickListeners) {
+            try {
+                listener.clockTick(current);
+            } catch (RuntimeException e) {
+                logger.error("Error in clock tick listener ", e);
+            }
         }
     }
 
-    private void notifyCheckStreamsBoundary() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.streamsBoundaryCheck(clockTime);
+    /**
+     * The "periodicSync" of the clock - updates listeners of changes in time and checks the boundaries.
+     */
+    private static void periodicSync(final List<ClockListener> listeners, final double time) {
+        for (ClockListener clockListener : listeners) {
+            notify(clockListener, listener -> listener.clockPeriodicSync(time));
+        }
+        for (ClockListener clockListener : listeners) {
+            notify(clockListener, listener -> listener.clockBoundaryCheck(time));
+        }
+        for (ClockListener clockListener : listeners) {
+            notify(clockListener, listener -> listener.streamsBoundaryCheck(time));
+        }
+        // Notify seek playback could be used if a different interval is need for the
+        // For the fake playback scheduler
+        for (ClockListener clockListener : listeners) {
+            notify(clockListener, listener -> listener.clockSeekPlayback(time));
         }
     }
 
     /**
-     * Notify clock listeners of a force periodicSync -- consumers must act on this
+     * Notifies all listeners of an event, those of the event dispatch thread directly if called on it.
      */
-    private void notifyForceSync() {
+    private void notifyListeners(final Consumer<ClockListener> event) {
         for (ClockListener clockListener : clockListeners) {
-            clockListener.clockForceSync(clockTime);
+            notify(clockListener, event);
+        }
+        if (!swingListeners.isEmpty()) {
+            Runnable swingEvent = () -> {
+                for (ClockListener clockListener : swingListeners) {
+                    notify(clockListener, event);
+                }
+            };
+            if (SwingUtilities.isEventDispatchThread()) {
+                swingEvent.run();
+            } else {
+                SwingUtilities.invokeLater(swingEvent);
+            }
         }
     }
 
     /**
-     * Notify clock listeners of a periodic periodicSync -- consumers may act on this
+     * Notifies a listener, so that a failing listener neither stops the tick loop nor the other listeners.
      */
-    private void notifyPeriodicSync() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockPeriodicSync(clockTime);
+    private static void notify(final ClockListener listener, final Consumer<ClockListener> event) {
+        try {
+            event.accept(listener);
+        } catch (RuntimeException e) {
+            logger.error("Error in clock listener " + listener, e);
         }
     }
 
+    /**
+     * Notify clock listeners of a force periodicSync -- consumers must act on this
+     */
+    private void notifyForceSync() {
+        final double time = clockTime;
+        notifyListeners(listener -> listener.clockForceSync(time));
+    }
+
     /**
      * Notify clock listeners of rate update.
      */
     private void notifyRate() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockRate(rate);
-        }
+        final float newRate = rate;
+        notifyListeners(listener -> listener.clockRate(newRate));
     }
 
     /**
      * Notify clock listeners of start event.
      */
     private void notifyStart() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockStart(clockTime);
-        }
+        final double time = clockTime;
+        notifyListeners(listener -> listener.clockStart(time));
     }
 
     /**
      * Notify clock listeners of stop event.
      */
     private void notifyStop() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockStop(clockTime);
-        }
+        final double time = clockTime;
+        notifyListeners(listener -> listener.clockStop(time));
     }
 
     /**
      * Notify clock listeners of pause event.
      */
     private void notifyPause() {
-        for (ClockListener clockListener : clockListeners) {
-            clockListener.clockPause(clockTime);
-        }
+        final double time = clockTime;
+        notifyListeners(listener -> listener.clockPause(time));
     }
+
+    /**
+     * Listener of every tick of the clock.
+     */
+    public interface TickListener {
+        /**
+         * @param snapshot The state of the clock at the tick.
+         */
+        void clockTick(Snapshot snapshot);
+    }
+
     /**
      * Listener interface for clock 'ticks'.
      */
@@ -153,6 +153,12 @@ public final class ConfigProperties implements Serializable {
     /** URL for the conversion url */
     private String conversionUrl;
 
+    /** Default number of ticks per second of the clock */
+    private static final double DEFAULT_CLOCK_TICK_RATE = ClockTimer.DEFAULT_TICK_RATE;
+
+    /** Number of ticks per second of the clock, i.e. how often the needle moves during playback */
+    private double clockTickRate;
+
     /** This is the only instance for the configuration properties that is loaded at start-up */
     private static ConfigProperties configurationProperties = new ConfigProperties();
 
@@ -238,6 +244,9 @@ public final class ConfigProperties implements Serializable {
         if (!configurationProperties.hasConversionUrl()) {
             configurationProperties.setConversionUrl(DEFAULT_CONVERSION_URL);
         }
+        if (!configurationProperties.hasClockTickRate()) {
+            configurationProperties.setClockTickRate(DEFAULT_CLOCK_TICK_RATE);
+        }
         if (!configurationProperties.hasSpreadSheetOrdinalForegroundColor()) {
             configurationProperties.setSpreadSheetOrdinalForegroundColor(DEFAULT_SPREAD_SHEET_ORDINAL_FOREGROUND_COLOR);
         }
@@ -778,4 +787,31 @@ public final class ConfigProperties implements Serializable {
     public boolean hasConversionUrl() {
         return conversionUrl != null;
     }
+
+    /**
+     * Get the number of ticks per second of the clock.
+     *
+     * @return The tick rate.
+     */
+    public double getClockTickRate() {
+        return clockTickRate;
+    }
+
+    /**
+     * Sets the number of ticks per second of the clock.
+     *
+     * @param clockTickRate The tick rate.
+     */
+    public void setClockTickRate(double clockTickRate) {
+        this.clockTickRate = clockTickRate;
+    }
+
+    /**
+     * Did we set a valid tick rate of the clock?
+     *
+     * @return True if we set the tick rate; otherwise false.
+     */
+    public boolean hasClockTickRate() {
+        return clockTickRate > 0 && !Double.isInfinite(clockTickRate);
+    }
 }
@@ -30,20 +30,49 @@ public final class StringUtils {
     }
 
     private static String escapeString(final String input, final String charsToEscape) {
-        StringBuilder resultSB = new StringBuilder();
+        // Most values need no escaping at all, so only copy once something has to change
+        int n = 0;
+        while (n < input.length()) {
+            char c = input.charAt(n);
+            if (charsToEscape.indexOf(c) != -1 || isControlCharacter(c)) {
+                break;
+            }
+            n++;
+        }
+        if (n == input.length()) {
+            return input;
+        }
 
-        for (int n = 0; n < input.length(); n++) {
-            if (charsToEscape.indexOf(input.charAt(n)) != -1) {
-                resultSB.append("\\");
+        StringBuilder resultSB = new StringBuilder(input.length() + 8);
+        resultSB.append(input, 0, n);
+        for (; n < input.length(); n++) {
+            char c = input.charAt(n);
+            // Remove all control characters
+            if (isControlCharacter(c)) {
+                continue;
+            }
+            if (charsToEscape.indexOf(c) != -1) {
+                resultSB.append('\\');
             }
-            resultSB.append(input.charAt(n));
+            resultSB.append(c);
         }
+        return resultSB.toString();
+    }
 
-        // Remove all control characters
-        return resultSB.toString().replaceAll("[\u0000-\u0001]", "");
+    private static boolean isControlCharacter(final char c) {
+        return c == '\u0000' || c == '\u0001';
     }
     
     public static String escapeCSVQuotes(String s){ //for actual CSV export, not our misnomer "CSV"s
-        return "\"" + s.replaceAll("\"", "\"\"") + "\"";
+        StringBuilder resultSB = new StringBuilder(s.length() + 2);
+        resultSB.append('"');
+        for (int n = 0; n < s.length(); n++) {
+            char c = s.charAt(n);
+            if (c == '"') {
+                resultSB.append('"');
+            }
+            resultSB.append(c);
+        }
+        return resultSB.append('"').toString();
     }
 }
@@ -14,7 +14,6 @@
  */
 package org.datavyu.views;
 
-import com.fasterxml.jackson.core.JsonParseException;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -62,6 +61,8 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * The main FrameView, representing the interface for Datavyu the user will
@@ -164,6 +165,7 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
     private javax.swing.JMenuItem showSpreadsheetMenuItem;
     private javax.swing.JMenu spreadsheetMenu;
     private javax.swing.JMenuItem exportJSON;
+    private javax.swing.JMenuItem exportParquet;
     private javax.swing.JMenuItem importJSON;
     private javax.swing.JMenuItem undoSpreadSheetMenuItem;
     private javax.swing.JMenuItem vocabEditorMenuItem;
@@ -290,6 +292,18 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         }
 
         tabbedPane = new JTabbedPane();
+        // Closed spreadsheets stop listening, so that the clock and the focus manager do not keep them alive
+        tabbedPane.addContainerListener(new ContainerAdapter() {
+            @Override
+            public void componentRemoved(ContainerEvent e) {
+                if (e.getChild() instanceof SpreadSheetPanel) {
+                    SpreadSheetPanel spreadSheetPanel = (SpreadSheetPanel) e.getChild();
+                    spreadSheetPanel.deregisterListeners();
+                    spreadSheetPanel.removeFileDropEventListener(DatavyuView.this);
+                    spreadSheetPanel.removeAll();
+                }
+            }
+        });
 
         fileTree = new FileSystemTreeModel(new File("."));
         fileDrawer = new JTree(fileTree);
@@ -745,7 +759,9 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
                     // the last time datavyu crashed
                     if ((f.isFile()) &&
                             ((FilenameUtils.wildcardMatchOnSystem(f.getName(), "~*.opf")) ||
-                                    (FilenameUtils.wildcardMatchOnSystem(f.getName(), "~*.csv")))) {
+                                    (FilenameUtils.wildcardMatchOnSystem(f.getName(), "~*.csv")) ||
+                                    (FilenameUtils.wildcardMatchOnSystem(f.getName(),
+                                            "~*" + ChangeJournal.EXTENSION)))) {
 
                         // Show the Dialog
                         if (JOptionPane.showConfirmDialog(null,
@@ -849,8 +865,6 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
             if (projectController.isNewProject() || (projectController.getProjectName() == null)) {
                 saveAs();
             } else {
-                SaveController saveController = new SaveController();
-
                 // Force people to use new
                 if ((projectController.getLastSaveOption() instanceof ShapaFilter)
                         || (projectController.getLastSaveOption() instanceof OpfFilter)) {
@@ -865,15 +879,9 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
                     projectController.updateProject();
                     projectController.setLastSaveOption(OpfFilter.INSTANCE);
 
-                    saveController.saveProject(
+                    saveInBackground(projectController,
                             new File(projectController.getProjectDirectory(),
-                                    projectController.getProjectName() + ".opf"),
-                            projectController.getProject(),
-                            projectController.getDataStore()
-                    );
-
-                    projectController.markProjectAsUnchanged();
-                    projectController.getDataStore().markAsUnchanged();
+                                    projectController.getProjectName() + ".opf"));
 
                     // Save content just as a database.
                 } else {
@@ -890,6 +898,63 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         }
     }
 
+    /**
+     * Saves a project without blocking the user interface. The project is marked as unchanged as soon as it has been
+     * copied, so edits made while the copy is being written mark it as changed again. A failed save marks the project
+     * as changed and shows a warning.
+     *
+     * @param projectController The project to save.
+     * @param projectFile The destination to save the project too.
+     */
+    private void saveInBackground(final ProjectController projectController, final File projectFile) {
+        final DataviewProgressBar saveProgress = new DataviewProgressBar(getFrame(), false);
+        final Future<File> pending = new SaveController().saveProjectInBackground(projectFile,
+                projectController.getProject(), projectController.getDataStore(),
+                (cellsWritten, cellCount) -> saveProgress.setProgress(
+                        cellCount == 0 ? 100 : (int) (100L * cellsWritten / cellCount),
+                        "Saving " + projectFile.getName()));
+
+        projectController.markProjectAsUnchanged();
+        projectController.getDataStore().markAsUnchanged();
+
+        // Only bring up the progress when the save takes a while
+        final Timer showProgress = new Timer(1000, e -> {
+            saveProgress.setLocationRelativeTo(getFrame());
+            saveProgress.setVisible(true);
+        });
+        showProgress.setRepeats(false);
+        showProgress.start();
+
+        new SwingWorker<File, Void>() {
+            @Override
+            protected File doInBackground() throws Exception {
+                try {
+                    return pending.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+
+            @Override
+            protected void done() {
+                showProgress.stop();
+                saveProgress.close();
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.error("Save failed. Error: ", e.getCause());
+                    projectController.projectChanged();
+                    projectController.getDataStore().markAsChanged();
+                    if (e.getCause() instanceof UserWarningException) {
+                        Datavyu.getApplication().showWarningDialog((UserWarningException) e.getCause());
+                    }
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Action for saving the current project as a particular file.
      */
@@ -991,6 +1056,33 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
 
     }
 
+    /**
+     * Action for exporting the current SpreadSheet as Parquet tables into a directory, with a table of its frames
+     * at the frame rate of the videos if there is one.
+     */
+    @Action
+    public void exportToParquet() {
+        DatavyuFileChooser fileChooser = new DatavyuFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+        int result = fileChooser.showSaveDialog(getComponent());
+
+        if (result == JFileChooser.APPROVE_OPTION) {
+            double frameRate = 0;
+            try {
+                frameRate = Datavyu.getVideoController().getFrameRateController().getFrameRate();
+            } catch (IllegalArgumentException e) {
+                logger.info("No frame rate, exporting to Parquet without frames");
+            }
+            try {
+                new ExportDatabaseFileController().exportAsParquet(fileChooser.getSelectedFile().getPath(),
+                        Datavyu.getProjectController().getDataStore(), frameRate > 1.0 ? frameRate : 0);
+            } catch (Exception e) {
+                logger.error("Failed export to Parquet. Error: ", e);
+            }
+        }
+    }
+
     /**
      * Action for exposing the current SpreadSheet as a JSON File
      */
@@ -1006,37 +1098,45 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         if (result == JFileChooser.APPROVE_OPTION){
             importJSON(fileChooser);
         }
-
-        Datavyu.getView().getSpreadsheetPanel().redrawCells();
-
     }
 
+    /**
+     * Reads the selected JSON file in the background, then adds its columns to the spreadsheet.
+     */
     private void importJSON(DatavyuFileChooser fc){
-        ProjectController projectController = Datavyu.getProjectController();
-        //TODO: why the project controller can't update (Have to Check it!)
-//        projectController.updateProject();
+        final File file = fc.getSelectedFile();
+        if (!file.getName().endsWith(".json")) {
+            logger.error("The selected file is not a JSON File.");
+        }
 
-        try{
-            OpenDataStoreFileController importJSON = new OpenDataStoreFileController();
+        final OpenDataStoreFileController importJSON = new OpenDataStoreFileController();
+        final DataviewProgressBar importProgress = new DataviewProgressBar(getFrame(), false);
+        importProgress.setLocationRelativeTo(getFrame());
+        importProgress.setVisible(true);
 
-            String dbFileName = fc.getSelectedFile().getPath();
-            if (!dbFileName.endsWith(".json")) {
-                logger.error("The selected file is not a JSON File.");
+        new SwingWorker<JsonDataStoreReader, Void>() {
+            @Override
+            protected JsonDataStoreReader doInBackground() throws Exception {
+                return importJSON.readJSON(file, (bytesRead, byteCount) -> importProgress.setProgress(
+                        byteCount <= 0 ? -1 : (int) (100 * bytesRead / byteCount), "Reading " + file.getName()));
             }
 
-            File file = fc.getSelectedFile();
-
-            importJSON.importJSONToSpreadsheet(file, getSpreadsheetPanel());
-        } catch (UserWarningException e) {
-            logger.error("Failed export to JSON. Error: ", e);
-            Datavyu.getApplication().showWarningDialog(e);
-        } catch (JsonParseException e) {
-            logger.error("Failed export to JSON. Error: ", e);
-            Datavyu.getApplication().showWarningDialog(e.getMessage());
-        } catch (IOException e) {
-            logger.error("Failed export to JSON. Error: ", e);
-            Datavyu.getApplication().showWarningDialog(e.getMessage());
-        }
+            @Override
+            protected void done() {
+                importProgress.close();
+                try {
+                    importJSON.attachJSON(get(), getSpreadsheetPanel());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.error("Failed import from JSON. Error: ", e.getCause());
+                    Datavyu.getApplication().showWarningDialog(e.getCause().getMessage());
+                } catch (UserWarningException e) {
+                    logger.error("Failed import from JSON. Error: ", e);
+                    Datavyu.getApplication().showWarningDialog(e);
+                }
+            }
+        }.execute();
     }
 
 
@@ -1456,6 +1556,17 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         // Opening a project or project archive file
         if (ext.equalsIgnoreCase("opf")) {
             openProject(f);
+        } else if (("." + ext).equalsIgnoreCase(ChangeJournal.EXTENSION)) {
+            // Replay the auto save journal into a project archive next to it
+            File recovered = new File(f.getParentFile(), FilenameUtils.getBaseName(f.getName()) + ".opf");
+            try {
+                ChangeJournal.recover(f, recovered);
+                openProject(recovered);
+            } catch (IOException | UserWarningException e) {
+                logger.error("Unable to recover auto saved changes. Error: ", e);
+            } finally {
+                recovered.delete();
+            }
         } else {
             openDatabase(f);
         }
@@ -1641,9 +1752,9 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
 
         pc.setSpreadSheetPanel(new SpreadSheetPanel(pc, null));
         SpreadSheetPanel panel = pc.getSpreadSheetPanel();
+        panel.setVideoController(dcv);
         panel.registerListeners();
         panel.addFileDropEventListener(this);
-        panel.setVideoController(dcv);
 
         tabbedPane.add(panel);
         tabbedPane.setTabComponentAt(tabbedPane.indexOfComponent(panel), new TabWithCloseButton(tabbedPane));
@@ -2027,6 +2138,7 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         highlightAndFocusMenuItem = new javax.swing.JMenuItem();
         jSeparator11 = new javax.swing.JSeparator();
         exportJSON = new javax.swing.JMenuItem();
+        exportParquet = new javax.swing.JMenuItem();
         importJSON = new javax.swing.JMenuItem();
 
         scriptMenuPermanentsList = new ArrayList();
@@ -2257,6 +2369,11 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         exportJSON.setText("Export Passes To JSON");
         spreadsheetMenu.add(exportJSON);
 
+        exportParquet.setAction(actionMap.get("exportToParquet"));
+        exportParquet.setName("exportToParquet");
+        exportParquet.setText("Export Passes To Parquet");
+        spreadsheetMenu.add(exportParquet);
+
         importJSON.setAction(actionMap.get("importJSONToSpreadsheet"));
         importJSON.setName("importJSONToSpreadsheet");
         importJSON.setText("Import Passes From JSON");
@@ -2588,9 +2705,11 @@ public final class DatavyuView extends FrameView implements FileDropEventListene
         if (totalNumberOfVisibleColumns == 0) {
             newCellMenuItem.setEnabled(false);
             exportJSON.setEnabled(false);
+            exportParquet.setEnabled(false);
         } else {
             newCellMenuItem.setEnabled(true);
             exportJSON.setEnabled(true);
+            exportParquet.setEnabled(true);
         }
 
         importJSON.setEnabled(true);
@@ -32,7 +32,9 @@ import org.datavyu.event.component.TracksControllerEvent;
 import org.datavyu.event.component.TracksControllerListener;
 import org.datavyu.models.Identifier;
 import org.datavyu.models.component.*;
+import org.datavyu.plugins.StreamSynchronizer;
 import org.datavyu.plugins.StreamViewer;
+import org.datavyu.plugins.StreamViewerDialog;
 import org.datavyu.plugins.Plugin;
 import org.datavyu.plugins.PluginManager;
 import org.datavyu.util.*;
@@ -142,7 +144,7 @@ public final class VideoController extends DatavyuDialog
     private LinkedHashSet<StreamViewer> streamViewers = new LinkedHashSet<>();
 
     /** Clock timer */
-    private final ClockTimer clockTimer = new ClockTimer();
+    private final ClockTimer clockTimer = new ClockTimer(ConfigProperties.getInstance().getClockTickRate());
 
     /** Is the tracks panel currently shown */
     private boolean tracksPanelVisible = true;
@@ -245,7 +247,14 @@ public final class VideoController extends DatavyuDialog
     public VideoController(final Frame parent, final boolean modal) {
         super(parent, modal);
 
-        clockTimer.registerListener(this);
+        // Notified on the event dispatch thread as this updates the labels and the needle
+        clockTimer.registerListener(this, true);
+        // The needle follows every tick of the clock, so that it moves smoothly during playback
+        clockTimer.registerTickListener(snapshot -> {
+            if (visible) {
+                updateCurrentTimeLabelAndNeedle((long) snapshot.getTime());
+            }
+        });
 
         setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
 
@@ -473,8 +482,7 @@ public final class VideoController extends DatavyuDialog
      * @param clockTime Current clockTimer time in milliseconds.
      */
     public void clockPeriodicSync(double clockTime) {
-        // Updates the position of the needle and label
-        updateCurrentTimeLabelAndNeedle((long) clockTime);
+        // Nothing to do here, the needle and label are updated on every tick
     }
 
     /**
@@ -1563,6 +1571,22 @@ public final class VideoController extends DatavyuDialog
         return frameRateController;
     }
 
+    /**
+     * Get the statistics of the drift of each stream from the master clock
+     *
+     * @return The statistics by identifier of the stream, in the order the streams were added
+     */
+    public Map<Identifier, StreamSynchronizer.Statistics> getSyncStatistics() {
+        Map<Identifier, StreamSynchronizer.Statistics> statistics = new LinkedHashMap<>();
+        for (StreamViewer streamViewer : streamViewers) {
+            if (streamViewer instanceof StreamViewerDialog) {
+                statistics.put(streamViewer.getIdentifier(),
+                        ((StreamViewerDialog) streamViewer).getSyncStatistics());
+            }
+        }
+        return statistics;
+    }
+
     /**
      * Force sync between streams up to a threshold
      */
@@ -204,6 +204,29 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         nCell.requestFocus();
     }
 
+    /**
+     * Brings the SpreadsheetCell of a cell up to date with the times, value and selection of the cell.
+     *
+     * @param cell The cell that changed.
+     */
+    public void updateCell(final Cell cell) {
+        SpreadsheetCell sCell = viewMap.get(cell);
+        if (sCell != null) {
+            sCell.onsetChanged(cell.getOnset());
+            sCell.offsetChanged(cell.getOffset());
+            sCell.valueChange(cell.getCellValue());
+            sCell.updateSelectionDisplay();
+        }
+    }
+
+    /**
+     * @param cell A cell of the variable of this column.
+     * @return The SpreadsheetCell displaying the cell, null if there is none.
+     */
+    public SpreadsheetCell getCellView(final Cell cell) {
+        return viewMap.get(cell);
+    }
+
     /**
      * Set the width of the SpreadsheetCell.
      *
@@ -0,0 +1,145 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.Datavyu;
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Variable;
+import org.datavyu.util.ClockTimer;
+import org.datavyu.views.VideoController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Highlights the cells of a spreadsheet that are in or past the time window of the clock during playback.
+ *
+ * A cell changes highlight only when the clock crosses its onset or its end, so on each tick only the cells with a
+ * boundary between the previous and the current time are brought up to date, found through the temporal index of
+ * each variable ({@link Variable#getCellsOverlapping} and {@link Variable#getCellsStarting}). The highlighter is
+ * registered to be notified on the event dispatch thread, where the clock coalesces the periodic syncs, and each
+ * update handles all columns at once. The whole sheet is brought up to date only on the first update and when the
+ * highlighting options change. The options are those of the video controller of the spreadsheet.
+ */
+final class PlaybackHighlighter implements ClockTimer.ClockListener {
+
+    /** The spreadsheet whose cells are highlighted */
+    private final SpreadSheetPanel panel;
+
+    /** Whether the next update brings all cells up to date */
+    private boolean refreshAll = true;
+
+    /** The time of the last update */
+    private long lastTime;
+
+    /** The highlighting options at the last update */
+    private boolean lastHighlighting;
+    private boolean lastHighlightAndFocus;
+
+    /**
+     * @param panel The spreadsheet whose cells are highlighted.
+     */
+    PlaybackHighlighter(final SpreadSheetPanel panel) {
+        this.panel = panel;
+    }
+
+    private void update() {
+        VideoController videoController = panel.getVideoController();
+        if (videoController == null) {
+            return;
+        }
+
+        long time = videoController.getCurrentTime();
+        boolean highlighting = videoController.getCellHighlighting();
+        boolean highlightAndFocus = videoController.getCellHighlightAndFocus();
+        boolean all = refreshAll || highlighting != lastHighlighting || highlightAndFocus != lastHighlightAndFocus;
+        refreshAll = false;
+
+        if (all) {
+            for (SpreadsheetColumn column : panel.getColumns()) {
+                for (SpreadsheetCell cell : column.getCells()) {
+                    cell.updateSelectionDisplay();
+                }
+            }
+        } else if (time != lastTime && (highlighting || highlightAndFocus)) {
+            for (SpreadsheetColumn column : panel.getColumns()) {
+                ColumnDataPanel dataPanel = column.getDataPanel();
+                for (Cell cell : getChangedCells(column.getVariable(), lastTime, time)) {
+                    SpreadsheetCell view = dataPanel.getCellView(cell);
+                    if (view != null) {
+                        view.updateSelectionDisplay();
+                    }
+                }
+            }
+        }
+
+        lastTime = time;
+        lastHighlighting = highlighting;
+        lastHighlightAndFocus = highlightAndFocus;
+    }
+
+    /**
+     * Gets the cells of a variable whose highlight may differ between two times: the cells overlapping the interval
+     * between them, and the cells whose onset lies after their offset with the onset in that interval, as these turn
+     * past at their onset.
+     *
+     * @param variable The variable.
+     * @param from The earlier or later time in milliseconds.
+     * @param to The other time in milliseconds.
+     * @return The cells, in temporal order for each of the two kinds.
+     */
+    static List<Cell> getChangedCells(final Variable variable, final long from, final long to) {
+        long start = Math.min(from, to);
+        long end = Math.max(from, to);
+        List<Cell> cells = new ArrayList<>(variable.getCellsOverlapping(start, end));
+        for (Cell cell : variable.getCellsStarting(start, end)) {
+            if (cell.getOffset() < start) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
+    @Override
+    public void clockForceSync(double clockTime) {
+        update();
+    }
+
+    @Override
+    public void clockPeriodicSync(double clockTime) {
+        update();
+    }
+
+    @Override
+    public void clockStop(double clockTime) { }
+
+    @Override
+    public void clockPause(double clockTime) { }
+
+    @Override
+    public void clockStart(double clockTime) { }
+
+    @Override
+    public void clockRate(float rate) { }
+
+    @Override
+    public void clockBoundaryCheck(double clockTime) { }
+
+    @Override
+    public void streamsBoundaryCheck(double clockTime) { }
+
+    @Override
+    public void clockSeekPlayback(double clockTime) { }
+}
@@ -26,6 +26,7 @@ import org.datavyu.event.component.FileDropEventListener;
 import org.datavyu.models.db.*;
 import org.datavyu.undoableedits.AddCellEdit;
 import org.datavyu.util.ArrayDirection;
+import org.datavyu.util.ClockTimer;
 import org.datavyu.util.Constants;
 import org.datavyu.views.DataviewProgressBar;
 import org.datavyu.views.VideoController;
@@ -121,6 +122,12 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
     /** Drop down menu for hidden columns */
     private JPopupMenu dropdown = new JPopupMenu();
 
+    /** The clock of the video controller that the highlighter and the columns are registered with, null if none */
+    private ClockTimer clockTimer;
+
+    /** Highlights the cells during playback */
+    private final PlaybackHighlighter playbackHighlighter;
+
     public SpreadSheetPanel(final ProjectController projectController, DataviewProgressBar progressBar) {
         setName(this.getClass().getSimpleName());
         setLayout(new BorderLayout());
@@ -134,6 +141,8 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
         headerView.setName("headerView");
 
         columns = new ArrayList<>();
+        // One listener highlights the cells during playback, rather than one per cell
+        playbackHighlighter = new PlaybackHighlighter(this);
         scrollPane = new JScrollPane();
         scrollPane.setDoubleBuffered(true);
         this.add(scrollPane, BorderLayout.CENTER);
@@ -174,7 +183,7 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
 
         // set the database and layout the columns
         if (projectController.getDataStore() == null) {
-            projectController.setDataStore(new DatavyuDataStore());
+            projectController.setDataStore(DataStoreFactory.newDataStore());
         }
         setDatabase(projectController.getDataStore());
         newVariableSpacerButton.setText(" + ");
@@ -275,6 +284,11 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
 
     public void setVideoController(VideoController videoController) {
         this.videoController = videoController;
+        // Follow the clock of the new controller if registered with the clock of another one
+        if (clockTimer != null) {
+            unregisterClock();
+            registerClock();
+        }
     }
 
     /**
@@ -284,6 +298,7 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
     public void registerListeners() {
         KeyboardFocusManager m = KeyboardFocusManager.getCurrentKeyboardFocusManager();
         m.addKeyEventDispatcher(this);
+        registerClock();
     }
 
     /**
@@ -293,6 +308,39 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
     public void deregisterListeners() {
         KeyboardFocusManager m = KeyboardFocusManager.getCurrentKeyboardFocusManager();
         m.removeKeyEventDispatcher(this);
+        unregisterClock();
+    }
+
+    /**
+     * Registers the highlighter and the columns with the clock of the video controller of this panel, if it has one.
+     */
+    private void registerClock() {
+        if (videoController == null || clockTimer != null) {
+            return;
+        }
+        clockTimer = videoController.getClockTimer();
+        clockTimer.registerListener(playbackHighlighter, true);
+        for (SpreadsheetColumn col : columns) {
+            clockTimer.registerListener(col, true);
+        }
+    }
+
+    private void unregisterClock() {
+        if (clockTimer == null) {
+            return;
+        }
+        clockTimer.unRegisterListener(playbackHighlighter);
+        for (SpreadsheetColumn col : columns) {
+            clockTimer.unRegisterListener(col);
+        }
+        clockTimer = null;
+    }
+
+    /**
+     * @return The clock the highlighter and the columns are registered with; null if none.
+     */
+    ClockTimer getClockTimer() {
+        return clockTimer;
     }
 
     /**
@@ -331,6 +379,9 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
         // Create the spreadsheet column and register it.
         SpreadsheetColumn col = new SpreadsheetColumn(db, var, this, this, this);
         col.registerListeners();
+        if (clockTimer != null) {
+            clockTimer.registerListener(col, true);
+        }
 
         // add the datapanel to the scrollpane viewport
         mainView.addColumn(col);
@@ -360,6 +411,9 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
     public void removeAll() {
         for (SpreadsheetColumn col : columns) {
             col.deregisterListeners();
+            if (clockTimer != null) {
+                clockTimer.unRegisterListener(col);
+            }
             col.clear();
 
             mainView.removeColumn(col);
@@ -377,6 +431,10 @@ public final class SpreadSheetPanel extends JPanel implements DataStoreListener,
     private void removeColumn(final Variable var) {
         for (SpreadsheetColumn col : columns) {
             if (col.getVariable().equals(var)) {
+                col.deregisterListeners();
+                if (clockTimer != null) {
+                    clockTimer.unRegisterListener(col);
+                }
                 mainView.removeColumn(col);
                 headerView.remove(col);
                 columns.remove(col);
@@ -20,7 +20,6 @@ import org.datavyu.Datavyu;
 import org.datavyu.models.db.Cell;
 import org.datavyu.models.db.CellListener;
 import org.datavyu.models.db.CellValue;
-import org.datavyu.util.ClockTimer;
 import org.datavyu.util.ConfigProperties;
 import org.datavyu.views.discrete.datavalues.MatrixRootView;
 import org.datavyu.views.discrete.datavalues.TimeStampDataValueEditor.TimeStampSource;
@@ -43,7 +42,7 @@ import java.util.List;
  * Visual representation of a spreadsheet cell.
  */
 public class SpreadsheetCell extends JPanel
-        implements MouseListener, FocusListener, CellListener, ClockTimer.ClockListener {
+        implements MouseListener, FocusListener, CellListener {
 
     /**
      * Border to use if cell overlaps with another.
@@ -251,7 +250,8 @@ public class SpreadsheetCell extends JPanel
         stretcher = new Filler(d, d, d);
         cellPanel.add(stretcher, BorderLayout.SOUTH);
 
-        Datavyu.getVideoController().getClockTimer().registerListener(this);
+        // Highlighting during playback is kept up to date by the PlaybackHighlighter of the spreadsheet
+        updateSelectionDisplay();
 
         brandNew = true;
     }
@@ -511,6 +511,7 @@ public class SpreadsheetCell extends JPanel
     @Override
     public void offsetChanged(final long newOffset) {
         offset.setValue();
+        updateSelectionDisplay();
         if (model.isSelected()) {
             // Update the find windows to the newly selected cell's values
             Datavyu.getVideoController().setOnsetField(model.getOnset());
@@ -521,6 +522,7 @@ public class SpreadsheetCell extends JPanel
     @Override
     public void onsetChanged(final long newOnset) {
         onset.setValue();
+        updateSelectionDisplay();
         if (model.isSelected()) {
             Datavyu.getVideoController().setOnsetField(model.getOnset());
             Datavyu.getVideoController().setOffsetField(model.getOffset());
@@ -695,35 +697,4 @@ public class SpreadsheetCell extends JPanel
         dataPanel.setFont(ConfigProperties.getInstance().getSpreadSheetDataFont());
         super.paint(g);
     }
-
-    @Override
-    public void clockForceSync(double clockTime) {
-        updateSelectionDisplay();
-    }
-
-    @Override
-    public void clockPeriodicSync(double clockTime) {
-        updateSelectionDisplay();
-    }
-
-    @Override
-    public void clockStop(double clockTime) { }
-
-    @Override
-    public void clockPause(double clockTime) { }
-
-    @Override
-    public void clockStart(double clockTime) { }
-
-    @Override
-    public void clockRate(float rate) { }
-
-    @Override
-    public void clockBoundaryCheck(double clockTime) { }
-
-    @Override
-    public void streamsBoundaryCheck(double clockTime) { }
-
-    @Override
-    public void clockSeekPlayback(double clockTime) { }
 }
@@ -172,8 +172,6 @@ public final class SpreadsheetColumn extends JLabel implements VariableListener,
         datapanel = new ColumnDataPanel(this, width, var, cellSelL);
         this.setVisible(!var.isHidden());
         datapanel.setVisible(!var.isHidden());
-
-        Datavyu.getVideoController().getClockTimer().registerListener(this);
     }
 
     /**
@@ -600,6 +598,21 @@ public final class SpreadsheetColumn extends JLabel implements VariableListener,
         }
     }
 
+    @Override
+    public void cellsChanged(final VariableChange change) {
+        for (Cell deletedCell : change.getRemoved()) {
+            datapanel.deleteCell(deletedCell);
+        }
+        for (Cell newCell : change.getInserted()) {
+            datapanel.insertCell(this, newCell, cellSelList);
+        }
+        for (Cell changedCell : change.getChanged()) {
+            datapanel.updateCell(changedCell);
+        }
+        datapanel.revalidate();
+        datapanel.repaint();
+    }
+
     // *************************************************************************
     // MouseListener Overrides
     // *************************************************************************
@@ -40,6 +40,10 @@ import 'org.datavyu.models.db.CellValue'
 import 'org.datavyu.models.db.Variable'
 import 'org.datavyu.models.db.Cell'
 import 'org.datavyu.models.db.Argument'
+import 'org.datavyu.models.db.ColumnSnapshot'
+import 'org.datavyu.models.db.ColumnWriter'
+import 'org.datavyu.models.db.ReliabilityCheck'
+import 'org.datavyu.models.db.TemporalJoin'
 import 'org.datavyu.models.project.Project'
 import 'org.datavyu.controllers.SaveController'
 import 'org.datavyu.controllers.OpenController'
@@ -55,8 +59,11 @@ end
 
 # Set $db, this is so that JRuby doesn't decide
 # to overwrite it halfway thru the script.
-$db = Datavyu.get_project_controller.get_data_store
-$pj = Datavyu.get_project_controller.get_project
+# Without a project controller (headless batch runs) $db and $pj are set by the runner for each file.
+unless Datavyu.get_project_controller.nil?
+  $db = Datavyu.get_project_controller.get_data_store
+  $pj = Datavyu.get_project_controller.get_project
+end
 $sp = Datavyu.get_view
 
 # Ruby representation of a spreadsheet cell.
@@ -80,12 +87,22 @@ $sp = Datavyu.get_view
 #   @return [Array] list of code values
 # @!attribute db_cell
 #   @note MODIFY AT OWN RISK.
-#   @return native Datavyu object corresponding to this cell.
+#   @return native Datavyu object corresponding to this cell; looked up on first use for cells read by get_column.
 # @!attribute parent
 #   @note MODIFY AT OWN RISK.
 #   @return [RColumn] the column this cell belongs to
 class RCell
-  attr_accessor :ordinal, :onset, :offset, :arglist, :argvals, :db_cell, :parent
+  attr_accessor :ordinal, :onset, :offset, :arglist, :argvals, :parent
+  attr_writer :db_cell
+
+  # @!visibility private
+  # Writer of the spreadsheet column the cell was read from and the row of the cell in it.
+  attr_accessor :writer, :row
+
+  def db_cell
+    @db_cell = @writer.getCell(@row) if @db_cell.nil? && !@writer.nil?
+    @db_cell
+  end
 
   # @!visibility private
   # @note This method is not for general use, it is used only when creating
@@ -98,13 +115,22 @@ class RCell
     @arglist = arglist
     @argvals = (argvals == '')? arglist.map{ '' } : argvals.map{ |x| x.nil?? '' : x }
 
-    # Add getter/setter methods for each code
+    # Codes are read and written through method_missing. Only codes named like a
+    # method of the cell need getter/setter methods of their own.
     arglist.each_with_index do |arg, i|
-      instance_eval "def #{arg}; return argvals[#{i}]; end"
-      instance_eval "def #{arg}=(val); argvals[#{i}] = val.to_s; end"
+      define_code(arg, i) if RCell.method_defined?(arg)
     end
   end
 
+  # Adds getter/setter methods for a code to this cell.
+  # @!visibility private
+  # @param name [String] name of code
+  # @param i [Integer] index of code
+  def define_code(name, i)
+    instance_eval "def #{name}; return argvals[#{i}]; end"
+    instance_eval "def #{name}=(val); argvals[#{i}] = val.to_s; end"
+  end
+
   # Map the specified code names to their values.
   # If no names specified, use self.arglist.
   # @note Onset, offset, and ordinal are returned as Integers; all else are Strings
@@ -137,8 +163,7 @@ class RCell
   # @param i [Integer] index of code to change
   # @param new_name [String] new name for code
   def change_code_name(i, new_name)
-    instance_eval "def #{new_name}; return argvals[#{i}]; end"
-    instance_eval "def #{new_name}=(val); argvals[#{i}] = val.to_s; end"
+    define_code(new_name, i) if arglist[i] != new_name || RCell.method_defined?(new_name)
   end
   alias :change_arg_name :change_code_name
 
@@ -148,8 +173,7 @@ class RCell
   def add_code(new_name)
     @argvals << ""
     i = argvals.length - 1
-    instance_eval "def #{new_name}; return argvals[#{i}]; end"
-    instance_eval "def #{new_name}=(val); argvals[#{i}] = val.to_s; end"
+    define_code(new_name, i) if arglist[i] != new_name || RCell.method_defined?(new_name)
   end
   alias :add_arg :add_code
 
@@ -157,8 +181,10 @@ class RCell
   # @param name [String] name of code to remove
   # @return [nil]
   def remove_code(name)
-    @argvals.delete(arglist.index(name))
-    @arglist.delete(name)
+    i = arglist.index(name)
+    return if i.nil?
+    @argvals.delete_at(i)
+    @arglist.delete_at(i)
   end
   alias :remove_arg :remove_code
 
@@ -267,21 +293,27 @@ class RCell
 
   # Override method missing.
   # Check if the method is trying to get/set an arg.
-  # If it is, define accessor method and send the method to self.
+  # If it is, get or set the value of the arg.
   # @!visibility private
   def method_missing(m, *args, &block)
     mn = m.to_s
     code = (mn.end_with?('=')) ? mn.chop : mn
-    if (@arglist.include?(code))
-      index = arglist.index(code)
-      instance_eval "def #{code}; return argvals[#{index}]; end"
-      instance_eval "def #{code}=(val); argvals[#{index}] = val.to_s; end"
-      self.send m.to_sym, *args
-    else
+    index = @arglist.nil? ? nil : @arglist.index(code)
+    if index.nil?
       super
+    elsif code == mn
+      @argvals[index]
+    else
+      @argvals[index] = args.first.to_s
     end
   end
 
+  # @!visibility private
+  def respond_to_missing?(m, include_private = false)
+    mn = m.to_s
+    (!@arglist.nil? && @arglist.include?((mn.end_with?('=')) ? mn.chop : mn)) || super
+  end
+
   # Check if given time falls within this cell's [onset, offset]
   # @param time time in milliseconds to check
   # @return [true, false] true if the given time is greater-than-or-equal to this cell's onset and less-than-or-equal to this cell's offset
@@ -331,7 +363,12 @@ end
 #   @return [true, false] visibility of column in spreadsheet
 class RColumn
 
-  attr_accessor :name, :type, :cells, :arglist, :old_args, :dirty, :db_var, :hidden
+  attr_accessor :name, :type, :arglist, :old_args, :dirty, :db_var, :hidden
+  attr_writer :cells
+
+  # @!visibility private
+  # Writer of the spreadsheet column the cells were read from; see load_cells.
+  attr_accessor :writer
 
   def initialize()
     self.hidden = false
@@ -359,6 +396,7 @@ class RColumn
   # @param arglist (required): Array of the names of the arguments from the database
   def set_cells(newcells, arglist)
     print_debug "Setting cells"
+    @snapshot = nil
     @cells = Array.new
     @arglist = Array.new
     arglist.each do |arg|
@@ -390,6 +428,51 @@ class RColumn
     end
   end
 
+  # @note This function is not for general use.
+  # Reads the cells of the column in the database in bulk. The cells are made
+  # once they are first used.
+  # @param db_var (required): Column in the database
+  # @param arglist (required): Array of the names of the arguments from the database
+  def load_cells(db_var, arglist)
+    @arglist = arglist.map { |arg| RColumn.sanitize_codename(arg) }
+    @writer = ColumnWriter.new(db_var)
+    @snapshot = ColumnSnapshot.of(db_var)
+    @cells = nil
+  end
+
+  # @return [Array<RCell>] list of cells in this column
+  def cells
+    make_cells unless @snapshot.nil?
+    @cells
+  end
+
+  # @!visibility private
+  # @return [true, false] true if the cells read by load_cells have not been used
+  def cells_unread?
+    !@snapshot.nil?
+  end
+
+  # Makes the cells read by load_cells, in temporal order.
+  # @!visibility private
+  def make_cells
+    snapshot = @snapshot
+    @snapshot = nil
+    onsets = snapshot.getOnsets.to_a
+    offsets = snapshot.getOffsets.to_a
+    values = (0...snapshot.getColumnCount).map { |column| snapshot.getValues(column).to_a }
+    @cells = Array.new(onsets.size) do |row|
+      c = RCell.new
+      c.onset = onsets[row]
+      c.offset = offsets[row]
+      c.writer = @writer
+      c.row = row
+      c.parent = @name
+      c.set_args(values.map { |column| column[row] }, @arglist)
+      c.ordinal = row + 1
+      c
+    end
+  end
+
   # Creates a new, blank cell at the end of this variable's cell array.
   # If a template cell is provided, copies over onset and offset times and code values for any matching code names.
   # @param cell [RCell] template cell
@@ -414,7 +497,7 @@ class RColumn
       end
     end
     c.parent = @name
-    @cells << c
+    cells << c
     return c
   end
   alias :make_new_cell :new_cell
@@ -439,7 +522,7 @@ class RColumn
 
     i = @arglist.index(old_name)
     @arglist[i] = new_name
-    for cell in @cells
+    for cell in cells
       cell.change_code_name(i, new_name)
     end
 
@@ -455,7 +538,7 @@ class RColumn
     san_name = RColumn.sanitize_codename(name)
 
     @arglist << san_name
-    for cell in @cells
+    for cell in cells
       cell.add_arg(san_name)
     end
 
@@ -470,10 +553,12 @@ class RColumn
     @old_args.delete(name)
 
     san_name = RColumn.sanitize_codename(name)
-    @arglist.delete(san_name)
-
-    for cell in @cells
-      cell.remove_arg(san_name)
+    i = @arglist.index(san_name)
+    unless i.nil?
+      for cell in cells
+        cell.argvals.delete_at(i)
+      end
+      @arglist.delete_at(i)
     end
 
     @dirty = true
@@ -506,10 +591,10 @@ class RColumn
 
     opts = @resample_defaults.merge(opts)
     if opts[:start_time] == :earliest
-      opts[:start_time] = @cells.map(&:onset).min
+      opts[:start_time] = cells.map(&:onset).min
     end
     if opts[:stop_time] == :latest
-      opts[:stop_time] = @cells.map(&:offset).max
+      opts[:stop_time] = cells.map(&:offset).max
     end
 
     # Construct new column
@@ -721,6 +806,37 @@ def compute_kappa(pri_col, rel_col, *codes)
 end
 alias :computeKappa :compute_kappa
 
+# Compare a reliability coder's column with the primary coder's column in one pass.
+# Each reliability cell is matched to the first primary cell with the same onset (within tolerance),
+# or to the first primary cell with the same value of match_code.
+# @param pri_col [RColumn, String] primary coder's column
+# @param rel_col [RColumn, String] reliability coder's column
+# @param codes [Array<String>] codes to compare; all codes of the primary column if none given
+# @param match_code [String] code whose value matches cells, e.g. a trial number; nil to match cells by onset
+# @param tolerance [Integer] milliseconds by which the onsets and offsets of matched cells may differ
+# @param block_col [RColumn, String] if given, only reliability cells within the cells of this column are checked
+# @return a result with getPairs, getUnmatched, getOnsetErrors, getOffsetErrors and getTables; each table has
+#   getCode, getValues, getCount(i, j), getAgreement (percent) and getKappa
+# @note Columns are read as they are in the spreadsheet; save changed columns with set_column first.
+# @since 1.5.2
+# @example
+#     result = compute_reliability('trial', 'trial_rel', 'condition', 'result', tolerance: 100)
+#     result.getTables.each { |t| puts "#{t.getCode}: #{t.getAgreement.round(1)}% kappa #{t.getKappa.round(2)}" }
+def compute_reliability(pri_col, rel_col, *codes, match_code: nil, tolerance: 0, block_col: nil)
+  snapshot = lambda do |col|
+    var = (col.class == String)? $db.getVariable(col) : col.db_var
+    raise "Column not found in spreadsheet: #{col.class == String ? col : col.name}" if var.nil?
+    ColumnSnapshot.of(var)
+  end
+
+  check = ReliabilityCheck.new
+  check.setMatchCode(match_code)
+  check.setTolerance(tolerance)
+  check.setBlocks(snapshot.call(block_col)) unless block_col.nil? || block_col == ''
+  check.check(snapshot.call(pri_col), snapshot.call(rel_col), codes.flatten.to_java(:string))
+end
+alias :computeReliability :compute_reliability
+
 # Construct a Ruby representation of the Datavyu column, if it exists.
 # @param name [String] the name of the column in the spreadsheet
 # @return [RColumn] Ruby object representation of the variable inside Datavyu or nil if the named column does not exist
@@ -735,8 +851,6 @@ def get_column(name)
     return nil
   end
 
-  # Convert each cell into an array and store in an array of arrays
-  cells = var.getCells()
   arg_names = Array.new
 
   # Now get the arguments for each of the cells
@@ -758,8 +872,8 @@ def get_column(name)
   v.name = name
   v.old_args = arg_names
   v.type = type
-  v.set_cells(cells, arg_names)
-  v.sort_cells
+  # Cells are read in temporal order
+  v.load_cells(var, arg_names)
   v.dirty = false
   v.db_var = var
 
@@ -785,6 +899,8 @@ alias :getColumn :get_column
 #         ... Do some modification to trial ...
 #       set_column(trial)
 def set_column(*args, sanitize_codes: true)
+  # Buffer the cell notifications so the spreadsheet updates once per column
+  $db.beginBatch
 
   if args.length == 1
     var = args[0]
@@ -875,51 +991,56 @@ def set_column(*args, sanitize_codes: true)
 
   end
 
-  # Create new cells and fill them in for each cell in the variable
-  for cell in var.cells
-    # Copy the information from the ruby variable to the new cell
-
-    if cell.db_cell == nil or cell.parent != name
-      cell.db_cell = var.db_var.createCell()
-    end
-
-    value = cell.db_cell.getCellValue()
-
-    if cell.onset != cell.db_cell.getOnset
-      cell.db_cell.setOnset(cell.onset)
-    end
-
-    if cell.offset != cell.db_cell.getOffset
-      cell.db_cell.setOffset(cell.offset)
+  # Write the cells back in one go; cells that are not changed are left alone.
+  # Cells read from this column keep their row, other cells become new cells.
+  writer = var.writer
+  writer = ColumnWriter.new(var.db_var) if writer.nil? || !writer.getVariable.equal?(var.db_var)
+  unless var.cells_unread? && writer.equal?(var.writer)
+    cells = var.cells
+    rows = cells.map do |cell|
+      if cell.parent != name
+        -1
+      elsif cell.writer.equal?(writer)
+        cell.row
+      else
+        cell.db_cell.nil? ? -1 : writer.indexOf(cell.db_cell)
+      end
     end
 
-    # Matrix cell
-    if cell.db_cell.getVariable.getRootNode.type == Argument::Type::MATRIX
-      values = cell.db_cell.getCellValue().getArguments()
-      for arg in var.old_args
-        # Find the arg in the dataStore's arglist that we are looking for
-        for i in 0...values.size
-          dbarg = values[i]
-          dbarg_name = dbarg.getArgument.name
-          if dbarg_name == arg and not ["", nil].include?(cell.get_arg(var.convert_argname(arg)))
-            dbarg.set(cell.get_arg(var.convert_argname(arg)))
-            break
-          end
-        end
+    root = var.db_var.getRootNode
+    if root.type == Argument::Type::MATRIX
+      # Matrix cell: set the codes of the column that have a value in the cell
+      values = root.childArguments.map do |dbarg|
+        arg = var.old_args.find { |a| a == dbarg.name }
+        next nil if arg.nil?
+        code = var.convert_argname(arg)
+        i = var.arglist.index(code)
+        raise "Cell does not have code '#{code}'" if i.nil? && !cells.empty?
+        cells.map { |cell| v = cell.argvals[i]; ["", nil].include?(v) ? nil : v.to_s }.to_java(:string)
       end
-
-      # Non-matrix cell
     else
-      value = cell.db_cell.getCellValue()
-      value.set(cell.get_arg("var"))
+      # Non-matrix cell
+      i = var.arglist.index("var")
+      raise "Cell does not have code 'var'" if i.nil? && !cells.empty?
+      values = [cells.map { |cell| cell.argvals[i].to_s }.to_java(:string)]
     end
 
-    # Save the changes back to the DB
-
+    rows = rows.to_java(:int)
+    writer.write(rows, cells.map { |cell| cell.onset.to_i }.to_java(:long),
+                 cells.map { |cell| cell.offset.to_i }.to_java(:long), values.to_java(java.lang.String[]))
+    cells.each_with_index do |cell, i|
+      cell.db_cell = nil
+      cell.writer = writer
+      cell.row = rows[i]
+    end
+    var.writer = writer
   end
+
   # if var.hidden
   var.db_var.setHidden(var.hidden)
   # end
+ensure
+  $db.commitBatch
 end
 alias :setVariable :set_column
 alias :setColumn :set_column
@@ -1349,55 +1470,20 @@ def create_mutually_exclusive(name, var1name, var2name, var1_argprefix=nil, var2
 
 
   mutex_cell = nil
-  mutex_cell_parent = nil
 
-  # TODO: make these handle empty cols
-  v1cell = var1.cells[0]
-  prev_v1cell = nil
-  prev_v2cell = nil
-  v2cell = var2.cells[0]
-  v1idx = 0
-  v2idx = 0
+  # The first cell of each column that spans each interval between consecutive time changes, found in one sweep
+  # of the column. An interval of a millisecond or less is only spanned by a cell with the same onset and offset.
+  t0s = time_changes[0...-1]
+  t1s = time_changes.drop(1)
+  spans = lambda { |i, c| t1s[i]-t0s[i] > 1 or (c.onset==t0s[i] and c.offset==t1s[i]) }
+  v1cells = first_cells_spanning(var1.cells, t0s, t1s, &spans)
+  v2cells = first_cells_spanning(var2.cells, t0s, t1s, &spans)
 
-  #
   for i in 0..time_changes.length-2
     t0 = time_changes[i]
     t1 = time_changes[i+1]
-
-    # Find the cells that are active during these times
-    for j in v1idx..var1.cells.length-1
-      c = var1.cells[j]
-      v1cell = nil
-      if $debug
-        p "---", "T1", t0, t1, c.onset, c.offset, "---"
-      end
-      if c.onset <= t0 and c.offset >= t1 and (t1-t0 > 1 or (c.onset==t0 and c.offset==t1))
-        v1cell = c
-        v1idx = j
-        # p t0, t1, "Found V1"
-        break
-        # elsif c.onset > t1
-        #   break
-      else
-        v1cell = nil
-      end
-    end
-
-    for j in v2idx..var2.cells.length-1
-      c = var2.cells[j]
-      v2cell = nil
-      # p "---", "T2", t0, t1, c.onset, c.offset, "---"
-      if c.onset <= t0 and c.offset >= t1 and (t1-t0 > 1 or (c.onset==t0 and c.offset==t1))
-        v2cell = c
-        v2idx = j
-        # p t0, t1, "Found V2"
-        break
-        # elsif c.onset > t1
-        #   break
-      else
-        v2cell = nil
-      end
-    end
+    v1cell = v1cells[i]
+    v2cell = v2cells[i]
 
     if v1cell != nil or v2cell != nil
       mutex_cell = mutex.create_cell
@@ -2599,19 +2685,69 @@ end
 alias :print_args :print_codes
 
 # Finds the first cell in the specified column that overlaps the given time.
+# Pass an array of times to look them all up in one sweep of the column.
 # @param col [RColumn] column to find cell from
-# @param time [Integer] time in milliseconds
-# @return [RCell] Cell that spans the given time; nil if none found.
+# @param time [Integer, Array<Integer>] time in milliseconds, or array of times
+# @return [RCell, Array<RCell>] Cell that spans the given time; nil if none found. For an array of times, the array of
+#   those cells.
+# @example Find the trial of each look
+#   trials = get_cell_from_time(get_column("trial"), get_column("look").cells.map(&:onset))
 def get_cell_from_time(col, time)
-  for cell in col.cells
-    if cell.onset <= time and cell.offset >= time
-      return cell
-    end
-  end
-  return nil
+  times = time.is_a?(Array) ? time.map(&:to_i) : [time.to_i]
+  cells = first_cells_spanning(col.cells, times, times) { |i, c| c.offset >= times[i] }
+  return time.is_a?(Array) ? cells : cells[0]
 end
 alias :getCellFromTime :get_cell_from_time
 
+# @!visibility private
+# Finds for each interval the first of the cells that spans it, in one sweep of the cells.
+# @param cells [Array<RCell>] cells to find from
+# @param onsets [Array<Integer>] onsets of the intervals
+# @param offsets [Array<Integer>] offsets of the intervals
+# @yield [i, cell] further condition on a cell spanning interval i
+# @return [Array<RCell>] first cell spanning each interval; nil for an interval no cell spans
+def first_cells_spanning(cells, onsets, offsets)
+  first = Array.new(onsets.length)
+  join = TemporalJoin.new(TemporalJoin::Relation::DURING)
+  join.join(onsets.to_java(:long), offsets.to_java(:long),
+            cells.map { |c| c.onset.to_i }.to_java(:long), cells.map { |c| c.offset.to_i }.to_java(:long)) do |i, j|
+    if (first[i].nil? or j < first[i]) and yield(i, cells[j])
+      first[i] = j
+    end
+  end
+  first.map { |j| j.nil? ? nil : cells[j] }
+end
+
+# Finds the pairs of cells of two columns that stand in a temporal relation.
+# The columns are swept once in order of onset, so this stays fast for long columns unless the cells of col1
+# overlap much.
+# @param col1 [RColumn, String] first column, or its name
+# @param col2 [RColumn, String] second column, or its name
+# @param relation [Symbol] relation of a cell of col1 to a cell of col2:
+#   :overlaps (share at least one millisecond), :contains, :during, :meets (col2 cell starts where col1 cell ends)
+#   or :matches (same onset and offset)
+# @param tolerance [Integer] number of milliseconds by which the times may miss
+# @return [Array<Array<RCell>>] pairs of cells, in order of onset of the col1 cell, then of the col2 cell
+# @since 1.5.2
+# @example Find the looks during each trial
+#   pairs = join_cells("trial", "look", :contains)
+#   pairs.each { |trial, look| puts "#{trial.ordinal}: #{look.onset}" }
+def join_cells(col1, col2, relation = :overlaps, tolerance = 0)
+  col1 = get_column(col1) if col1.class == "".class
+  col2 = get_column(col2) if col2.class == "".class
+  cells1 = col1.cells
+  cells2 = col2.cells
+
+  join = TemporalJoin.new(TemporalJoin::Relation.valueOf(relation.to_s.upcase), tolerance)
+  pairs = []
+  join.join(cells1.map { |c| c.onset.to_i }.to_java(:long), cells1.map { |c| c.offset.to_i }.to_java(:long),
+            cells2.map { |c| c.onset.to_i }.to_java(:long), cells2.map { |c| c.offset.to_i }.to_java(:long)) do |i, j|
+    pairs << [cells1[i], cells2[j]]
+  end
+  pairs
+end
+alias :joinCells :join_cells
+
 # Returns ordinal, onset, offset, and the values of all codes from the given cell.
 # TODO change method name to something more appropriate
 # @param cell [RCell] cell whose codes to print
@@ -0,0 +1,146 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.commons.io.FileUtils;
+import org.datavyu.models.db.DataStore;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for processing directories of projects without the user interface.
+ */
+public class BatchControllerTest {
+    // The location of the test files.
+    private static final String TEST_FOLDER = System.getProperty("testPath");
+
+    private File input;
+    private File output;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("batch-in").toFile();
+        output = Files.createTempDirectory("batch-out").toFile();
+        FileUtils.copyFile(new File(TEST_FOLDER + "IO/simple2.opf"), new File(input, "simple2.opf"));
+        FileUtils.copyFile(new File(TEST_FOLDER + "IO/simple3.opf"), new File(input, "nested/simple3.opf"));
+        FileUtils.writeStringToFile(new File(input, "nested/broken.opf"), "not a project", "UTF-8");
+        writeProject(new File(input, "nested/corrupt.opf"), "#4\n"
+                + "1st_column (TEXT,true,)\n"
+                + "00:01:00:000,00:02:00:000,A readable cell.\n"
+                + "not a cell\n"
+                + "00:03:00:000,00:04:00:000,Another readable cell.\n"
+                + "neither is this\n");
+        FileUtils.writeStringToFile(new File(input, "notes.txt"), "not a project either", "UTF-8");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input);
+        FileUtils.deleteDirectory(output);
+    }
+
+    private static void writeProject(final File file, final String db) throws Exception {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("project"));
+            out.write("!project\nname: corrupt\nversion: 5\nviewerSettings: []\n".getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry("db"));
+            out.write(db.getBytes("UTF-8"));
+        }
+    }
+
+    private static String exportAsCSV(final File project) throws Exception {
+        OpenController openController = new OpenController();
+        openController.openProject(project);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExportDatabaseFileController().exportAsCSV(out, openController.getDataStore());
+        return out.toString();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        BatchController controller = new BatchController();
+        controller.setThreads(2);
+        controller.setExport(BatchController.Export.CSV);
+        controller.setOutputDirectory(output);
+        List<BatchController.Result> results = controller.run(input, null);
+
+        // In the order of the paths, failures included
+        assertEquals(results.size(), 4);
+        BatchController.Result broken = results.get(0);
+        assertEquals(broken.getFile(), new File(input, "nested/broken.opf"));
+        assertFalse(broken.isSuccess());
+        assertTrue(broken.getException() instanceof ZipException, String.valueOf(broken.getException()));
+        assertEquals(broken.getError(), broken.getException().getMessage());
+
+        // Unreadable cells are counted rather than shown in a dialog, which fails without a display
+        BatchController.Result corrupt = results.get(1);
+        assertEquals(corrupt.getFile(), new File(input, "nested/corrupt.opf"));
+        assertTrue(corrupt.isSuccess(), corrupt.getError());
+        assertEquals(corrupt.getErrorCount(), 2);
+        assertEquals(corrupt.getExemptionVariables(), Collections.singletonList("1st_column"));
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(results.get(2).getErrorCount(), 0);
+        assertTrue(results.get(2).getExemptionVariables().isEmpty());
+        assertTrue(results.get(3).isSuccess());
+
+        // The output mirrors the input tree
+        assertFalse(new File(output, "nested/broken.csv").exists());
+        assertEquals(FileUtils.readFileToString(new File(output, "nested/simple3.csv")),
+                exportAsCSV(new File(input, "nested/simple3.opf")));
+        assertEquals(FileUtils.readFileToString(new File(output, "simple2.csv")),
+                exportAsCSV(new File(input, "simple2.opf")));
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        File script = new File(output, "add_column.rb");
+        FileUtils.writeStringToFile(script, "require 'Datavyu_API.rb'\n"
+                + "col = new_column('batch', 'file')\n"
+                + "cell = col.new_cell\n"
+                + "cell.change_code('file', File.basename($input_file))\n"
+                + "set_column(col)\n", "UTF-8");
+
+        BatchController controller = new BatchController();
+        controller.setThreads(1);
+        controller.setScript(script);
+        controller.setSave(true);
+        List<BatchController.Result> results = controller.run(input, null);
+
+        assertEquals(results.size(), 4);
+        assertFalse(results.get(0).isSuccess());
+        for (String name : new String[] {"nested/simple3.opf", "simple2.opf"}) {
+            OpenController openController = new OpenController();
+            openController.openProject(new File(input, name));
+            DataStore ds = openController.getDataStore();
+            assertEquals(ds.getVariable("batch").getCells().get(0).getMatrixValue(0).toString(),
+                    new File(name).getName());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Tests for writing and reading the binary data store format.
+ */
+public class BinaryDataStoreTest {
+
+    // The location of the test files.
+    private static final String TEST_FOLDER = System.getProperty("testPath");
+
+    private static String toCsv(final DataStore dataStore) throws UserWarningException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SaveDataStoreFileController().saveAsCsv(out, dataStore);
+        return out.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable nominal = ds.createVariable("nominal", Argument.Type.NOMINAL);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        ds.createVariable("empty", Argument.Type.TEXT);
+        matrix.addArgument(Argument.Type.TEXT);
+        nominal.setHidden(true);
+
+        Cell c = text.createCell();
+        c.setOnset(61000);
+        c.setOffset(3723004);
+        c.getCellValue().set("a, b\nc\\d (e) - f \u00e9\u4e2d");
+        text.createCell().setOnset(100);
+        nominal.createCell().getCellValue().set("x,y");
+        nominal.createCell().getCellValue().set("x,y");
+        c = matrix.createCell();
+        c.setMatrixValue(0, "p(q)");
+        c.setMatrixValue(1, "r,s");
+        matrix.createCell().setMatrixValue(1, "t");
+
+        File file = File.createTempFile("datastore", BinaryDataStoreWriter.EXTENSION);
+        file.deleteOnExit();
+        new SaveController().saveDataStore(file, ds, false);
+        DataStore loaded = new OpenDataStoreFileController().open(file);
+
+        assertEquals(toCsv(loaded), toCsv(ds));
+        assertEquals(loaded.getVariable("matrix").getRootNode().childArguments.get(1).type, Argument.Type.TEXT);
+        assertEquals(loaded.getVariable("nominal").getCells().get(1).getValueAsString(), "x,y");
+    }
+
+    @Test
+    public void testOpfRoundTrip() throws Exception {
+        OpenController openController = new OpenController();
+        openController.openProject(new File(TEST_FOLDER + "IO/simple3.opf"));
+        DataStore ds = openController.getDataStore();
+
+        File file = File.createTempFile("simple3", BinaryDataStoreWriter.EXTENSION);
+        file.deleteOnExit();
+        new SaveController().saveDataStore(file, ds, false);
+        openController.openDataStore(file);
+
+        assertEquals(toCsv(openController.getDataStore()), toCsv(ds));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotBinary() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("#4\nt (TEXT,true,)\n00:00:00:000,00:00:00:000,a\n".getBytes());
+        new BinaryDataStoreReader().read(buffer, DataStoreFactory.newDataStore());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncated() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        ds.createVariable("text", Argument.Type.TEXT).createCell().getCellValue().set("value");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryDataStoreWriter().write(out, ds);
+
+        byte[] bytes = out.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length - 12);
+        buffer.put(bytes, 0, 20).put(bytes, bytes.length - 20, 20).flip();
+        new BinaryDataStoreReader().read(buffer, DataStoreFactory.newDataStore());
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.datavyu.models.db.*;
+import org.datavyu.models.project.Project;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.*;
+
+/**
+ * Tests for the auto save change journal.
+ */
+public class ChangeJournalTest {
+
+    private File journalFile;
+
+    private File projectFile;
+
+    private DataStore ds;
+
+    private Project project;
+
+    private ChangeJournal journal;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        journalFile = File.createTempFile("journal", ChangeJournal.EXTENSION);
+        projectFile = File.createTempFile("recovered", ".opf");
+
+        ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        for (int i = 0; i < 50; i++) {
+            Cell c = text.createCell();
+            c.setOnset(i * 1000);
+            c.getCellValue().set("value " + i);
+            matrix.createCell().setMatrixValue(0, "code" + i % 3);
+        }
+        project = new Project();
+        project.setProjectName("journal");
+        journal = new ChangeJournal(journalFile, ds);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        journal.delete();
+        projectFile.delete();
+    }
+
+    private static String toCsv(final DataStore dataStore) throws UserWarningException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SaveDataStoreFileController().saveAsCsv(out, dataStore);
+        return out.toString();
+    }
+
+    private DataStore recover() throws Exception {
+        ChangeJournal.recover(journalFile, projectFile);
+        OpenController openController = new OpenController();
+        openController.openProject(projectFile);
+        assertEquals(openController.getProject().getProjectName(), "journal");
+        return openController.getDataStore();
+    }
+
+    @Test
+    public void testRecoverSnapshot() throws Exception {
+        journal.flush(project);
+        assertEquals(toCsv(recover()), toCsv(ds));
+    }
+
+    @Test
+    public void testRecoverChanges() throws Exception {
+        journal.flush(project);
+
+        Variable text = ds.getVariable("text");
+        Variable matrix = ds.getVariable("matrix");
+        text.getCells().get(3).getCellValue().set("edited");
+        text.getCells().get(4).setOffset(99999);
+        text.removeCell(text.getCells().get(5));
+        text.createCell().getCellValue().set("new");
+        journal.flush(project);
+
+        matrix.addArgument(Argument.Type.NOMINAL);
+        matrix.getCells().get(0).setMatrixValue(1, "second");
+        matrix.removeCell(matrix.getCells().get(1));
+        text.setHidden(true);
+        Variable added = ds.createVariable("added", Argument.Type.NOMINAL);
+        added.createCell().getCellValue().set("x");
+        journal.flush(project);
+
+        ds.removeVariable(added);
+        ds.getVariable("matrix").setName("renamed");
+        journal.flush(project);
+
+        assertEquals(toCsv(recover()), toCsv(ds));
+    }
+
+    @Test
+    public void testAppendsOnlyChanges() throws Exception {
+        journal.flush(project);
+        long snapshot = journalFile.length();
+
+        ds.getVariable("text").getCells().get(0).getCellValue().set("edited");
+        journal.flush(project);
+        long delta = journalFile.length() - snapshot;
+        assertTrue(delta > 0 && delta < 100, "Flush appended " + delta + " bytes");
+
+        journal.flush(project);
+        assertEquals(journalFile.length(), snapshot + delta);
+    }
+
+    @Test
+    public void testWritesWhatWasCaptured() throws Exception {
+        // Nothing is written until the captured changes are
+        ChangeJournal.PendingFlush snapshot = journal.capture(project);
+        assertTrue(snapshot.isSnapshot());
+        assertEquals(journalFile.length(), 0);
+        String captured = toCsv(ds);
+
+        // Edits after a capture are not part of it, neither in a snapshot nor in appended changes
+        Variable text = ds.getVariable("text");
+        text.getCells().get(0).getCellValue().set("after snapshot");
+        journal.write(snapshot);
+        assertEquals(toCsv(recover()), captured);
+
+        ChangeJournal.PendingFlush changes = journal.capture(project);
+        assertFalse(changes.isSnapshot());
+        captured = toCsv(ds);
+        text.getCells().get(1).getCellValue().set("after changes");
+        text.removeCell(text.getCells().get(2));
+        journal.write(changes);
+        assertEquals(toCsv(recover()), captured);
+
+        journal.flush(project);
+        assertEquals(toCsv(recover()), toCsv(ds));
+    }
+
+    @Test
+    public void testUncommittedChangesAreDropped() throws Exception {
+        journal.flush(project);
+        String expected = toCsv(ds);
+
+        ds.getVariable("text").getCells().get(0).getCellValue().set("edited");
+        journal.flush(project);
+        long length = journalFile.length();
+        journal.close();
+
+        // Cut off the commit record of the last flush, as a crash while writing it would
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(length - 1);
+        }
+        assertEquals(toCsv(recover()), expected);
+    }
+
+    @Test
+    public void testGarbageAfterLastCommitIsDropped() throws Exception {
+        journal.flush(project);
+        String expected = toCsv(ds);
+        long length = journalFile.length();
+        journal.close();
+
+        byte[][] tails = {
+                // An unknown record
+                {99, 0, 0, 0, 0},
+                // A cell whose id is not modified UTF-8
+                {4, 0, 0, 0, 0, 0, 3, (byte) 0xff, (byte) 0xfe, (byte) 0xfd},
+                // A cell with more values than the journal has bytes
+                {4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                        0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff},
+        };
+        for (byte[] tail : tails) {
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(length);
+                raf.seek(length);
+                raf.write(tail);
+            }
+            assertEquals(toCsv(recover()), expected);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads structs in the Thrift compact protocol, to check what {@link ParquetWriter} writes independently of its own
+ * encoder. Structs are read into maps from field id to value: Boolean, Integer for i8, i16 and i32, Long, Double,
+ * byte[] for binary, List and Map for structs. Maps of the protocol are not supported, Parquet metadata has none.
+ *
+ * See https://github.com/apache/thrift/blob/master/doc/specs/thrift-compact-protocol.md for the protocol.
+ */
+final class CompactReader {
+
+    private final byte[] bytes;
+
+    private int position;
+
+    /**
+     * @param bytes The bytes to read.
+     * @param position The position of the first struct.
+     */
+    CompactReader(final byte[] bytes, final int position) {
+        this.bytes = bytes;
+        this.position = position;
+    }
+
+    /**
+     * @return The position after what has been read.
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The fields of the struct at the position, by their ids.
+     */
+    Map<Integer, Object> readStruct() {
+        Map<Integer, Object> fields = new HashMap<>();
+        int lastId = 0;
+        while (true) {
+            int header = readByte();
+            if (header == 0) {
+                return fields;
+            }
+            int type = header & 0x0F;
+            int delta = header >>> 4;
+            int id = delta == 0 ? (int) unzigzag(readVarint()) : lastId + delta;
+            if (type == 1 || type == 2) {
+                // Booleans are held in the type of the field
+                fields.put(id, type == 1);
+            } else {
+                fields.put(id, readValue(type));
+            }
+            lastId = id;
+        }
+    }
+
+    private Object readValue(final int type) {
+        switch (type) {
+            case 1:
+            case 2:
+                // Booleans in lists take a byte each
+                return readByte() == 1;
+            case 3:
+                return (int) (byte) readByte();
+            case 4:
+            case 5:
+                return (int) unzigzag(readVarint());
+            case 6:
+                return unzigzag(readVarint());
+            case 7: {
+                long bits = 0;
+                for (int b = 0; b < 8; b++) {
+                    bits |= (long) readByte() << (8 * b);
+                }
+                return Double.longBitsToDouble(bits);
+            }
+            case 8: {
+                int length = (int) readVarint();
+                byte[] value = new byte[length];
+                System.arraycopy(bytes, position, value, 0, length);
+                position += length;
+                return value;
+            }
+            case 9:
+            case 10: {
+                int header = readByte();
+                int size = header >>> 4;
+                if (size == 15) {
+                    size = (int) readVarint();
+                }
+                List<Object> elements = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    elements.add(readValue(header & 0x0F));
+                }
+                return elements;
+            }
+            case 12:
+                return readStruct();
+            default:
+                throw new IllegalStateException("Unsupported type " + type + " at " + position);
+        }
+    }
+
+    private int readByte() {
+        return bytes[position++] & 0xFF;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
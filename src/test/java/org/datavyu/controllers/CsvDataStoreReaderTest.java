@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Tests for reading the CSV data store format.
+ */
+public class CsvDataStoreReaderTest {
+
+    private DataStore read(final String content) throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        new CsvDataStoreReader().read(new StringReader(content), ds);
+        return ds;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable nominal = ds.createVariable("nominal", Argument.Type.NOMINAL);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        nominal.setHidden(true);
+
+        Cell c = text.createCell();
+        c.setOnset(61000);
+        c.setOffset(3723004);
+        c.getCellValue().set("a, b\nc\\d (e) - f");
+        c = text.createCell();
+        c.setOnset(100);
+        nominal.createCell().getCellValue().set("x,y");
+        c = matrix.createCell();
+        c.setMatrixValue(0, "p(q)");
+        c.setMatrixValue(1, "r,s");
+        c = matrix.createCell();
+        c.setMatrixValue(1, "t");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SaveDataStoreFileController().saveAsCsv(out, ds);
+        DataStore loaded = read(out.toString());
+
+        List<Variable> vars = loaded.getAllVariables();
+        assertEquals(vars.size(), 3);
+        for (Variable original : ds.getAllVariables()) {
+            Variable copy = loaded.getVariable(original.getName());
+            assertEquals(copy.getRootNode().type, original.getRootNode().type);
+            assertEquals(copy.isHidden(), original.isHidden());
+            assertEquals(copy.getCells().size(), original.getCells().size());
+            for (int i = 0; i < original.getCells().size(); i++) {
+                Cell expected = original.getCells().get(i);
+                Cell actual = copy.getCells().get(i);
+                assertEquals(actual.getOnset(), expected.getOnset());
+                assertEquals(actual.getOffset(), expected.getOffset());
+                assertEquals(actual.getValueAsString(), expected.getValueAsString());
+            }
+        }
+        assertEquals(loaded.getVariable("text").getCells().get(1).getValueAsString(), "a, b\nc\\d (e) - f");
+        assertEquals(loaded.getVariable("matrix").getCells().get(1).getMatrixValue(0).toString(), "");
+        assertEquals(loaded.getVariable("matrix").getRootNode().childArguments.size(), 2);
+    }
+
+    @Test
+    public void testLineEndings() throws Exception {
+        DataStore ds = read("#4\r\nv (NOMINAL,true,)\r\n00:00:01:000,00:00:02:000,a\r\n"
+                + "00:00:03:000,00:00:04:000,b\r\n");
+        List<Cell> cells = ds.getVariable("v").getCells();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(0).getValueAsString(), "a");
+        assertEquals(cells.get(1).getOnset(), 3000);
+    }
+
+    @Test
+    public void testPlaceholderArguments() throws Exception {
+        DataStore ds = read("#4\nm (MATRIX,false,)-a|NOMINAL,b|NOMINAL\n00:00:00:000,00:00:00:000,(<a>, x )\n");
+        Variable m = ds.getVariable("m");
+        assertTrue(m.isHidden());
+        Cell cell = m.getCells().get(0);
+        assertTrue(cell.getMatrixValue(0).isEmpty());
+        assertEquals(cell.getMatrixValue(1).toString(), "x");
+    }
+
+    @Test
+    public void testCorruptLine() throws Exception {
+        CsvDataStoreReader reader = new CsvDataStoreReader();
+        DataStore ds = DataStoreFactory.newDataStore();
+        reader.read(new StringReader("#4\nt (TEXT,true,)\n00:00:00:000,00:00:00:000,a\nlost\n"
+                + "u (TEXT,true,)\n"), ds);
+        assertEquals(reader.getErrorCount(), 1);
+        List<Cell> cells = ds.getVariable("t").getCells();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(1).getOnsetString(), "99:00:00:000");
+        assertEquals(cells.get(1).getValueAsString(), "lost");
+        assertFalse(ds.getVariable("u") == null);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.db.*;
+import org.datavyu.util.StringUtils;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Compares the time to save a data store as CSV with {@link CsvDataStoreWriter} to that of the PrintStream loop it
+ * replaced, and checks that both write the same bytes.
+ *
+ * Half the variables are text and half are matrices of three codes, with as many cells in total as set by the system
+ * property datavyu.benchmark.cells, a million by default. The storage engine is chosen as usual with
+ * -Ddatavyu.datastore. The results depend on the machine, so the benchmark is in the benchmark group, which only runs
+ * with the benchmark profile: mvn test -Pbenchmark.
+ */
+public class CsvDataStoreWriterBenchmarkTest {
+
+    /** The logger for this class */
+    private static Logger logger = LogManager.getLogger(CsvDataStoreWriterBenchmarkTest.class);
+
+    /** Number of cells */
+    private static final int CELLS = Integer.getInteger("datavyu.benchmark.cells", 1000000);
+
+    /** Number of variables */
+    private static final int VARIABLES = 10;
+
+    /** Number of times each writer saves, the first to warm up */
+    private static final int RUNS = 3;
+
+    /**
+     * Saves as the data store was saved before CsvDataStoreWriter: formatting each cell with printf into an
+     * unbuffered PrintStream.
+     */
+    private static void saveWithPrintStream(final OutputStream outStream, final DataStore dataStore) {
+        PrintStream ps = new PrintStream(outStream);
+        ps.println("#4");
+        for (Variable variable : dataStore.getAllVariables()) {
+            ps.printf("%s (%s,%s,%s)",
+                    StringUtils.escapeCSV(variable.getName()),
+                    variable.getRootNode().type,
+                    !variable.isHidden(),
+                    "");
+            if (variable.getRootNode().type == Argument.Type.MATRIX) {
+                ps.print('-');
+                int numArgs = 0;
+                for (Argument arg : variable.getRootNode().childArguments) {
+                    ps.printf("%s|%s", StringUtils.escapeCSV(arg.name), arg.type);
+                    if (numArgs < variable.getRootNode().childArguments.size() - 1) {
+                        ps.print(',');
+                    }
+                    numArgs++;
+                }
+            }
+            ps.println();
+            for (Cell cell : variable.getCells()) {
+                ps.printf("%s,%s,%s", cell.getOnsetString(), cell.getOffsetString(),
+                        cell.getCellValue().serialize());
+                ps.println();
+            }
+        }
+        ps.flush();
+    }
+
+    private static DataStore newDataStore() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Random random = new Random(1);
+        int cells = CELLS / VARIABLES;
+        for (int v = 0; v < VARIABLES; v++) {
+            boolean text = v % 2 == 0;
+            Variable variable = ds.createVariable("v" + v, text ? Argument.Type.TEXT : Argument.Type.MATRIX);
+            if (!text) {
+                variable.addArgument(Argument.Type.NOMINAL);
+                variable.addArgument(Argument.Type.NOMINAL);
+            }
+            long[] onsets = new long[cells];
+            long[] offsets = new long[cells];
+            String[][] values = new String[cells][];
+            for (int i = 0; i < cells; i++) {
+                onsets[i] = i * 1000L;
+                offsets[i] = i * 1000L + 500;
+                values[i] = text
+                        ? new String[] {"text value " + random.nextInt(1000) + ", with (escapes)"}
+                        : new String[] {"c" + random.nextInt(5), "d" + random.nextInt(50),
+                                "free text " + random.nextInt(100000)};
+            }
+            variable.loadCells(cells, onsets, offsets, values);
+        }
+        return ds;
+    }
+
+    @Test(groups = "benchmark")
+    public void testSaveAsCsv() throws IOException, UserWarningException {
+        DataStore ds = newDataStore();
+        File legacy = File.createTempFile("legacy", ".csv");
+        File csv = File.createTempFile("datavyu", ".csv");
+        try {
+            long legacyTime = Long.MAX_VALUE;
+            long time = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                try (FileOutputStream fos = new FileOutputStream(legacy)) {
+                    saveWithPrintStream(fos, ds);
+                }
+                long middle = System.nanoTime();
+                new SaveDataStoreFileController().saveAsCsv(csv.getPath(), ds);
+                long end = System.nanoTime();
+                if (run > 0) {
+                    legacyTime = Math.min(legacyTime, middle - start);
+                    time = Math.min(time, end - middle);
+                }
+            }
+            double speedUp = (double) legacyTime / time;
+            logger.info(String.format("Saved %d cells of the %s store as CSV: PrintStream %.2f s, "
+                            + "CsvDataStoreWriter %.2f s (%.1fx)", CELLS, DataStoreFactory.getConfiguredStorage(),
+                    legacyTime / 1e9, time / 1e9, speedUp));
+
+            assertEquals(Files.readAllBytes(csv.toPath()), Files.readAllBytes(legacy.toPath()));
+            assertTrue(speedUp >= 5, "Only " + speedUp + " times as fast");
+        } finally {
+            Files.deleteIfExists(legacy.toPath());
+            Files.deleteIfExists(csv.toPath());
+        }
+    }
+}
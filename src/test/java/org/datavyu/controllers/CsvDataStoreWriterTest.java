@@ -0,0 +1,100 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+/**
+ * Tests for writing the CSV data store format.
+ */
+public class CsvDataStoreWriterTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private static String write(final DataStore ds, final boolean serialized) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvDataStoreWriter(Channels.newChannel(out)).write(DataStoreSnapshot.of(ds), serialized, null);
+        return out.toString();
+    }
+
+    @Test
+    public void testTimestamps() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        long[] times = {-1, -3600001, 0, 999, 59999, 3723004, 360000000L, 3600000000001L};
+        StringBuilder expected = new StringBuilder("#4" + NL + "text (TEXT,true,)" + NL);
+        for (long time : times) {
+            Cell c = text.createCell();
+            c.setOnset(time);
+            c.setOffset(time);
+        }
+        for (Cell c : text.getCells()) {
+            expected.append(c.getOnsetString()).append(',').append(c.getOffsetString()).append(',').append(NL);
+        }
+        assertEquals(write(ds, true), expected.toString());
+    }
+
+    @Test
+    public void testValuesSpanningBuffers() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            value.append(i % 7 == 0 ? "\uD83D\uDE00" : "a,");
+        }
+        for (int i = 0; i < 5; i++) {
+            text.createCell().getCellValue().set(value.substring(i));
+        }
+
+        // Encoded as PrintStream would, in the platform charset
+        StringBuilder expected = new StringBuilder("#4" + NL + "text (TEXT,true,)" + NL);
+        for (Cell c : text.getCells()) {
+            expected.append(c.getOnsetString()).append(',').append(c.getOffsetString()).append(',')
+                    .append(c.getCellValue().serialize()).append(NL);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvDataStoreWriter(Channels.newChannel(out)).write(DataStoreSnapshot.of(ds), true, null);
+        assertEquals(out.toByteArray(), expected.toString().getBytes(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testExportWritesValuesAsString() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.TEXT);
+        Cell c = matrix.createCell();
+        c.setMatrixValue(0, "a,b");
+        c = matrix.createCell();
+        c.setOnset(1000);
+        c.setMatrixValue(1, "(c)");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExportDatabaseFileController().exportAsCSV(out, ds);
+
+        StringBuilder expected = new StringBuilder("#4" + NL + "matrix (MATRIX,true,)-code01|NOMINAL,code02|TEXT" + NL);
+        for (Cell cell : matrix.getCells()) {
+            expected.append(cell.getOnsetString()).append(',').append(cell.getOffsetString()).append(',')
+                    .append(cell.getValueAsString()).append(NL);
+        }
+        assertEquals(out.toString(), expected.toString());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests for exporting a data store by frame.
+ */
+public class FrameExporterTest {
+
+    private static String[] export(final DataStore ds, final FrameExporter exporter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(out, DataStoreSnapshot.of(ds), 10.0);
+        return out.toString().split(System.lineSeparator());
+    }
+
+    private static Cell cell(final Variable variable, final long onset, final long offset) {
+        Cell c = variable.createCell();
+        c.setOnset(onset);
+        c.setOffset(offset);
+        return c;
+    }
+
+    @Test
+    public void testRows() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        ds.createVariable("empty", Argument.Type.TEXT);
+        cell(text, 0, 150).getCellValue().set("say \"hi\"");
+        cell(text, 320, 330).getCellValue().set("short");
+        cell(matrix, 100, 200).setMatrixValue(0, "a,b");
+
+        String[] rows = export(ds, new FrameExporter());
+        assertEquals(rows[0], "nFrame,time,text.ordinal,text.onset,text.offset,text.value,"
+                + "matrix.ordinal,matrix.onset,matrix.offset,matrix.code01,"
+                + "empty.ordinal,empty.onset,empty.offset,empty.value,");
+        assertEquals(rows[1], "1,0,1,0,150,\"say \"\"hi\"\"\",,,,,");
+        assertEquals(rows[2], "2,100,1,0,150,\"say \"\"hi\"\"\",1,100,200,\"a,b\",");
+        assertEquals(rows[3], "3,200,,,,,1,100,200,\"a,b\",");
+        // A cell shorter than a frame shows on the first frame after its onset
+        assertEquals(rows[4], "4,300,,,,,,,,,");
+        assertEquals(rows[5], "5,400,2,320,330,\"short\",,,,,");
+        assertEquals(rows.length, 6);
+    }
+
+    @Test
+    public void testOverlappingCells() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        cell(text, 0, 300).getCellValue().set("first");
+        cell(text, 100, 1000).getCellValue().set("long");
+        cell(text, 200, 250).getCellValue().set("inner");
+        cell(text, 1500, 1600).getCellValue().set("last");
+
+        String[] rows = export(ds, new FrameExporter());
+        // The cursor stays on a cell until it ends
+        assertEquals(rows[3], "3,200,1,0,300,\"first\",");
+        assertEquals(rows[4], "4,300,1,0,300,\"first\",");
+        // The latest started cell has ended as well, but an earlier one still covers the frame
+        assertEquals(rows[5], "5,400,2,100,1000,\"long\",");
+        assertEquals(rows[11], "11,1000,2,100,1000,\"long\",");
+        assertEquals(rows[12], "12,1100,,,,,");
+        assertEquals(rows[17], "17,1600,4,1500,1600,\"last\",");
+    }
+
+    @Test
+    public void testBlocksAreWrittenInOrder() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable nominal = ds.createVariable("nominal", Argument.Type.NOMINAL);
+        for (int i = 0; i < 200; i++) {
+            cell(text, i * 250, i * 250 + 100).getCellValue().set("t" + i);
+            cell(nominal, i * 300, i * 300 + 400).getCellValue().set("n" + i % 7);
+        }
+
+        String[] expected = export(ds, new FrameExporter());
+        assertEquals(export(ds, new FrameExporter(3)), expected);
+        assertEquals(expected.length, 604);
+    }
+}
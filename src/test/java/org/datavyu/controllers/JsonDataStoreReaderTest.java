@@ -0,0 +1,135 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for reading the columns of the JSON format.
+ */
+public class JsonDataStoreReaderTest {
+
+    private static JsonDataStoreReader read(final String content) throws Exception {
+        JsonDataStoreReader reader = new JsonDataStoreReader();
+        reader.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return reader;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        Cell c = text.createCell();
+        c.setOnset(61000);
+        c.setOffset(3723004);
+        c.getCellValue().set("a, \"b\"\nc");
+        for (int i = 0; i < 40; i++) {
+            c = matrix.createCell();
+            c.setOnset(i * 100);
+            c.setMatrixValue(0, "x" + i % 3);
+            if (i % 2 == 0) {
+                c.setMatrixValue(1, "y");
+            }
+        }
+
+        File file = File.createTempFile("datavyu", ".json");
+        file.deleteOnExit();
+        new ExportDatabaseFileController().exportAsJSON(file.getPath(), ds);
+
+        List<Long> progress = new ArrayList<>();
+        JsonDataStoreReader reader = new JsonDataStoreReader();
+        reader.read(file, (bytesRead, byteCount) -> progress.add(bytesRead));
+        assertEquals(reader.getColumnCount(), 2);
+        assertEquals(reader.getCellCount(), 41);
+        assertEquals(progress.get(progress.size() - 1).longValue(), file.length());
+
+        DataStore copy = DataStoreFactory.newDataStore();
+        assertEquals(reader.attach(copy), Collections.emptyList());
+        Variable textCopy = copy.getVariable("text");
+        assertEquals(textCopy.getRootNode().type, Argument.Type.TEXT);
+        Cell cell = textCopy.getCells().get(0);
+        assertEquals(cell.getOnset(), 61000);
+        assertEquals(cell.getOffset(), 3723004);
+        assertEquals(cell.getCellValue().toString(), "a, \"b\"\nc");
+
+        Variable matrixCopy = copy.getVariable("matrix");
+        assertEquals(matrixCopy.getRootNode().childArguments.size(), 2);
+        assertEquals(matrixCopy.getRootNode().childArguments.get(1).name,
+                matrix.getRootNode().childArguments.get(1).name);
+        List<Cell> cells = matrix.getCellsTemporally();
+        List<Cell> cellsCopy = matrixCopy.getCellsTemporally();
+        assertEquals(cellsCopy.size(), 40);
+        for (int i = 0; i < cells.size(); i++) {
+            assertEquals(cellsCopy.get(i).getOnset(), cells.get(i).getOnset());
+            assertEquals(cellsCopy.get(i).getValueAsString(), cells.get(i).getValueAsString());
+        }
+
+        // Columns already in the data store are left out
+        assertEquals(reader.attach(copy), Arrays.asList("text", "matrix"));
+        assertEquals(copy.getAllVariables().size(), 2);
+    }
+
+    @Test
+    public void testFieldOrder() throws Exception {
+        JsonDataStoreReader reader = read("{\"version\": 1, \"passes\": [{\"cells\": ["
+                + "{\"values\": [\"a\", \"b\", \"c\"], \"offset\": 250, \"onset\": \"00:00:00:100\", \"id\": 1},"
+                + "{\"onset\": 300, \"tag\": {\"x\": [1]}}],"
+                + "\"arguments\": {\"first\": \"NOMINAL\", \"second\": \"NOMINAL\"},"
+                + "\"type\": \"MATRIX\", \"name\": \"trial\"}]}");
+        DataStore ds = DataStoreFactory.newDataStore();
+        reader.attach(ds);
+        Variable trial = ds.getVariable("trial");
+        assertEquals(trial.getRootNode().childArguments.get(0).name, "first");
+        List<Cell> cells = trial.getCellsTemporally();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(0).getOnset(), 100);
+        assertEquals(cells.get(0).getOffset(), 250);
+        assertEquals(cells.get(0).getValueAsString(), "(a,b)");
+        assertEquals(cells.get(1).getOnset(), 300);
+        assertTrue(cells.get(1).getMatrixValue(0).isEmpty());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        for (String content : new String[] {
+                "[]",
+                "{\"passes\": [{\"name\": \"a\", \"cells\": []}]}",
+                "{\"passes\": [{\"name\": \"a\", \"type\": \"INTEGER\"}]}",
+                "{\"passes\": [{\"name\": \"a\", \"type\": \"TEXT\", \"cells\": [{\"onset\": \"1:2\"}]}]}"}) {
+            try {
+                read(content);
+                throw new AssertionError("Read invalid content: " + content);
+            } catch (JsonParseException e) {
+                assertTrue(e.getMessage() != null);
+            }
+        }
+        assertEquals(read("{}").getColumnCount(), 0);
+    }
+}
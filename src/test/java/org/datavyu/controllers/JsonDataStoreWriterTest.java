@@ -0,0 +1,119 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for writing the JSON format.
+ */
+public class JsonDataStoreWriterTest {
+
+    private static byte[] write(final DataStore ds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonDataStoreWriter(Channels.newChannel(out)).write(DataStoreSnapshot.of(ds));
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the document with a single pretty printing generator, cell by cell.
+     */
+    private static byte[] writeWithGenerator(final DataStore ds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            g.setPrettyPrinter(new DefaultPrettyPrinter());
+            g.writeStartObject();
+            g.writeArrayFieldStart("passes");
+            for (Variable variable : ds.getAllVariables()) {
+                g.writeStartObject();
+                g.writeStringField("name", variable.getName());
+                g.writeStringField("type", variable.getRootNode().type.toString());
+                g.writeObjectFieldStart("arguments");
+                for (Argument argument : variable.getRootNode().childArguments) {
+                    g.writeStringField(argument.name, argument.type.name());
+                }
+                g.writeEndObject();
+                g.writeArrayFieldStart("cells");
+                int id = 1;
+                for (Cell cell : variable.getCellsTemporally()) {
+                    g.writeStartObject();
+                    g.writeNumberField("id", id++);
+                    g.writeStringField("onset", cell.getOnsetString());
+                    g.writeStringField("offset", cell.getOffsetString());
+                    g.writeArrayFieldStart("values");
+                    if (variable.getRootNode().type == Argument.Type.MATRIX) {
+                        for (int k = 0; k < variable.getRootNode().childArguments.size(); k++) {
+                            g.writeString(cell.getMatrixValue(k).toString());
+                        }
+                    } else {
+                        g.writeString(cell.getCellValue().toString());
+                    }
+                    g.writeEndArray();
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSameAsGenerator() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        assertEquals(write(ds), writeWithGenerator(ds));
+
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable nominal = ds.createVariable("nominal", Argument.Type.NOMINAL);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.TEXT);
+        ds.createVariable("empty", Argument.Type.MATRIX);
+        for (int i = 0; i < 30; i++) {
+            Cell c = text.createCell();
+            c.setOnset(i * 37 - 5);
+            c.setOffset(i * 3700000L);
+            if (i % 3 > 0) {
+                c.getCellValue().set("a \"b\",\n" + i + "\u00e9\uD83D\uDE00");
+            }
+            c = nominal.createCell();
+            c.setOnset(1000 - i);
+            if (i % 2 == 0) {
+                c.getCellValue().set("n" + i % 4);
+            }
+            c = matrix.createCell();
+            c.setOnset(i * 100);
+            if (i % 4 != 1) {
+                c.setMatrixValue(0, "x" + i % 5);
+            }
+            if (i % 3 == 0) {
+                c.setMatrixValue(1, "(y)");
+            }
+        }
+        assertEquals(write(ds), writeWithGenerator(ds));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for writing blocks encoded in parallel in order.
+ */
+public class OrderedBlockWriterTest {
+
+    @Test
+    public void testOrder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedBlockWriter blocks = new OrderedBlockWriter(Channels.newChannel(out), 3);
+        List<Integer> written = new ArrayList<>();
+        blocks.setBlockListener(written::add);
+
+        final AtomicInteger started = new AtomicInteger();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            final int block = i;
+            blocks.submit(() -> {
+                started.incrementAndGet();
+                // Earlier blocks take longer, so they complete out of order
+                Thread.sleep((20 - block) % 4);
+                return ("block" + block + ";").getBytes();
+            });
+            // No more blocks are started than fit in the window
+            assertTrue(started.get() <= written.size() + 3);
+            expected.append("block").append(i).append(';');
+        }
+        blocks.finish();
+        assertEquals(out.toString(), expected.toString());
+        assertEquals(written.size(), 20);
+        assertEquals(written.get(19).intValue(), 19);
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedBlockWriter blocks = new OrderedBlockWriter(Channels.newChannel(out), 2);
+        blocks.submit(() -> "a".getBytes());
+        blocks.submit(() -> {
+            throw new IOException("Unable to encode");
+        });
+        try {
+            blocks.submit(() -> "c".getBytes());
+            blocks.finish();
+            fail("The failure of a block was not reported");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "Unable to encode");
+        }
+        assertEquals(out.toString(), "a");
+    }
+
+    @Test(timeOut = 10000)
+    public void testWriteFailure() throws IOException {
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(final ByteBuffer src) throws IOException {
+                throw new IOException("Unable to write");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() { }
+        };
+        OrderedBlockWriter blocks = new OrderedBlockWriter(channel, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        blocks.submit(() -> "a".getBytes());
+        try {
+            // The second block fills the window, so the first is written and fails
+            blocks.submit(() -> {
+                blocked.await();
+                return "b".getBytes();
+            });
+            fail("The failure to write was not reported");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "Unable to write");
+        }
+        // The blocked block is no longer in flight, so finishing does not wait for it
+        blocks.finish();
+        blocked.countDown();
+    }
+}
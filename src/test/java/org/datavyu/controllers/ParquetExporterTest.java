@@ -0,0 +1,97 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for exporting a data store as Parquet tables.
+ */
+public class ParquetExporterTest {
+
+    private static void assertParquet(final File file) throws IOException {
+        assertTrue(file.isFile(), file.getName());
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[4];
+            byte[] tail = new byte[4];
+            in.readFully(head);
+            in.seek(in.length() - 4);
+            in.readFully(tail);
+            assertEquals(new String(head, StandardCharsets.US_ASCII), "PAR1");
+            assertEquals(new String(tail, StandardCharsets.US_ASCII), "PAR1");
+        }
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable trial = ds.createVariable("trial", Argument.Type.MATRIX);
+        trial.addArgument(Argument.Type.TEXT);
+        Variable frames = ds.createVariable("frames", Argument.Type.NOMINAL);
+        ds.createVariable("Trial", Argument.Type.TEXT);
+        for (int i = 0; i < 10; i++) {
+            Cell cell = trial.createCell();
+            cell.setOnset(i * 1000);
+            cell.setOffset(i * 1000 + 800);
+            cell.setMatrixValue(0, "a" + i);
+            cell = frames.createCell();
+            cell.setOnset(i * 500);
+            cell.getCellValue().set("n" + i % 2);
+        }
+
+        File directory = Files.createTempDirectory("datavyu").toFile();
+        try {
+            DataStoreSnapshot snapshot = DataStoreSnapshot.of(ds);
+            ParquetExporter exporter = new ParquetExporter();
+            List<File> files = exporter.export(directory, snapshot);
+
+            // Names that clash, ignoring case, with another table are numbered
+            List<ColumnSnapshot> columns = snapshot.getColumns();
+            Set<String> names = new HashSet<>();
+            for (int i = 0; i < files.size(); i++) {
+                String name = files.get(i).getName();
+                assertTrue(name.startsWith(columns.get(i).getName()), name);
+                assertTrue(names.add(name.toLowerCase(Locale.ROOT)), name);
+                assertParquet(files.get(i));
+            }
+            assertTrue(names.contains("frames_2.parquet"));
+            assertTrue(names.contains("trial.parquet"));
+            assertTrue(names.contains("trial_2.parquet"));
+
+            File framesFile = exporter.exportFrames(directory, snapshot, 30);
+            assertEquals(framesFile.getName(), ParquetExporter.FRAMES_FILE);
+            assertParquet(framesFile);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for writing tables in the Parquet format.
+ */
+public class ParquetWriterTest {
+
+    @Test
+    public void testEncodeHybrid() {
+        // A run of repeated values: the header is the length shifted left, then the value in a byte
+        int[] run = new int[10];
+        Arrays.fill(run, 5);
+        assertEquals(ParquetWriter.encodeHybrid(run, 10, 3), new byte[] {0x14, 0x05});
+
+        // The example of the format: 0 to 7 bit packed with 3 bits each
+        assertEquals(ParquetWriter.encodeHybrid(new int[] {0, 1, 2, 3, 4, 5, 6, 7}, 8, 3),
+                new byte[] {0x03, (byte) 0x88, (byte) 0xc6, (byte) 0xfa});
+
+        // A short group is padded with zeros
+        assertEquals(ParquetWriter.encodeHybrid(new int[] {1, 0, 1}, 3, 1), new byte[] {0x03, 0x05});
+    }
+
+    @Test
+    public void testLayout() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParquetWriter writer = new ParquetWriter(out,
+                Collections.singletonList(ParquetWriter.Column.required("ordinal", ParquetWriter.Type.INT32)),
+                Collections.singletonMap("datavyu.variable", "trial"));
+        writer.startRowGroup(3);
+        writer.writeColumn(new int[] {7, -1, 1 << 20}, null);
+        writer.close();
+        byte[] bytes = out.toByteArray();
+
+        assertEquals(new String(bytes, 0, 4, StandardCharsets.US_ASCII), "PAR1");
+        assertEquals(new String(bytes, bytes.length - 4, 4, StandardCharsets.US_ASCII), "PAR1");
+        int footerLength = ByteBuffer.wrap(bytes, bytes.length - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        assertTrue(footerLength > 0 && footerLength < bytes.length - 12);
+        String footer = new String(bytes, bytes.length - 8 - footerLength, footerLength, StandardCharsets.UTF_8);
+        assertTrue(footer.contains("ordinal"));
+        assertTrue(footer.contains("datavyu.variable"));
+        assertTrue(footer.contains("trial"));
+
+        // The data page follows its header, compressed with GZIP, its values plain and little endian
+        int page = 4;
+        while (!(bytes[page] == 0x1f && bytes[page + 1] == (byte) 0x8b)) {
+            page++;
+        }
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(bytes, page, bytes.length - page)))) {
+            byte[] values = new byte[12];
+            in.readFully(values);
+            ByteBuffer buffer = ByteBuffer.wrap(values).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(buffer.getInt(), 7);
+            assertEquals(buffer.getInt(), -1);
+            assertEquals(buffer.getInt(), 1 << 20);
+        }
+    }
+
+    @Test
+    public void testRowGroupOrder() throws IOException {
+        ParquetWriter writer = new ParquetWriter(new ByteArrayOutputStream(),
+                Arrays.asList(ParquetWriter.Column.required("onset", ParquetWriter.Type.INT64),
+                        ParquetWriter.Column.string("value", true)),
+                Collections.emptyMap());
+        try {
+            writer.writeColumn(new long[] {1}, null);
+            fail("Wrote a column outside of a row group");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        writer.startRowGroup(2);
+        writer.writeColumn(new long[] {1, 2}, null);
+        try {
+            writer.close();
+            fail("Closed in the middle of a row group");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        writer.writeColumn(new String[] {"a", null}, null);
+        writer.close();
+    }
+
+    @Test
+    public void testReadBack() throws IOException {
+        // More rows than fit in a page, then a small row group
+        int[] groups = {ParquetWriter.PAGE_SIZE + 1000, 5};
+        int rows = groups[0] + groups[1];
+        long[] onsets = new long[rows];
+        int[] ordinals = new int[rows];
+        boolean[] hasOrdinal = new boolean[rows];
+        String[] codes = new String[rows];
+        String[] comments = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            onsets[row] = row * 1000L - 5000;
+            ordinals[row] = row % 7 == 0 ? 0 : -row;
+            hasOrdinal[row] = row % 7 != 0;
+            // Long runs of one code, then codes that change on each row
+            codes[row] = row % 11 == 0 ? null : row < 20000 ? "same" : "code " + (row % 13) + " é";
+            comments[row] = row % 3 == 0 ? null : "comment " + row;
+        }
+
+        List<ParquetWriter.Column> columns = Arrays.asList(
+                ParquetWriter.Column.required("onset", ParquetWriter.Type.INT64),
+                ParquetWriter.Column.optional("ordinal", ParquetWriter.Type.INT32),
+                ParquetWriter.Column.string("code", true),
+                ParquetWriter.Column.string("comment", false));
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("datavyu.variable", "trial");
+        metadata.put("datavyu.version", "1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParquetWriter writer = new ParquetWriter(out, columns, metadata);
+        int from = 0;
+        for (int group : groups) {
+            int to = from + group;
+            writer.startRowGroup(group);
+            writer.writeColumn(Arrays.copyOfRange(onsets, from, to), null);
+            writer.writeColumn(Arrays.copyOfRange(ordinals, from, to), Arrays.copyOfRange(hasOrdinal, from, to));
+            writer.writeColumn(Arrays.copyOfRange(codes, from, to), null);
+            writer.writeColumn(Arrays.copyOfRange(comments, from, to), null);
+            from = to;
+        }
+        writer.close();
+        byte[] bytes = out.toByteArray();
+
+        int footerLength = ByteBuffer.wrap(bytes, bytes.length - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        CompactReader reader = new CompactReader(bytes, bytes.length - 8 - footerLength);
+        Map<Integer, Object> footer = reader.readStruct();
+        assertEquals(reader.getPosition(), bytes.length - 8);
+
+        // The file metadata: version, schema, number of rows, row groups, key values, created by
+        assertEquals(footer.get(1), 1);
+        List<Object> schema = list(footer.get(2));
+        assertEquals(schema.size(), columns.size() + 1);
+        assertEquals(string(struct(schema.get(0)).get(4)), "schema");
+        assertEquals(struct(schema.get(0)).get(5), columns.size());
+        int[] types = {2, 1, 6, 6};
+        for (int c = 0; c < columns.size(); c++) {
+            Map<Integer, Object> element = struct(schema.get(c + 1));
+            assertEquals(element.get(1), types[c]);
+            assertEquals(element.get(3), c == 0 ? 0 : 1);
+            assertEquals(string(element.get(4)), columns.get(c).name);
+            assertEquals(element.get(6), c < 2 ? null : 0);
+        }
+        assertEquals(footer.get(3), (long) rows);
+        Map<String, String> keyValues = new LinkedHashMap<>();
+        for (Object keyValue : list(footer.get(5))) {
+            keyValues.put(string(struct(keyValue).get(1)), string(struct(keyValue).get(2)));
+        }
+        assertEquals(keyValues, metadata);
+        assertEquals(string(footer.get(6)), "Datavyu");
+        assertEquals(list(footer.get(7)).size(), columns.size());
+
+        List<Object> rowGroups = list(footer.get(4));
+        assertEquals(rowGroups.size(), groups.length);
+        List<List<Object>> read = new ArrayList<>();
+        for (int c = 0; c < columns.size(); c++) {
+            read.add(new ArrayList<>());
+        }
+        int position = 4;
+        for (int g = 0; g < groups.length; g++) {
+            Map<Integer, Object> rowGroup = struct(rowGroups.get(g));
+            assertEquals(rowGroup.get(3), (long) groups[g]);
+            assertEquals(rowGroup.get(5), (long) position);
+            assertEquals(rowGroup.get(7), g);
+            List<Object> chunks = list(rowGroup.get(1));
+            long compressed = 0;
+            for (int c = 0; c < columns.size(); c++) {
+                Map<Integer, Object> chunk = struct(chunks.get(c));
+                Map<Integer, Object> meta = struct(chunk.get(3));
+                // The chunks follow each other, each starting with its dictionary if it has one
+                assertEquals(chunk.get(2), (long) position);
+                assertEquals(meta.get(1), types[c]);
+                assertEquals(string(list(meta.get(3)).get(0)), columns.get(c).name);
+                assertEquals(meta.get(4), 2);
+                assertEquals(meta.get(5), (long) groups[g]);
+                assertEquals(meta.get(11), columns.get(c).dictionary ? (long) position : null);
+                int end = readChunk(bytes, meta, columns.get(c), read.get(c));
+                assertEquals((long) meta.get(7), end - position);
+                compressed += end - position;
+                position = end;
+            }
+            assertEquals(rowGroup.get(6), compressed);
+        }
+        assertEquals(position, bytes.length - 8 - footerLength);
+
+        // The values and the statistics of the integer columns
+        List<Object> expectedOrdinals = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            assertEquals(read.get(0).get(row), onsets[row], "Onset of row " + row);
+            expectedOrdinals.add(hasOrdinal[row] ? ordinals[row] : null);
+        }
+        assertEquals(read.get(1), expectedOrdinals);
+        assertEquals(read.get(2), Arrays.asList(codes));
+        assertEquals(read.get(3), Arrays.asList(comments));
+
+        Map<Integer, Object> statistics = struct(struct(struct(list(struct(rowGroups.get(0)).get(1)).get(1))
+                .get(3)).get(12));
+        long nulls = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < groups[0]; row++) {
+            if (hasOrdinal[row]) {
+                min = Math.min(min, ordinals[row]);
+                max = Math.max(max, ordinals[row]);
+            } else {
+                nulls++;
+            }
+        }
+        assertEquals(statistics.get(3), nulls);
+        assertEquals(ByteBuffer.wrap((byte[]) statistics.get(5)).order(ByteOrder.LITTLE_ENDIAN).getInt(), max);
+        assertEquals(ByteBuffer.wrap((byte[]) statistics.get(6)).order(ByteOrder.LITTLE_ENDIAN).getInt(), min);
+    }
+
+    /**
+     * Reads the pages of a column chunk, adding its values to the list with null for missing values.
+     *
+     * @return The position after the chunk.
+     */
+    private static int readChunk(final byte[] bytes,
+                                 final Map<Integer, Object> meta,
+                                 final ParquetWriter.Column column,
+                                 final List<Object> values) throws IOException {
+        long rows = (long) meta.get(5);
+        int position = (int) (long) (meta.get(11) != null ? meta.get(11) : meta.get(9));
+        List<String> dictionary = null;
+        List<Object> encodings = list(meta.get(2));
+        while (rows > 0) {
+            CompactReader reader = new CompactReader(bytes, position);
+            Map<Integer, Object> header = reader.readStruct();
+            int uncompressedSize = (int) header.get(2);
+            int compressedSize = (int) header.get(3);
+            ByteBuffer page = ByteBuffer.wrap(gunzip(bytes, reader.getPosition(), compressedSize))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(page.remaining(), uncompressedSize);
+            position = reader.getPosition() + compressedSize;
+
+            if ((int) header.get(1) == 2) {
+                // The dictionary page holds the distinct values plain
+                assertEquals(dictionary, null);
+                Map<Integer, Object> dictionaryHeader = struct(header.get(7));
+                assertEquals(dictionaryHeader.get(2), 2);
+                assertEquals((long) meta.get(9), position);
+                dictionary = new ArrayList<>();
+                for (int i = 0; i < (int) dictionaryHeader.get(1); i++) {
+                    dictionary.add(readString(page));
+                }
+                assertFalse(page.hasRemaining());
+                continue;
+            }
+
+            assertEquals(header.get(1), 0);
+            Map<Integer, Object> dataHeader = struct(header.get(5));
+            int count = (int) dataHeader.get(1);
+            int encoding = (int) dataHeader.get(2);
+            assertTrue(encodings.contains(encoding));
+            int[] levels = new int[count];
+            Arrays.fill(levels, 1);
+            int defined = count;
+            if (column.optional) {
+                int length = page.getInt();
+                levels = decodeHybrid(page, length, 1, count);
+                defined = 0;
+                for (int level : levels) {
+                    defined += level;
+                }
+            }
+
+            Object[] pageValues = new Object[defined];
+            if (encoding == 8) {
+                int bitWidth = page.get();
+                int[] codes = decodeHybrid(page, page.remaining(), bitWidth, defined);
+                for (int i = 0; i < defined; i++) {
+                    pageValues[i] = dictionary.get(codes[i]);
+                }
+            } else {
+                assertEquals(encoding, 0);
+                for (int i = 0; i < defined; i++) {
+                    switch (column.type) {
+                        case INT32:
+                            pageValues[i] = page.getInt();
+                            break;
+                        case INT64:
+                            pageValues[i] = page.getLong();
+                            break;
+                        default:
+                            pageValues[i] = readString(page);
+                    }
+                }
+            }
+            assertFalse(page.hasRemaining());
+
+            int next = 0;
+            for (int level : levels) {
+                values.add(level == 1 ? pageValues[next++] : null);
+            }
+            rows -= count;
+        }
+        assertEquals(rows, 0);
+        return position;
+    }
+
+    /**
+     * Decodes values of the RLE / bit-packing hybrid encoding, dropping the padding of the last group.
+     */
+    private static int[] decodeHybrid(final ByteBuffer buffer, final int length, final int bitWidth, final int count) {
+        int end = buffer.position() + length;
+        int[] values = new int[count];
+        int read = 0;
+        while (buffer.position() < end) {
+            long header = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer.get() & 0xFF;
+                header |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if ((header & 1) == 1) {
+                long bits = 0;
+                int bitCount = 0;
+                for (int i = 0; i < (header >>> 1) * 8; i++) {
+                    while (bitCount < bitWidth) {
+                        bits |= (long) (buffer.get() & 0xFF) << bitCount;
+                        bitCount += 8;
+                    }
+                    int value = (int) (bits & ((1L << bitWidth) - 1));
+                    bits >>>= bitWidth;
+                    bitCount -= bitWidth;
+                    if (read < count) {
+                        values[read++] = value;
+                    } else {
+                        assertEquals(value, 0, "Padding");
+                    }
+                }
+            } else {
+                int value = 0;
+                for (int i = 0; i < (bitWidth + 7) / 8; i++) {
+                    value |= (buffer.get() & 0xFF) << (8 * i);
+                }
+                for (int i = 0; i < header >>> 1; i++) {
+                    values[read++] = value;
+                }
+            }
+        }
+        assertEquals(buffer.position(), end);
+        assertEquals(read, count);
+        return values;
+    }
+
+    private static byte[] gunzip(final byte[] bytes, final int offset, final int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, Object> struct(final Object value) {
+        return (Map<Integer, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(final Object value) {
+        return (List<Object>) value;
+    }
+
+    private static String string(final Object value) {
+        return new String((byte[]) value, StandardCharsets.UTF_8);
+    }
+}
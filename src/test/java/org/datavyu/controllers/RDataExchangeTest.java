@@ -0,0 +1,229 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.datavyu.models.db.*;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for exchanging the data store with R scripts.
+ */
+public class RDataExchangeTest {
+
+    private static List<RDataExchange.Table> roundTrip(final DataStore ds) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDataExchange.write(DataStoreSnapshot.of(ds), out);
+        return RDataExchange.read(out.toByteArray());
+    }
+
+    private static DataStore newDataStore() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable matrix = ds.createVariable("Trial", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        for (int i = 0; i < 3; i++) {
+            Cell c = matrix.createCell();
+            c.setOnset(i * 1000);
+            c.setOffset(i * 1000 + 500);
+            c.setMatrixValue(0, i == 1 ? "left" : "right");
+            if (i != 2) {
+                c.setMatrixValue(1, "x" + i);
+            }
+        }
+        Variable text = ds.createVariable("notes", Argument.Type.TEXT);
+        text.createCell().getCellValue().set("café, \"quoted\"");
+        return ds;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<RDataExchange.Table> tables = roundTrip(newDataStore());
+        assertEquals(tables.size(), 2);
+
+        RDataExchange.Table trial = tables.get(0);
+        assertEquals(trial.name, "Trial");
+        assertEquals(trial.type, Argument.Type.MATRIX);
+        assertEquals(trial.columns, new String[] {"code01", "code02"});
+        assertEquals(trial.ordinals, new int[] {1, 2, 3});
+        assertEquals(trial.onsets, new long[] {0, 1000, 2000});
+        assertEquals(trial.offsets, new long[] {500, 1500, 2500});
+        assertEquals(trial.values[0], new String[] {"right", "left", "right"});
+        assertEquals(trial.values[1], new String[] {"x0", "x1", null});
+
+        RDataExchange.Table notes = tables.get(1);
+        assertEquals(notes.type, Argument.Type.TEXT);
+        assertEquals(notes.columns, new String[] {RDataExchange.VALUE_COLUMN});
+        assertEquals(notes.values[0][0], "café, \"quoted\"");
+    }
+
+    @Test
+    public void testApplyUnchanged() throws Exception {
+        DataStore ds = newDataStore();
+        assertEquals(RDataExchange.apply(roundTrip(ds), ds), 0);
+        assertEquals(ds.getVariable("Trial").getCells().size(), 3);
+    }
+
+    @Test
+    public void testApplyChanges() throws Exception {
+        DataStore ds = newDataStore();
+        List<RDataExchange.Table> tables = roundTrip(ds);
+
+        // Drop the first row, change the last, add a row and a column
+        RDataExchange.Table trial = tables.get(0);
+        RDataExchange.Table changed = new RDataExchange.Table("Trial", Argument.Type.MATRIX,
+                new String[] {"code01", "code02", "rt"}, 3);
+        changed.ordinals[0] = 2;
+        changed.ordinals[1] = 3;
+        for (int row = 0; row < 2; row++) {
+            changed.onsets[row] = trial.onsets[row + 1];
+            changed.offsets[row] = trial.offsets[row + 1];
+            changed.values[0][row] = trial.values[0][row + 1];
+            changed.values[1][row] = trial.values[1][row + 1];
+        }
+        changed.values[1][1] = "x2";
+        changed.onsets[2] = 5000;
+        changed.offsets[2] = 6000;
+        changed.values[0][2] = "up";
+        changed.values[2][2] = "412";
+
+        RDataExchange.Table added = new RDataExchange.Table("Count", Argument.Type.MATRIX,
+                new String[] {RDataExchange.VALUE_COLUMN}, 1);
+        added.values[0][0] = "7";
+
+        // The cell with ordinal 2 is untouched, so 1 changed, 1 added, 1 removed and a cell of a new variable
+        assertEquals(RDataExchange.apply(Arrays.asList(changed, added), ds), 4);
+
+        Variable variable = ds.getVariable("Trial");
+        List<Cell> cells = variable.getCellsTemporally();
+        assertEquals(cells.size(), 3);
+        assertEquals(variable.getRootNode().childArguments.get(2).name, "rt");
+        assertEquals(cells.get(0).getOnset(), 1000);
+        assertEquals(cells.get(0).getMatrixValue(0).toString(), "left");
+        assertEquals(cells.get(1).getMatrixValue(1).toString(), "x2");
+        assertEquals(cells.get(2).getOnset(), 5000);
+        assertEquals(cells.get(2).getOffset(), 6000);
+        assertEquals(cells.get(2).getMatrixValue(2).toString(), "412");
+        assertEquals(cells.get(2).getMatrixValue(1).isEmpty(), true);
+
+        Variable count = ds.getVariable("Count");
+        assertEquals(count.getRootNode().type, Argument.Type.MATRIX);
+        assertEquals(count.getRootNode().childArguments.get(0).name, RDataExchange.VALUE_COLUMN);
+        assertEquals(count.getCells().get(0).getMatrixValue(0).toString(), "7");
+
+        // Variables that are not written back are kept
+        assertEquals(ds.getVariable("notes").getCells().size(), 1);
+        assertEquals(RDataExchange.apply(Collections.<RDataExchange.Table>emptyList(), ds), 0);
+    }
+
+    @Test
+    public void testEmptyValues() throws Exception {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        text.createCell();
+        RDataExchange.Table table = roundTrip(ds).get(0);
+        assertNull(table.values[0][0]);
+        assertEquals(RDataExchange.apply(Collections.singletonList(table), ds), 0);
+    }
+
+    /**
+     * @return The Rscript executable on the path, or null if R is not installed.
+     */
+    private static File findRscript() {
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String directory : path.split(File.pathSeparator)) {
+                for (String name : new String[] {"Rscript", "Rscript.exe"}) {
+                    File file = new File(directory, name);
+                    if (file.canExecute()) {
+                        return file;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testReadAndWriteInRIsUnchanged() throws Exception {
+        File rscript = findRscript();
+        if (rscript == null) {
+            throw new SkipException("R is not installed");
+        }
+
+        // Codes that R would take for numbers, logicals or missing values if it converted them
+        DataStore ds = newDataStore();
+        Variable codes = ds.createVariable("Codes", Argument.Type.MATRIX);
+        String[] values = {"007", "1.50", "T", "F", "NA", "TRUE", "1e3", " 2"};
+        for (String value : values) {
+            codes.createCell().setMatrixValue(0, value);
+        }
+        codes.createCell();
+
+        File input = File.createTempFile("datavyu", ".bin");
+        File output = File.createTempFile("datavyu", ".bin");
+        try {
+            RDataExchange.write(DataStoreSnapshot.of(ds), input);
+            File api = new File(RDataExchangeTest.class.getResource("/Datavyu_API.R").toURI());
+            Process process = new ProcessBuilder(rscript.getPath(), "-e",
+                    String.format("source('%s'); datavyu_write_db(datavyu_read_db('%s'), '%s')",
+                            rPath(api), rPath(input), rPath(output)))
+                    .redirectErrorStream(true).start();
+            String log = new String(readAll(process.getInputStream()), "UTF-8");
+            assertEquals(process.waitFor(), 0, log);
+
+            List<RDataExchange.Table> expected = roundTrip(ds);
+            List<RDataExchange.Table> tables = RDataExchange.read(output);
+            assertEquals(tables.size(), expected.size());
+            for (int i = 0; i < tables.size(); i++) {
+                assertEquals(tables.get(i).name, expected.get(i).name);
+                assertEquals(tables.get(i).ordinals, expected.get(i).ordinals);
+                assertEquals(tables.get(i).onsets, expected.get(i).onsets);
+                assertEquals(tables.get(i).offsets, expected.get(i).offsets);
+                for (int column = 0; column < tables.get(i).columns.length; column++) {
+                    assertEquals(tables.get(i).values[column], expected.get(i).values[column]);
+                }
+            }
+            assertEquals(RDataExchange.apply(tables, ds), 0);
+        } finally {
+            Files.deleteIfExists(input.toPath());
+            Files.deleteIfExists(output.toPath());
+        }
+    }
+
+    private static String rPath(final File file) {
+        return file.getAbsolutePath().replace('\\', '/').replace("'", "\\'");
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.DataStore;
+import org.datavyu.models.db.DataStoreFactory;
+import org.jruby.embed.ScriptingContainer;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for reusing JRuby runtimes across scripts.
+ */
+public class RubyEnginePoolTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        RubyEnginePool pool = new RubyEnginePool(1);
+        try {
+            pool.prestart();
+            DataStore ds = DataStoreFactory.newDataStore();
+            ds.createVariable("trial", Argument.Type.TEXT);
+
+            ScriptingContainer first = pool.acquire();
+            first.put("$db", ds);
+            first.put("path", "/tmp/");
+            assertEquals(first.runScriptlet("require 'Datavyu_API.rb'\n"
+                    + "count = getColumnList().size\n"
+                    + "$kept = 'kept'\n"
+                    + "[path, count].join(',')"), "/tmp/,1");
+            pool.release(first);
+
+            // The same runtime comes back without the variables of the previous script
+            ScriptingContainer second = pool.acquire();
+            assertSame(second, first);
+            assertEquals(second.runScriptlet("[$db.nil?, defined?(path).nil?, defined?(count).nil?, $kept,"
+                    + " respond_to?(:get_column, true)].join(',')"), "true,true,true,kept,true");
+            pool.release(second);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -14,6 +14,7 @@
  */
 package org.datavyu.controllers;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 import org.apache.commons.io.IOUtils;
@@ -24,6 +25,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.*;
+import java.util.concurrent.Future;
 
 
 /**
@@ -198,4 +200,76 @@ public class SaveControllerTest {
         savec.saveProject(outFile, p, ds);
         assertTrue(areFilesSameByteComp(outFile, demoFile));
     }
+
+    @Test
+    public void testSaveProjectInBackground() throws Exception {
+        File outFile = new File("target/test4.opf");
+        if (outFile.exists()) {
+            outFile.delete();
+        }
+        File demoFile = new File(TEST_FOLDER + "IO/simple2.opf");
+
+        Project p = new Project();
+        p.setProjectName("simple2");
+        p.setDatabaseFileName("simple1.csv");
+        p.setOriginalProjectDirectory("Z:\\datavyu\\src\\test\\resources\\IO");
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable var = ds.createVariable("TestColumn", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset("00:01:00:000");
+        c.setOffset("00:02:00:000");
+        c.getCellValue().set("This is a test cell.");
+
+        final int[] progress = new int[2];
+        SaveController savec = new SaveController();
+        Future<File> pending = savec.saveProjectInBackground(outFile, p, ds, (cellsWritten, cellCount) -> {
+            progress[0] = cellsWritten;
+            progress[1] = cellCount;
+        });
+
+        // Edits after the save has started are not part of it
+        c.getCellValue().set("Edited while saving.");
+        var.createCell();
+
+        assertEquals(pending.get(), outFile);
+        assertTrue(areFilesSameByteComp(outFile, demoFile));
+        assertEquals(progress, new int[] {1, 1});
+
+        File[] temporary = outFile.getAbsoluteFile().getParentFile().listFiles(
+                (dir, name) -> name.startsWith(outFile.getName()) && name.endsWith(".tmp"));
+        assertEquals(temporary.length, 0);
+    }
+
+    @Test
+    public void testSnapshotIsolation() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable text = ds.createVariable("text", Argument.Type.TEXT);
+        Variable matrix = ds.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        for (int i = 0; i < 20; i++) {
+            Cell c = text.createCell();
+            c.setOnset(i * 100);
+            c.getCellValue().set("value (" + i + ")");
+            c = matrix.createCell();
+            c.setMatrixValue(0, "a,b" + i % 4);
+            c.setMatrixValue(1, "c-" + i % 2);
+        }
+
+        SaveDataStoreFileController controller = new SaveDataStoreFileController();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        controller.saveAsCsv(expected, ds);
+        DataStoreSnapshot snapshot = DataStoreSnapshot.of(ds);
+
+        text.getCells().get(0).getCellValue().set("edited");
+        text.getCells().get(1).setOnset(5000);
+        text.removeCell(text.getCells().get(2));
+        matrix.getCells().get(0).setMatrixValue(1, "new");
+        matrix.addArgument(Argument.Type.TEXT);
+        ds.createVariable("added", Argument.Type.TEXT).createCell();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        controller.saveAsCsv(actual, snapshot, null);
+        assertEquals(actual.toString(), expected.toString());
+        assertEquals(snapshot.getCellCount(), 40);
+    }
 }
@@ -142,4 +142,20 @@ public class CellTest {
 //        assertEquals(model.getOnset(), 17999999);
         assertEquals(model.getOnsetString(), "04:59:59:999");
     }
+
+    @Test
+    public void testListenersArePerCell() {
+        Cell other = var.createCell();
+        CellListener otherListener = mock(CellListener.class);
+        other.addListener(otherListener);
+
+        model.setOffset(30);
+        verify(modelListener).offsetChanged(30);
+        verify(otherListener, times(0)).offsetChanged(30);
+
+        other.removeListener(otherListener);
+        other.setOffset(40);
+        verify(otherListener, times(0)).offsetChanged(40);
+        verify(modelListener, times(0)).offsetChanged(40);
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for writing columns of values back to a variable.
+ */
+public class ColumnWriterTest {
+
+    private static Variable newVariable(final DataStoreFactory.Storage storage) throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore(storage);
+        Variable variable = ds.createVariable("trial", Argument.Type.MATRIX);
+        variable.addArgument(Argument.Type.NOMINAL);
+        for (int i = 0; i < 3; i++) {
+            Cell cell = variable.createCell();
+            cell.setOnset(i * 100);
+            cell.setOffset(i * 100 + 50);
+            cell.setMatrixValue(0, "a" + i);
+        }
+        return variable;
+    }
+
+    private static void testWrite(final DataStoreFactory.Storage storage) throws UserWarningException {
+        Variable variable = newVariable(storage);
+        ColumnSnapshot snapshot = ColumnSnapshot.of(variable);
+        ColumnWriter writer = new ColumnWriter(variable);
+        assertEquals(snapshot.getOnsets(), new long[] {0, 100, 200});
+        assertEquals(snapshot.getValues(0), new String[] {"a0", "a1", "a2"});
+        assertEquals(snapshot.getValues(1), new String[] {"", "", ""});
+
+        // Move the first cell last, keep the second, clear the third and add a cell
+        int[] rows = {0, 1, 2, -1};
+        long[] onsets = {300, 100, 200, 400};
+        long[] offsets = {350, 150, 250, 450};
+        String[][] values = {{null, "a1", "", "new"}, {"b0", null, null, null}};
+        assertEquals(writer.write(rows, onsets, offsets, values), 3);
+        assertEquals(rows[3], 3);
+        assertEquals(writer.size(), 4);
+
+        List<Cell> cells = variable.getCellsTemporally();
+        assertEquals(cells.size(), 4);
+        assertEquals(cells.get(0).getMatrixValue(0).toString(), "a1");
+        assertTrue(cells.get(1).getMatrixValue(0).isEmpty());
+        assertEquals(cells.get(2).getValueAsString(), "(a0,b0)");
+        assertEquals(cells.get(3).getValueAsString(), "(new,)");
+        assertEquals(writer.indexOf(cells.get(2)), 0);
+        assertEquals(writer.indexOf(cells.get(3)), 3);
+
+        // Writing the same again changes nothing; rows not written to are removed if asked for
+        assertEquals(writer.write(new int[] {0, 1, 2}, new long[] {300, 100, 200},
+                new long[] {350, 150, 250}, new String[][] {{"a0", "a1", ""}}, true), 1);
+        assertEquals(variable.getCells().size(), 3);
+        assertNull(writer.getCell(3));
+        assertEquals(writer.indexOf(cells.get(3)), -1);
+    }
+
+    @Test
+    public void testWrite() throws UserWarningException {
+        testWrite(DataStoreFactory.Storage.OBJECT);
+    }
+
+    @Test
+    public void testWriteColumnar() throws UserWarningException {
+        testWrite(DataStoreFactory.Storage.COLUMNAR);
+    }
+
+    @Test
+    public void testWriteText() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable variable = ds.createVariable("notes", Argument.Type.TEXT);
+        variable.createCell().getCellValue().set("note");
+        ColumnWriter writer = new ColumnWriter(variable);
+
+        assertEquals(writer.write(new int[] {0}, new long[] {0}, new long[] {0}, new String[][] {{"note"}}), 0);
+        assertEquals(writer.write(new int[] {0}, new long[] {0}, new long[] {0}, new String[][] {{""}}), 1);
+        assertTrue(variable.getCells().get(0).getCellValue().isEmpty());
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.datavyu.Datavyu;
+import org.datavyu.controllers.project.ProjectController;
+import org.datavyu.models.project.Project;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for the columnar storage engine
+ */
+public class ColumnarVariableTest {
+
+    /**
+     * The columnar datastore we are testing.
+     */
+    private DataStore ds;
+
+    /**
+     * The matrix variable we are testing.
+     */
+    private Variable var;
+
+    @BeforeMethod
+    public void setUp() throws UserWarningException {
+        ds = DataStoreFactory.newDataStore(DataStoreFactory.Storage.COLUMNAR);
+        Datavyu.setProjectController(new ProjectController(new Project(), ds));
+        var = ds.createVariable("test", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.NOMINAL);
+        ds.markAsUnchanged();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        var = null;
+        ds = null;
+    }
+
+    @Test
+    public void testMatrixValues() {
+        Cell cell = var.createCell();
+        assertEquals(cell.getValueAsString(), "(,)");
+
+        cell.setMatrixValue(0, "l");
+        cell.setMatrixValue(1, "r");
+        assertTrue(ds.isChanged());
+        assertEquals(cell.getValueAsString(), "(l,r)");
+        assertEquals(cell.getMatrixValue(1).toString(), "r");
+
+        cell.getCellValue().set("(b,l)");
+        assertEquals(cell.getValueAsString(), "(b,l)");
+
+        cell.clearMatrixValue(0);
+        assertTrue(cell.getMatrixValue(0).isEmpty());
+        assertEquals(cell.getMatrixValue(0).getPlaceholderString(), "<code01>");
+    }
+
+    @Test
+    public void testSchemaChanges() {
+        Cell cell = var.createCell();
+        cell.setMatrixValue(0, "a");
+        cell.setMatrixValue(1, "b");
+
+        var.moveArgument(1, 0);
+        assertEquals(cell.getValueAsString(), "(b,a)");
+
+        var.addArgument(Argument.Type.TEXT);
+        assertEquals(cell.getValueAsString(), "(b,a,)");
+        assertTrue(cell.getMatrixValue(2) instanceof TextCellValue);
+
+        var.removeArgument("code02");
+        assertEquals(cell.getValueAsString(), "(a,)");
+    }
+
+    @Test
+    public void testViewsAreEqual() {
+        Cell cell = var.createCell();
+        Cell view = var.getCells().get(0);
+
+        assertEquals(view, cell);
+        assertEquals(view.hashCode(), cell.hashCode());
+        assertTrue(var.contains(view));
+        assertEquals(ds.getVariable(view), var);
+    }
+
+    @Test
+    public void testRemoveAndRestoreCell() {
+        VariableListener listener = mock(VariableListener.class);
+        var.addListener(listener);
+
+        Cell cell = var.createCell();
+        cell.setOnset(100);
+        cell.setMatrixValue(0, "x");
+
+        var.removeCell(cell);
+        assertFalse(var.contains(cell));
+        assertEquals(var.getCells().size(), 0);
+
+        var.addCell(cell);
+        assertTrue(var.contains(cell));
+        assertEquals(var.getCellTemporally(0).getOnset(), 100);
+        assertEquals(var.getCellTemporally(0).getValueAsString(), "(x,)");
+
+        verify(listener, times(2)).cellInserted(cell);
+        verify(listener).cellRemoved(cell);
+    }
+
+    @Test
+    public void testCellListener() {
+        Cell cell = var.createCell();
+        CellListener listener = mock(CellListener.class);
+        var.getCells().get(0).addListener(listener);
+
+        cell.setOffset(50);
+        verify(listener).offsetChanged(50);
+
+        cell.removeListener(listener);
+        cell.setOffset(60);
+        verify(listener, times(0)).offsetChanged(60);
+    }
+
+    @Test
+    public void testTemporalQueries() {
+        for (int i = 9; i >= 0; i--) {
+            Cell cell = var.createCell();
+            cell.setOnset(i * 100);
+            cell.setOffset(i * 100 + 150);
+        }
+
+        List<Cell> cells = var.getCellsTemporally();
+        for (int i = 0; i < cells.size(); i++) {
+            assertEquals(cells.get(i).getOnset(), i * 100);
+            assertEquals(var.getTemporalIndex(cells.get(i)), i);
+        }
+
+        assertEquals(var.getCellsAt(420).size(), 2);
+        assertEquals(var.getCellsAt(420).get(0).getOnset(), 300);
+        assertEquals(var.getCellsOverlapping(960, 2000).size(), 1);
+    }
+
+    @Test
+    public void testOverlappingMatchesScan() {
+        Random random = new Random(3);
+        for (int round = 0; round < 5; round++) {
+            // Long cells early on used to make the query scan everything before them
+            for (int i = 0; i < 200; i++) {
+                Cell cell = var.createCell();
+                long onset = random.nextInt(100000);
+                cell.setOnset(onset);
+                cell.setOffset(onset + (random.nextInt(20) == 0 ? random.nextInt(50000) : random.nextInt(500)));
+            }
+            if (round > 0) {
+                var.removeCell(var.getCellTemporally(random.nextInt(100)));
+            }
+
+            List<Cell> cells = var.getCellsTemporally();
+            for (int query = 0; query < 100; query++) {
+                long start = random.nextInt(110000) - 5000;
+                long end = start + random.nextInt(3) * random.nextInt(2000);
+                List<Cell> expected = new ArrayList<>();
+                for (Cell cell : cells) {
+                    if (cell.getOnset() <= end && cell.getOffset() >= start) {
+                        expected.add(cell);
+                    }
+                }
+                assertEquals(var.getCellsOverlapping(start, end), expected, "Cells overlapping " + start + "-" + end);
+
+                expected.clear();
+                for (Cell cell : cells) {
+                    if (cell.getOnset() >= start && cell.getOnset() <= end) {
+                        expected.add(cell);
+                    }
+                }
+                assertEquals(var.getCellsStarting(start, end), expected, "Cells starting " + start + "-" + end);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@
  */
 package org.datavyu.models.db;
 
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.*;
 
 import java.util.ArrayList;
@@ -144,4 +145,72 @@ public class DataStoreTest {
         model.markAsUnchanged();
         assertFalse(model.isChanged());
     }
+
+    @Test
+    public void batchCoalescesCellEvents() throws UserWarningException {
+        Variable var = model.createVariable("test", Argument.Type.TEXT);
+        Cell existing = var.createCell();
+        VariableListener listener = mock(VariableListener.class);
+        CellListener cellListener = mock(CellListener.class);
+        var.addListener(listener);
+        existing.addListener(cellListener);
+
+        model.beginBatch();
+        Cell c1 = var.createCell();
+        Cell c2 = var.createCell();
+        Cell c3 = var.createCell();
+        c1.setOnset(1000);
+        var.removeCell(c3);
+        existing.setOffset(500);
+        model.beginBatch();
+        existing.getCellValue().set("changed");
+        model.commitBatch();
+
+        verify(listener, times(0)).cellsChanged(any(VariableChange.class));
+        model.commitBatch();
+
+        verify(listener, times(0)).cellInserted(any(Cell.class));
+        verify(listener, times(0)).cellRemoved(any(Cell.class));
+        verify(cellListener, times(0)).offsetChanged(anyLong());
+
+        ArgumentCaptor<VariableChange> captor = ArgumentCaptor.forClass(VariableChange.class);
+        verify(listener, times(1)).cellsChanged(captor.capture());
+        VariableChange change = captor.getValue();
+        assertEquals(change.getVariable(), var);
+        List<Cell> inserted = new ArrayList<Cell>();
+        inserted.add(c1);
+        inserted.add(c2);
+        assertEquals(change.getInserted(), inserted);
+        assertEquals(change.getRemoved().size(), 0);
+        assertEquals(change.getChanged().size(), 1);
+        assertEquals(change.getChanged().get(0), existing);
+
+        // Outside of a batch the listeners are notified directly again
+        existing.setOffset(700);
+        verify(cellListener, times(1)).offsetChanged(700);
+    }
+
+    @Test
+    public void drainChangesReturnsTrackedChanges() throws UserWarningException {
+        Variable var = model.createVariable("test", Argument.Type.TEXT);
+        Cell existing = var.createCell();
+        Cell removed = var.createCell();
+        assertTrue(model.drainChanges().isEmpty());
+
+        model.setChangeTracking(true);
+        Cell created = var.createCell();
+        existing.getCellValue().set("changed");
+        var.removeCell(removed);
+
+        List<VariableChange> changes = model.drainChanges();
+        assertEquals(changes.size(), 1);
+        assertEquals(changes.get(0).getInserted().get(0), created);
+        assertEquals(changes.get(0).getChanged().get(0), existing);
+        assertEquals(changes.get(0).getRemoved().get(0), removed);
+        assertTrue(model.drainChanges().isEmpty());
+
+        model.setChangeTracking(false);
+        existing.setOnset(100);
+        assertTrue(model.drainChanges().isEmpty());
+    }
 }
@@ -156,5 +156,65 @@ public class MatrixCellValueTest {
         assertTrue(cell.getMatrixValue(0).isEmpty());
     }
 
+    @Test
+    public void testSharedCodes() {
+        Cell cell2 = var.createCell();
+        Cell cell3 = var.createCell();
+        cell.setMatrixValue(0, "foo");
+        cell2.setMatrixValue(0, "foo");
+        cell3.setMatrixValue(0, "bar");
+
+        int code = ((NominalCellValue) cell.getMatrixValue(0)).getCode();
+        assertEquals(((NominalCellValue) cell2.getMatrixValue(0)).getCode(), code);
+        assertFalse(((NominalCellValue) cell3.getMatrixValue(0)).getCode() == code);
+        assertEquals(var.getRootNode().childArguments.get(0).getValueDictionary().decode(code), "foo");
 
+        cell3.getMatrixValue(0).clear();
+        assertEquals(((NominalCellValue) cell3.getMatrixValue(0)).getCode(), ValueDictionary.EMPTY);
+        assertEquals(cell3.getMatrixValue(0).serialize(), "");
+    }
+
+    @Test
+    public void testSetSameCode() {
+        Cell cell2 = var.createCell();
+        Cell cell3 = var.createCell();
+        cell.setMatrixValue(0, "foo");
+        cell2.setMatrixValue(0, "foo");
+        ds.markAsUnchanged();
+
+        // Equal codes are not a change
+        cell2.setMatrixValue(0, "foo");
+        cell3.setMatrixValue(0, "");
+        assertFalse(ds.isChanged());
+
+        cell2.setMatrixValue(0, "bar");
+        assertTrue(ds.isChanged());
+        assertFalse(((NominalCellValue) cell2.getMatrixValue(0)).getCode()
+                == ((NominalCellValue) cell.getMatrixValue(0)).getCode());
+    }
+
+    @Test
+    public void testTypedValuesEnterDictionaryWhenCommitted() {
+        ValueDictionary dictionary = var.getRootNode().childArguments.get(0).getValueDictionary();
+        int size = dictionary.size();
+        // Typing sets each prefix of the value
+        for (String typed : new String[] {"l", "le", "lef", "left"}) {
+            cell.setMatrixValue(0, typed);
+            assertEquals(cell.getMatrixValue(0).toString(), typed);
+        }
+        assertEquals(dictionary.size(), size);
+
+        // A snapshot, as taken when saving, commits the value
+        ColumnSnapshot snapshot = ColumnSnapshot.of(var);
+        assertEquals(dictionary.size(), size + 1);
+        assertEquals(snapshot.getValue(0, 0), "left");
+        assertEquals(dictionary.decode(((NominalCellValue) cell.getMatrixValue(0)).getCode()), "left");
+
+        // Values in the dictionary are used straight away
+        Cell cell2 = var.createCell();
+        cell2.setMatrixValue(0, "left");
+        assertEquals(((NominalCellValue) cell2.getMatrixValue(0)).getCode(),
+                ((NominalCellValue) cell.getMatrixValue(0)).getCode());
+        assertEquals(dictionary.size(), size + 1);
+    }
 }
@@ -0,0 +1,116 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for comparing the cells of two coders.
+ */
+public class ReliabilityCheckTest {
+
+    /** Values of the primary and reliability coder giving the table ((4,1),(2,3)), with a kappa of 0.4 */
+    private static final String PRIMARY = "yyyyynnnnn";
+    private static final String RELIABILITY = "yyyynyynnn";
+
+    private static Variable newVariable(final DataStore ds,
+                                        final String name,
+                                        final String values,
+                                        final long shift) throws UserWarningException {
+        Variable variable = ds.createVariable(name, Argument.Type.MATRIX);
+        variable.addArgument(Argument.Type.NOMINAL);
+        Argument root = variable.getRootNode();
+        root.childArguments.get(0).name = "trial";
+        root.childArguments.get(1).name = "look_dir";
+        variable.setRootNode(root);
+        for (int i = 0; i < values.length(); i++) {
+            Cell cell = variable.createCell();
+            cell.setOnset(i * 1000 + shift);
+            cell.setOffset(i * 1000 + 500);
+            cell.setMatrixValue(0, Integer.toString(i + 1));
+            cell.setMatrixValue(1, values.substring(i, i + 1));
+        }
+        return variable;
+    }
+
+    @Test
+    public void testKappa() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        ColumnSnapshot primary = ColumnSnapshot.of(newVariable(ds, "trial", PRIMARY, 0));
+        ColumnSnapshot reliability = ColumnSnapshot.of(newVariable(ds, "trial_rel", RELIABILITY, 20));
+
+        ReliabilityCheck check = new ReliabilityCheck();
+        check.setTolerance(50);
+        ReliabilityCheck.Result result = check.check(primary, reliability, "Look_Dir");
+        assertEquals(result.getPairs(), 10);
+        assertEquals(result.getUnmatched(), 0);
+        assertEquals(result.getOnsetErrors(), 0);
+
+        ReliabilityCheck.CodeTable table = result.getTable("Look_Dir");
+        assertEquals(table.getValues(), new String[] {"y", "n"});
+        assertEquals(table.getCount(0, 0), 4);
+        assertEquals(table.getCount(0, 1), 1);
+        assertEquals(table.getCount(1, 0), 2);
+        assertEquals(table.getCount(1, 1), 3);
+        assertEquals(table.getAgreement(), 70.0, 1e-9);
+        assertEquals(table.getKappa(), 0.4, 1e-9);
+        assertNull(result.getTable("trial"));
+
+        // Without tolerance no cells match by onset
+        assertEquals(new ReliabilityCheck().check(primary, reliability).getPairs(), 0);
+    }
+
+    @Test
+    public void testMatchByCode() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        ColumnSnapshot primary = ColumnSnapshot.of(newVariable(ds, "trial", PRIMARY, 0));
+        Variable variable = newVariable(ds, "trial_rel", RELIABILITY, 300);
+        variable.getCellsTemporally().get(0).clearMatrixValue(0);
+        ColumnSnapshot reliability = ColumnSnapshot.of(variable);
+
+        ReliabilityCheck check = new ReliabilityCheck();
+        check.setMatchCode("trial");
+        ReliabilityCheck.Result result = check.check(primary, reliability);
+        assertEquals(result.getPairs(), 9);
+        assertEquals(result.getUnmatched(), 1);
+        assertEquals(result.getOnsetErrors(), 9);
+        assertEquals(result.getOffsetErrors(), 0);
+        assertEquals(result.getTables().size(), 2);
+        assertEquals(result.getTable("trial").getAgreement(), 100.0, 1e-9);
+        assertEquals(result.getTable("look_dir").getAgreements(), 6);
+    }
+
+    @Test
+    public void testBlocks() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        ColumnSnapshot primary = ColumnSnapshot.of(newVariable(ds, "trial", PRIMARY, 0));
+        ColumnSnapshot reliability = ColumnSnapshot.of(newVariable(ds, "trial_rel", RELIABILITY, 0));
+        Variable blocks = ds.createVariable("block", Argument.Type.TEXT);
+        Cell block = blocks.createCell();
+        block.setOnset(0);
+        block.setOffset(2600);
+
+        ReliabilityCheck check = new ReliabilityCheck();
+        check.setBlocks(ColumnSnapshot.of(blocks));
+        ReliabilityCheck.Result result = check.check(primary, reliability, "look_dir");
+        assertEquals(result.getPairs(), 3);
+        assertEquals(result.getTable("look_dir").getAgreement(), 100.0, 1e-9);
+        assertTrue(Double.isNaN(result.getTable("look_dir").getKappa()));
+    }
+}
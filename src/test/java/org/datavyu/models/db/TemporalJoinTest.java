@@ -0,0 +1,141 @@
+/**
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for temporal joins of columns.
+ */
+public class TemporalJoinTest {
+
+    private static Variable newVariable(final DataStore ds,
+                                        final String name,
+                                        final long[][] times,
+                                        final String... values) throws UserWarningException {
+        Variable variable = ds.createVariable(name, Argument.Type.TEXT);
+        for (int i = 0; i < times.length; i++) {
+            Cell cell = variable.createCell();
+            cell.setOnset(times[i][0]);
+            cell.setOffset(times[i][1]);
+            cell.getCellValue().set(values[i]);
+        }
+        return variable;
+    }
+
+    @Test
+    public void testRelations() {
+        long[] onsets = {0, 100, 200};
+        long[] offsets = {99, 199, 299};
+        long[] otherOnsets = {100, 150, 200};
+        long[] otherOffsets = {199, 160, 300};
+
+        List<String> pairs = new ArrayList<>();
+        TemporalJoin.PairHandler handler = (left, right) -> pairs.add(left + "-" + right);
+
+        new TemporalJoin(TemporalJoin.Relation.OVERLAPS).join(onsets, offsets, otherOnsets, otherOffsets, handler);
+        assertEquals(pairs.toString(), "[1-0, 1-1, 2-2]");
+        pairs.clear();
+        new TemporalJoin(TemporalJoin.Relation.CONTAINS).join(onsets, offsets, otherOnsets, otherOffsets, handler);
+        assertEquals(pairs.toString(), "[1-0, 1-1]");
+        pairs.clear();
+        new TemporalJoin(TemporalJoin.Relation.DURING).join(onsets, offsets, otherOnsets, otherOffsets, handler);
+        assertEquals(pairs.toString(), "[1-0, 2-2]");
+        pairs.clear();
+        new TemporalJoin(TemporalJoin.Relation.MEETS, 1).join(onsets, offsets, otherOnsets, otherOffsets, handler);
+        assertEquals(pairs.toString(), "[0-0, 1-2]");
+        pairs.clear();
+        new TemporalJoin(TemporalJoin.Relation.MATCHES, 1).join(onsets, offsets, otherOnsets, otherOffsets, handler);
+        assertEquals(pairs.toString(), "[1-0, 2-2]");
+    }
+
+    @Test
+    public void testAgainstNestedLoops() {
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            int size = random.nextInt(60);
+            int otherSize = random.nextInt(60);
+            long[] onsets = new long[size];
+            long[] offsets = new long[size];
+            long[] otherOnsets = new long[otherSize];
+            long[] otherOffsets = new long[otherSize];
+            for (int i = 0; i < size; i++) {
+                onsets[i] = random.nextInt(1000);
+                offsets[i] = onsets[i] + random.nextInt(100) - 10;
+            }
+            for (int i = 0; i < otherSize; i++) {
+                otherOnsets[i] = random.nextInt(1000);
+                otherOffsets[i] = otherOnsets[i] + random.nextInt(100) - 10;
+            }
+
+            for (TemporalJoin.Relation relation : TemporalJoin.Relation.values()) {
+                for (long tolerance : new long[] {0, 5}) {
+                    List<String> expected = new ArrayList<>();
+                    for (int i = 0; i < size; i++) {
+                        for (int j = 0; j < otherSize; j++) {
+                            if (relation.holds(onsets[i], Math.max(onsets[i], offsets[i]), otherOnsets[j],
+                                    Math.max(otherOnsets[j], otherOffsets[j]), tolerance)) {
+                                expected.add(i + "-" + j);
+                            }
+                        }
+                    }
+                    List<String> actual = new ArrayList<>();
+                    new TemporalJoin(relation, tolerance).join(onsets, offsets, otherOnsets, otherOffsets,
+                            (left, right) -> actual.add(left + "-" + right));
+                    actual.sort(null);
+                    expected.sort(null);
+                    assertEquals(actual, expected, relation + " with tolerance " + tolerance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDerive() throws UserWarningException {
+        DataStore ds = DataStoreFactory.newDataStore();
+        Variable trial = newVariable(ds, "trial", new long[][] {{0, 999}, {1000, 1999}}, "t1", "t2");
+        Variable look = newVariable(ds, "look", new long[][] {{100, 200}, {900, 1100}, {1500, 1600}},
+                "left", "right", "left");
+        Variable word = newVariable(ds, "word", new long[][] {{150, 1550}}, "ball");
+
+        TemporalJoin join = new TemporalJoin(TemporalJoin.Relation.OVERLAPS);
+        int[][] tuples = join.join(ColumnSnapshot.of(trial), ColumnSnapshot.of(look), ColumnSnapshot.of(word));
+        assertEquals(tuples[0], new int[] {0, 0, 1, 1});
+        assertEquals(tuples[1], new int[] {0, 1, 1, 2});
+        assertEquals(tuples[2], new int[] {0, 0, 0, 0});
+
+        Variable derived = join.derive(ds, "trial_look", ColumnSnapshot.of(trial), ColumnSnapshot.of(look));
+        List<Argument> codes = derived.getRootNode().childArguments;
+        assertEquals(codes.size(), 2);
+        assertEquals(codes.get(0).name, "trial_var");
+        assertEquals(codes.get(1).name, "look_var");
+
+        List<Cell> cells = derived.getCellsTemporally();
+        assertEquals(cells.size(), 4);
+        assertEquals(cells.get(0).getOnset(), 100);
+        assertEquals(cells.get(0).getOffset(), 200);
+        assertEquals(cells.get(1).getOnset(), 900);
+        assertEquals(cells.get(1).getOffset(), 999);
+        assertEquals(cells.get(2).getOnset(), 1000);
+        assertEquals(cells.get(2).getOffset(), 1100);
+        assertEquals(cells.get(2).getValueAsString(), "(t2,right)");
+    }
+}
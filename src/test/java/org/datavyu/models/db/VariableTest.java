@@ -19,6 +19,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.datavyu.Datavyu;
@@ -184,6 +185,54 @@ public class VariableTest {
         assertEquals(model.getCellTemporally(0), c2);
     }
 
+    @Test
+    public void testTemporalOrderAfterChange() {
+        Cell c1 = model.createCell();
+        Cell c2 = model.createCell();
+        Cell c3 = model.createCell();
+        c1.setOnset(300);
+        c2.setOnset(100);
+        c3.setOnset(200);
+
+        assertEquals(model.getCellTemporally(0), c2);
+        assertEquals(model.getCellTemporally(1), c3);
+        assertEquals(model.getCellTemporally(2), c1);
+        assertEquals(model.getTemporalIndex(c1), 2);
+
+        c1.setOnset(0);
+        assertEquals(model.getCellTemporally(0), c1);
+        assertEquals(model.getTemporalIndex(c3), 2);
+
+        model.removeCell(c2);
+        assertEquals(model.getTemporalIndex(c2), -1);
+        assertEquals(model.getCellTemporally(1), c3);
+    }
+
+    @Test
+    public void testCellsAtTime() {
+        Cell c1 = model.createCell();
+        Cell c2 = model.createCell();
+        Cell c3 = model.createCell();
+        c1.setOnset(0);
+        c1.setOffset(999);
+        c2.setOnset(500);
+        c2.setOffset(1500);
+        c3.setOnset(2000);
+        c3.setOffset(3000);
+
+        List<Cell> expected = new ArrayList<Cell>();
+        expected.add(c1);
+        expected.add(c2);
+        assertEquals(model.getCellsAt(700), expected);
+        assertEquals(model.getCellsAt(1800).size(), 0);
+        assertEquals(model.getCellsOverlapping(1000, 2000).size(), 2);
+        assertEquals(model.getCellsStarting(500, 2000), Arrays.asList(c2, c3));
+        assertEquals(model.getCellsStarting(501, 1999).size(), 0);
+
+        c3.setOnset(1200);
+        assertEquals(model.getCellsAt(1300).size(), 2);
+    }
+
     @Test(expectedExceptions = UserWarningException.class)
     public void uniqueVariableNames() throws UserWarningException {
         ds.createVariable("test", Argument.Type.TEXT);
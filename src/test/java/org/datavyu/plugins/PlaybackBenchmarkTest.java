@@ -0,0 +1,201 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datavyu.models.Identifier;
+import org.datavyu.util.ClockTimer;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Plays simulated streams through the clock and reports how well they keep in sync.
+ *
+ * The streams run fast or slow, start with a delay and report jittered frame times. While they play, the errors of
+ * their positions from the clock are sampled on every periodic sync, along with the interval between the syncs and
+ * the time to notify all streams. The number of streams and the time played are set by the system properties
+ * datavyu.benchmark.streams and datavyu.benchmark.millis, e.g. to measure playback changes on longer runs.
+ *
+ * The results depend on the load of the machine, so the benchmark is in the benchmark group, which only runs with the
+ * benchmark profile: mvn test -Pbenchmark. The sync itself is tested deterministically in SimulatedStreamViewerTest.
+ */
+public class PlaybackBenchmarkTest {
+
+    /** The logger for this class */
+    private static Logger logger = LogManager.getLogger(PlaybackBenchmarkTest.class);
+
+    /** Number of streams */
+    private static final int STREAMS = Integer.getInteger("datavyu.benchmark.streams", 6);
+
+    /** Milliseconds to play */
+    private static final long PLAY_TIME = Long.getLong("datavyu.benchmark.millis", 3000L);
+
+    /** Duration of the streams in milliseconds */
+    private static final long DURATION = 60 * 60 * 1000L;
+
+    /**
+     * Measures a periodic sync: notified first and last of all listeners.
+     */
+    private static final class Probe {
+        final List<SimulatedStreamViewer> streams;
+        final List<Double> errors = new ArrayList<>();
+        final List<Double> intervals = new ArrayList<>();
+        final List<Double> dispatches = new ArrayList<>();
+        long syncStart = 0;
+
+        Probe(final List<SimulatedStreamViewer> streams) {
+            this.streams = streams;
+        }
+
+        synchronized void first() {
+            long now = System.nanoTime();
+            if (syncStart != 0) {
+                intervals.add((now - syncStart) / 1e6);
+            }
+            syncStart = now;
+        }
+
+        synchronized void last(final double clockTime) {
+            for (SimulatedStreamViewer stream : streams) {
+                double trackTime = clockTime - stream.getOffset();
+                if (stream.isPlaying() && trackTime >= 0) {
+                    errors.add(Math.abs(stream.getPosition() - trackTime));
+                }
+            }
+            dispatches.add((System.nanoTime() - syncStart) / 1e6);
+        }
+    }
+
+    /**
+     * Notifies the probe of periodic syncs.
+     */
+    private abstract static class ProbeListener implements ClockTimer.ClockListener {
+        @Override
+        public void clockSeekPlayback(double clockTime) { }
+
+        @Override
+        public void clockBoundaryCheck(double clockTime) { }
+
+        @Override
+        public void streamsBoundaryCheck(double clockTime) { }
+
+        @Override
+        public void clockForceSync(double clockTime) { }
+
+        @Override
+        public void clockStart(double clockTime) { }
+
+        @Override
+        public void clockStop(double clockTime) { }
+
+        @Override
+        public void clockPause(double clockTime) { }
+
+        @Override
+        public void clockRate(float rate) { }
+    }
+
+    private static double percentile(final List<Double> values, final double fraction) {
+        if (values.isEmpty()) {
+            return Double.NaN;
+        }
+        double[] sorted = new double[values.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    @Test(groups = "benchmark")
+    public void testPlayback() throws InterruptedException {
+        SimulatedPlugin plugin = new SimulatedPlugin(DURATION, 30F, 42L);
+        plugin.setDecodeLatency(30);
+        plugin.setSeekCost(80);
+        plugin.setJitter(10);
+
+        List<SimulatedStreamViewer> streams = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            SimulatedStreamViewer stream = plugin.getNewStreamViewer(Identifier.generateIdentifier(), null, null,
+                    false);
+            stream.setOffset(i * 250L);
+            // From 1% up to 3% fast or slow, and in time
+            stream.setSkew(((i % 3) - 1) * 0.01 * (1 + i / 3));
+            streams.add(stream);
+        }
+
+        ClockTimer clockTimer = new ClockTimer();
+        clockTimer.setMaxTime(DURATION);
+        final Probe probe = new Probe(streams);
+        clockTimer.registerListener(new ProbeListener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                probe.first();
+            }
+        });
+        for (SimulatedStreamViewer stream : streams) {
+            clockTimer.registerListener(stream);
+        }
+        clockTimer.registerListener(new ProbeListener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                probe.last(clockTime);
+            }
+        });
+
+        try {
+            clockTimer.setRate(1F);
+            Thread.sleep(PLAY_TIME / 2);
+            clockTimer.setRate(2F);
+            Thread.sleep(PLAY_TIME - PLAY_TIME / 2);
+            clockTimer.setRate(0F);
+        } finally {
+            clockTimer.shutdown();
+        }
+
+        synchronized (probe) {
+            int seeks = 0;
+            int rateChanges = 0;
+            for (SimulatedStreamViewer stream : streams) {
+                StreamSynchronizer.Statistics statistics = stream.getSyncStatistics();
+                logger.info("Stream at offset " + stream.getOffset() + ": " + statistics);
+                // Seeks to sync, rather than those the clock forced
+                seeks += statistics.getSeeks();
+                rateChanges += statistics.getRateChanges();
+            }
+            logger.info(String.format("Played %d streams for %d ms: sync error p50 %.1f ms, p95 %.1f ms, "
+                            + "p99 %.1f ms, max %.1f ms; %d seeks, %d rate changes; sync interval p50 %.1f ms, "
+                            + "p99 %.1f ms; notifying all streams p50 %.3f ms, p99 %.3f ms",
+                    STREAMS, PLAY_TIME, percentile(probe.errors, 0.5), percentile(probe.errors, 0.95),
+                    percentile(probe.errors, 0.99), percentile(probe.errors, 1), seeks, rateChanges,
+                    percentile(probe.intervals, 0.5), percentile(probe.intervals, 0.99),
+                    percentile(probe.dispatches, 0.5), percentile(probe.dispatches, 0.99)));
+
+            assertTrue(probe.dispatches.size() >= PLAY_TIME / ClockTimer.SYNC_INTERVAL / 2,
+                    "Only " + probe.dispatches.size() + " syncs");
+            assertEquals(seeks, 0);
+            // Tracks start on the first boundary check they are in, up to a sync interval late
+            assertTrue(percentile(probe.errors, 0.95) < 250, "Sync error p95 " + percentile(probe.errors, 0.95));
+            assertTrue(percentile(probe.errors, 1) < StreamSynchronizer.SEEK_THRESHOLD);
+        }
+    }
+}
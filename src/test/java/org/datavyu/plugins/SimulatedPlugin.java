@@ -0,0 +1,119 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.Datavyu;
+import org.datavyu.models.Identifier;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A plugin of simulated, headless streams (see {@link SimulatedStreamViewer}). All streams of the plugin share its
+ * settings; each draws its jitter from the next seed.
+ */
+public class SimulatedPlugin implements Plugin {
+
+    private static final UUID pluginUUID = UUID.nameUUIDFromBytes("plugin.simulated".getBytes());
+
+    private final long duration;
+    private final float framesPerSecond;
+    private double decodeLatency = 0;
+    private double seekCost = 0;
+    private double jitter = 0;
+    private long seed;
+
+    /**
+     * @param duration The duration of the streams in milliseconds.
+     * @param framesPerSecond The number of frames per second of the streams.
+     * @param seed The seed of the jitter of the first stream.
+     */
+    public SimulatedPlugin(final long duration, final float framesPerSecond, final long seed) {
+        this.duration = duration;
+        this.framesPerSecond = framesPerSecond;
+        this.seed = seed;
+    }
+
+    /**
+     * @param decodeLatency Milliseconds until a stream advances after it starts.
+     */
+    public void setDecodeLatency(final double decodeLatency) {
+        this.decodeLatency = decodeLatency;
+    }
+
+    /**
+     * @param seekCost Milliseconds until a stream advances after a seek.
+     */
+    public void setSeekCost(final double seekCost) {
+        this.seekCost = seekCost;
+    }
+
+    /**
+     * @param jitter Largest error in milliseconds of the reported times, either way.
+     */
+    public void setJitter(final double jitter) {
+        this.jitter = jitter;
+    }
+
+    @Override
+    public SimulatedStreamViewer getNewStreamViewer(final Identifier identifier, final File sourceFile,
+                                                    final Frame parent, final boolean modal) {
+        SimulatedStreamViewer streamViewer = new SimulatedStreamViewer(identifier, duration, framesPerSecond, seed++,
+                () -> System.nanoTime() / 1e6);
+        streamViewer.setDecodeLatency(decodeLatency);
+        streamViewer.setSeekCost(seekCost);
+        streamViewer.setJitter(jitter);
+        return streamViewer;
+    }
+
+    @Override
+    public Class<? extends StreamViewer> getViewerClass() {
+        return SimulatedStreamViewer.class;
+    }
+
+    @Override
+    public ImageIcon getTypeIcon() {
+        return null;
+    }
+
+    @Override
+    public String getPluginName() {
+        return "Simulated Plugin";
+    }
+
+    @Override
+    public UUID getPluginUUID() {
+        return pluginUUID;
+    }
+
+    @Override
+    public String getNamespace() {
+        return "datavyu.video";
+    }
+
+    @Override
+    public Filter[] getFilters() {
+        return new Filter[0];
+    }
+
+    @Override
+    public List<Datavyu.Platform> getValidPlatforms() {
+        return Arrays.asList(Datavyu.Platform.values());
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.models.Identifier;
+import org.datavyu.util.ClockTimer;
+import org.datavyu.views.component.DefaultTrackPainter;
+import org.datavyu.views.component.TrackPainter;
+
+import javax.swing.JDialog;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A headless stream that simulates the playback of a video, for testing and measuring playback without a native
+ * player.
+ *
+ * The stream plays at its rate, off by a skew, and reports times rounded down to its frames, off by a random jitter.
+ * It shows nothing for the decode latency after it starts, nor for the seek cost after a seek. The jitter is drawn
+ * from a seeded generator and time is read from a given source, so that a simulation can be repeated exactly.
+ *
+ * As a clock listener it follows the clock like {@link StreamViewerDialog} does, at a fixed offset on the clock.
+ */
+public class SimulatedStreamViewer implements StreamViewer, ClockTimer.ClockListener {
+
+    private final Identifier identifier;
+    private final long duration;
+    private final float framesPerSecond;
+    private final DoubleSupplier clock;
+    private final Random random;
+
+    private long offset = 0;
+    private double decodeLatency = 0;
+    private double seekCost = 0;
+    private double jitter = 0;
+    private double skew = 0;
+
+    /** The position in milliseconds at the anchor time on the clock */
+    private double position = 0;
+    private double anchor;
+    /** The time on the clock until which the stream does not advance */
+    private double resumeAt = 0;
+    private boolean playing = false;
+    private float rate = 0;
+
+    /** The state of the clock, as notified */
+    private float clockRate = 0;
+    private boolean clockRunning = false;
+
+    private final StreamSynchronizer synchronizer = new StreamSynchronizer();
+    private int seeks = 0;
+    private int rateChanges = 0;
+    private int adjustments = 0;
+
+    /**
+     * Simulates a stream in real time.
+     *
+     * @param duration The duration in milliseconds.
+     * @param framesPerSecond The number of frames per second.
+     * @param seed The seed of the jitter.
+     */
+    public SimulatedStreamViewer(final long duration, final float framesPerSecond, final long seed) {
+        this(Identifier.generateIdentifier(), duration, framesPerSecond, seed, () -> System.nanoTime() / 1e6);
+    }
+
+    /**
+     * @param identifier The identifier of the stream.
+     * @param duration The duration in milliseconds.
+     * @param framesPerSecond The number of frames per second.
+     * @param seed The seed of the jitter.
+     * @param clock The source of time in milliseconds.
+     */
+    public SimulatedStreamViewer(final Identifier identifier, final long duration, final float framesPerSecond,
+                                 final long seed, final DoubleSupplier clock) {
+        this.identifier = identifier;
+        this.duration = duration;
+        this.framesPerSecond = framesPerSecond;
+        this.clock = clock;
+        this.random = new Random(seed);
+        this.anchor = clock.getAsDouble();
+    }
+
+    /**
+     * @param decodeLatency Milliseconds until the stream advances after it starts.
+     */
+    public synchronized void setDecodeLatency(final double decodeLatency) {
+        this.decodeLatency = decodeLatency;
+    }
+
+    /**
+     * @param seekCost Milliseconds until the stream advances after a seek.
+     */
+    public synchronized void setSeekCost(final double seekCost) {
+        this.seekCost = seekCost;
+    }
+
+    /**
+     * @param jitter Largest error in milliseconds of the reported time, either way.
+     */
+    public synchronized void setJitter(final double jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param skew How much faster the stream plays than its rate, as a fraction of it; negative if slower.
+     */
+    public synchronized void setSkew(final double skew) {
+        this.skew = skew;
+    }
+
+    /**
+     * @return The exact position of the stream in milliseconds, unlike the reported {@link #getCurrentTime()}.
+     */
+    public synchronized double getPosition() {
+        double now = clock.getAsDouble();
+        if (!playing || now <= resumeAt) {
+            return position;
+        }
+        double time = position + rate * (1 + skew) * (now - Math.max(anchor, resumeAt));
+        return Math.min(Math.max(time, 0), duration);
+    }
+
+    /**
+     * @return The number of seeks.
+     */
+    public synchronized int getSeeks() {
+        return seeks;
+    }
+
+    /**
+     * @return The number of changes of the rate, not counting adjustments.
+     */
+    public synchronized int getRateChanges() {
+        return rateChanges;
+    }
+
+    /**
+     * @return The number of adjustments of the rate to keep in sync.
+     */
+    public synchronized int getAdjustments() {
+        return adjustments;
+    }
+
+    /**
+     * @return The statistics of the drift from the clock.
+     */
+    public synchronized StreamSynchronizer.Statistics getSyncStatistics() {
+        return synchronizer.getStatistics();
+    }
+
+    /**
+     * Moves the anchor to now, before a change of state.
+     */
+    private void rebase() {
+        position = getPosition();
+        anchor = clock.getAsDouble();
+    }
+
+    @Override
+    public Identifier getIdentifier() {
+        return identifier;
+    }
+
+    @Override
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public synchronized void setOffset(final long offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public JDialog getParentJDialog() {
+        return null;
+    }
+
+    @Override
+    public void setViewerVisible(final boolean isVisible) { }
+
+    @Override
+    public File getSourceFile() {
+        return null;
+    }
+
+    @Override
+    public float getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    @Override
+    public void setFramesPerSecond(final float framesPerSecond) { }
+
+    @Override
+    public synchronized long getCurrentTime() {
+        double frame = 1000.0 / framesPerSecond;
+        double time = Math.floor(getPosition() / frame) * frame;
+        if (jitter > 0) {
+            time += (2 * random.nextDouble() - 1) * jitter;
+        }
+        return (long) Math.min(Math.max(time, 0), duration);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!playing) {
+            rebase();
+            playing = true;
+            resumeAt = Math.max(resumeAt, anchor + decodeLatency);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        pause();
+    }
+
+    @Override
+    public synchronized void pause() {
+        if (playing) {
+            rebase();
+            playing = false;
+        }
+    }
+
+    @Override
+    public void stepForward() { }
+
+    @Override
+    public void stepBackward() { }
+
+    @Override
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public synchronized void setRate(final float speed) {
+        rebase();
+        rate = speed;
+        rateChanges++;
+        if (speed == 0) {
+            stop();
+        }
+    }
+
+    @Override
+    public synchronized void adjustRate(final float speed) {
+        rebase();
+        rate = speed;
+        adjustments++;
+    }
+
+    @Override
+    public synchronized float getRate() {
+        return rate;
+    }
+
+    @Override
+    public synchronized void setCurrentTime(final long time) {
+        rebase();
+        position = Math.min(Math.max(time, 0), duration);
+        resumeAt = anchor + seekCost;
+        seeks++;
+    }
+
+    @Override
+    public TrackPainter getTrackPainter() {
+        return new DefaultTrackPainter();
+    }
+
+    @Override
+    public void loadSettings(final InputStream is) { }
+
+    @Override
+    public void storeSettings(final OutputStream os) { }
+
+    @Override
+    public void addViewerStateListener(final ViewerStateListener vsl) { }
+
+    @Override
+    public void removeViewerStateListener(final ViewerStateListener vsl) { }
+
+    @Override
+    public CustomActions getCustomActions() {
+        return new CustomActionsAdapter();
+    }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public boolean isAssumedFramesPerSecond() {
+        return false;
+    }
+
+    @Override
+    public boolean isStepEnabled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isSeekPlaybackEnabled() {
+        return rate < 0F;
+    }
+
+    /**
+     * @return The time of the track on the clock, within the stream.
+     */
+    private double trackTime(final double clockTime) {
+        return Math.min(Math.max(clockTime - offset, 0), duration);
+    }
+
+    private boolean inRange(final double clockTime) {
+        return clockTime >= offset && clockTime < offset + duration;
+    }
+
+    @Override
+    public synchronized void clockSeekPlayback(final double clockTime) { }
+
+    @Override
+    public synchronized void clockBoundaryCheck(final double clockTime) { }
+
+    @Override
+    public synchronized void streamsBoundaryCheck(final double clockTime) {
+        if (clockRunning && !isSeekPlaybackEnabled()) {
+            if (inRange(clockTime) && !playing) {
+                start();
+            }
+            if (!inRange(clockTime) && playing) {
+                pause();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clockForceSync(final double clockTime) {
+        double trackTime = trackTime(clockTime);
+        if (trackTime != getCurrentTime()) {
+            setCurrentTime((long) trackTime);
+            synchronizer.resetDrift();
+        }
+    }
+
+    @Override
+    public synchronized void clockPeriodicSync(final double clockTime) {
+        if (!isSeekPlaybackEnabled()) {
+            synchronizer.sync(this, trackTime(clockTime), playing ? clockRate : 0F);
+        }
+    }
+
+    @Override
+    public synchronized void clockStart(final double clockTime) {
+        clockRunning = true;
+        if (inRange(clockTime)) {
+            start();
+        }
+    }
+
+    @Override
+    public synchronized void clockStop(final double clockTime) {
+        clockRunning = false;
+        stop();
+    }
+
+    @Override
+    public synchronized void clockPause(final double clockTime) {
+        clockRunning = false;
+        pause();
+    }
+
+    @Override
+    public synchronized void clockRate(final float rate) {
+        clockRate = rate;
+        setRate(rate);
+        synchronizer.reset();
+    }
+}
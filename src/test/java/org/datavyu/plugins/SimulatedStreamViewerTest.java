@@ -0,0 +1,200 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.models.Identifier;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SimulatedStreamViewerTest {
+
+    /** The simulated time in milliseconds */
+    private double now = 0;
+
+    private SimulatedStreamViewer newStreamViewer(final long seed) {
+        now = 0;
+        return new SimulatedStreamViewer(Identifier.generateIdentifier(), 60000, 25F, seed, () -> now);
+    }
+
+    @Test
+    public void testDecodeLatency() {
+        SimulatedStreamViewer streamViewer = newStreamViewer(1);
+        streamViewer.setDecodeLatency(100);
+        streamViewer.setRate(1F);
+        streamViewer.start();
+        now = 50;
+        assertEquals(streamViewer.getPosition(), 0.0);
+        now = 1110;
+        assertEquals(streamViewer.getPosition(), 1010.0);
+        // Times are reported by frame
+        assertEquals(streamViewer.getCurrentTime(), 1000);
+
+        streamViewer.pause();
+        now = 2000;
+        assertEquals(streamViewer.getPosition(), 1010.0);
+    }
+
+    @Test
+    public void testSeekCost() {
+        SimulatedStreamViewer streamViewer = newStreamViewer(1);
+        streamViewer.setSeekCost(200);
+        streamViewer.setRate(1F);
+        streamViewer.start();
+        now = 2000;
+        streamViewer.setCurrentTime(5000);
+        now = 2100;
+        assertEquals(streamViewer.getPosition(), 5000.0);
+        now = 2300;
+        assertEquals(streamViewer.getPosition(), 5100.0);
+        assertEquals(streamViewer.getSeeks(), 1);
+
+        // Seeks stay within the stream
+        streamViewer.setCurrentTime(-10);
+        assertEquals(streamViewer.getPosition(), 0.0);
+    }
+
+    @Test
+    public void testSkew() {
+        SimulatedStreamViewer streamViewer = newStreamViewer(1);
+        streamViewer.setSkew(0.01);
+        streamViewer.setRate(2F);
+        streamViewer.start();
+        now = 1000;
+        assertEquals(streamViewer.getPosition(), 2020.0, 1e-9);
+        now = 100000;
+        assertEquals(streamViewer.getPosition(), 60000.0);
+    }
+
+    @Test
+    public void testJitterIsRepeatable() {
+        SimulatedStreamViewer first = newStreamViewer(7);
+        SimulatedStreamViewer second = new SimulatedStreamViewer(Identifier.generateIdentifier(), 60000, 25F, 7,
+                () -> now);
+        first.setJitter(10);
+        second.setJitter(10);
+        first.setRate(1F);
+        second.setRate(1F);
+        first.start();
+        second.start();
+        boolean jittered = false;
+        for (int i = 1; i <= 100; i++) {
+            // Frames are 40 ms
+            now = 200 * i;
+            long time = first.getCurrentTime();
+            assertEquals(second.getCurrentTime(), time);
+            assertTrue(Math.abs(time - now) <= 10, "Time " + time + " at " + now);
+            jittered |= time != now;
+        }
+        assertTrue(jittered);
+    }
+
+    @Test
+    public void testFollowsClock() {
+        SimulatedStreamViewer streamViewer = newStreamViewer(1);
+        streamViewer.setOffset(500);
+        streamViewer.clockRate(1F);
+        streamViewer.clockStart(0);
+        assertFalse(streamViewer.isPlaying());
+
+        // The track starts once the clock reaches it
+        now = 600;
+        streamViewer.streamsBoundaryCheck(600);
+        assertTrue(streamViewer.isPlaying());
+        now = 1600;
+        assertEquals(streamViewer.getPosition(), 1000.0);
+
+        // In sync, the stream neither seeks nor changes its rate
+        streamViewer.clockPeriodicSync(1500);
+        assertEquals(streamViewer.getRate(), 1F);
+        assertEquals(streamViewer.getSeeks(), 0);
+
+        streamViewer.clockForceSync(10500);
+        assertEquals(streamViewer.getPosition(), 10000.0);
+        assertEquals(streamViewer.getSeeks(), 1);
+
+        streamViewer.clockPause(10500);
+        assertFalse(streamViewer.isPlaying());
+    }
+
+    @Test
+    public void testDriftIsCorrectedByAdjustingTheRate() {
+        SimulatedStreamViewer streamViewer = newStreamViewer(1);
+        streamViewer.setSkew(0.02);
+        streamViewer.clockRate(1F);
+        streamViewer.clockStart(0);
+        for (int i = 1; i <= 200; i++) {
+            now = 100 * i;
+            streamViewer.clockPeriodicSync(now);
+        }
+        assertEquals(streamViewer.getSeeks(), 0);
+        assertEquals(streamViewer.getRateChanges(), 1);
+        assertTrue(streamViewer.getAdjustments() > 0);
+        assertTrue(streamViewer.getRate() < 1F);
+    }
+
+    @Test
+    public void testStreamsKeepInSync() {
+        now = 0;
+        List<SimulatedStreamViewer> streams = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            SimulatedStreamViewer stream = new SimulatedStreamViewer(Identifier.generateIdentifier(), 600000, 30F,
+                    42L + i, () -> now);
+            stream.setDecodeLatency(30);
+            stream.setSeekCost(80);
+            stream.setJitter(10);
+            stream.setOffset(i * 250L);
+            // From 1% up to 3% fast or slow, and in time
+            stream.setSkew(((i % 3) - 1) * 0.01 * (1 + i / 3));
+            stream.clockRate(1F);
+            stream.clockStart(0);
+            streams.add(stream);
+        }
+
+        // Play a minute at 1x and one at 2x, syncing as the clock does
+        double clockTime = 0;
+        double maxError = 0;
+        double lastError = 0;
+        for (int i = 1; i <= 1200; i++) {
+            float rate = i <= 600 ? 1F : 2F;
+            if (i == 601) {
+                for (SimulatedStreamViewer stream : streams) {
+                    stream.clockRate(rate);
+                }
+            }
+            now += 100;
+            clockTime += 100 * rate;
+            lastError = 0;
+            for (SimulatedStreamViewer stream : streams) {
+                stream.streamsBoundaryCheck(clockTime);
+                stream.clockPeriodicSync(clockTime);
+                double error = Math.abs(stream.getPosition() - (clockTime - stream.getOffset()));
+                maxError = Math.max(maxError, error);
+                lastError = Math.max(lastError, error);
+            }
+        }
+
+        for (SimulatedStreamViewer stream : streams) {
+            assertEquals(stream.getSyncStatistics().getSeeks(), 0, "Stream at " + stream.getOffset());
+        }
+        assertTrue(maxError < StreamSynchronizer.SEEK_THRESHOLD, "Max error " + maxError);
+        assertTrue(lastError < 100, "Error at the end " + lastError);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins;
+
+import org.datavyu.plugins.StreamSynchronizer.Correction;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class StreamSynchronizerTest {
+
+    /** Period of the periodic sync in milliseconds */
+    private static final double SYNC_INTERVAL = 100;
+
+    /** Duration of a frame at 30 fps in milliseconds */
+    private static final double FRAME = 1000.0 / 30;
+
+    /**
+     * Plays a stream whose own clock runs at the given skew from the master clock and reports frame times, syncing
+     * it periodically.
+     *
+     * @return The drift of the stream at the end in milliseconds.
+     */
+    private static double play(final StreamSynchronizer synchronizer, final float clockRate, final double skew,
+                               final double initialDrift, final int syncs) {
+        double clockTime = 0;
+        double streamTime = initialDrift;
+        float rate = clockRate;
+        for (int i = 0; i < syncs; i++) {
+            clockTime += clockRate * SYNC_INTERVAL;
+            streamTime += rate * (1 + skew) * SYNC_INTERVAL;
+            double reported = Math.floor(streamTime / FRAME) * FRAME;
+            switch (synchronizer.sync(clockTime, reported, clockRate)) {
+                case SEEK:
+                    streamTime = clockTime;
+                    break;
+                case RATE:
+                    rate = synchronizer.getRate(clockRate);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return streamTime - clockTime;
+    }
+
+    @Test
+    public void testCorrectsSkewWithoutSeeking() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        // A stream running 2% fast drifts by over a second a minute
+        double drift = play(synchronizer, 1F, 0.02, 0, 600);
+        assertTrue(Math.abs(drift) < 2 * StreamSynchronizer.TOLERANCE, "Drift " + drift);
+        StreamSynchronizer.Statistics statistics = synchronizer.getStatistics();
+        assertEquals(statistics.getSeeks(), 0);
+        assertEquals(statistics.getSamples(), 600);
+        assertTrue(statistics.getRateChanges() > 0);
+        assertTrue(statistics.getAdjustment() < 0, "Adjustment " + statistics.getAdjustment());
+        assertTrue(statistics.getMaxDrift() < 4 * StreamSynchronizer.TOLERANCE, "Max " + statistics.getMaxDrift());
+    }
+
+    @Test
+    public void testCorrectsInitialDriftAtFastRate() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        // Behind by half a second, which rate adjustments close without a seek
+        double drift = play(synchronizer, 4F, 0, -500, 300);
+        assertTrue(Math.abs(drift) < 2 * StreamSynchronizer.TOLERANCE, "Drift " + drift);
+        assertEquals(synchronizer.getStatistics().getSeeks(), 0);
+    }
+
+    @Test
+    public void testAdjustmentIsBounded() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        assertEquals(synchronizer.sync(10000, 11000, 1F), Correction.RATE);
+        assertEquals(synchronizer.getRate(1F), (float) (1 - StreamSynchronizer.MAX_ADJUSTMENT), 1e-6);
+        assertEquals(synchronizer.getRate(2F), (float) (2 * (1 - StreamSynchronizer.MAX_ADJUSTMENT)), 1e-6);
+    }
+
+    @Test
+    public void testSmallDriftIsTolerated() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(synchronizer.sync(1000, 1000 + StreamSynchronizer.TOLERANCE / 2, 1F), Correction.NONE);
+        }
+        assertEquals(synchronizer.getRate(1F), 1F);
+        assertEquals(synchronizer.getStatistics().getRateChanges(), 0);
+    }
+
+    @Test
+    public void testSeeksOnJumps() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        assertEquals(synchronizer.sync(1000, 1000 + StreamSynchronizer.SEEK_THRESHOLD, 1F), Correction.SEEK);
+        assertEquals(synchronizer.sync(5000, 5000 - StreamSynchronizer.SEEK_THRESHOLD, 0F), Correction.SEEK);
+        assertEquals(synchronizer.getStatistics().getSeeks(), 2);
+        assertEquals(synchronizer.getStatistics().getMaxDrift(), StreamSynchronizer.SEEK_THRESHOLD);
+    }
+
+    @Test
+    public void testNoRateChangeWhilePaused() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        assertEquals(synchronizer.sync(1000, 1500, 0F), Correction.NONE);
+        assertEquals(synchronizer.getStatistics().getDrift(), 0.0);
+        assertEquals(synchronizer.getRate(1F), 1F);
+    }
+
+    @Test
+    public void testReset() {
+        StreamSynchronizer synchronizer = new StreamSynchronizer();
+        assertEquals(synchronizer.sync(1000, 1500, 1F), Correction.RATE);
+        synchronizer.resetDrift();
+        assertEquals(synchronizer.getStatistics().getDrift(), 0.0);
+        assertTrue(synchronizer.getRate(1F) < 1F);
+
+        // Back in sync, the rate returns to that of the clock
+        assertEquals(synchronizer.sync(2000, 2000, 1F), Correction.RATE);
+        assertEquals(synchronizer.getRate(1F), 1F);
+
+        assertEquals(synchronizer.sync(3000, 3500, 1F), Correction.RATE);
+        synchronizer.reset();
+        assertEquals(synchronizer.getRate(1F), 1F);
+        assertEquals(synchronizer.getStatistics().getRateChanges(), 3);
+    }
+}
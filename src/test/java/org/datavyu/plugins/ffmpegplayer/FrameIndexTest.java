@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins.ffmpegplayer;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class FrameIndexTest {
+
+    /** Duration of a frame at 30 fps in microseconds */
+    private static final long FRAME = 33367;
+
+    private File directory;
+    private File source;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("frameindex").toFile();
+        source = new File(directory, "video.mp4");
+        Files.write(source.toPath(), new byte[]{1, 2, 3});
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testSteps() {
+        FrameIndex index = new FrameIndex();
+        assertFalse(index.isModified());
+
+        index.addStep(0, FRAME, 30);
+        // Stepping backward tells the same
+        index.addStep(2 * FRAME, FRAME, 30);
+        assertEquals(index.size(), 2);
+        assertTrue(index.isModified());
+        assertEquals(index.getFrameEnd(0), FRAME);
+        assertEquals(index.getFrameEnd(FRAME), 2 * FRAME);
+        assertEquals(index.getFrameEnd(2 * FRAME), -1);
+
+        // No step, unknown times and skipped frames are not taken as a frame
+        index.addStep(3 * FRAME, 3 * FRAME, 30);
+        index.addStep(-1, 3 * FRAME, 30);
+        index.addStep(3 * FRAME, 10 * FRAME, 30);
+        assertEquals(index.size(), 2);
+    }
+
+    @Test
+    public void testIsInFrame() {
+        FrameIndex index = new FrameIndex();
+        index.addStep(FRAME, 2 * FRAME, 30);
+
+        assertTrue(index.isInFrame(FRAME, FRAME));
+        assertTrue(index.isInFrame(FRAME, 2 * FRAME - 1));
+        assertFalse(index.isInFrame(FRAME, 2 * FRAME));
+        assertFalse(index.isInFrame(FRAME, FRAME - 1));
+        // Unknown frames contain no time
+        assertFalse(index.isInFrame(0, 0));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        FrameIndex index = new FrameIndex();
+        for (int i = 0; i < 100; i++) {
+            index.addStep(i * FRAME, (i + 1) * FRAME, 30);
+        }
+        File file = FrameIndex.getIndexFile(new File(directory, "frames"), source);
+        index.save(file, source);
+        assertFalse(index.isModified());
+
+        FrameIndex loaded = FrameIndex.load(file, source);
+        assertEquals(loaded.size(), 100);
+        assertFalse(loaded.isModified());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(loaded.getFrameEnd(i * FRAME), (i + 1) * FRAME);
+        }
+
+        // Learning a known frame again does not modify the index
+        loaded.addStep(0, FRAME, 30);
+        assertFalse(loaded.isModified());
+    }
+
+    @Test
+    public void testIndexFilesOfVideosWithTheSameName() {
+        File other = new File(new File(directory, "other"), source.getName());
+        File file = FrameIndex.getIndexFile(directory, source);
+        assertTrue(file.getName().startsWith("video.mp4-"));
+        assertTrue(file.getName().endsWith(FrameIndex.EXTENSION));
+        assertEquals(file.getParentFile(), directory);
+        assertEquals(FrameIndex.getIndexFile(directory, source), file);
+        assertNotEquals(FrameIndex.getIndexFile(directory, other), file);
+    }
+
+    @Test
+    public void testLoadMissing() throws IOException {
+        assertEquals(FrameIndex.load(FrameIndex.getIndexFile(directory, source), source).size(), 0);
+    }
+
+    @Test
+    public void testLoadAfterVideoChanged() throws IOException {
+        FrameIndex index = new FrameIndex();
+        index.addStep(0, FRAME, 30);
+        File file = FrameIndex.getIndexFile(directory, source);
+        index.save(file, source);
+
+        Files.write(source.toPath(), new byte[]{1, 2, 3, 4});
+        assertEquals(FrameIndex.load(file, source).size(), 0);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testLoadInvalid() throws IOException {
+        File file = FrameIndex.getIndexFile(directory, source);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0);
+        }
+        FrameIndex.load(file, source);
+    }
+}
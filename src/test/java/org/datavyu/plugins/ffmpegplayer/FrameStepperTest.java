@@ -0,0 +1,155 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.plugins.ffmpegplayer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FrameStepperTest {
+
+    /** Duration of a frame at 29.97 fps in microseconds */
+    private static final long FRAME = 33367;
+
+    /** Number of frames from one keyframe to the next */
+    private static final int KEYFRAME_INTERVAL = 30;
+
+    /**
+     * A paused player that counts the frames it decodes: seeking and stepping backward decode from the keyframe
+     * before the frame, stepping forward decodes just the next frame.
+     */
+    private static final class SimulatedPlayer implements FramePlayer {
+        int frame = 0;
+        boolean playing = false;
+        int seeks = 0;
+        int decoded = 0;
+
+        @Override
+        public double getCurrentTime() {
+            return frame * FRAME / 1e6;
+        }
+
+        @Override
+        public void setCurrentTime(final double position) {
+            seeks++;
+            frame = (int) (Math.round(position * 1e6) / FRAME);
+            decoded += frame % KEYFRAME_INTERVAL + 1;
+        }
+
+        @Override
+        public void stepForward() {
+            frame++;
+            decoded++;
+        }
+
+        @Override
+        public void stepBackward() {
+            frame--;
+            decoded += frame % KEYFRAME_INTERVAL + 1;
+        }
+
+        @Override
+        public double getFPS() {
+            return 29.97;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return playing;
+        }
+    }
+
+    private SimulatedPlayer player;
+
+    private FrameStepper stepper;
+
+    /** The time of the clock in milliseconds */
+    private long clockTime;
+
+    @BeforeMethod
+    public void setUp() {
+        player = new SimulatedPlayer();
+        stepper = new FrameStepper(player);
+        clockTime = 0;
+    }
+
+    /**
+     * Jogs as the video controller does: steps the viewer, then moves the clock by a frame, rounded up to whole
+     * milliseconds, which syncs the viewer to the new time.
+     */
+    private void jog(final boolean forward) {
+        long stepSize = (long) Math.ceil(1000 / player.getFPS());
+        if (forward) {
+            stepper.stepForward();
+            clockTime = clockTime - clockTime % stepSize + stepSize;
+        } else {
+            stepper.stepBackward();
+            clockTime = clockTime - clockTime % stepSize - stepSize;
+        }
+        stepper.seek(clockTime);
+    }
+
+    @Test
+    public void testJogDoesNotSeek() {
+        for (int i = 0; i < 20; i++) {
+            jog(true);
+        }
+        assertEquals(player.frame, 20);
+        assertEquals(player.seeks, 0);
+        // Each step decodes one frame, where the sync after it would have decoded up to 30 more
+        assertEquals(player.decoded, 20);
+
+        for (int i = 0; i < 20; i++) {
+            jog(false);
+        }
+        assertEquals(player.frame, 0);
+        assertEquals(player.seeks, 0);
+        assertEquals(stepper.getFrameIndex().size(), 20);
+    }
+
+    @Test
+    public void testSeekToOtherFrames() {
+        stepper.stepForward();
+        // The next frame is not on screen
+        assertTrue(stepper.seek(70));
+        assertEquals(player.frame, 2);
+        assertEquals(player.seeks, 1);
+
+        // Neither is any frame while playing
+        player.playing = true;
+        assertTrue(stepper.seek(70));
+        assertEquals(player.seeks, 2);
+    }
+
+    @Test
+    public void testLearnedFramesSkipSeeks() {
+        for (int i = 0; i < 5; i++) {
+            stepper.stepForward();
+        }
+        assertTrue(stepper.seek(100));
+        assertEquals(player.frame, 2);
+
+        // The frame reached by seeking is known from the steps before
+        assertFalse(stepper.seek(90));
+        assertEquals(player.seeks, 1);
+        // Past frames that were never stepped over are not assumed to last one nominal frame
+        assertTrue(stepper.seek(5 * FRAME / 1000 + 1));
+        assertTrue(stepper.seek(5 * FRAME / 1000 + 2));
+        assertEquals(player.seeks, 3);
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import org.testng.annotations.Test;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ClockTimerTest {
+
+    /**
+     * Ignores all events, for listeners interested in a few.
+     */
+    private static class Listener implements ClockTimer.ClockListener {
+        @Override
+        public void clockSeekPlayback(double clockTime) { }
+
+        @Override
+        public void clockBoundaryCheck(double clockTime) { }
+
+        @Override
+        public void streamsBoundaryCheck(double clockTime) { }
+
+        @Override
+        public void clockForceSync(double clockTime) { }
+
+        @Override
+        public void clockPeriodicSync(double clockTime) { }
+
+        @Override
+        public void clockStart(double clockTime) { }
+
+        @Override
+        public void clockStop(double clockTime) { }
+
+        @Override
+        public void clockPause(double clockTime) { }
+
+        @Override
+        public void clockRate(float rate) { }
+    }
+
+    @Test
+    public void testClockAdvancesWhilePlaying() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(200);
+        clockTimer.setMaxTime(60000);
+        assertTrue(clockTimer.isPaused());
+        assertEquals(clockTimer.getClockTime(), 0.0);
+
+        clockTimer.setRate(2F);
+        assertFalse(clockTimer.isPaused());
+        assertEquals(clockTimer.getRate(), 2F);
+        Thread.sleep(300);
+        double time = clockTimer.getClockTime();
+        assertTrue(time >= 400 && time <= 5000, "Unexpected time " + time);
+
+        clockTimer.pause();
+        assertTrue(clockTimer.isPaused());
+        assertTrue(clockTimer.getSnapshot().isPaused());
+        time = clockTimer.getClockTime();
+        Thread.sleep(100);
+        assertEquals(clockTimer.getClockTime(), time);
+    }
+
+    @Test
+    public void testClockStopsAtMaxTime() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(200);
+        clockTimer.setMaxTime(50);
+        clockTimer.setRate(1F);
+        Thread.sleep(200);
+        assertEquals(clockTimer.getClockTime(), 50.0);
+        assertEquals(clockTimer.toRange(100), 50);
+    }
+
+    @Test
+    public void testForceSync() {
+        ClockTimer clockTimer = new ClockTimer();
+        clockTimer.setMinTime(1000);
+        clockTimer.setMaxTime(10000);
+        final double[] synced = {-1};
+        clockTimer.registerListener(new Listener() {
+            @Override
+            public void clockForceSync(double clockTime) {
+                synced[0] = clockTime;
+            }
+        });
+
+        clockTimer.setForceTime(5000);
+        assertEquals(synced[0], 5000.0);
+        assertEquals(clockTimer.getClockTime(), 5000.0);
+
+        // Times before the start are moved to it
+        clockTimer.setForceTime(0);
+        assertEquals(synced[0], 1000.0);
+        assertEquals(clockTimer.getClockTime(), 1000.0);
+
+        // Setting the time does not notify
+        clockTimer.setTime(2000);
+        assertEquals(synced[0], 1000.0);
+        assertEquals(clockTimer.getClockTime(), 2000.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testZeroTickRate() {
+        new ClockTimer(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidTickRate() {
+        new ClockTimer().setTickRate(Double.NaN);
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopClock() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(100);
+        final CountDownLatch syncs = new CountDownLatch(3);
+        clockTimer.registerListener(new Listener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                throw new IllegalStateException("Failing listener");
+            }
+        });
+        clockTimer.registerListener(new Listener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                syncs.countDown();
+            }
+        });
+        assertTrue(syncs.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testListenersOnEventDispatchThread() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(100);
+        clockTimer.setMaxTime(60000);
+        final AtomicBoolean onEventDispatchThread = new AtomicBoolean(true);
+        final CountDownLatch syncs = new CountDownLatch(2);
+        final CountDownLatch ticks = new CountDownLatch(2);
+        clockTimer.registerListener(new Listener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                onEventDispatchThread.compareAndSet(true, SwingUtilities.isEventDispatchThread());
+                syncs.countDown();
+            }
+        }, true);
+        clockTimer.registerTickListener(snapshot -> {
+            onEventDispatchThread.compareAndSet(true, SwingUtilities.isEventDispatchThread());
+            ticks.countDown();
+        });
+
+        // Ticks are only notified while the clock changes
+        clockTimer.setRate(1F);
+        assertTrue(syncs.await(5, TimeUnit.SECONDS));
+        assertTrue(ticks.await(5, TimeUnit.SECONDS));
+        assertTrue(onEventDispatchThread.get());
+    }
+
+    @Test
+    public void testUnRegisterListener() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(100);
+        final AtomicInteger syncs = new AtomicInteger();
+        ClockTimer.ClockListener listener = new Listener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                syncs.incrementAndGet();
+            }
+        };
+        clockTimer.registerListener(listener);
+        // Registering twice notifies once
+        clockTimer.registerListener(listener);
+        Thread.sleep(350);
+        int count = syncs.get();
+        assertTrue(count >= 1 && count <= 5, "Unexpected number of syncs " + count);
+
+        clockTimer.unRegisterListener(listener);
+        Thread.sleep(150);
+        count = syncs.get();
+        Thread.sleep(300);
+        assertEquals(syncs.get(), count);
+    }
+
+    @Test
+    public void testShutdown() throws InterruptedException {
+        ClockTimer clockTimer = new ClockTimer(100);
+        final AtomicInteger syncs = new AtomicInteger();
+        clockTimer.registerListener(new Listener() {
+            @Override
+            public void clockPeriodicSync(double clockTime) {
+                syncs.incrementAndGet();
+            }
+        });
+        Thread.sleep(150);
+        clockTimer.shutdown();
+        Thread.sleep(50);
+        int count = syncs.get();
+        assertTrue(count >= 1, "No syncs");
+        Thread.sleep(250);
+        assertEquals(syncs.get(), count);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.models.db.*;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for finding the cells whose playback highlight changes between two times.
+ */
+public class PlaybackHighlighterTest {
+
+    private static Cell createCell(final Variable variable, final long onset, final long offset) {
+        Cell cell = variable.createCell();
+        cell.setOnset(onset);
+        cell.setOffset(offset);
+        return cell;
+    }
+
+    private static Set<Long> onsets(final List<Cell> cells) {
+        Set<Long> onsets = new HashSet<>();
+        for (Cell cell : cells) {
+            onsets.add(cell.getOnset());
+        }
+        return onsets;
+    }
+
+    /**
+     * @return The highlight of a cell at a time: 0 before, 1 in and 2 past its time window.
+     */
+    private static int state(final Cell cell, final long time) {
+        return cell.isPastTimeWindow(time) ? 2 : cell.isInTimeWindow(time) ? 1 : 0;
+    }
+
+    @Test
+    public void testChangedCells() throws Exception {
+        Variable variable = DataStoreFactory.newDataStore().createVariable("trial", Argument.Type.TEXT);
+        createCell(variable, 0, 900);
+        createCell(variable, 1000, 1900);
+        createCell(variable, 2000, 2900);
+        createCell(variable, 3000, 3900);
+        // A cell whose onset lies after its offset turns past at its onset
+        createCell(variable, 2500, 100);
+
+        assertEquals(onsets(PlaybackHighlighter.getChangedCells(variable, 1950, 2050)),
+                new HashSet<>(Arrays.asList(2000L)));
+        assertEquals(onsets(PlaybackHighlighter.getChangedCells(variable, 2450, 2550)),
+                new HashSet<>(Arrays.asList(2000L, 2500L)));
+        // Seeking back is the same as seeking forward
+        assertEquals(onsets(PlaybackHighlighter.getChangedCells(variable, 3950, 850)),
+                new HashSet<>(Arrays.asList(0L, 1000L, 2000L, 2500L, 3000L)));
+        assertTrue(PlaybackHighlighter.getChangedCells(variable, 4000, 5000).isEmpty());
+    }
+
+    @Test
+    public void testAllChangesFound() throws Exception {
+        Variable variable = DataStoreFactory.newDataStore().createVariable("trial", Argument.Type.TEXT);
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            long onset = random.nextInt(10000);
+            createCell(variable, onset, random.nextInt(8) == 0 ? onset - random.nextInt(500)
+                    : onset + random.nextInt(800));
+        }
+
+        long time = 0;
+        for (int tick = 0; tick < 500; tick++) {
+            long next = random.nextInt(10) == 0 ? random.nextInt(11000) : time + random.nextInt(120);
+            Set<Cell> changed = new HashSet<>(PlaybackHighlighter.getChangedCells(variable, time, next));
+            for (Cell cell : variable.getCells()) {
+                if (state(cell, time) != state(cell, next)) {
+                    assertTrue(changed.contains(cell), "Missed a cell from " + time + " to " + next);
+                }
+            }
+            time = next;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete;
+
+import org.datavyu.Datavyu;
+import org.datavyu.controllers.project.ProjectController;
+import org.datavyu.views.VideoController;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.awt.GraphicsEnvironment;
+
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests for the spreadsheet panel.
+ */
+public class SpreadSheetPanelTest {
+
+    private VideoController globalVideoController;
+
+    @BeforeMethod
+    public void setUp() {
+        if (GraphicsEnvironment.isHeadless()) {
+            throw new SkipException("The spreadsheet panel needs a display for drag and drop");
+        }
+        globalVideoController = Datavyu.getVideoController();
+        Datavyu.setVideoController(null);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        Datavyu.setVideoController(globalVideoController);
+    }
+
+    /**
+     * The first panel is created at startup before there is any video controller.
+     */
+    @Test
+    public void testCreateWithoutVideoController() {
+        SpreadSheetPanel panel = new SpreadSheetPanel(new ProjectController(), null);
+        panel.registerListeners();
+        assertNull(panel.getClockTimer());
+        panel.deregisterListeners();
+    }
+}